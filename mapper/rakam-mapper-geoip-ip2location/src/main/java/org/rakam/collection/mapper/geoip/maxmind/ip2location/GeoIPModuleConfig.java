@@ -1,12 +1,14 @@
 package org.rakam.collection.mapper.geoip.maxmind.ip2location;
 
 import io.airlift.configuration.Config;
+import io.airlift.configuration.ConfigDescription;
 
 import java.util.List;
 
 public class GeoIPModuleConfig {
     private List<String> attributes;
     private String databaseUrl = null;
+    private boolean useBinaryIndex = true;
 
     public String getDatabaseUrl() {
         return databaseUrl;
@@ -17,4 +19,15 @@ public class GeoIPModuleConfig {
         this.databaseUrl = url;
         return this;
     }
+
+    public boolean getUseBinaryIndex() {
+        return useBinaryIndex;
+    }
+
+    @Config("plugin.geoip.ip2location.binary-index")
+    @ConfigDescription("Writes the index of the CSV database to a binary file next to it and memory-maps it so that the CSV file is parsed only once")
+    public GeoIPModuleConfig setUseBinaryIndex(boolean useBinaryIndex) {
+        this.useBinaryIndex = useBinaryIndex;
+        return this;
+    }
 }
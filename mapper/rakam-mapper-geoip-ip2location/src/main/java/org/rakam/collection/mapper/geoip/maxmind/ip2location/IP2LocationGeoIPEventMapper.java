@@ -19,6 +19,7 @@ import org.rakam.plugin.user.UserPropertyMapper;
 import org.rakam.util.AvroUtil;
 import org.rakam.util.MapProxyGenericRecord;
 
+import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.net.Inet4Address;
@@ -43,7 +44,7 @@ public class IP2LocationGeoIPEventMapper
             throws IOException {
         Preconditions.checkNotNull(config, "config is null");
 
-        lookup = getReader(config.getDatabaseUrl());
+        lookup = getReader(config.getDatabaseUrl(), config.getUseBinaryIndex());
     }
 
     private static FieldType getType(String attr) {
@@ -61,10 +62,13 @@ public class IP2LocationGeoIPEventMapper
         }
     }
 
-    private IPReader getReader(String url) {
+    private IPReader getReader(String url, boolean useBinaryIndex) {
         try {
-            FileInputStream cityDatabase = new FileInputStream(downloadOrGetFile(url));
-            return IPReader.build(cityDatabase);
+            File cityDatabase = downloadOrGetFile(url);
+            if (useBinaryIndex) {
+                return IPReader.buildOrOpen(cityDatabase);
+            }
+            return IPReader.build(new FileInputStream(cityDatabase));
         } catch (Exception e) {
             throw Throwables.propagate(e);
         }
@@ -144,7 +148,13 @@ public class IP2LocationGeoIPEventMapper
     }
 
     private void setGeoFields(GenericRecord record, InetAddress address) {
+        if (address == null) {
+            return;
+        }
         GeoLocation city = lookup.lookup(address);
+        if (city == null) {
+            return;
+        }
 
         AvroUtil.putIfNotSet(record, "_country_code", city.country);
         AvroUtil.putIfNotSet(record, "_region", city.stateProv);
@@ -1,20 +1,74 @@
 package org.rakam.collection.mapper.geoip.maxmind.ip2location;
 
-import org.rakam.collection.mapper.geoip.maxmind.ip2location.utils.IP4Converter;
+import io.airlift.log.Logger;
 
-import java.io.*;
-import java.math.BigInteger;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.NavigableMap;
-import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Looks up the locations of the IPv4 and IPv6 addresses in an IP2Location database. The ranges are kept in sorted
+ * primitive arrays of their first addresses and the lookups are binary searches on them. The gaps between the ranges
+ * are stored as ranges without a location so the end of the ranges is not stored. The locations are dictionary
+ * encoded, each range refers to a location in the table of the distinct locations of the database.
+ * <p>
+ * The addresses are 128-bit numbers. The IPv6 databases of IP2Location store the IPv4 ranges as IPv4-mapped IPv6
+ * addresses so the IPv4 addresses are looked up in their mapped form in the IPv6 databases.
+ * <p>
+ * The index can be written to a binary file with {@link #writeIndex(File)} and memory-mapped with {@link #open(File)}
+ * so the CSV file is parsed only once.
+ */
 public class IPReader {
-    private final NavigableMap<Long, CSV> ipLookup;
+    private static final Logger LOGGER = Logger.get(IPReader.class);
+
+    private static final int MAGIC = 0x52495032;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 24;
+    private static final int HAS_HIGH_BITS = 1;
+    private static final int IPV6 = 2;
+
+    private static final long IPV4_MAPPED_PREFIX = 0xFFFF_0000_0000L;
+    private static final int NO_LOCATION = -1;
 
-    private IPReader(NavigableMap<Long, CSV> ipLookup) {
-        this.ipLookup = ipLookup;
+    private final boolean ipv6;
+    private final int size;
+    private final LongBuffer startLow;
+    // null when the upper 64 bits of all the range starts are zero
+    private final LongBuffer startHigh;
+    private final IntBuffer locationIds;
+    private final LocationTable locations;
+
+    private IPReader(boolean ipv6, int size, LongBuffer startLow, LongBuffer startHigh, IntBuffer locationIds, LocationTable locations) {
+        this.ipv6 = ipv6;
+        this.size = size;
+        this.startLow = startLow;
+        this.startHigh = startHigh;
+        this.locationIds = locationIds;
+        this.locations = locations;
     }
 
     public static IPReader build(String dbPath)
@@ -24,18 +78,136 @@ public class IPReader {
         return build(inputStream);
     }
 
+    /**
+     * Builds the index from the CSV file, the rows must be sorted by their first address like the IP2Location
+     * databases.
+     */
     public static IPReader build(InputStream inputStream)
             throws IOException {
-        NavigableMap<Long, CSV> lookup = new ConcurrentSkipListMap<>();
+        Builder builder = new Builder();
+
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream, UTF_8))) {
+            List<String> fields = new ArrayList<>(8);
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.isEmpty()) {
+                    continue;
+                }
+                splitCsv(line, fields);
+                if (fields.size() < 8) {
+                    throw new IllegalArgumentException(String.format("CSV doesn't match the pattern. (%s)", line));
+                }
+                builder.add(fields.get(0), fields.get(1),
+                        fields.get(3), fields.get(4), fields.get(5),
+                        Double.parseDouble(fields.get(6)), Double.parseDouble(fields.get(7)));
+            }
+        }
+
+        return builder.build();
+    }
+
+    /**
+     * Memory-maps an index that is written by {@link #writeIndex(File)}, the locations are decoded when they're
+     * looked up for the first time.
+     */
+    public static IPReader open(File index)
+            throws IOException {
+        MappedByteBuffer buffer;
+        try (RandomAccessFile file = new RandomAccessFile(index, "r")) {
+            buffer = file.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, file.length());
+        }
+
+        if (buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC) {
+            throw new IOException(index + " is not an IP2Location index");
+        }
+        if (buffer.getInt(4) != VERSION) {
+            throw new IOException(String.format("%s has an unsupported version %d", index, buffer.getInt(4)));
+        }
+        int size = buffer.getInt(8);
+        int locationCount = buffer.getInt(12);
+        boolean hasHighBits = (buffer.getInt(16) & HAS_HIGH_BITS) != 0;
+        boolean ipv6 = (buffer.getInt(16) & IPV6) != 0;
+
+        int position = HEADER_SIZE;
+        LongBuffer startLow = slice(buffer, position, size * 8).asLongBuffer();
+        position += size * 8;
+        LongBuffer startHigh = null;
+        if (hasHighBits) {
+            startHigh = slice(buffer, position, size * 8).asLongBuffer();
+            position += size * 8;
+        }
+        IntBuffer locationIds = slice(buffer, position, size * 4).asIntBuffer();
+        position += size * 4;
+        IntBuffer locationOffsets = slice(buffer, position, locationCount * 4).asIntBuffer();
+        position += locationCount * 4;
+        ByteBuffer locationData = slice(buffer, position, buffer.capacity() - position);
+
+        return new IPReader(ipv6, size, startLow, startHigh, locationIds, new MappedLocationTable(locationOffsets, locationData));
+    }
+
+    /**
+     * Opens the binary index of the CSV file, the index is built and written next to the CSV file when it doesn't
+     * exist or it's older than the CSV file. The index is built in memory if it can't be written.
+     */
+    public static IPReader buildOrOpen(File csv)
+            throws IOException {
+        File index = new File(csv.getPath() + ".index");
+        if (index.exists() && index.lastModified() >= csv.lastModified()) {
+            try {
+                return open(index);
+            } catch (IOException e) {
+                LOGGER.warn(e, "Unable to open the index %s, rebuilding it", index);
+            }
+        }
 
-        BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream));
-        while (reader.ready()) {
-            CSV csv = CSV.parse(reader.readLine());
-            lookup.put(csv.ipStart, csv);
+        IPReader reader = build(new FileInputStream(csv));
+        try {
+            File temporary = new File(index.getPath() + ".tmp");
+            reader.writeIndex(temporary);
+            Files.move(temporary.toPath(), index.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            LOGGER.warn(e, "Unable to write the index %s, the index is kept in memory", index);
+            return reader;
         }
-        reader.close();
+        return open(index);
+    }
+
+    public void writeIndex(File file)
+            throws IOException {
+        int locationCount = locations.size();
+        byte[][] encodedLocations = new byte[locationCount][];
+        for (int i = 0; i < locationCount; i++) {
+            encodedLocations[i] = encode(locations.get(i));
+        }
+
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(size);
+            out.writeInt(locationCount);
+            out.writeInt((startHigh != null ? HAS_HIGH_BITS : 0) | (ipv6 ? IPV6 : 0));
+            out.writeInt(0);
 
-        return new IPReader(lookup);
+            for (int i = 0; i < size; i++) {
+                out.writeLong(startLow.get(i));
+            }
+            if (startHigh != null) {
+                for (int i = 0; i < size; i++) {
+                    out.writeLong(startHigh.get(i));
+                }
+            }
+            for (int i = 0; i < size; i++) {
+                out.writeInt(locationIds.get(i));
+            }
+            int offset = 0;
+            for (byte[] location : encodedLocations) {
+                out.writeInt(offset);
+                offset += location.length;
+            }
+            for (byte[] location : encodedLocations) {
+                out.write(location);
+            }
+        }
     }
 
     public GeoLocation lookup(String ipAddress)
@@ -45,24 +217,272 @@ public class IPReader {
     }
 
     public GeoLocation lookup(InetAddress inetAddress) {
-        return lookup(IP4Converter.toLong(inetAddress.getAddress()));
+        byte[] address = inetAddress.getAddress();
+        if (address.length == 4) {
+            long ipv4 = toLong(address, 0, 4);
+            return lookup(0, ipv6 ? IPV4_MAPPED_PREFIX | ipv4 : ipv4);
+        }
+
+        long high = toLong(address, 0, 8);
+        long low = toLong(address, 8, 8);
+        if (ipv6) {
+            return lookup(high, low);
+        }
+        if (high == 0 && (low & 0xFFFF_FFFF_0000_0000L) == IPV4_MAPPED_PREFIX) {
+            return lookup(0, low & 0xFFFF_FFFFL);
+        }
+        return null;
     }
 
-    private GeoLocation lookup(Long address) {
-        Map.Entry<Long, CSV> entry = ipLookup.lowerEntry(address);
-        if (entry == null) {
-            return null;
+    private GeoLocation lookup(long high, long low) {
+        int left = 0;
+        int right = size - 1;
+        int found = -1;
+        while (left <= right) {
+            int middle = (left + right) >>> 1;
+            if (compare(startHigh == null ? 0 : startHigh.get(middle), startLow.get(middle), high, low) <= 0) {
+                found = middle;
+                left = middle + 1;
+            } else {
+                right = middle - 1;
+            }
         }
 
-        CSV csv = entry.getValue();
-        if (csv.ipEnd < address) {
+        if (found == -1) {
             return null;
         }
+        int locationId = locationIds.get(found);
+        return locationId == NO_LOCATION ? null : locations.get(locationId);
+    }
+
+    /**
+     * The number of the ranges including the gaps between them.
+     */
+    public int getRangeCount() {
+        return size;
+    }
+
+    public int getLocationCount() {
+        return locations.size();
+    }
+
+    private static int compare(long high1, long low1, long high2, long low2) {
+        int result = Long.compareUnsigned(high1, high2);
+        return result != 0 ? result : Long.compareUnsigned(low1, low2);
+    }
+
+    private static long toLong(byte[] address, int offset, int length) {
+        long value = 0;
+        for (int i = offset; i < offset + length; i++) {
+            value = (value << 8) | (address[i] & 0xFF);
+        }
+        return value;
+    }
 
-        return GeoLocation.of(csv.country, csv.stateProv, csv.city, Coordination.of(csv.latitude, csv.longitude));
+    private static ByteBuffer slice(ByteBuffer buffer, int position, int length) {
+        ByteBuffer duplicate = buffer.duplicate();
+        duplicate.position(position);
+        duplicate.limit(position + length);
+        return duplicate.slice();
     }
 
-    private Long toLong(byte[] address) {
-        return new BigInteger(address).longValue();
+    /**
+     * Splits a line of the IP2Location CSV files whose fields are enclosed in double quotes, the fields may have commas.
+     */
+    private static void splitCsv(String line, List<String> fields) {
+        fields.clear();
+        int i = 0;
+        int length = line.length();
+        while (i <= length) {
+            if (i < length && line.charAt(i) == '"') {
+                int end = line.indexOf('"', i + 1);
+                if (end == -1) {
+                    throw new IllegalArgumentException(String.format("CSV doesn't match the pattern. (%s)", line));
+                }
+                fields.add(line.substring(i + 1, end));
+                i = end + 2;
+            } else {
+                int end = line.indexOf(',', i);
+                if (end == -1) {
+                    end = length;
+                }
+                fields.add(line.substring(i, end));
+                i = end + 1;
+            }
+        }
+    }
+
+    private static byte[] encode(GeoLocation location) {
+        byte[] country = location.country.getBytes(UTF_8);
+        byte[] stateProv = location.stateProv.getBytes(UTF_8);
+        byte[] city = location.city.getBytes(UTF_8);
+        ByteBuffer buffer = ByteBuffer.allocate(16 + 12 + country.length + stateProv.length + city.length);
+        buffer.putDouble(location.coordination.latitude);
+        buffer.putDouble(location.coordination.longitude);
+        buffer.putInt(country.length).put(country);
+        buffer.putInt(stateProv.length).put(stateProv);
+        buffer.putInt(city.length).put(city);
+        return buffer.array();
+    }
+
+    private interface LocationTable {
+        GeoLocation get(int id);
+
+        int size();
+    }
+
+    private static class ArrayLocationTable
+            implements LocationTable {
+        private final GeoLocation[] locations;
+
+        private ArrayLocationTable(GeoLocation[] locations) {
+            this.locations = locations;
+        }
+
+        @Override
+        public GeoLocation get(int id) {
+            return locations[id];
+        }
+
+        @Override
+        public int size() {
+            return locations.length;
+        }
+    }
+
+    private static class MappedLocationTable
+            implements LocationTable {
+        private final IntBuffer offsets;
+        private final ByteBuffer data;
+        private final AtomicReferenceArray<GeoLocation> decoded;
+
+        private MappedLocationTable(IntBuffer offsets, ByteBuffer data) {
+            this.offsets = offsets;
+            this.data = data;
+            this.decoded = new AtomicReferenceArray<>(offsets.capacity());
+        }
+
+        @Override
+        public GeoLocation get(int id) {
+            GeoLocation location = decoded.get(id);
+            if (location == null) {
+                // decoding the same location concurrently is harmless
+                location = decode(offsets.get(id));
+                decoded.set(id, location);
+            }
+            return location;
+        }
+
+        private GeoLocation decode(int offset) {
+            ByteBuffer buffer = data.duplicate();
+            buffer.position(offset);
+            double latitude = buffer.getDouble();
+            double longitude = buffer.getDouble();
+            String country = readString(buffer);
+            String stateProv = readString(buffer);
+            String city = readString(buffer);
+            return GeoLocation.of(country, stateProv, city, Coordination.of(latitude, longitude));
+        }
+
+        private static String readString(ByteBuffer buffer) {
+            byte[] bytes = new byte[buffer.getInt()];
+            buffer.get(bytes);
+            return new String(bytes, UTF_8);
+        }
+
+        @Override
+        public int size() {
+            return offsets.capacity();
+        }
+    }
+
+    private static class Builder {
+        private final Map<List<Object>, Integer> locationIds = new HashMap<>();
+        private final List<GeoLocation> locations = new ArrayList<>();
+
+        private long[] startLow = new long[1024];
+        private long[] startHigh = new long[1024];
+        private int[] ids = new int[1024];
+        private int size;
+        private boolean hasHighBits;
+        private boolean ipv6;
+
+        // the address after the end of the last range, hasNext is false when the last range ends at the last address
+        private boolean hasNext = true;
+        private long nextHigh;
+        private long nextLow;
+
+        private void add(String from, String to, String country, String stateProv, String city, double latitude, double longitude) {
+            long[] start = parseAddress(from);
+            long[] end = parseAddress(to);
+
+            if (!hasNext || compare(start[0], start[1], nextHigh, nextLow) < 0) {
+                throw new IllegalArgumentException(String.format("The ranges must be sorted and must not overlap: %s - %s", from, to));
+            }
+            if (compare(start[0], start[1], end[0], end[1]) > 0) {
+                throw new IllegalArgumentException(String.format("Invalid range: %s - %s", from, to));
+            }
+            if (compare(start[0], start[1], nextHigh, nextLow) > 0) {
+                append(nextHigh, nextLow, NO_LOCATION);
+            }
+
+            List<Object> key = Arrays.asList(country, stateProv, city, latitude, longitude);
+            Integer id = locationIds.get(key);
+            if (id == null) {
+                id = locations.size();
+                locations.add(GeoLocation.of(country, stateProv, city, Coordination.of(latitude, longitude)));
+                locationIds.put(key, id);
+            }
+            append(start[0], start[1], id);
+
+            nextLow = end[1] + 1;
+            nextHigh = nextLow == 0 ? end[0] + 1 : end[0];
+            hasNext = !(end[0] == -1 && end[1] == -1);
+            ipv6 |= end[0] != 0 || (end[1] >>> 32) != 0;
+        }
+
+        private void append(long high, long low, int id) {
+            if (size == startLow.length) {
+                startLow = Arrays.copyOf(startLow, size * 2);
+                startHigh = Arrays.copyOf(startHigh, size * 2);
+                ids = Arrays.copyOf(ids, size * 2);
+            }
+            startLow[size] = low;
+            startHigh[size] = high;
+            ids[size] = id;
+            hasHighBits |= high != 0;
+            size++;
+        }
+
+        private IPReader build() {
+            if (size > 0 && hasNext) {
+                append(nextHigh, nextLow, NO_LOCATION);
+            }
+            return new IPReader(ipv6, size,
+                    LongBuffer.wrap(Arrays.copyOf(startLow, size)),
+                    hasHighBits ? LongBuffer.wrap(Arrays.copyOf(startHigh, size)) : null,
+                    IntBuffer.wrap(Arrays.copyOf(ids, size)),
+                    new ArrayLocationTable(locations.toArray(new GeoLocation[0])));
+        }
+
+        /**
+         * Parses the decimal address number of the CSV files as a 128-bit number.
+         */
+        private static long[] parseAddress(String value) {
+            long high = 0;
+            long low = 0;
+            for (int i = 0; i < value.length(); i++) {
+                int digit = value.charAt(i) - '0';
+                if (digit < 0 || digit > 9) {
+                    throw new IllegalArgumentException("Invalid address number: " + value);
+                }
+                // (high, low) * 10 + digit
+                long lower = (low & 0xFFFF_FFFFL) * 10 + digit;
+                long upper = (low >>> 32) * 10 + (lower >>> 32);
+                low = (upper << 32) | (lower & 0xFFFF_FFFFL);
+                high = high * 10 + (upper >>> 32);
+            }
+            return new long[] {high, low};
+        }
     }
 }
@@ -0,0 +1,105 @@
+package org.rakam.collection.mapper.geoip.maxmind.ip2location;
+
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+public class TestIPReader {
+    private static final String IPV4_DATABASE = "" +
+            "\"16777216\",\"16777471\",\"AU\",\"Australia\",\"Queensland\",\"Brisbane\",\"-27.467940\",\"153.028090\"\n" +
+            "\"16777472\",\"16778239\",\"CN\",\"China\",\"Fujian\",\"Fuzhou\",\"26.061390\",\"119.306110\"\n" +
+            "\"16778240\",\"16779263\",\"AU\",\"Australia\",\"Queensland\",\"Brisbane\",\"-27.467940\",\"153.028090\"\n" +
+            "\"134744064\",\"134744319\",\"US\",\"United States\",\"California\",\"Mountain View\",\"37.405990\",\"-122.078514\"\n" +
+            "\"3232235520\",\"3232301055\",\"KR\",\"Korea, Republic of\",\"Seoul\",\"Seoul\",\"37.566000\",\"126.978000\"\n";
+
+    private static final String IPV6_DATABASE = "" +
+            "\"0\",\"281470681743359\",\"-\",\"-\",\"-\",\"-\",\"0.000000\",\"0.000000\"\n" +
+            "\"281470698520576\",\"281470698520831\",\"AU\",\"Australia\",\"Queensland\",\"Brisbane\",\"-27.467940\",\"153.028090\"\n" +
+            // 2001:4860::/32
+            "\"42541956101370907050197289607612071936\",\"42541956180599069564461627201156022271\",\"US\",\"United States\",\"California\",\"Mountain View\",\"37.405990\",\"-122.078514\"\n" +
+            "\"42541956180599069564461627201156022272\",\"340282366920938463463374607431768211455\",\"-\",\"-\",\"-\",\"-\",\"0.000000\",\"0.000000\"\n";
+
+    @Test
+    public void testIPv4Lookup()
+            throws IOException {
+        IPReader reader = IPReader.build(new ByteArrayInputStream(IPV4_DATABASE.getBytes(UTF_8)));
+        assertIPv4Database(reader);
+    }
+
+    @Test
+    public void testLocationsAreDictionaryEncoded()
+            throws IOException {
+        IPReader reader = IPReader.build(new ByteArrayInputStream(IPV4_DATABASE.getBytes(UTF_8)));
+        assertEquals(reader.getLocationCount(), 4);
+        assertTrue(reader.lookup("1.0.0.1") == reader.lookup("1.0.4.1"));
+    }
+
+    @Test
+    public void testIPv6Lookup()
+            throws IOException {
+        IPReader reader = IPReader.build(new ByteArrayInputStream(IPV6_DATABASE.getBytes(UTF_8)));
+
+        assertEquals(reader.lookup("2001:4860:4860::8888").city, "Mountain View");
+        assertEquals(reader.lookup("1.0.0.1").city, "Brisbane");
+        assertEquals(reader.lookup("::ffff:1.0.0.255").city, "Brisbane");
+        assertNull(reader.lookup("1.0.1.0"));
+        assertEquals(reader.lookup("2001:4861::1").country, "-");
+    }
+
+    @Test
+    public void testBinaryIndex()
+            throws IOException {
+        File directory = Files.createTempDirectory("ip2location").toFile();
+        File csv = new File(directory, "IP2LOCATION-LITE-DB5.CSV");
+        Files.write(csv.toPath(), IPV4_DATABASE.getBytes(UTF_8));
+
+        IPReader built = IPReader.buildOrOpen(csv);
+        File index = new File(csv.getPath() + ".index");
+        assertTrue(index.exists());
+        assertIPv4Database(built);
+
+        // the index is used when the CSV file is not modified
+        Files.write(csv.toPath(), new byte[0]);
+        index.setLastModified(csv.lastModified() + 1000);
+        IPReader opened = IPReader.buildOrOpen(csv);
+        assertEquals(opened.getRangeCount(), built.getRangeCount());
+        assertIPv4Database(opened);
+
+        File ipv6Index = new File(directory, "ipv6.index");
+        IPReader.build(new ByteArrayInputStream(IPV6_DATABASE.getBytes(UTF_8))).writeIndex(ipv6Index);
+        IPReader ipv6 = IPReader.open(ipv6Index);
+        assertEquals(ipv6.lookup("2001:4860:4860::8844").country, "United States");
+        assertEquals(ipv6.lookup("1.0.0.1").country, "Australia");
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testUnsortedDatabase()
+            throws IOException {
+        String csv = "\"20\",\"29\",\"AU\",\"Australia\",\"Queensland\",\"Brisbane\",\"-27.467940\",\"153.028090\"\n" +
+                "\"10\",\"19\",\"AU\",\"Australia\",\"Queensland\",\"Brisbane\",\"-27.467940\",\"153.028090\"\n";
+        IPReader.build(new ByteArrayInputStream(csv.getBytes(UTF_8)));
+    }
+
+    private static void assertIPv4Database(IPReader reader)
+            throws IOException {
+        assertNull(reader.lookup("0.255.255.255"));
+        assertEquals(reader.lookup("1.0.0.0").city, "Brisbane");
+        assertEquals(reader.lookup("1.0.1.0").city, "Fuzhou");
+        assertEquals(reader.lookup("1.0.2.255").stateProv, "Fujian");
+        assertEquals(reader.lookup("1.0.7.255").city, "Brisbane");
+        assertNull(reader.lookup("1.0.8.0"));
+        assertEquals(reader.lookup("8.8.8.8").city, "Mountain View");
+        assertEquals(reader.lookup("8.8.8.8").coordination.longitude, -122.078514);
+        assertEquals(reader.lookup("192.168.1.1").country, "Korea, Republic of");
+        assertNull(reader.lookup("192.169.0.0"));
+        assertNull(reader.lookup("2001:4860:4860::8888"));
+    }
+}
@@ -0,0 +1,112 @@
+package org.rakam.collection.mapper.geoip.maxmind;
+
+import com.maxmind.db.Reader;
+import com.maxmind.geoip2.DatabaseReader;
+import io.airlift.log.Logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.util.concurrent.ScheduledExecutorService;
+
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+/**
+ * A Maxmind database whose reader is replaced when the local database file changes. The lookups use the current reader
+ * without locking, a new reader is opened in the background and swapped atomically and the previous reader is closed
+ * after the lookups that may still use it are finished.
+ * <p>
+ * The memory-mapped databases must be updated by moving the new file over the previous one, the pages of the
+ * previous file are still used until its reader is closed. The databases that are downloaded from a remote url are
+ * not checked for changes, they're loaded once.
+ */
+class GeoIPDatabase {
+    private static final Logger LOGGER = Logger.get(GeoIPDatabase.class);
+    private static final int CLOSE_DELAY_SECONDS = 60;
+
+    private final URL url;
+    private final Reader.FileMode fileMode;
+    private final ScheduledExecutorService executor;
+    private final Runnable onReload;
+
+    private volatile DatabaseReader reader;
+    private File file;
+    private long lastModified;
+
+    GeoIPDatabase(URL url, Reader.FileMode fileMode, ScheduledExecutorService executor, Runnable onReload) {
+        this.url = url;
+        this.fileMode = fileMode;
+        this.executor = executor;
+        this.onReload = onReload;
+    }
+
+    /**
+     * @return null if the database is not loaded yet
+     */
+    DatabaseReader get() {
+        return reader;
+    }
+
+    boolean isLoaded() {
+        return reader != null;
+    }
+
+    synchronized void load()
+            throws Exception {
+        File file = this.file == null ? MaxmindGeoIPModule.downloadOrGetFile(url) : this.file;
+        long modified = file.lastModified();
+        DatabaseReader newReader = new DatabaseReader.Builder(file).fileMode(fileMode).build();
+
+        DatabaseReader previous = reader;
+        reader = newReader;
+        this.file = file;
+        this.lastModified = modified;
+
+        if (previous != null) {
+            LOGGER.info("Reloaded the GeoIP database %s", file);
+            onReload.run();
+            executor.schedule(() -> close(previous), CLOSE_DELAY_SECONDS, SECONDS);
+        }
+    }
+
+    void loadAsync() {
+        executor.execute(() -> {
+            try {
+                load();
+            } catch (Exception e) {
+                LOGGER.error(e, "Unable to load the GeoIP database %s", url);
+            }
+        });
+    }
+
+    /**
+     * Loads the database if it couldn't be loaded before or its local file is modified after it's loaded.
+     */
+    synchronized void reloadIfChanged() {
+        // the downloaded files are cached and not downloaded again so only the local files can change
+        if (reader != null && (file == null || !"file".equals(url.getProtocol()) || file.lastModified() == lastModified)) {
+            return;
+        }
+        try {
+            load();
+        } catch (Exception e) {
+            // the file may be incomplete, the current reader is kept and the file is checked again later
+            LOGGER.error(e, "Unable to load the GeoIP database %s", file == null ? url : file);
+        }
+    }
+
+    synchronized void close() {
+        if (reader != null) {
+            close(reader);
+            reader = null;
+        }
+    }
+
+    private static void close(DatabaseReader reader) {
+        try {
+            reader.close();
+        } catch (IOException e) {
+            LOGGER.warn(e, "Unable to close the GeoIP database");
+        }
+    }
+}
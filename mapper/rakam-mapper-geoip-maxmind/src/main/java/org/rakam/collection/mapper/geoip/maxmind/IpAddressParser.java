@@ -0,0 +1,242 @@
+package org.rakam.collection.mapper.geoip.maxmind;
+
+/**
+ * Parses IPv4 and IPv6 address literals without regular expressions or {@link java.net.InetAddress#getByName(String)}
+ * which may resolve the value as a hostname when it's not a valid literal.
+ */
+final class IpAddressParser {
+    private IpAddressParser()
+            throws InstantiationException {
+        throw new InstantiationException("The class is not created for instantiation");
+    }
+
+    /**
+     * @return the 4 bytes of an IPv4 address or the 16 bytes of an IPv6 address, null if the value is not an address
+     * literal.
+     */
+    static byte[] parse(String value) {
+        return parse(value, 0, value.length());
+    }
+
+    static byte[] parse(String value, int start, int end) {
+        if (start >= end) {
+            return null;
+        }
+        for (int i = start; i < end; i++) {
+            if (value.charAt(i) == ':') {
+                return parseIPv6(value, start, end);
+            }
+        }
+        byte[] address = new byte[4];
+        return parseIPv4(value, start, end, address, 0) ? address : null;
+    }
+
+    /**
+     * Finds the first public address in the value of the X-Forwarded-For header, the addresses may have ports and
+     * the IPv6 addresses with ports are enclosed in brackets.
+     */
+    static byte[] findNonPrivateAddress(String forwardedFor) {
+        int length = forwardedFor.length();
+        int start = 0;
+        while (start < length) {
+            int end = forwardedFor.indexOf(',', start);
+            if (end == -1) {
+                end = length;
+            }
+            int next = end + 1;
+
+            while (start < end && forwardedFor.charAt(start) == ' ') {
+                start++;
+            }
+            while (end > start && forwardedFor.charAt(end - 1) == ' ') {
+                end--;
+            }
+
+            if (start < end && forwardedFor.charAt(start) == '[') {
+                int close = forwardedFor.indexOf(']', start);
+                if (close != -1 && close < end) {
+                    start++;
+                    end = close;
+                }
+            } else {
+                int colon = forwardedFor.indexOf(':', start);
+                if (colon != -1 && colon < end) {
+                    int secondColon = forwardedFor.indexOf(':', colon + 1);
+                    if (secondColon == -1 || secondColon >= end) {
+                        // IPv4 address with a port
+                        end = colon;
+                    }
+                }
+            }
+
+            byte[] address = parse(forwardedFor, start, end);
+            if (address != null && !isPrivate(address)) {
+                return address;
+            }
+            start = next;
+        }
+        return null;
+    }
+
+    /**
+     * The loopback, private network and link-local addresses.
+     */
+    static boolean isPrivate(byte[] address) {
+        if (address.length == 4) {
+            return isPrivateIPv4(address, 0);
+        }
+
+        boolean prefixIsZero = true;
+        for (int i = 0; i < 10; i++) {
+            if (address[i] != 0) {
+                prefixIsZero = false;
+                break;
+            }
+        }
+        if (prefixIsZero && address[10] == (byte) 0xff && address[11] == (byte) 0xff) {
+            // IPv4-mapped address
+            return isPrivateIPv4(address, 12);
+        }
+        if (prefixIsZero && address[10] == 0 && address[11] == 0 && address[12] == 0
+                && address[13] == 0 && address[14] == 0 && address[15] == 1) {
+            // ::1
+            return true;
+        }
+        int first = address[0] & 0xff;
+        // unique local fc00::/7 and link-local fe80::/10 addresses
+        return (first & 0xfe) == 0xfc || (first == 0xfe && (address[1] & 0xc0) == 0x80);
+    }
+
+    private static boolean isPrivateIPv4(byte[] address, int offset) {
+        int first = address[offset] & 0xff;
+        int second = address[offset + 1] & 0xff;
+        return first == 127 || first == 10
+                || (first == 172 && second >= 16 && second <= 31)
+                || (first == 192 && second == 168)
+                || (first == 169 && second == 254);
+    }
+
+    private static boolean parseIPv4(String value, int start, int end, byte[] address, int offset) {
+        int octet = 0;
+        int octetCount = 0;
+        int digits = 0;
+        for (int i = start; i < end; i++) {
+            char c = value.charAt(i);
+            if (c >= '0' && c <= '9') {
+                if (++digits > 3) {
+                    return false;
+                }
+                octet = octet * 10 + (c - '0');
+            } else if (c == '.') {
+                if (digits == 0 || octet > 255 || octetCount == 3) {
+                    return false;
+                }
+                address[offset + octetCount++] = (byte) octet;
+                octet = 0;
+                digits = 0;
+            } else {
+                return false;
+            }
+        }
+        if (digits == 0 || octet > 255 || octetCount != 3) {
+            return false;
+        }
+        address[offset + 3] = (byte) octet;
+        return true;
+    }
+
+    private static byte[] parseIPv6(String value, int start, int end) {
+        // the zone of a link-local address doesn't change the address
+        int zone = value.indexOf('%', start);
+        if (zone != -1 && zone < end) {
+            end = zone;
+        }
+
+        byte[] address = new byte[16];
+        int groupCount = 0;
+        int compressedAt = -1;
+        int i = start;
+
+        if (end - start >= 2 && value.charAt(start) == ':' && value.charAt(start + 1) == ':') {
+            compressedAt = 0;
+            i += 2;
+            if (i == end) {
+                return address;
+            }
+        } else if (value.charAt(start) == ':') {
+            return null;
+        }
+
+        while (i < end) {
+            if (groupCount == 8) {
+                return null;
+            }
+
+            int groupStart = i;
+            int group = 0;
+            while (i < end && i - groupStart < 5) {
+                int digit = Character.digit(value.charAt(i), 16);
+                if (digit == -1) {
+                    break;
+                }
+                group = (group << 4) | digit;
+                i++;
+            }
+
+            if (i < end && value.charAt(i) == '.') {
+                // an IPv4 address in the last 32 bits
+                if (groupCount > 6 || !parseIPv4(value, groupStart, end, address, groupCount * 2)) {
+                    return null;
+                }
+                groupCount += 2;
+                break;
+            }
+
+            int digits = i - groupStart;
+            if (digits == 0 || digits > 4) {
+                return null;
+            }
+            address[groupCount * 2] = (byte) (group >> 8);
+            address[groupCount * 2 + 1] = (byte) group;
+            groupCount++;
+
+            if (i == end) {
+                break;
+            }
+            if (value.charAt(i) != ':') {
+                return null;
+            }
+            i++;
+            if (i < end && value.charAt(i) == ':') {
+                if (compressedAt != -1) {
+                    return null;
+                }
+                compressedAt = groupCount;
+                i++;
+                if (i == end) {
+                    break;
+                }
+            } else if (i == end) {
+                // trailing colon
+                return null;
+            }
+        }
+
+        if (compressedAt == -1) {
+            return groupCount == 8 ? address : null;
+        }
+        if (groupCount == 8) {
+            // :: must replace at least one group
+            return null;
+        }
+
+        // move the groups after :: to the end of the address
+        int shift = (8 - groupCount) * 2;
+        int from = compressedAt * 2;
+        System.arraycopy(address, from, address, from + shift, groupCount * 2 - from);
+        for (int j = from; j < from + shift; j++) {
+            address[j] = 0;
+        }
+        return address;
+    }
+}
@@ -1,14 +1,20 @@
 package org.rakam.collection.mapper.geoip.maxmind;
 
+import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.google.common.base.Joiner;
 import com.google.common.base.Preconditions;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
 import com.google.common.collect.ImmutableList;
+import com.google.common.primitives.Ints;
+import com.google.common.primitives.Longs;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.maxmind.geoip2.DatabaseReader;
 import com.maxmind.geoip2.exception.AddressNotFoundException;
 import com.maxmind.geoip2.model.CityResponse;
 import com.maxmind.geoip2.model.ConnectionTypeResponse;
-import com.maxmind.geoip2.model.IspResponse;
 import io.airlift.log.Logger;
 import io.netty.handler.codec.http.HttpHeaders;
 import io.netty.handler.codec.http.cookie.Cookie;
@@ -23,20 +29,20 @@ import org.rakam.plugin.user.ISingleUserBatchOperation;
 import org.rakam.plugin.user.UserPropertyMapper;
 import org.rakam.util.MapProxyGenericRecord;
 
+import javax.annotation.PreDestroy;
 import javax.inject.Inject;
-import java.io.FileInputStream;
-import java.io.IOException;
-import java.net.Inet4Address;
 import java.net.InetAddress;
 import java.net.URL;
 import java.net.UnknownHostException;
 import java.util.Arrays;
 import java.util.List;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.Objects;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
-import static com.maxmind.db.Reader.FileMode.MEMORY;
+import static java.util.concurrent.TimeUnit.SECONDS;
 import static org.rakam.collection.FieldType.STRING;
 import static org.rakam.util.AvroUtil.put;
 
@@ -48,21 +54,28 @@ public class MaxmindGeoIPEventMapper
 
     private final static List<String> CITY_DATABASE_ATTRIBUTES = ImmutableList
             .of("city", "region", "country_code", "latitude", "longitude", "timezone");
-    private static final String IP_ADDRESS_REGEX = "([0-9]{1,3}\\.[0-9]{1,3}\\.[0-9]{1,3}\\.[0-9]{1,3})";
-    private static final String PRIVATE_IP_ADDRESS_REGEX = "(^127\\.0\\.0\\.1)|(^10\\.)|(^172\\.1[6-9]\\.)|(^172\\.2[0-9]\\.)|(^172\\.3[0-1]\\.)|(^192\\.168\\.)";
-    private static Pattern IP_ADDRESS_PATTERN = null;
-    private static Pattern PRIVATE_IP_ADDRESS_PATTERN = null;
     private final String[] attributes;
-    private final DatabaseReader connectionTypeLookup;
-    private final DatabaseReader ispLookup;
-    private final DatabaseReader cityLookup;
+    private final GeoIPDatabase connectionTypeLookup;
+    private final GeoIPDatabase ispLookup;
+    private final GeoIPDatabase cityLookup;
     private final boolean attachIp;
+    private final Cache<AddressKey, LookupResult> lookupCache;
+    private final ScheduledExecutorService executor;
 
     @Inject
     public MaxmindGeoIPEventMapper(MaxmindGeoIPModuleConfig config) {
         Preconditions.checkNotNull(config, "config is null");
 
-        DatabaseReader connectionTypeLookup = null, ispLookup = null, cityLookup = null;
+        this.lookupCache = config.getLookupCacheSize() == 0 ? null : CacheBuilder.newBuilder()
+                .maximumSize(config.getLookupCacheSize())
+                .recordStats()
+                .build();
+        this.executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+                .setNameFormat("geoip-database-loader")
+                .setDaemon(true)
+                .build());
+
+        boolean useCity = false;
         boolean attachIp = false;
         if (config.getAttributes() != null) {
             for (String attr : config.getAttributes()) {
@@ -70,25 +83,17 @@ public class MaxmindGeoIPEventMapper
                     if (config.getDatabaseUrl() == null) {
                         throw new IllegalStateException(String.format(ERROR_MESSAGE, "plugin.geoip.database.url", attr));
                     }
-                    if (cityLookup == null) {
-                        cityLookup = getReader(config.getDatabaseUrl());
-                    }
+                    useCity = true;
                     continue;
                 } else if ("isp".equals(attr)) {
                     if (config.getIspDatabaseUrl() == null) {
                         throw new IllegalStateException(String.format(ERROR_MESSAGE, "plugin.geoip.isp-database.url", attr));
                     }
-                    if (ispLookup == null) {
-                        ispLookup = getReader(config.getIspDatabaseUrl());
-                    }
                     continue;
                 } else if ("connection_type".equals(attr)) {
                     if (config.getConnectionTypeDatabaseUrl() == null) {
                         throw new IllegalStateException(String.format(ERROR_MESSAGE, "plugin.geoip.connection-type-database.url", attr));
                     }
-                    if (connectionTypeLookup == null) {
-                        connectionTypeLookup = getReader(config.getConnectionTypeDatabaseUrl());
-                    }
                     continue;
                 } else if ("_ip".equals(attr)) {
                     attachIp = true;
@@ -100,7 +105,7 @@ public class MaxmindGeoIPEventMapper
             attributes = config.getAttributes().stream().toArray(String[]::new);
         } else {
             if (config.getDatabaseUrl() != null) {
-                cityLookup = getReader(config.getDatabaseUrl());
+                useCity = true;
                 attributes = CITY_DATABASE_ATTRIBUTES.stream().toArray(String[]::new);
             } else {
                 attributes = null;
@@ -109,16 +114,30 @@ public class MaxmindGeoIPEventMapper
         }
         this.attachIp = attachIp;
 
-        if (config.getIspDatabaseUrl() != null) {
-            ispLookup = getReader(config.getIspDatabaseUrl());
-        }
-        if (config.getConnectionTypeDatabaseUrl() != null) {
-            connectionTypeLookup = getReader(config.getConnectionTypeDatabaseUrl());
+        this.cityLookup = useCity ? createDatabase(config.getDatabaseUrl(), config) : null;
+        this.ispLookup = config.getIspDatabaseUrl() != null ? createDatabase(config.getIspDatabaseUrl(), config) : null;
+        this.connectionTypeLookup = config.getConnectionTypeDatabaseUrl() != null ?
+                createDatabase(config.getConnectionTypeDatabaseUrl(), config) : null;
+
+        List<GeoIPDatabase> databases = Stream.of(cityLookup, ispLookup, connectionTypeLookup)
+                .filter(Objects::nonNull).collect(Collectors.toList());
+        for (GeoIPDatabase database : databases) {
+            if (config.getLoadLazily()) {
+                database.loadAsync();
+            } else {
+                try {
+                    database.load();
+                } catch (Exception e) {
+                    executor.shutdownNow();
+                    throw new RuntimeException(e);
+                }
+            }
         }
 
-        this.cityLookup = cityLookup;
-        this.ispLookup = ispLookup;
-        this.connectionTypeLookup = connectionTypeLookup;
+        if (config.getReloadIntervalSeconds() > 0 && !databases.isEmpty()) {
+            executor.scheduleWithFixedDelay(() -> databases.forEach(GeoIPDatabase::reloadIfChanged),
+                    config.getReloadIntervalSeconds(), config.getReloadIntervalSeconds(), SECONDS);
+        }
     }
 
     private static FieldType getType(String attr) {
@@ -137,54 +156,44 @@ public class MaxmindGeoIPEventMapper
         }
     }
 
-    private static String findNonPrivateIpAddress(String s) {
-        if (IP_ADDRESS_PATTERN == null) {
-            IP_ADDRESS_PATTERN = Pattern.compile(IP_ADDRESS_REGEX);
-            PRIVATE_IP_ADDRESS_PATTERN = Pattern.compile(PRIVATE_IP_ADDRESS_REGEX);
-        }
-        Matcher matcher = IP_ADDRESS_PATTERN.matcher(s);
-        while (matcher.find()) {
-            String group = matcher.group(0);
-            if (group != null && !PRIVATE_IP_ADDRESS_PATTERN.matcher(group).find()) {
-                return group;
+    private GeoIPDatabase createDatabase(URL url, MaxmindGeoIPModuleConfig config) {
+        // the cached results of the previous database are not valid anymore
+        return new GeoIPDatabase(url, config.getFileMode(), executor, () -> {
+            if (lookupCache != null) {
+                lookupCache.invalidateAll();
             }
-            matcher.region(matcher.end(), s.length());
-        }
-        return null;
+        });
     }
 
-    private DatabaseReader getReader(URL url) {
-        try {
-            FileInputStream cityDatabase = new FileInputStream(MaxmindGeoIPModule.downloadOrGetFile(url));
-            return new DatabaseReader.Builder(cityDatabase).fileMode(MEMORY).build();
-        } catch (Exception e) {
-            throw new RuntimeException(e);
-        }
+    /**
+     * Whether all the databases are loaded, the events are not enriched by the databases that are not loaded yet
+     * when the databases are loaded lazily.
+     */
+    public boolean isReady() {
+        return Stream.of(cityLookup, ispLookup, connectionTypeLookup)
+                .allMatch(database -> database == null || database.isLoaded());
+    }
+
+    @PreDestroy
+    public void close() {
+        executor.shutdownNow();
+        Stream.of(cityLookup, ispLookup, connectionTypeLookup)
+                .filter(Objects::nonNull)
+                .forEach(GeoIPDatabase::close);
     }
 
     @Override
     public List<Cookie> map(Event event, RequestParams extraProperties, InetAddress sourceAddress, HttpHeaders responseHeaders) {
         Object ip = event.properties().get("_ip");
 
-        InetAddress addr;
+        byte[] address;
         if ((ip instanceof String)) {
-            try {
-                // it may be slow because java performs reverse hostname lookup.
-                addr = Inet4Address.getByName((String) ip);
-            } catch (UnknownHostException e) {
-                return null;
-            }
+            address = IpAddressParser.parse((String) ip);
         } else if (Boolean.TRUE == ip) {
             String forwardedFor = extraProperties.headers().get("X-Forwarded-For");
-            if (forwardedFor != null && (forwardedFor = findNonPrivateIpAddress(forwardedFor)) != null) {
-                try {
-                    // it may be slow because java performs reverse hostname lookup.
-                    addr = Inet4Address.getByName(forwardedFor);
-                } catch (UnknownHostException e) {
-                    return null;
-                }
-            } else {
-                addr = sourceAddress;
+            address = forwardedFor == null ? null : IpAddressParser.findNonPrivateAddress(forwardedFor);
+            if (address == null && sourceAddress != null) {
+                address = sourceAddress.getAddress();
             }
         } else {
             if (cityLookup != null) {
@@ -198,25 +207,17 @@ public class MaxmindGeoIPEventMapper
             return null;
         }
 
-        if (addr == null) {
+        if (address == null) {
             return null;
         }
 
-        if (attachIp) {
-            put(event.properties(),"__ip", addr.getHostAddress());
-        }
+        LookupResult result = lookup(address);
 
-        if (connectionTypeLookup != null) {
-            setConnectionType(addr, event.properties());
-        }
-
-        if (ispLookup != null) {
-            setIsp(addr, event.properties());
+        if (attachIp) {
+            put(event.properties(),"__ip", result.hostAddress);
         }
 
-        if (cityLookup != null) {
-            setGeoFields(addr, event.properties());
-        }
+        result.apply(event.properties(), attributes);
 
         return null;
     }
@@ -236,38 +237,31 @@ public class MaxmindGeoIPEventMapper
     }
 
     public void mapInternal(ObjectNode data, InetAddress sourceAddress) {
-        Object ip = data.get("_ip");
+        JsonNode ip = data.get("_ip");
 
         if (ip == null) {
             return;
         }
 
-        if ((ip instanceof String)) {
-            try {
-                // it may be slow because java performs reverse hostname lookup.
-                sourceAddress = Inet4Address.getByName((String) ip);
-            } catch (UnknownHostException e) {
-                return;
-            }
+        byte[] address;
+        if (ip.isTextual()) {
+            address = IpAddressParser.parse(ip.textValue());
+        } else {
+            address = sourceAddress == null ? null : sourceAddress.getAddress();
         }
 
-        if (sourceAddress == null) {
+        if (address == null) {
             return;
         }
 
-        GenericRecord record = new MapProxyGenericRecord(data);
-
-        if (connectionTypeLookup != null) {
-            setConnectionType(sourceAddress, record);
-        }
-
-        if (ispLookup != null) {
-            setIsp(sourceAddress, record);
-        }
+        lookup(address).apply(new MapProxyGenericRecord(data), attributes);
+    }
 
-        if (cityLookup != null) {
-            setGeoFields(sourceAddress, record);
-        }
+    /**
+     * The hit rate of the lookup cache, the lookups of the cached addresses don't touch the databases.
+     */
+    public CacheStats getLookupCacheStats() {
+        return lookupCache == null ? new CacheStats(0, 0, 0, 0, 0, 0) : lookupCache.stats();
     }
 
     @Override
@@ -289,69 +283,179 @@ public class MaxmindGeoIPEventMapper
         builder.addFields("_ip", fields);
     }
 
-    private void setConnectionType(InetAddress address, GenericRecord properties) {
-        ConnectionTypeResponse connectionType;
+    private LookupResult lookup(byte[] address) {
+        AddressKey key = null;
+        if (lookupCache != null) {
+            key = new AddressKey(address);
+            LookupResult result = lookupCache.getIfPresent(key);
+            if (result != null) {
+                return result;
+            }
+        }
+
+        InetAddress inetAddress;
         try {
-            connectionType = connectionTypeLookup.connectionType(address);
-        } catch (AddressNotFoundException e) {
-            return;
-        } catch (Exception e) {
-            LOGGER.error(e, "Error while searching for location information.");
-            return;
+            inetAddress = InetAddress.getByAddress(address);
+        } catch (UnknownHostException e) {
+            throw new IllegalStateException(e);
         }
 
-        ConnectionTypeResponse.ConnectionType connType = connectionType.getConnectionType();
-        if (connType != null) {
-            put(properties,"_connection_type", connType.name());
+        LookupResult result = new LookupResult(inetAddress.getHostAddress());
+        // the results are not cached until all the databases are loaded
+        boolean failed = false;
+
+        DatabaseReader connectionTypeReader = connectionTypeLookup == null ? null : connectionTypeLookup.get();
+        if (connectionTypeReader != null) {
+            try {
+                ConnectionTypeResponse.ConnectionType connectionType = connectionTypeReader.connectionType(inetAddress).getConnectionType();
+                result.connectionType = connectionType == null ? null : connectionType.name();
+            } catch (AddressNotFoundException e) {
+                // not found
+            } catch (Exception e) {
+                LOGGER.error(e, "Error while searching for location information.");
+                failed = true;
+            }
+        } else if (connectionTypeLookup != null) {
+            failed = true;
         }
+
+        DatabaseReader ispReader = ispLookup == null ? null : ispLookup.get();
+        if (ispReader != null) {
+            try {
+                result.isp = ispReader.isp(inetAddress).getIsp();
+                result.ispFound = true;
+            } catch (AddressNotFoundException e) {
+                // not found
+            } catch (Exception e) {
+                LOGGER.error(e, "Error while searching for location information.");
+                failed = true;
+            }
+        } else if (ispLookup != null) {
+            failed = true;
+        }
+
+        DatabaseReader cityReader = cityLookup == null ? null : cityLookup.get();
+        if (cityReader != null) {
+            try {
+                result.setCity(cityReader.city(inetAddress));
+            } catch (AddressNotFoundException e) {
+                // not found
+            } catch (Exception e) {
+                LOGGER.error(e, "Error while searching for location information.");
+                failed = true;
+            }
+        } else if (cityLookup != null) {
+            failed = true;
+        }
+
+        // the addresses that are not found are also cached, the failed lookups are retried for the next event
+        if (lookupCache != null && !failed) {
+            lookupCache.put(key, result);
+        }
+        return result;
     }
 
-    private void setIsp(InetAddress address, GenericRecord properties) {
-        IspResponse isp;
-        try {
-            isp = ispLookup.isp(address);
-        } catch (AddressNotFoundException e) {
-            return;
-        } catch (Exception e) {
-            LOGGER.error(e, "Error while searching for location information.");
-            return;
+    /**
+     * The IPv4 addresses are stored as IPv4-mapped IPv6 addresses so that the addresses that are sent in both forms
+     * share the same entry.
+     */
+    private static class AddressKey {
+        private final long high;
+        private final long low;
+
+        private AddressKey(byte[] address) {
+            if (address.length == 4) {
+                high = 0;
+                low = 0xFFFF_0000_0000L | (Ints.fromByteArray(address) & 0xFFFF_FFFFL);
+            } else {
+                high = Longs.fromBytes(address[0], address[1], address[2], address[3],
+                        address[4], address[5], address[6], address[7]);
+                low = Longs.fromBytes(address[8], address[9], address[10], address[11],
+                        address[12], address[13], address[14], address[15]);
+            }
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof AddressKey)) {
+                return false;
+            }
+            AddressKey that = (AddressKey) o;
+            return high == that.high && low == that.low;
         }
 
-        put(properties,"_isp", isp.getIsp());
+        @Override
+        public int hashCode() {
+            return 31 * Long.hashCode(high) + Long.hashCode(low);
+        }
     }
 
-    private void setGeoFields(InetAddress address, GenericRecord properties) {
-        CityResponse city;
+    /**
+     * The combined result of the city, ISP and connection type lookups of an address.
+     */
+    private static class LookupResult {
+        private final String hostAddress;
+        private String connectionType;
+        private boolean ispFound;
+        private String isp;
+        private boolean cityFound;
+        private String countryCode;
+        private String region;
+        private String city;
+        private Double latitude;
+        private Double longitude;
+        private String timezone;
+
+        private LookupResult(String hostAddress) {
+            this.hostAddress = hostAddress;
+        }
 
-        try {
-            city = cityLookup.city(address);
-        } catch (AddressNotFoundException e) {
-            return;
-        } catch (Exception e) {
-            LOGGER.error(e, "Error while searching for location information.");
-            return;
+        private void setCity(CityResponse response) {
+            cityFound = true;
+            countryCode = response.getCountry().getIsoCode();
+            region = response.getContinent().getName();
+            city = response.getCity().getName();
+            latitude = response.getLocation().getLatitude();
+            longitude = response.getLocation().getLongitude();
+            timezone = response.getLocation().getTimeZone();
         }
 
-        for (String attribute : attributes) {
-            switch (attribute) {
-                case "country_code":
-                    put(properties,"_country_code", city.getCountry().getIsoCode());
-                    break;
-                case "region":
-                    put(properties,"_region", city.getContinent().getName());
-                    break;
-                case "city":
-                    put(properties,"_city", city.getCity().getName());
-                    break;
-                case "latitude":
-                    put(properties,"_latitude", city.getLocation().getLatitude());
-                    break;
-                case "longitude":
-                    put(properties,"_longitude", city.getLocation().getLongitude());
-                    break;
-                case "timezone":
-                    put(properties,"_timezone", city.getLocation().getTimeZone());
-                    break;
+        private void apply(GenericRecord properties, String[] attributes) {
+            if (connectionType != null) {
+                put(properties,"_connection_type", connectionType);
+            }
+
+            if (ispFound) {
+                put(properties,"_isp", isp);
+            }
+
+            if (!cityFound) {
+                return;
+            }
+            for (String attribute : attributes) {
+                switch (attribute) {
+                    case "country_code":
+                        put(properties,"_country_code", countryCode);
+                        break;
+                    case "region":
+                        put(properties,"_region", region);
+                        break;
+                    case "city":
+                        put(properties,"_city", city);
+                        break;
+                    case "latitude":
+                        put(properties,"_latitude", latitude);
+                        break;
+                    case "longitude":
+                        put(properties,"_longitude", longitude);
+                        break;
+                    case "timezone":
+                        put(properties,"_timezone", timezone);
+                        break;
+                }
             }
         }
     }
@@ -3,9 +3,11 @@ package org.rakam.collection.mapper.geoip.maxmind;
 import com.google.common.base.Splitter;
 import com.google.common.base.Throwables;
 import com.google.common.collect.ImmutableList;
+import com.maxmind.db.Reader;
 import io.airlift.configuration.Config;
 import io.airlift.configuration.ConfigDescription;
 
+import javax.validation.constraints.Min;
 import javax.validation.constraints.NotNull;
 import java.net.MalformedURLException;
 import java.net.URL;
@@ -18,6 +20,10 @@ public class MaxmindGeoIPModuleConfig {
     private URL ispDatabaseUrl;
     private URL connectionTypeDatabaseUrl;
     private boolean useExistingFields;
+    private int lookupCacheSize = 100_000;
+    private Reader.FileMode fileMode = Reader.FileMode.MEMORY_MAPPED;
+    private boolean loadLazily;
+    private int reloadIntervalSeconds = 60;
 
     public URL getIspDatabaseUrl() {
         return ispDatabaseUrl;
@@ -71,4 +77,51 @@ public class MaxmindGeoIPModuleConfig {
         this.useExistingFields = useExistingFields;
         return this;
     }
+
+    @Min(0)
+    public int getLookupCacheSize() {
+        return lookupCacheSize;
+    }
+
+    @Config("plugin.geoip.lookup-cache-size")
+    @ConfigDescription("The number of addresses whose lookup results are cached, 0 disables the cache")
+    public MaxmindGeoIPModuleConfig setLookupCacheSize(int lookupCacheSize) {
+        this.lookupCacheSize = lookupCacheSize;
+        return this;
+    }
+
+    public Reader.FileMode getFileMode() {
+        return fileMode;
+    }
+
+    @Config("plugin.geoip.file-mode")
+    @ConfigDescription("MEMORY_MAPPED keeps the databases in the page cache, MEMORY loads them to the heap")
+    public MaxmindGeoIPModuleConfig setFileMode(Reader.FileMode fileMode) {
+        this.fileMode = fileMode;
+        return this;
+    }
+
+    public boolean getLoadLazily() {
+        return loadLazily;
+    }
+
+    @Config("plugin.geoip.load-lazily")
+    @ConfigDescription("Loads the databases in the background, the events are not enriched until the databases are loaded")
+    public MaxmindGeoIPModuleConfig setLoadLazily(boolean loadLazily) {
+        this.loadLazily = loadLazily;
+        return this;
+    }
+
+    @Min(0)
+    public int getReloadIntervalSeconds() {
+        return reloadIntervalSeconds;
+    }
+
+    @Config("plugin.geoip.reload-interval-seconds")
+    @ConfigDescription("The interval of checking the local database files (file: urls) for changes, 0 disables reloading. " +
+            "The databases that are downloaded from remote urls are not reloaded")
+    public MaxmindGeoIPModuleConfig setReloadIntervalSeconds(int reloadIntervalSeconds) {
+        this.reloadIntervalSeconds = reloadIntervalSeconds;
+        return this;
+    }
 }
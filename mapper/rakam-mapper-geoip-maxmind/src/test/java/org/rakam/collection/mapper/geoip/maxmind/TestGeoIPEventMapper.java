@@ -74,6 +74,33 @@ public class TestGeoIPEventMapper {
         GenericData.get().validate(properties.getSchema(), properties);
     }
 
+    @Test
+    public void testLazyLoadedDatabase()
+            throws Exception {
+        MaxmindGeoIPEventMapper mapper = new MaxmindGeoIPEventMapper(new MaxmindGeoIPModuleConfig()
+                .setAttributes("")
+                .setLoadLazily(true)
+                .setIspDatabaseUrl(new URL("https://github.com/maxmind/MaxMind-DB/raw/master/test-data/GeoIP2-ISP-Test.mmdb")));
+
+        long deadline = System.currentTimeMillis() + 60_000;
+        while (!mapper.isReady() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50);
+        }
+        assertTrue(mapper.isReady());
+
+        Record properties = new Record(Schema.createRecord(ImmutableList.of(
+                new Schema.Field("_ip", Schema.create(STRING), null, null),
+                new Schema.Field("__ip", Schema.create(STRING), null, null),
+                new Schema.Field("_isp", Schema.create(STRING), null, null))));
+        properties.put("_ip", "8.8.8.8");
+
+        Event event = new Event("testproject", "testcollection", null, null, properties);
+        mapper.map(event, EventMapper.RequestParams.EMPTY_PARAMS, null, null);
+
+        assertEquals(event.getAttribute("_isp"), "Level 3 Communications");
+        mapper.close();
+    }
+
     @Test(dataProvider = "google-ips")
     public void testConnectionTypeEventMapper(Map<String, Object> props, InetAddress address)
             throws Exception {
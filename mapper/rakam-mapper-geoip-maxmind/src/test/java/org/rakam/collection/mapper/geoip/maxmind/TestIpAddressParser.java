@@ -0,0 +1,88 @@
+package org.rakam.collection.mapper.geoip.maxmind;
+
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import java.net.InetAddress;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+public class TestIpAddressParser {
+    @DataProvider(name = "valid-addresses")
+    public static Object[][] validAddresses() {
+        return new Object[][]{
+                {"8.8.8.8"},
+                {"0.0.0.0"},
+                {"255.255.255.255"},
+                {"010.1.1.1"},
+                {"::"},
+                {"::1"},
+                {"1::"},
+                {"2001:db8::ff00:42:8329"},
+                {"2001:0db8:0000:0000:0000:ff00:0042:8329"},
+                {"2001:db8:0:0:1::1"},
+                {"::ffff:192.168.1.1"},
+                {"64:ff9b::8.8.8.8"},
+                {"1:2:3:4:5:6:7::"},
+                {"::2:3:4:5:6:7:8"},
+                {"FE80::ABCD"},
+        };
+    }
+
+    @Test(dataProvider = "valid-addresses")
+    public void testValidAddress(String value)
+            throws Exception {
+        assertEquals(IpAddressParser.parse(value), InetAddress.getByName(value).getAddress().length == 4 && value.contains(":")
+                ? toMapped(InetAddress.getByName(value).getAddress()) : InetAddress.getByName(value).getAddress());
+    }
+
+    @Test
+    public void testInvalidAddress() {
+        for (String value : new String[]{"", "8.8.8", "8.8.8.8.8", "256.1.1.1", "1..1.1", "1.1.1.1.", "1111.1.1.1",
+                "example.com", "localhost", ":", ":::", "1:::2", "1::2::3", ":1:2:3:4:5:6:7", "1:2:3:4:5:6:7:8:9",
+                "1:2:3:4:5:6:7:8::", "12345::", "::g", "1:2:3:4:5:6:7:1.2.3.4", "::1.2.3", "1:"}) {
+            assertNull(IpAddressParser.parse(value), value);
+        }
+    }
+
+    @Test
+    public void testZoneIsIgnored() {
+        assertEquals(IpAddressParser.parse("fe80::1%eth0"), IpAddressParser.parse("fe80::1"));
+    }
+
+    @Test
+    public void testFindNonPrivateAddress()
+            throws Exception {
+        assertEquals(IpAddressParser.findNonPrivateAddress("10.0.0.1, 192.168.1.1, 8.8.8.8"), bytes("8.8.8.8"));
+        assertEquals(IpAddressParser.findNonPrivateAddress("172.16.0.1,1.2.3.4:8080, 5.6.7.8"), bytes("1.2.3.4"));
+        assertEquals(IpAddressParser.findNonPrivateAddress("unknown, [2001:db8::1]:443"), bytes("2001:db8::1"));
+        assertEquals(IpAddressParser.findNonPrivateAddress("fd00::1, 2001:db8::2"), bytes("2001:db8::2"));
+        assertNull(IpAddressParser.findNonPrivateAddress("127.0.0.1, 10.1.2.3, ::1, fe80::1, ::ffff:10.0.0.1"));
+        assertNull(IpAddressParser.findNonPrivateAddress(""));
+    }
+
+    @Test
+    public void testPrivateAddress()
+            throws Exception {
+        assertTrue(IpAddressParser.isPrivate(bytes("172.31.255.255")));
+        assertFalse(IpAddressParser.isPrivate(bytes("172.32.0.1")));
+        assertTrue(IpAddressParser.isPrivate(bytes("169.254.1.1")));
+        assertFalse(IpAddressParser.isPrivate(bytes("::2")));
+    }
+
+    private static byte[] bytes(String value)
+            throws Exception {
+        return InetAddress.getByName(value).getAddress();
+    }
+
+    private static byte[] toMapped(byte[] address) {
+        byte[] mapped = new byte[16];
+        mapped[10] = (byte) 0xff;
+        mapped[11] = (byte) 0xff;
+        System.arraycopy(address, 0, mapped, 12, 4);
+        return mapped;
+    }
+}
@@ -0,0 +1,227 @@
+package org.rakam.module.website;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.snowplowanalytics.refererparser.Medium;
+import org.yaml.snakeyaml.Yaml;
+import org.yaml.snakeyaml.constructor.SafeConstructor;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * Classifies the referrers with the referers.yml database of the snowplow referrer parser, the lookup is the same as
+ * the parser's. The classification of a referrer host doesn't depend on the rest of the URL except for a few hosts
+ * that have path-specific entries in the database so the classifications are cached by the referrer host and the
+ * host of the current page.
+ */
+public class ReferrerClassifier {
+    private static final String REFERERS = "/referers.yml";
+
+    public static final Classification INTERNAL = new Classification(Medium.INTERNAL, null, null);
+    public static final Classification UNKNOWN = new Classification(Medium.UNKNOWN, null, null);
+
+    private final Map<String, Classification> referrers = new HashMap<>();
+    private final Set<String> pathDependentHosts = new HashSet<>();
+    private final Cache<HostPair, CachedClassification> cache;
+
+    public ReferrerClassifier(int cacheSize)
+            throws IOException {
+        try (InputStream referers = ReferrerClassifier.class.getResourceAsStream(REFERERS)) {
+            if (referers == null) {
+                throw new IOException(REFERERS + " is not found");
+            }
+            Map<String, Map<String, Map<String, List<String>>>> config =
+                    (Map) new Yaml(new SafeConstructor()).load(referers);
+            for (Map.Entry<String, Map<String, Map<String, List<String>>>> medium : config.entrySet()) {
+                Medium type = Medium.valueOf(medium.getKey().toUpperCase(Locale.ENGLISH));
+                for (Map.Entry<String, Map<String, List<String>>> source : medium.getValue().entrySet()) {
+                    Classification classification = new Classification(type, source.getKey(),
+                            source.getValue().get("parameters"));
+                    for (String domain : source.getValue().get("domains")) {
+                        referrers.put(domain, classification);
+                        int slash = domain.indexOf('/');
+                        if (slash != -1) {
+                            pathDependentHosts.add(domain.substring(0, slash));
+                        }
+                    }
+                }
+            }
+        }
+        this.cache = cacheSize == 0 ? null : CacheBuilder.newBuilder()
+                .maximumSize(cacheSize)
+                .recordStats()
+                .build();
+    }
+
+    /**
+     * @param rawPath the encoded path of the referrer URL
+     * @param pageHost the host of the current page, null if it's not known
+     */
+    public Classification classify(String referrerHost, String rawPath, String pageHost) {
+        if (cache == null) {
+            return classifyInternal(referrerHost, pageHost).get(this, referrerHost, rawPath);
+        }
+        HostPair key = new HostPair(referrerHost, pageHost);
+        CachedClassification classification = cache.getIfPresent(key);
+        if (classification == null) {
+            classification = classifyInternal(referrerHost, pageHost);
+            cache.put(key, classification);
+        }
+        return classification.get(this, referrerHost, rawPath);
+    }
+
+    /**
+     * The hit and miss counts of the cache, the cached hosts are classified without looking up the database.
+     */
+    public CacheStats getCacheStats() {
+        return cache == null ? new CacheStats(0, 0, 0, 0, 0, 0) : cache.stats();
+    }
+
+    private CachedClassification classifyInternal(String referrerHost, String pageHost) {
+        if (referrerHost.equals(pageHost)) {
+            return new CachedClassification(INTERNAL, false);
+        }
+        for (String host = referrerHost; ; ) {
+            if (pathDependentHosts.contains(host)) {
+                return new CachedClassification(null, true);
+            }
+            int dot = host.indexOf('.');
+            if (dot == -1) {
+                break;
+            }
+            host = host.substring(dot + 1);
+        }
+        Classification classification = lookup(referrerHost, null);
+        return new CachedClassification(classification == null ? UNKNOWN : classification, false);
+    }
+
+    private Classification lookupWithPath(String referrerHost, String rawPath) {
+        String path = UrlParts.decode(rawPath, false);
+        Classification classification = lookup(referrerHost, path == null ? rawPath : path);
+        if (classification == null) {
+            classification = lookup(referrerHost, null);
+        }
+        return classification == null ? UNKNOWN : classification;
+    }
+
+    /**
+     * Tries the host with the full path and the first segment of the path, then the parent domains of the host.
+     */
+    private Classification lookup(String host, String path) {
+        while (true) {
+            Classification classification;
+            if (path != null) {
+                classification = referrers.get(host + path);
+                if (classification == null) {
+                    String[] segments = path.split("/");
+                    if (segments.length > 1) {
+                        classification = referrers.get(host + "/" + segments[1]);
+                    }
+                }
+            } else {
+                classification = referrers.get(host);
+            }
+
+            if (classification != null) {
+                return classification;
+            }
+            int dot = host.indexOf('.');
+            if (dot == -1) {
+                return null;
+            }
+            host = host.substring(dot + 1);
+        }
+    }
+
+    public static class Classification {
+        public final Medium medium;
+        public final String source;
+        private final List<String> parameters;
+
+        private Classification(Medium medium, String source, List<String> parameters) {
+            this.medium = medium;
+            this.source = source;
+            this.parameters = parameters;
+        }
+
+        /**
+         * @param rawQuery the encoded query of the referrer URL
+         * @return the search term in the query, null if the referrer is not a search engine
+         */
+        public String getTerm(String rawQuery) {
+            if (medium != Medium.SEARCH || parameters == null || rawQuery == null) {
+                return null;
+            }
+            int start = 0;
+            while (start <= rawQuery.length()) {
+                int end = start;
+                while (end < rawQuery.length() && rawQuery.charAt(end) != '&' && rawQuery.charAt(end) != ';') {
+                    end++;
+                }
+                int equals = rawQuery.indexOf('=', start);
+                String name = rawQuery.substring(start, equals == -1 || equals > end ? end : equals);
+                String decodedName = UrlParts.decode(name, true);
+                if (parameters.contains(decodedName == null ? name : decodedName)) {
+                    if (equals == -1 || equals > end) {
+                        return null;
+                    }
+                    String value = rawQuery.substring(equals + 1, end);
+                    String decoded = UrlParts.decode(value, true);
+                    return decoded == null ? value : decoded;
+                }
+                start = end + 1;
+            }
+            return null;
+        }
+    }
+
+    private static class CachedClassification {
+        private final Classification classification;
+        private final boolean pathDependent;
+
+        private CachedClassification(Classification classification, boolean pathDependent) {
+            this.classification = classification;
+            this.pathDependent = pathDependent;
+        }
+
+        private Classification get(ReferrerClassifier classifier, String referrerHost, String rawPath) {
+            return pathDependent ? classifier.lookupWithPath(referrerHost, rawPath) : classification;
+        }
+    }
+
+    private static class HostPair {
+        private final String referrerHost;
+        private final String pageHost;
+
+        private HostPair(String referrerHost, String pageHost) {
+            this.referrerHost = referrerHost;
+            this.pageHost = pageHost;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof HostPair)) {
+                return false;
+            }
+            HostPair hostPair = (HostPair) o;
+            return referrerHost.equals(hostPair.referrerHost) && Objects.equals(pageHost, hostPair.pageHost);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * referrerHost.hashCode() + Objects.hashCode(pageHost);
+        }
+    }
+}
@@ -2,10 +2,7 @@ package org.rakam.module.website;
 
 import com.google.common.base.Throwables;
 import com.google.common.collect.ImmutableList;
-import com.snowplowanalytics.refererparser.CorruptYamlException;
 import com.snowplowanalytics.refererparser.Medium;
-import com.snowplowanalytics.refererparser.Parser;
-import com.snowplowanalytics.refererparser.Referer;
 import io.airlift.log.Logger;
 import io.netty.handler.codec.http.HttpHeaders;
 import io.netty.handler.codec.http.cookie.Cookie;
@@ -21,8 +18,6 @@ import org.rakam.util.MapProxyGenericRecord;
 
 import java.io.IOException;
 import java.net.InetAddress;
-import java.net.URI;
-import java.net.URISyntaxException;
 import java.util.List;
 
 import static org.rakam.collection.FieldType.STRING;
@@ -33,12 +28,16 @@ public class ReferrerEventMapper
         implements SyncEventMapper, UserPropertyMapper {
     private final static Logger LOGGER = Logger.get(ReferrerEventMapper.class);
 
-    private final Parser parser;
+    private final ReferrerClassifier classifier;
 
     public ReferrerEventMapper() {
+        this(new WebsiteMapperConfig());
+    }
+
+    public ReferrerEventMapper(WebsiteMapperConfig config) {
         try {
-            parser = new Parser();
-        } catch (IOException | CorruptYamlException e) {
+            classifier = new ReferrerClassifier(config.getReferrerCacheSize());
+        } catch (IOException e) {
             throw Throwables.propagate(e);
         }
     }
@@ -58,35 +57,27 @@ public class ReferrerEventMapper
         } else {
             hostUrl = extraProperties.headers().get("Origin");
             if (hostUrl != null) {
-                try {
-                    hostUrl = new URI(hostUrl).getHost();
-                } catch (URISyntaxException e) {
-                    //
+                UrlParts origin = UrlParts.parse(hostUrl);
+                if (origin != null) {
+                    hostUrl = origin.host;
                 }
             }
         }
 
-        Referer parse;
-        URI referrerUri;
-
         if (referrerUrl != null) {
-            try {
-                referrerUri = new URI(referrerUrl);
-            } catch (URISyntaxException e) {
+            UrlParts referrerParts = UrlParts.parse(referrerUrl);
+            if (referrerParts == null || !("http".equals(referrerParts.scheme) || "https".equals(referrerParts.scheme))) {
                 return;
             }
 
+            ReferrerClassifier.Classification parse;
             try {
-                parse = parser.parse(referrerUri, hostUrl);
+                parse = classifier.classify(referrerParts.host, referrerParts.rawPath, hostUrl);
             } catch (Exception e) {
                 LOGGER.warn(e, "Error while parsing referrer");
                 return;
             }
 
-            if (parse == null) {
-                return;
-            }
-
             if (record.get("_referrer_medium") == null) {
                 put(record, "_referrer_medium", parse.medium != null ? parse.medium.toString().toLowerCase() : null);
             }
@@ -95,22 +86,28 @@ public class ReferrerEventMapper
             }
 
             if (record.get("_referrer_term") == null) {
-                put(record, "_referrer_term", parse.term);
+                put(record, "_referrer_term", parse.getTerm(referrerParts.rawQuery));
             }
 
             if (parse.medium != Medium.INTERNAL) {
                 if (record.get("_referrer_domain") == null) {
-                    put(record, "_referrer_domain", referrerUri.getHost());
+                    put(record, "_referrer_domain", referrerParts.host);
                 }
 
                 if (record.get("_referrer_path") == null) {
-                    put(record, "_referrer_path", referrerUri.getPath() +
-                            (referrerUri.getQuery() == null ? "" : ("?" + referrerUri.getQuery())));
+                    String path = UrlParts.decode(referrerParts.rawPath, false);
+                    String query = referrerParts.rawQuery == null ? null : UrlParts.decode(referrerParts.rawQuery, false);
+                    put(record, "_referrer_path", (path == null ? referrerParts.rawPath : path) +
+                            (referrerParts.rawQuery == null ? "" : ("?" + (query == null ? referrerParts.rawQuery : query))));
                 }
             }
         }
     }
 
+    public ReferrerClassifier getClassifier() {
+        return classifier;
+    }
+
     @Override
     public List<Cookie> map(Event event, RequestParams extraProperties, InetAddress sourceAddress, HttpHeaders responseHeaders) {
         Object referrer = event.properties().get("_referrer");
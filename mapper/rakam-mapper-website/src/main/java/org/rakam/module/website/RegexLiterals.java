@@ -0,0 +1,281 @@
+package org.rakam.module.website;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * Finds the literals that a string must contain in order to match a regular expression. The result is a set of
+ * literals and every matching string contains at least one of them, the alternations produce more than one literal.
+ * The analysis is conservative, the parts of the expression that are not understood don't contribute a literal and
+ * null is returned when there is no required literal that is at least {@link #MIN_LENGTH} characters long.
+ * <p>
+ * The case-insensitive flags are not taken into account, the literals of the expressions that use them must be
+ * compared without case.
+ */
+final class RegexLiterals {
+    static final int MIN_LENGTH = 3;
+    private static final Pattern COMMENTS_FLAG = Pattern.compile("\\(\\?[a-zA-Z-]*x");
+
+    private final String regex;
+    private int position;
+
+    private RegexLiterals(String regex) {
+        this.regex = regex;
+    }
+
+    static Set<String> requiredLiterals(String regex) {
+        if (regex.contains("\\Q") || COMMENTS_FLAG.matcher(regex).find()) {
+            return null;
+        }
+        RegexLiterals parser = new RegexLiterals(regex);
+        try {
+            Set<String> literals = parser.parseAlternation();
+            return parser.position == regex.length() ? literals : null;
+        } catch (IndexOutOfBoundsException e) {
+            // invalid expression
+            return null;
+        }
+    }
+
+    private Set<String> parseAlternation() {
+        Set<String> literals = new HashSet<>();
+        boolean required = true;
+        while (true) {
+            Set<String> branch = parseSequence();
+            if (branch == null) {
+                required = false;
+            } else if (required) {
+                literals.addAll(branch);
+            }
+            if (position < regex.length() && regex.charAt(position) == '|') {
+                position++;
+                continue;
+            }
+            return required ? literals : null;
+        }
+    }
+
+    private Set<String> parseSequence() {
+        Set<String> best = null;
+        StringBuilder run = new StringBuilder();
+
+        while (position < regex.length()) {
+            char c = regex.charAt(position);
+            if (c == '|' || c == ')') {
+                break;
+            }
+
+            Set<String> atom = null;
+            boolean isLiteral = false;
+            char literal = 0;
+
+            if (c == '(') {
+                position++;
+                boolean zeroWidth = false;
+                if (regex.charAt(position) == '?') {
+                    position++;
+                    char kind = regex.charAt(position);
+                    if (kind == ':' || kind == '>') {
+                        position++;
+                    } else if (kind == '=' || kind == '!') {
+                        position++;
+                        zeroWidth = true;
+                    } else if (kind == '<') {
+                        position++;
+                        char next = regex.charAt(position);
+                        if (next == '=' || next == '!') {
+                            position++;
+                            zeroWidth = true;
+                        } else {
+                            // named group
+                            position = regex.indexOf('>', position) + 1;
+                            if (position == 0) {
+                                throw new IndexOutOfBoundsException();
+                            }
+                        }
+                    } else {
+                        // inline flags such as (?s) or (?s:...)
+                        while (Character.isLetter(regex.charAt(position)) || regex.charAt(position) == '-') {
+                            position++;
+                        }
+                        if (regex.charAt(position) == ')') {
+                            position++;
+                            best = better(best, flush(run));
+                            continue;
+                        }
+                        position++;
+                    }
+                }
+                Set<String> inner = parseAlternation();
+                if (regex.charAt(position) != ')') {
+                    throw new IndexOutOfBoundsException();
+                }
+                position++;
+                atom = zeroWidth ? null : inner;
+            } else if (c == '[') {
+                skipCharacterClass();
+            } else if (c == '\\') {
+                char escaped = regex.charAt(position + 1);
+                position += 2;
+                if (Character.isLetterOrDigit(escaped)) {
+                    skipEscape(escaped);
+                } else {
+                    isLiteral = true;
+                    literal = escaped;
+                }
+            } else if (c == '.' || c == '^' || c == '$') {
+                position++;
+            } else if (c == '*' || c == '+' || c == '?') {
+                // dangling quantifier
+                throw new IndexOutOfBoundsException();
+            } else {
+                position++;
+                isLiteral = c < 128;
+                literal = c;
+            }
+
+            int minimum = parseQuantifier();
+            if (isLiteral) {
+                if (minimum == -1) {
+                    run.append(literal);
+                } else if (minimum == 0) {
+                    best = better(best, flush(run));
+                } else {
+                    run.append(literal);
+                    best = better(best, flush(run));
+                    run.append(literal);
+                }
+                continue;
+            }
+
+            best = better(best, flush(run));
+            if (minimum != 0) {
+                best = better(best, atom);
+            }
+        }
+
+        return better(best, flush(run));
+    }
+
+    /**
+     * @return the minimum number of the repetitions, -1 if there is no quantifier.
+     */
+    private int parseQuantifier() {
+        if (position >= regex.length()) {
+            return -1;
+        }
+        int minimum;
+        char c = regex.charAt(position);
+        if (c == '?' || c == '*') {
+            minimum = 0;
+            position++;
+        } else if (c == '+') {
+            minimum = 1;
+            position++;
+        } else if (c == '{' && position + 1 < regex.length() && Character.isDigit(regex.charAt(position + 1))) {
+            int end = regex.indexOf('}', position);
+            if (end == -1) {
+                throw new IndexOutOfBoundsException();
+            }
+            String bounds = regex.substring(position + 1, end);
+            int comma = bounds.indexOf(',');
+            minimum = Integer.parseInt(comma == -1 ? bounds : bounds.substring(0, comma));
+            position = end + 1;
+        } else {
+            return -1;
+        }
+        // lazy and possessive quantifiers
+        if (position < regex.length() && (regex.charAt(position) == '?' || regex.charAt(position) == '+')) {
+            position++;
+        }
+        return minimum;
+    }
+
+    private void skipCharacterClass() {
+        position++;
+        if (regex.charAt(position) == '^') {
+            position++;
+        }
+        if (regex.charAt(position) == ']') {
+            position++;
+        }
+        int depth = 1;
+        while (depth > 0) {
+            char c = regex.charAt(position);
+            if (c == '\\') {
+                position += 2;
+                continue;
+            }
+            if (c == '[') {
+                depth++;
+            } else if (c == ']') {
+                depth--;
+            }
+            position++;
+        }
+    }
+
+    private void skipEscape(char escaped) {
+        switch (escaped) {
+            case 'p':
+            case 'P':
+            case 'x':
+                if (position < regex.length() && regex.charAt(position) == '{') {
+                    position = regex.indexOf('}', position) + 1;
+                } else if (escaped == 'x') {
+                    position += 2;
+                } else {
+                    position++;
+                }
+                break;
+            case 'u':
+                position += 4;
+                break;
+            case 'c':
+                position++;
+                break;
+            case 'k':
+                position = regex.indexOf('>', position) + 1;
+                break;
+            case '0':
+                for (int i = 0; i < 3 && position < regex.length() && regex.charAt(position) >= '0' && regex.charAt(position) <= '7'; i++) {
+                    position++;
+                }
+                break;
+            default:
+                // character classes, boundaries and back references
+        }
+        if (position == 0 || position > regex.length()) {
+            throw new IndexOutOfBoundsException();
+        }
+    }
+
+    private static Set<String> flush(StringBuilder run) {
+        Set<String> literal = run.length() >= MIN_LENGTH ? Collections.singleton(run.toString()) : null;
+        run.setLength(0);
+        return literal;
+    }
+
+    /**
+     * Picks the more selective requirement, the one whose shortest literal is longer.
+     */
+    private static Set<String> better(Set<String> first, Set<String> second) {
+        if (first == null) {
+            return second;
+        }
+        if (second == null) {
+            return first;
+        }
+        return shortest(second) > shortest(first) ? second : first;
+    }
+
+    private static int shortest(Set<String> literals) {
+        int length = Integer.MAX_VALUE;
+        for (String literal : literals) {
+            length = Math.min(length, literal.length());
+        }
+        return length;
+    }
+}
@@ -0,0 +1,120 @@
+package org.rakam.module.website;
+
+import java.io.ByteArrayOutputStream;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Splits an absolute URL into its scheme, host, path and query without {@link java.net.URI} which validates and
+ * decodes every component. The path and the query are kept encoded until they are used.
+ */
+final class UrlParts {
+    final String scheme;
+    final String host;
+    final String rawPath;
+    final String rawQuery;
+
+    private UrlParts(String scheme, String host, String rawPath, String rawQuery) {
+        this.scheme = scheme;
+        this.host = host;
+        this.rawPath = rawPath;
+        this.rawQuery = rawQuery;
+    }
+
+    /**
+     * @return null if the value is not an absolute URL with a host
+     */
+    static UrlParts parse(String url) {
+        int colon = url.indexOf(':');
+        if (colon <= 0 || !url.startsWith("//", colon + 1)) {
+            return null;
+        }
+        for (int i = 0; i < colon; i++) {
+            char c = url.charAt(i);
+            if (!Character.isLetterOrDigit(c) && c != '+' && c != '-' && c != '.') {
+                return null;
+            }
+        }
+
+        int length = url.length();
+        int authorityStart = colon + 3;
+        int authorityEnd = authorityStart;
+        while (authorityEnd < length) {
+            char c = url.charAt(authorityEnd);
+            if (c == '/' || c == '?' || c == '#') {
+                break;
+            }
+            authorityEnd++;
+        }
+
+        int hostStart = url.lastIndexOf('@', authorityEnd - 1) + 1;
+        if (hostStart < authorityStart) {
+            hostStart = authorityStart;
+        }
+        int hostEnd;
+        if (hostStart < authorityEnd && url.charAt(hostStart) == '[') {
+            hostEnd = url.indexOf(']', hostStart) + 1;
+            if (hostEnd == 0 || hostEnd > authorityEnd) {
+                return null;
+            }
+        } else {
+            hostEnd = url.indexOf(':', hostStart);
+            if (hostEnd == -1 || hostEnd > authorityEnd) {
+                hostEnd = authorityEnd;
+            }
+        }
+        if (hostStart == hostEnd) {
+            return null;
+        }
+
+        int fragment = url.indexOf('#', authorityEnd);
+        int end = fragment == -1 ? length : fragment;
+        int query = url.indexOf('?', authorityEnd);
+        if (query > end) {
+            query = -1;
+        }
+
+        return new UrlParts(url.substring(0, colon), url.substring(hostStart, hostEnd),
+                url.substring(authorityEnd, query == -1 ? end : query),
+                query == -1 ? null : url.substring(query + 1, end));
+    }
+
+    /**
+     * Decodes the percent-encoded octets as UTF-8, the plus sign is decoded as a space if plusAsSpace is set.
+     *
+     * @return null if the value has an invalid escape sequence
+     */
+    static String decode(String value, boolean plusAsSpace) {
+        if (value.indexOf('%') == -1 && (!plusAsSpace || value.indexOf('+') == -1)) {
+            return value;
+        }
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream(value.length());
+        StringBuilder builder = new StringBuilder(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '%') {
+                if (i + 2 >= value.length()) {
+                    return null;
+                }
+                int high = Character.digit(value.charAt(i + 1), 16);
+                int low = Character.digit(value.charAt(i + 2), 16);
+                if (high == -1 || low == -1) {
+                    return null;
+                }
+                out.write((high << 4) | low);
+                i += 2;
+                continue;
+            }
+            if (out.size() > 0) {
+                builder.append(new String(out.toByteArray(), UTF_8));
+                out.reset();
+            }
+            builder.append(plusAsSpace && c == '+' ? ' ' : c);
+        }
+        if (out.size() > 0) {
+            builder.append(new String(out.toByteArray(), UTF_8));
+        }
+        return builder.toString();
+    }
+}
@@ -15,9 +15,6 @@ import org.rakam.plugin.user.ISingleUserBatchOperation;
 import org.rakam.plugin.user.UserPropertyMapper;
 import org.rakam.server.http.HttpRequestException;
 import org.rakam.util.MapProxyGenericRecord;
-import ua_parser.CachingParser;
-import ua_parser.Client;
-import ua_parser.Parser;
 
 import javax.inject.Inject;
 import java.io.IOException;
@@ -30,13 +27,17 @@ import static org.rakam.util.AvroUtil.put;
 @Mapper(name = "User Agent Event mapper",
         description = "Parses user agent string and attaches new field related with the user agent of the user")
 public class UserAgentEventMapper implements SyncEventMapper, UserPropertyMapper {
-    private final Parser uaParser;
+    // A bit SEO wouldn't hurt. The exception is shared because the spiders are rejected frequently.
+    private static final HttpRequestException SPIDER_EXCEPTION =
+            new HttpRequestException("Spiders are not allowed in Rakam Analytics.", FORBIDDEN);
+
+    private final UserAgentResolver resolver;
     private final boolean trackSpiders;
 
     @Inject
     public UserAgentEventMapper(WebsiteMapperConfig config) {
         try {
-            uaParser = new CachingParser();
+            resolver = new UserAgentResolver(config.getUserAgentCacheSize());
         } catch (IOException e) {
             throw Throwables.propagate(e);
         }
@@ -77,48 +78,49 @@ public class UserAgentEventMapper implements SyncEventMapper, UserPropertyMapper
         }
 
         if (userAgent != null) {
-            Client parsed;
+            UserAgentResolver.ResolvedUserAgent parsed;
             try {
-                parsed = uaParser.parse(userAgent);
+                parsed = resolver.resolve(userAgent);
             } catch (Exception e) {
                 return;
             }
 
-            if (parsed.device != null && "Spider".equals(parsed.device.family)) {
-                // A bit SEO wouldn't hurt.
-                throw new HttpRequestException("Spiders are not allowed in Rakam Analytics.", FORBIDDEN);
+            if (parsed.isSpider()) {
+                throw SPIDER_EXCEPTION;
             }
 
             if (properties.get("user_agent_family") == null) {
-                put(properties,"_user_agent_family", parsed.userAgent.family);
+                put(properties, "_user_agent_family", parsed.userAgentFamily);
             }
 
-            if (trackSpiders && parsed.userAgent != null && properties.get("_user_agent_version") == null) {
+            if (trackSpiders && properties.get("_user_agent_version") == null) {
                 try {
-                    put(properties,"_user_agent_version", parsed.userAgent.major);
+                    put(properties, "_user_agent_version", parsed.userAgentMajor);
                 } catch (NumberFormatException e) {
                 }
             }
 
-            if (parsed.device != null && properties.get("_device_family") == null) {
-                put(properties,"_device_family", parsed.device.family);
+            if (properties.get("_device_family") == null) {
+                put(properties, "_device_family", parsed.deviceFamily);
             }
 
-            if (parsed.os != null) {
-                if (properties.get("_os") == null) {
-                    put(properties, "_os", parsed.os.family);
-                }
+            if (properties.get("_os") == null) {
+                put(properties, "_os", parsed.osFamily);
+            }
 
-                if (parsed.os.major != null && properties.get("_os_version") == null) {
-                    try {
-                        put(properties,"_os_version", parsed.os.major);
-                    } catch (Exception e) {
-                    }
+            if (parsed.osMajor != null && properties.get("_os_version") == null) {
+                try {
+                    put(properties, "_os_version", parsed.osMajor);
+                } catch (Exception e) {
                 }
             }
         }
     }
 
+    public UserAgentResolver getResolver() {
+        return resolver;
+    }
+
     @Override
     public void addFieldDependency(FieldDependencyBuilder builder) {
         builder.addFields("_user_agent", ImmutableList.of(
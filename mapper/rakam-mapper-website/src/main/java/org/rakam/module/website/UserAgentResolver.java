@@ -0,0 +1,231 @@
+package org.rakam.module.website;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import org.yaml.snakeyaml.Yaml;
+import org.yaml.snakeyaml.constructor.SafeConstructor;
+import ua_parser.Device;
+import ua_parser.OS;
+import ua_parser.Parser;
+import ua_parser.UserAgent;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Resolves the user agents with the ua-parser regular expressions. The results are cached and the expressions are
+ * prefiltered on a cache miss: the literals that the strings matching an expression must contain are extracted once
+ * and only the expressions whose literals are found in the user agent, or that don't have such literals, are tried in
+ * their original order so the result is the same as trying all of them.
+ * <p>
+ * The device is resolved first and the user agent and the operating system of the spiders are not resolved.
+ */
+public class UserAgentResolver {
+    private static final String REGEXES = "/ua_parser/regexes.yaml";
+    private static final String OTHER = "Other";
+    private static final String SPIDER = "Spider";
+
+    public static final ResolvedUserAgent SPIDER_USER_AGENT = new ResolvedUserAgent(null, null, null, null, SPIDER);
+
+    private final Section<UserAgent> userAgents;
+    private final Section<OS> operatingSystems;
+    private final Section<Device> devices;
+    private final Cache<String, ResolvedUserAgent> cache;
+
+    public UserAgentResolver(int cacheSize)
+            throws IOException {
+        try (InputStream regexes = UserAgentResolver.class.getResourceAsStream(REGEXES)) {
+            if (regexes == null) {
+                throw new IOException(REGEXES + " is not found");
+            }
+            Map<String, List<Map<String, String>>> config = (Map) new Yaml(new SafeConstructor()).load(regexes);
+            this.userAgents = new Section<>(config.get("user_agent_parsers"), "user_agent_parsers",
+                    parser -> parser::parseUserAgent, userAgent -> !OTHER.equals(userAgent.family));
+            this.operatingSystems = new Section<>(config.get("os_parsers"), "os_parsers",
+                    parser -> parser::parseOS, os -> !OTHER.equals(os.family));
+            this.devices = new Section<>(config.get("device_parsers"), "device_parsers",
+                    parser -> parser::parseDevice, device -> !OTHER.equals(device.family));
+        }
+        this.cache = cacheSize == 0 ? null : CacheBuilder.newBuilder()
+                .maximumSize(cacheSize)
+                .recordStats()
+                .build();
+    }
+
+    public ResolvedUserAgent resolve(String userAgent) {
+        if (cache == null) {
+            return parse(userAgent);
+        }
+        ResolvedUserAgent resolved = cache.getIfPresent(userAgent);
+        if (resolved == null) {
+            resolved = parse(userAgent);
+            cache.put(userAgent, resolved);
+        }
+        return resolved;
+    }
+
+    /**
+     * The hit rate of the cache, the cached user agents are not parsed again.
+     */
+    public CacheStats getCacheStats() {
+        return cache == null ? new CacheStats(0, 0, 0, 0, 0, 0) : cache.stats();
+    }
+
+    private ResolvedUserAgent parse(String userAgent) {
+        String lowerCase = userAgent.toLowerCase(Locale.ENGLISH);
+
+        Device device = devices.parse(userAgent, lowerCase);
+        String deviceFamily = device == null ? OTHER : device.family;
+        if (SPIDER.equals(deviceFamily)) {
+            return SPIDER_USER_AGENT;
+        }
+
+        UserAgent agent = userAgents.parse(userAgent, lowerCase);
+        OS os = operatingSystems.parse(userAgent, lowerCase);
+        return new ResolvedUserAgent(
+                agent == null ? OTHER : agent.family, agent == null ? null : agent.major,
+                os == null ? OTHER : os.family, os == null ? null : os.major,
+                deviceFamily);
+    }
+
+    public static class ResolvedUserAgent {
+        public final String userAgentFamily;
+        public final String userAgentMajor;
+        public final String osFamily;
+        public final String osMajor;
+        public final String deviceFamily;
+
+        public ResolvedUserAgent(String userAgentFamily, String userAgentMajor, String osFamily, String osMajor, String deviceFamily) {
+            this.userAgentFamily = userAgentFamily;
+            this.userAgentMajor = userAgentMajor;
+            this.osFamily = osFamily;
+            this.osMajor = osMajor;
+            this.deviceFamily = deviceFamily;
+        }
+
+        public boolean isSpider() {
+            return SPIDER.equals(deviceFamily);
+        }
+    }
+
+    /**
+     * The expressions of a section of regexes.yaml. Each expression is parsed by its own ua-parser instance so the
+     * replacements work exactly like ua-parser.
+     */
+    private static class Section<T> {
+        private final List<Function<String, T>> parsers = new ArrayList<>();
+        private final Function<T, Boolean> matched;
+        private final BitSet unfiltered = new BitSet();
+        private final LiteralIndex caseSensitive = new LiteralIndex();
+        private final LiteralIndex caseInsensitive = new LiteralIndex();
+
+        private Section(List<Map<String, String>> entries, String name, Function<Parser, Function<String, T>> parser, Function<T, Boolean> matched) {
+            this.matched = matched;
+            Yaml yaml = new Yaml();
+            for (int i = 0; i < entries.size(); i++) {
+                Map<String, String> entry = entries.get(i);
+                Map<String, List<Map<String, String>>> config = new HashMap<>(ImmutableMap.of(
+                        "user_agent_parsers", ImmutableList.of(),
+                        "os_parsers", ImmutableList.of(),
+                        "device_parsers", ImmutableList.of()));
+                config.put(name, ImmutableList.of(entry));
+                parsers.add(parser.apply(new Parser(new ByteArrayInputStream(yaml.dump(config).getBytes(UTF_8)))));
+
+                String regex = entry.get("regex");
+                Set<String> literals = RegexLiterals.requiredLiterals(regex);
+                if (literals == null) {
+                    unfiltered.set(i);
+                } else if ("i".equals(entry.get("regex_flag")) || regex.contains("(?i")) {
+                    for (String literal : literals) {
+                        caseInsensitive.add(literal.toLowerCase(Locale.ENGLISH), i);
+                    }
+                } else {
+                    for (String literal : literals) {
+                        caseSensitive.add(literal, i);
+                    }
+                }
+            }
+        }
+
+        /**
+         * @return null if none of the expressions match
+         */
+        private T parse(String userAgent, String lowerCase) {
+            BitSet candidates = (BitSet) unfiltered.clone();
+            caseSensitive.find(userAgent, candidates);
+            caseInsensitive.find(lowerCase, candidates);
+
+            for (int i = candidates.nextSetBit(0); i >= 0; i = candidates.nextSetBit(i + 1)) {
+                T result = parsers.get(i).apply(userAgent);
+                if (result != null && matched.apply(result)) {
+                    return result;
+                }
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Finds the literals in a string by looking up the first three characters of the literals at each position.
+     */
+    private static class LiteralIndex {
+        private final Map<Long, List<Literal>> literals = new HashMap<>();
+
+        private void add(String value, int expression) {
+            List<Literal> candidates = literals.computeIfAbsent(key(value, 0), k -> new ArrayList<>());
+            for (Literal literal : candidates) {
+                if (literal.value.equals(value)) {
+                    literal.expressions.set(expression);
+                    return;
+                }
+            }
+            Literal literal = new Literal(value);
+            literal.expressions.set(expression);
+            candidates.add(literal);
+        }
+
+        private void find(String value, BitSet candidates) {
+            if (literals.isEmpty()) {
+                return;
+            }
+            for (int i = 0; i + RegexLiterals.MIN_LENGTH <= value.length(); i++) {
+                List<Literal> list = literals.get(key(value, i));
+                if (list == null) {
+                    continue;
+                }
+                for (Literal literal : list) {
+                    if (value.startsWith(literal.value, i)) {
+                        candidates.or(literal.expressions);
+                    }
+                }
+            }
+        }
+
+        private static long key(String value, int position) {
+            return ((long) value.charAt(position) << 32) | ((long) value.charAt(position + 1) << 16) | value.charAt(position + 2);
+        }
+    }
+
+    private static class Literal {
+        private final String value;
+        private final BitSet expressions = new BitSet();
+
+        private Literal(String value) {
+            this.value = value;
+        }
+    }
+}
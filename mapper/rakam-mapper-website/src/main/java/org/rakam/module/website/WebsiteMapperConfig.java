@@ -1,11 +1,16 @@
 package org.rakam.module.website;
 
 import io.airlift.configuration.Config;
+import io.airlift.configuration.ConfigDescription;
+
+import javax.validation.constraints.Min;
 
 public class WebsiteMapperConfig {
     private boolean userAgent = true;
     private boolean referrer = true;
     private boolean trackSpiders = false;
+    private int userAgentCacheSize = 10000;
+    private int referrerCacheSize = 10000;
 
     public boolean getReferrer() {
         return referrer;
@@ -36,4 +41,28 @@ public class WebsiteMapperConfig {
         this.trackSpiders = true;
         return this;
     }
+
+    @Min(0)
+    public int getUserAgentCacheSize() {
+        return userAgentCacheSize;
+    }
+
+    @Config("module.website.mapper.user-agent.cache-size")
+    @ConfigDescription("The number of the parsed user agents that are cached, 0 disables the cache")
+    public WebsiteMapperConfig setUserAgentCacheSize(int userAgentCacheSize) {
+        this.userAgentCacheSize = userAgentCacheSize;
+        return this;
+    }
+
+    @Min(0)
+    public int getReferrerCacheSize() {
+        return referrerCacheSize;
+    }
+
+    @Config("module.website.mapper.referrer.cache-size")
+    @ConfigDescription("The number of the referrer and page host pairs whose classifications are cached, 0 disables the cache")
+    public WebsiteMapperConfig setReferrerCacheSize(int referrerCacheSize) {
+        this.referrerCacheSize = referrerCacheSize;
+        return this;
+    }
 }
@@ -0,0 +1,73 @@
+package org.rakam.module.website;
+
+import com.snowplowanalytics.refererparser.Medium;
+import com.snowplowanalytics.refererparser.Parser;
+import com.snowplowanalytics.refererparser.Referer;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import java.net.URI;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertSame;
+
+public class TestReferrerClassifier {
+    @DataProvider(name = "referrers")
+    public static Object[][] referrers() {
+        return new Object[][]{
+                {"https://www.google.com/search?q=rakam+analytics", null},
+                {"https://www.google.com/url?sa=t&q=&esrc=s", "rakam.io"},
+                {"https://mail.google.com/mail/u/0/", null},
+                {"https://www.bing.com/search?form=QBLH&q=event%20analytics", "rakam.io"},
+                {"https://search.yahoo.com/search;_ylt=A0LEV?p=test", null},
+                {"https://www.facebook.com/", "rakam.io"},
+                {"https://rakam.io/docs", "rakam.io"},
+                {"http://test.com", null}
+        };
+    }
+
+    @Test(dataProvider = "referrers")
+    public void testSameAsParser(String referrer, String pageHost) throws Exception {
+        Referer expected = new Parser().parse(new URI(referrer), pageHost);
+        UrlParts url = UrlParts.parse(referrer);
+        ReferrerClassifier.Classification classification = new ReferrerClassifier(0).classify(url.host, url.rawPath, pageHost);
+
+        assertEquals(classification.medium, expected.medium);
+        assertEquals(classification.source, expected.source);
+        assertEquals(classification.getTerm(url.rawQuery), expected.term);
+    }
+
+    @Test
+    public void testCache() throws Exception {
+        ReferrerClassifier classifier = new ReferrerClassifier(10);
+
+        ReferrerClassifier.Classification first = classifier.classify("www.google.com", "/search", "rakam.io");
+        assertSame(classifier.classify("www.google.com", "/search", "rakam.io"), first);
+        assertSame(classifier.classify("rakam.io", "/", "rakam.io"), ReferrerClassifier.INTERNAL);
+
+        assertEquals(classifier.getCacheStats().hitCount(), 1);
+        assertEquals(classifier.getCacheStats().missCount(), 2);
+        assertEquals(first.medium, Medium.SEARCH);
+        assertEquals(first.getTerm("q=rakam+analytics&hl=en"), "rakam analytics");
+    }
+
+    @Test
+    public void testUrlParts() {
+        UrlParts url = UrlParts.parse("http://user@Rakam.io:8080/a%20b?q=1%2B+2#fragment");
+        assertEquals(url.scheme, "http");
+        assertEquals(url.host, "Rakam.io");
+        assertEquals(url.rawPath, "/a%20b");
+        assertEquals(url.rawQuery, "q=1%2B+2");
+
+        url = UrlParts.parse("https://rakam.io");
+        assertEquals(url.rawPath, "");
+        assertNull(url.rawQuery);
+
+        assertNull(UrlParts.parse("rakam.io/path"));
+        assertNull(UrlParts.parse("http:///path"));
+        assertEquals(UrlParts.decode("a%20b+c", false), "a b+c");
+        assertEquals(UrlParts.decode("a%20b+c", true), "a b c");
+        assertNull(UrlParts.decode("a%2", false));
+    }
+}
@@ -0,0 +1,80 @@
+package org.rakam.module.website;
+
+import com.google.common.collect.ImmutableSet;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+import ua_parser.Client;
+import ua_parser.Parser;
+
+import java.io.IOException;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+
+public class TestUserAgentResolver {
+    @DataProvider(name = "user-agents")
+    public static Object[][] userAgents() {
+        return new Object[][]{
+                {"Mozilla/5.0 (Macintosh; Intel Mac OS X 10_11_2) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/47.0.2526.111 Safari/537.36"},
+                {"Mozilla/5.0 (Windows NT 10.0; Win64; x64) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/58.0.3029.110 Safari/537.36 Edge/16.16299"},
+                {"Mozilla/5.0 (Windows NT 6.1; WOW64; Trident/7.0; rv:11.0) like Gecko"},
+                {"Mozilla/5.0 (X11; Ubuntu; Linux x86_64; rv:52.0) Gecko/20100101 Firefox/52.0"},
+                {"Mozilla/5.0 (iPhone; CPU iPhone OS 10_3_1 like Mac OS X) AppleWebKit/603.1.30 (KHTML, like Gecko) Version/10.0 Mobile/14E304 Safari/602.1"},
+                {"Mozilla/5.0 (Linux; Android 7.0; SM-G930V Build/NRD90M) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/59.0.3071.125 Mobile Safari/537.36"},
+                {"Opera/9.80 (Android; Opera Mini/7.5.33361/31.1448; U; en) Presto/2.8.119 Version/11.1010"},
+                {"Mozilla/5.0 (Linux; U; Android 4.4.2; zh-CN; HM NOTE 1S Build/KVT49L) AppleWebKit/534.30 (KHTML, like Gecko) Version/4.0 UCBrowser/9.9.5.489 U3/0.8.0 Mobile Safari/534.30"},
+                {"Mozilla/4.0 (compatible; MSIE 6.0; Windows NT 5.1; SV1)"},
+                {"NokiaN95/11.0.026; Series60/3.1 Profile/MIDP-2.0 Configuration/CLDC-1.1"},
+                {"curl/7.54.0"},
+                {"unknown user agent"}
+        };
+    }
+
+    @Test(dataProvider = "user-agents")
+    public void testSameAsParser(String userAgent) throws IOException {
+        Client expected = new Parser().parse(userAgent);
+        UserAgentResolver.ResolvedUserAgent resolved = new UserAgentResolver(0).resolve(userAgent);
+
+        assertFalse(resolved.isSpider());
+        assertEquals(resolved.userAgentFamily, expected.userAgent.family);
+        assertEquals(resolved.userAgentMajor, expected.userAgent.major);
+        assertEquals(resolved.osFamily, expected.os.family);
+        assertEquals(resolved.osMajor, expected.os.major);
+        assertEquals(resolved.deviceFamily, expected.device.family);
+    }
+
+    @Test
+    public void testSpider() throws IOException {
+        UserAgentResolver resolver = new UserAgentResolver(0);
+
+        assertSame(resolver.resolve("Mozilla/5.0 (compatible; Googlebot/2.1; +http://www.google.com/bot.html)"),
+                UserAgentResolver.SPIDER_USER_AGENT);
+        assertTrue(resolver.resolve("Mozilla/5.0 (compatible; bingbot/2.0; +http://www.bing.com/bingbot.htm)").isSpider());
+    }
+
+    @Test
+    public void testCache() throws IOException {
+        UserAgentResolver resolver = new UserAgentResolver(10);
+        String userAgent = "Mozilla/5.0 (X11; Ubuntu; Linux x86_64; rv:52.0) Gecko/20100101 Firefox/52.0";
+
+        UserAgentResolver.ResolvedUserAgent first = resolver.resolve(userAgent);
+        assertSame(resolver.resolve(userAgent), first);
+        assertEquals(resolver.getCacheStats().hitCount(), 1);
+        assertEquals(resolver.getCacheStats().missCount(), 1);
+    }
+
+    @Test
+    public void testRequiredLiterals() {
+        assertEquals(RegexLiterals.requiredLiterals("Chrome/(\\d+)\\.(\\d+)"), ImmutableSet.of("Chrome/"));
+        assertEquals(RegexLiterals.requiredLiterals("(Opera)/.+Opera Mobi.+Version/(\\d+)\\.(\\d+)"), ImmutableSet.of("Opera Mobi"));
+        assertEquals(RegexLiterals.requiredLiterals("(Kindle|Silk)/(\\d+)"), ImmutableSet.of("Kindle", "Silk"));
+        assertEquals(RegexLiterals.requiredLiterals("foo?bar"), ImmutableSet.of("bar"));
+        assertEquals(RegexLiterals.requiredLiterals("x{2,}yzw"), ImmutableSet.of("xyzw"));
+        assertNull(RegexLiterals.requiredLiterals("abc|de"));
+        assertNull(RegexLiterals.requiredLiterals("(?:Bot)?[a-z]+"));
+        assertNull(RegexLiterals.requiredLiterals("(?=Mobile)\\w+"));
+    }
+}
@@ -6,7 +6,10 @@ import com.amazonaws.auth.DefaultAWSCredentialsProviderChain;
 import com.amazonaws.internal.StaticCredentialsProvider;
 import com.amazonaws.regions.Region;
 import io.airlift.configuration.Config;
+import io.airlift.configuration.ConfigDescription;
+import org.rakam.aws.kinesis.KinesisPartitioner;
 
+import javax.validation.constraints.Min;
 import javax.validation.constraints.NotNull;
 
 public class AWSConfig {
@@ -18,6 +21,14 @@ public class AWSConfig {
     private String s3Endpoint;
     private String kinesisEndpoint;
     private String dynamodbEndpoint;
+    private int kinesisMaxInFlightRecords = 50000;
+    private long kinesisInFlightWaitMillis = 1000;
+    private KinesisPartitioner.Strategy kinesisPartitionKey = KinesisPartitioner.Strategy.USER;
+    private int kinesisHotKeyThreshold = 500;
+    private int kinesisHotKeySalts = 8;
+    private int bulkS3PartSize = 8 * 1024 * 1024;
+    private int bulkS3UploadThreads = 8;
+    private int bulkS3PartRetries = 3;
 
     public String getEventStoreStreamName() {
         return eventStoreStreamName;
@@ -39,6 +50,41 @@ public class AWSConfig {
         return this;
     }
 
+    @Min(5 * 1024 * 1024)
+    public int getBulkS3PartSize() {
+        return bulkS3PartSize;
+    }
+
+    @Config("event.store.bulk.s3-part-size")
+    @ConfigDescription("The size of the parts of the bulk files in bytes, S3 requires at least 5MB")
+    public AWSConfig setBulkS3PartSize(int bulkS3PartSize) {
+        this.bulkS3PartSize = bulkS3PartSize;
+        return this;
+    }
+
+    @Min(1)
+    public int getBulkS3UploadThreads() {
+        return bulkS3UploadThreads;
+    }
+
+    @Config("event.store.bulk.s3-upload-threads")
+    @ConfigDescription("The number of parts that are uploaded concurrently")
+    public AWSConfig setBulkS3UploadThreads(int bulkS3UploadThreads) {
+        this.bulkS3UploadThreads = bulkS3UploadThreads;
+        return this;
+    }
+
+    @Min(0)
+    public int getBulkS3PartRetries() {
+        return bulkS3PartRetries;
+    }
+
+    @Config("event.store.bulk.s3-part-retries")
+    public AWSConfig setBulkS3PartRetries(int bulkS3PartRetries) {
+        this.bulkS3PartRetries = bulkS3PartRetries;
+        return this;
+    }
+
     public String getAccessKey() {
         return accessKey;
     }
@@ -89,6 +135,65 @@ public class AWSConfig {
         return this;
     }
 
+    @Min(1)
+    public int getKinesisMaxInFlightRecords() {
+        return kinesisMaxInFlightRecords;
+    }
+
+    @Config("event.store.kinesis.max-in-flight-records")
+    @ConfigDescription("The number of records that can be buffered by the Kinesis producer before they're acknowledged")
+    public AWSConfig setKinesisMaxInFlightRecords(int kinesisMaxInFlightRecords) {
+        this.kinesisMaxInFlightRecords = kinesisMaxInFlightRecords;
+        return this;
+    }
+
+    @Min(0)
+    public long getKinesisInFlightWaitMillis() {
+        return kinesisInFlightWaitMillis;
+    }
+
+    @Config("event.store.kinesis.in-flight-wait-ms")
+    @ConfigDescription("The time that a batch waits for the in-flight records before its remaining events are reported as failed")
+    public AWSConfig setKinesisInFlightWaitMillis(long kinesisInFlightWaitMillis) {
+        this.kinesisInFlightWaitMillis = kinesisInFlightWaitMillis;
+        return this;
+    }
+
+    @NotNull
+    public KinesisPartitioner.Strategy getKinesisPartitionKey() {
+        return kinesisPartitionKey;
+    }
+
+    @Config("event.store.kinesis.partition-key")
+    @ConfigDescription("The partition key of the events, one of random, user, collection and composite")
+    public AWSConfig setKinesisPartitionKey(KinesisPartitioner.Strategy kinesisPartitionKey) {
+        this.kinesisPartitionKey = kinesisPartitionKey;
+        return this;
+    }
+
+    @Min(1)
+    public int getKinesisHotKeyThreshold() {
+        return kinesisHotKeyThreshold;
+    }
+
+    @Config("event.store.kinesis.hot-key-threshold")
+    @ConfigDescription("The number of records per second after which the records of a partition key are spread over multiple keys")
+    public AWSConfig setKinesisHotKeyThreshold(int kinesisHotKeyThreshold) {
+        this.kinesisHotKeyThreshold = kinesisHotKeyThreshold;
+        return this;
+    }
+
+    @Min(1)
+    public int getKinesisHotKeySalts() {
+        return kinesisHotKeySalts;
+    }
+
+    @Config("event.store.kinesis.hot-key-salts")
+    public AWSConfig setKinesisHotKeySalts(int kinesisHotKeySalts) {
+        this.kinesisHotKeySalts = kinesisHotKeySalts;
+        return this;
+    }
+
     public AWSCredentialsProvider getCredentials() {
         // TODO: add an extra option the allow these values to be NULL.
         if (accessKey == null || secretAccessKey == null) {
@@ -9,33 +9,41 @@ import com.amazonaws.services.kinesis.model.PutRecordRequest;
 import com.amazonaws.services.kinesis.model.PutRecordResult;
 import com.amazonaws.services.kinesis.producer.KinesisProducer;
 import com.amazonaws.services.kinesis.producer.KinesisProducerConfiguration;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.cache.LoadingCache;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
 import io.airlift.log.Logger;
 import io.netty.buffer.ByteBuf;
-import io.netty.buffer.ByteBufOutputStream;
-import io.netty.handler.codec.http.HttpResponseStatus;
-import org.apache.avro.generic.FilteredRecordWriter;
-import org.apache.avro.generic.GenericData;
+import org.apache.avro.Schema;
 import org.apache.avro.io.BinaryEncoder;
-import org.apache.avro.io.DatumWriter;
-import org.apache.avro.io.EncoderFactory;
 import org.rakam.analysis.metadata.Metastore;
 import org.rakam.aws.AWSConfig;
 import org.rakam.aws.s3.S3BulkEventStore;
 import org.rakam.collection.Event;
 import org.rakam.collection.FieldDependencyBuilder.FieldDependency;
+import org.rakam.config.ProjectConfig;
 import org.rakam.plugin.EventStore;
+import org.rakam.util.AvroRecordSerializer;
 import org.rakam.util.RakamException;
 
+import javax.annotation.PreDestroy;
 import javax.inject.Inject;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.nio.ByteBuffer;
+import java.util.BitSet;
 import java.util.List;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import static com.google.common.util.concurrent.MoreExecutors.directExecutor;
 import static io.netty.buffer.PooledByteBufAllocator.DEFAULT;
 import static io.netty.handler.codec.http.HttpResponseStatus.BAD_REQUEST;
 import static io.netty.handler.codec.http.HttpResponseStatus.INTERNAL_SERVER_ERROR;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
 
 public class AWSKinesisEventStore
         implements EventStore {
@@ -45,11 +53,41 @@ public class AWSKinesisEventStore
     private final AWSConfig config;
     private final S3BulkEventStore bulkClient;
     private final KinesisProducer producer;
+    private final RecordProducer recordProducer;
+    private final Semaphore inFlightRecords;
+    private final KinesisPartitioner partitioner;
+    private final LoadingCache<Schema, AvroRecordSerializer> serializers = AvroRecordSerializer.cache(AvroRecordSerializer::isNotNullField);
 
     @Inject
     public AWSKinesisEventStore(AWSConfig config,
+                                ProjectConfig projectConfig,
                                 Metastore metastore,
                                 FieldDependency fieldDependency) {
+        this(config, projectConfig, createClient(config), new S3BulkEventStore(metastore, config, fieldDependency), createProducer(config));
+    }
+
+    @VisibleForTesting
+    public AWSKinesisEventStore(AWSConfig config, ProjectConfig projectConfig, RecordProducer recordProducer) {
+        this(config, projectConfig, null, null, null, recordProducer);
+    }
+
+    private AWSKinesisEventStore(AWSConfig config, ProjectConfig projectConfig, AmazonKinesisAsync kinesis,
+                                 S3BulkEventStore bulkClient, KinesisProducer producer) {
+        this(config, projectConfig, kinesis, bulkClient, producer, producer::addUserRecord);
+    }
+
+    private AWSKinesisEventStore(AWSConfig config, ProjectConfig projectConfig, AmazonKinesisAsync kinesis,
+                                 S3BulkEventStore bulkClient, KinesisProducer producer, RecordProducer recordProducer) {
+        this.config = config;
+        this.partitioner = new KinesisPartitioner(config, projectConfig.getUserColumn());
+        this.kinesis = kinesis;
+        this.bulkClient = bulkClient;
+        this.producer = producer;
+        this.recordProducer = recordProducer;
+        this.inFlightRecords = new Semaphore(config.getKinesisMaxInFlightRecords());
+    }
+
+    private static AmazonKinesisAsync createClient(AWSConfig config) {
         AmazonKinesisAsyncClientBuilder builder = AmazonKinesisAsyncClient.asyncBuilder().withCredentials(config.getCredentials());
         if (config.getRegion() != null) {
             builder.setRegion(config.getRegion());
@@ -58,10 +96,10 @@ public class AWSKinesisEventStore
             builder.setEndpointConfiguration(new AwsClientBuilder.EndpointConfiguration(config.getRegion(), null));
         }
 
-        kinesis = builder.build();
-        this.config = config;
-        this.bulkClient = new S3BulkEventStore(metastore, config, fieldDependency);
+        return builder.build();
+    }
 
+    private static KinesisProducer createProducer(AWSConfig config) {
         KinesisProducerConfiguration producerConfiguration = new KinesisProducerConfiguration()
                 .setCredentialsProvider(config.getCredentials());
 
@@ -79,41 +117,107 @@ public class AWSKinesisEventStore
                 throw new IllegalStateException(String.format("Kinesis endpoint is invalid: %s", config.getKinesisEndpoint()));
             }
         }
-        producer = new KinesisProducer(producerConfiguration);
+        return new KinesisProducer(producerConfiguration);
     }
 
+    /**
+     * Adds the events to the producer without waiting for them to be sent. The returned future is completed by the
+     * callbacks of the records when all of them are either acknowledged or failed and contains the indexes of the failed
+     * events. An event waits for {@code event.store.kinesis.in-flight-wait-ms} when the producer already buffers
+     * {@code event.store.kinesis.max-in-flight-records} records, if the producer can't catch up the remaining events of
+     * the batch are reported as failed instead of buffering them.
+     */
     public CompletableFuture<int[]> storeBatchInline(List<Event> events) {
-        ByteBuf[] byteBufs = new ByteBuf[events.size()];
+        if (events.isEmpty()) {
+            return EventStore.COMPLETED_FUTURE_BATCH;
+        }
 
-        try {
-            for (int i = 0; i < events.size(); i++) {
-                Event event = events.get(i);
-                ByteBuf buffer = getBuffer(event);
+        BatchCompletion completion = new BatchCompletion(events.size());
+        for (int i = 0; i < events.size(); i++) {
+            if (!acquireInFlight()) {
+                LOGGER.warn("Kinesis producer has %d records in flight, failing %d events of the batch",
+                        config.getKinesisMaxInFlightRecords(), events.size() - i);
+                for (int j = i; j < events.size(); j++) {
+                    completion.failed(j);
+                }
+                break;
+            }
+
+            int index = i;
+            Event event = events.get(i);
+            ListenableFuture<?> future;
+            ByteBuf buffer = getBuffer(event);
+            try {
                 ByteBuffer data = buffer.nioBuffer();
                 try {
-                    producer.addUserRecord(config.getEventStoreStreamName(),
-                            getPartitionKey(event),
-                            data);
+                    // the producer copies the data before returning
+                    future = recordProducer.addUserRecord(config.getEventStoreStreamName(), partitioner.getPartitionKey(event), data);
                 } catch (IllegalArgumentException e) {
                     if (data.remaining() > 1048576) {
+                        // the events that are already added release their permits in their callbacks
+                        inFlightRecords.release();
                         throw new RakamException("Too many event properties, the total size of an event must be less than or equal to 1MB, got " + data.remaining(),
                                 BAD_REQUEST);
                     }
+                    LOGGER.error(e, "Kinesis producer rejected the event");
+                    inFlightRecords.release();
+                    completion.failed(index);
+                    continue;
                 }
-                byteBufs[i] = buffer;
+            } finally {
+                buffer.release();
             }
 
-            // TODO: async callback?
-            producer.flush();
-        } finally {
-            for (ByteBuf byteBuf : byteBufs) {
-                if (byteBuf != null) {
-                    byteBuf.release();
+            Futures.addCallback(future, new FutureCallback<Object>() {
+                @Override
+                public void onSuccess(Object result) {
+                    inFlightRecords.release();
+                    completion.succeeded();
                 }
-            }
+
+                @Override
+                public void onFailure(Throwable t) {
+                    inFlightRecords.release();
+                    LOGGER.error(t, "Error while sending event to Kinesis");
+                    completion.failed(index);
+                }
+            }, directExecutor());
+        }
+
+        return completion.future;
+    }
+
+    private boolean acquireInFlight() {
+        if (inFlightRecords.tryAcquire()) {
+            return true;
+        }
+        try {
+            return inFlightRecords.tryAcquire(config.getKinesisInFlightWaitMillis(), MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
         }
+    }
+
+    public KinesisPartitioner getPartitioner() {
+        return partitioner;
+    }
 
-        return EventStore.COMPLETED_FUTURE_BATCH;
+    @VisibleForTesting
+    public int getInFlightRecords() {
+        return config.getKinesisMaxInFlightRecords() - inFlightRecords.availablePermits();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        if (producer != null) {
+            producer.flushSync();
+            producer.destroy();
+        }
+        // the bulk store is not created by the injector so it's not closed by the lifecycle manager
+        if (bulkClient != null) {
+            bulkClient.shutdown();
+        }
     }
 
     @Override
@@ -123,11 +227,8 @@ public class AWSKinesisEventStore
         }
         String project = events.get(0).project();
         try {
-            bulkClient.upload(project, events, 3);
-        } catch (OutOfMemoryError e) {
-            LOGGER.error(e, "OOM error while uploading bulk");
-            throw new RakamException("Too much data", HttpResponseStatus.BAD_REQUEST);
-        } catch (Throwable e) {
+            bulkClient.upload(project, events);
+        } catch (Exception e) {
             LOGGER.error(e);
             throw new RakamException("An error occurred while storing events", INTERNAL_SERVER_ERROR);
         }
@@ -145,31 +246,8 @@ public class AWSKinesisEventStore
         return future;
     }
 
-    private String getPartitionKey(Event event) {
-        int user =  getRandomNumberInRange(0, 100000);
-//        Object user = event.getAttribute("_user");
-//        if (user == null) {
-//            user = event.getAttribute("_device_id");
-//        }
-//
-//        if (user == null) {
-//            user = getRandomNumberInRange(0, 100000);
-//        }
-
-        return event.project() + "|" + event.collection() + user;
-    }
-
-    private static int getRandomNumberInRange(int min, int max) {
-
-        if (min >= max) {
-            throw new IllegalArgumentException("max must be greater than min");
-        }
-
-        return (int) (Math.random() * ((max - min) + 1)) + min;
-    }
-
     public void store(Event event, CompletableFuture<Void> future, int tryCount) {
-        store(getBuffer(event), getPartitionKey(event), future, tryCount);
+        store(getBuffer(event), partitioner.getPartitionKey(event), future, tryCount);
     }
 
     public void store(ByteBuf buffer, String partitionKey, CompletableFuture<Void> future, int tryCount) {
@@ -209,21 +287,59 @@ public class AWSKinesisEventStore
     }
 
     private ByteBuf getBuffer(Event event) {
-        DatumWriter writer = new FilteredRecordWriter(event.properties().getSchema(), GenericData.get());
-        ByteBuf buffer = DEFAULT.buffer(100);
-        buffer.writeByte(2);
-
-        BinaryEncoder encoder = EncoderFactory.get()
-                .directBinaryEncoder(new ByteBufOutputStream(buffer), null);
+        AvroRecordSerializer.Output output = AvroRecordSerializer.output();
+        BinaryEncoder encoder = output.encoder();
 
         try {
+            output.write(2);
             encoder.writeString(event.collection());
 
-            writer.write(event.properties(), encoder);
+            serializers.getUnchecked(event.properties().getSchema()).serialize(event.properties(), encoder);
         } catch (Exception e) {
             throw new RuntimeException("Couldn't serialize event", e);
         }
 
+        ByteBuf buffer = DEFAULT.buffer(output.size());
+        buffer.writeBytes(output.getBuffer(), 0, output.size());
         return buffer;
     }
-}
\ No newline at end of file
+
+    /**
+     * The part of {@link KinesisProducer} that is used by the event store.
+     */
+    @VisibleForTesting
+    public interface RecordProducer {
+        ListenableFuture<?> addUserRecord(String stream, String partitionKey, ByteBuffer data);
+    }
+
+    private static class BatchCompletion {
+        private final CompletableFuture<int[]> future = new CompletableFuture<>();
+        private final AtomicInteger remaining;
+        private final BitSet failedIndexes = new BitSet();
+
+        private BatchCompletion(int size) {
+            this.remaining = new AtomicInteger(size);
+        }
+
+        private void succeeded() {
+            if (remaining.decrementAndGet() == 0) {
+                complete();
+            }
+        }
+
+        private void failed(int index) {
+            synchronized (failedIndexes) {
+                failedIndexes.set(index);
+            }
+            succeeded();
+        }
+
+        private void complete() {
+            int[] failed;
+            synchronized (failedIndexes) {
+                failed = failedIndexes.isEmpty() ? EventStore.SUCCESSFUL_BATCH : failedIndexes.stream().toArray();
+            }
+            future.complete(failed);
+        }
+    }
+}
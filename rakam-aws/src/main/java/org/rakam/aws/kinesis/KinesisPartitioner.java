@@ -0,0 +1,162 @@
+package org.rakam.aws.kinesis;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Ticker;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import org.rakam.aws.AWSConfig;
+import org.rakam.collection.Event;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Assigns the partition keys of the events that are sent to Kinesis. The events with the same partition key are written
+ * to the same shard in order, so the strategy decides which events keep their order and how evenly the shards are used.
+ * <p>
+ * The records of each key are counted in one second windows. A shard accepts at most 1000 records per second so when a
+ * key exceeds {@code event.store.kinesis.hot-key-threshold} records in a window, its records are spread over
+ * {@code event.store.kinesis.hot-key-salts} keys until the key cools down. The events of a hot key lose their order
+ * while the key is salted, the other keys are not affected.
+ */
+public class KinesisPartitioner {
+    // the maximum length of a partition key in Kinesis
+    private static final int MAX_KEY_LENGTH = 256;
+    private static final int MAX_TRACKED_KEYS = 100000;
+    private static final long WINDOW_NANOS = TimeUnit.SECONDS.toNanos(1);
+    private static final HashFunction HASH = Hashing.murmur3_128();
+
+    private final Strategy strategy;
+    private final String userColumn;
+    private final int hotKeyThreshold;
+    private final int hotKeySalts;
+    private final Ticker ticker;
+
+    private final Map<String, AtomicInteger> window = new ConcurrentHashMap<>();
+    private final AtomicLong saltedRecords = new AtomicLong();
+    private volatile long windowStart;
+    private volatile Set<String> hotKeys = ImmutableSet.of();
+
+    public KinesisPartitioner(AWSConfig config, String userColumn) {
+        this(config.getKinesisPartitionKey(), userColumn, config.getKinesisHotKeyThreshold(),
+                config.getKinesisHotKeySalts(), Ticker.systemTicker());
+    }
+
+    @VisibleForTesting
+    KinesisPartitioner(Strategy strategy, String userColumn, int hotKeyThreshold, int hotKeySalts, Ticker ticker) {
+        this.strategy = strategy;
+        this.userColumn = userColumn;
+        this.hotKeyThreshold = hotKeyThreshold;
+        this.hotKeySalts = hotKeySalts;
+        this.ticker = ticker;
+        this.windowStart = ticker.read();
+    }
+
+    public String getPartitionKey(Event event) {
+        String key;
+        switch (strategy) {
+            case RANDOM:
+                return randomKey(event);
+            case USER:
+                Object user = event.getAttribute(userColumn);
+                if (user == null) {
+                    return randomKey(event);
+                }
+                key = event.project() + "|" + user;
+                break;
+            case COLLECTION:
+                key = event.project() + "|" + event.collection();
+                break;
+            case COMPOSITE:
+                Object compositeUser = event.getAttribute(userColumn);
+                key = HASH.hashString(event.project() + "|" + event.collection() + "|" + compositeUser, UTF_8).toString();
+                break;
+            default:
+                throw new IllegalStateException();
+        }
+
+        if (key.length() > MAX_KEY_LENGTH) {
+            key = HASH.hashString(key, UTF_8).toString();
+        }
+
+        if (isHot(key)) {
+            saltedRecords.incrementAndGet();
+            return key + "#" + ThreadLocalRandom.current().nextInt(hotKeySalts);
+        }
+        return key;
+    }
+
+    private boolean isHot(String key) {
+        long now = ticker.read();
+        if (now - windowStart >= WINDOW_NANOS) {
+            rotate(now);
+        }
+
+        AtomicInteger counter = window.get(key);
+        if (counter == null) {
+            if (window.size() >= MAX_TRACKED_KEYS) {
+                return hotKeys.contains(key);
+            }
+            counter = window.computeIfAbsent(key, k -> new AtomicInteger());
+        }
+
+        return counter.incrementAndGet() > hotKeyThreshold || hotKeys.contains(key);
+    }
+
+    private synchronized void rotate(long now) {
+        if (now - windowStart < WINDOW_NANOS) {
+            return;
+        }
+        ImmutableSet.Builder<String> builder = ImmutableSet.builder();
+        for (Map.Entry<String, AtomicInteger> entry : window.entrySet()) {
+            if (entry.getValue().get() > hotKeyThreshold) {
+                builder.add(entry.getKey());
+            }
+        }
+        hotKeys = builder.build();
+        window.clear();
+        windowStart = now;
+    }
+
+    private static String randomKey(Event event) {
+        return event.project() + "|" + event.collection() + ThreadLocalRandom.current().nextInt(100001);
+    }
+
+    /**
+     * The keys that exceeded the threshold in the last window and are salted in the current window.
+     */
+    public Set<String> getHotKeys() {
+        return hotKeys;
+    }
+
+    public long getSaltedRecordCount() {
+        return saltedRecords.get();
+    }
+
+    public enum Strategy {
+        /**
+         * Spreads the events over all the shards, the events are not ordered.
+         */
+        RANDOM,
+        /**
+         * Keeps the events of a user in order, the events without a user are spread randomly.
+         */
+        USER,
+        /**
+         * Keeps the events of a collection in order.
+         */
+        COLLECTION,
+        /**
+         * Keeps the events of a user in a collection in order.
+         */
+        COMPOSITE
+    }
+}
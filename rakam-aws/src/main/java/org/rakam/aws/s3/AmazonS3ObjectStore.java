@@ -0,0 +1,81 @@
+package org.rakam.aws.s3;
+
+import com.amazonaws.services.s3.AmazonS3;
+import com.amazonaws.services.s3.model.AbortMultipartUploadRequest;
+import com.amazonaws.services.s3.model.CompleteMultipartUploadRequest;
+import com.amazonaws.services.s3.model.InitiateMultipartUploadRequest;
+import com.amazonaws.services.s3.model.ObjectMetadata;
+import com.amazonaws.services.s3.model.PartETag;
+import com.amazonaws.services.s3.model.PutObjectRequest;
+import com.amazonaws.services.s3.model.UploadPartRequest;
+
+import java.io.ByteArrayInputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+public class AmazonS3ObjectStore
+        implements ObjectStore {
+    private final AmazonS3 s3Client;
+    private final String bucket;
+    private final String contentEncoding;
+
+    public AmazonS3ObjectStore(AmazonS3 s3Client, String bucket, String contentEncoding) {
+        this.s3Client = s3Client;
+        this.bucket = bucket;
+        this.contentEncoding = contentEncoding;
+    }
+
+    @Override
+    public void putObject(String key, byte[] data, int length) {
+        ObjectMetadata objectMetadata = metadata();
+        objectMetadata.setContentLength(length);
+        PutObjectRequest request = new PutObjectRequest(bucket, key, new ByteArrayInputStream(data, 0, length), objectMetadata);
+        request.getRequestClientOptions().setReadLimit(length);
+        s3Client.putObject(request);
+    }
+
+    @Override
+    public String initiateMultipartUpload(String key) {
+        return s3Client.initiateMultipartUpload(new InitiateMultipartUploadRequest(bucket, key, metadata())).getUploadId();
+    }
+
+    @Override
+    public String uploadPart(String key, String uploadId, int partNumber, byte[] data, int length) {
+        UploadPartRequest request = new UploadPartRequest()
+                .withBucketName(bucket)
+                .withKey(key)
+                .withUploadId(uploadId)
+                .withPartNumber(partNumber)
+                .withInputStream(new ByteArrayInputStream(data, 0, length))
+                .withPartSize(length);
+        request.getRequestClientOptions().setReadLimit(length);
+        return s3Client.uploadPart(request).getETag();
+    }
+
+    @Override
+    public void completeMultipartUpload(String key, String uploadId, List<String> partETags) {
+        List<PartETag> parts = new ArrayList<>(partETags.size());
+        for (int i = 0; i < partETags.size(); i++) {
+            parts.add(new PartETag(i + 1, partETags.get(i)));
+        }
+        s3Client.completeMultipartUpload(new CompleteMultipartUploadRequest(bucket, key, uploadId, parts));
+    }
+
+    @Override
+    public void abortMultipartUpload(String key, String uploadId) {
+        s3Client.abortMultipartUpload(new AbortMultipartUploadRequest(bucket, key, uploadId));
+    }
+
+    @Override
+    public void deleteObject(String key) {
+        s3Client.deleteObject(bucket, key);
+    }
+
+    private ObjectMetadata metadata() {
+        ObjectMetadata objectMetadata = new ObjectMetadata();
+        if (contentEncoding != null) {
+            objectMetadata.setContentEncoding(contentEncoding);
+        }
+        return objectMetadata;
+    }
+}
@@ -0,0 +1,204 @@
+package org.rakam.aws.s3;
+
+import io.airlift.log.Logger;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Uploads the written bytes to the object store in fixed-size parts while the object is being written. The parts are
+ * uploaded concurrently by the executor and the number of the parts that are kept in memory is bounded by the permits
+ * of {@code pendingParts} which can be shared by the streams, the writer waits for an upload to finish when there are
+ * no permits left. A part that can't be uploaded is retried alone and the upload is aborted if it still fails. The
+ * objects that are smaller than a part are uploaded with a single request.
+ */
+public class MultipartUploadOutputStream
+        extends OutputStream {
+    private final static Logger LOGGER = Logger.get(MultipartUploadOutputStream.class);
+
+    private final ObjectStore store;
+    private final String key;
+    private final int partSize;
+    private final int partRetries;
+    private final Executor executor;
+    private final Semaphore pendingParts;
+    private final List<CompletableFuture<String>> parts = new ArrayList<>();
+
+    private byte[] buffer;
+    private int position;
+    private long size;
+    private String uploadId;
+    private boolean closed;
+
+    public MultipartUploadOutputStream(ObjectStore store, String key, int partSize, int partRetries, Executor executor, Semaphore pendingParts) {
+        this.store = store;
+        this.key = key;
+        this.partSize = partSize;
+        this.partRetries = partRetries;
+        this.executor = executor;
+        this.pendingParts = pendingParts;
+        this.buffer = new byte[partSize];
+    }
+
+    @Override
+    public void write(int b)
+            throws IOException {
+        if (position == partSize) {
+            uploadPart();
+        }
+        buffer[position++] = (byte) b;
+        size++;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len)
+            throws IOException {
+        while (len > 0) {
+            if (position == partSize) {
+                uploadPart();
+            }
+            int length = Math.min(len, partSize - position);
+            System.arraycopy(b, off, buffer, position, length);
+            position += length;
+            size += length;
+            off += length;
+            len -= length;
+        }
+    }
+
+    /**
+     * The number of bytes that are written to the object.
+     */
+    public long getSize() {
+        return size;
+    }
+
+    @Override
+    public void close()
+            throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+
+        if (uploadId == null) {
+            byte[] data = buffer;
+            int length = position;
+            buffer = null;
+            retry(() -> {
+                store.putObject(key, data, length);
+                return null;
+            }, "object");
+            return;
+        }
+
+        uploadPart();
+
+        List<String> etags = new ArrayList<>(parts.size());
+        try {
+            for (CompletableFuture<String> part : parts) {
+                etags.add(part.join());
+            }
+            store.completeMultipartUpload(key, uploadId, etags);
+        } catch (RuntimeException e) {
+            abort();
+            throw new IOException("Unable to upload " + key, e instanceof CompletionException ? e.getCause() : e);
+        }
+    }
+
+    private void uploadPart()
+            throws IOException {
+        try {
+            if (uploadId == null) {
+                uploadId = store.initiateMultipartUpload(key);
+            }
+            for (CompletableFuture<String> part : parts) {
+                if (part.isCompletedExceptionally()) {
+                    // fail fast, the other parts are useless
+                    part.join();
+                }
+            }
+            pendingParts.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            abort();
+            throw new IOException("Interrupted while uploading " + key, e);
+        } catch (RuntimeException e) {
+            abort();
+            throw new IOException("Unable to upload " + key, e instanceof CompletionException ? e.getCause() : e);
+        }
+
+        byte[] data = buffer;
+        int length = position;
+        int partNumber = parts.size() + 1;
+        CompletableFuture<String> future = new CompletableFuture<>();
+        parts.add(future);
+        try {
+            executor.execute(() -> {
+                try {
+                    future.complete(retry(() -> store.uploadPart(key, uploadId, partNumber, data, length), "part " + partNumber));
+                } catch (Throwable e) {
+                    future.completeExceptionally(e);
+                } finally {
+                    pendingParts.release();
+                }
+            });
+        } catch (RuntimeException e) {
+            pendingParts.release();
+            abort();
+            throw new IOException("Unable to upload " + key, e);
+        }
+
+        // the last part is uploaded when the stream is closed
+        buffer = closed ? null : new byte[partSize];
+        position = 0;
+    }
+
+    private <T> T retry(Upload<T> upload, String name)
+            throws IOException {
+        for (int tryCount = 0; ; tryCount++) {
+            try {
+                return upload.run();
+            } catch (RuntimeException e) {
+                if (tryCount >= partRetries) {
+                    throw new IOException(String.format("Unable to upload %s of %s", name, key), e);
+                }
+                LOGGER.warn(e, "Unable to upload %s of %s, retrying", name, key);
+            }
+        }
+    }
+
+    /**
+     * Discards the written bytes and the uploaded parts.
+     */
+    public void abort() {
+        closed = true;
+        if (uploadId == null) {
+            return;
+        }
+        // wait for the running uploads so that their parts are not stored after the upload is aborted
+        for (CompletableFuture<String> part : parts) {
+            try {
+                part.join();
+            } catch (RuntimeException e) {
+                // ignore
+            }
+        }
+        try {
+            store.abortMultipartUpload(key, uploadId);
+        } catch (RuntimeException e) {
+            LOGGER.error(e, "Unable to abort the upload of %s", key);
+        }
+    }
+
+    private interface Upload<T> {
+        T run()
+                throws IOException;
+    }
+}
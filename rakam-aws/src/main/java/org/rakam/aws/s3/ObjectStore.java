@@ -0,0 +1,26 @@
+package org.rakam.aws.s3;
+
+import java.util.List;
+
+/**
+ * The object storage operations that are used to upload the bulk files in parts.
+ */
+public interface ObjectStore {
+    void putObject(String key, byte[] data, int length);
+
+    String initiateMultipartUpload(String key);
+
+    /**
+     * Uploads a part of the object and returns its ETag, the part numbers start from 1.
+     */
+    String uploadPart(String key, String uploadId, int partNumber, byte[] data, int length);
+
+    /**
+     * Creates the object from the parts, the ETags are ordered by their part numbers.
+     */
+    void completeMultipartUpload(String key, String uploadId, List<String> partETags);
+
+    void abortMultipartUpload(String key, String uploadId);
+
+    void deleteObject(String key);
+}
@@ -10,11 +10,8 @@ import com.amazonaws.services.kinesis.*;
 import com.amazonaws.services.s3.AmazonS3;
 import com.amazonaws.services.s3.AmazonS3Client;
 import com.amazonaws.services.s3.AmazonS3ClientBuilder;
-import com.amazonaws.services.s3.model.ObjectMetadata;
-import com.amazonaws.services.s3.model.PutObjectRequest;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import io.airlift.log.Logger;
-import io.airlift.slice.BasicSliceInput;
-import io.airlift.slice.DynamicSliceOutput;
 import org.apache.avro.Schema;
 import org.apache.avro.generic.FilteredRecordWriter;
 import org.apache.avro.generic.GenericData;
@@ -28,18 +25,28 @@ import org.rakam.collection.Event;
 import org.rakam.collection.FieldDependencyBuilder;
 import org.rakam.collection.SchemaField;
 
+import javax.annotation.PreDestroy;
 import java.io.IOException;
-import java.io.InputStream;
+import java.io.OutputStream;
 import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
 
 import static org.rakam.util.AvroUtil.convertAvroSchema;
 
 public class S3BulkEventStore {
     private final static Logger LOGGER = Logger.get(S3BulkEventStore.class);
+    private static final int COMPRESSION_BUFFER_SIZE = 64 * 1024;
+
     private final Metastore metastore;
-    private final AmazonS3 s3Client;
+    private final ObjectStore objectStore;
+    private final ExecutorService uploadExecutor;
+    private final Semaphore pendingParts;
     private final AWSConfig config;
     private final int conditionalMagicFieldsSize;
     private final AmazonCloudWatchAsync cloudWatchClient;
@@ -65,7 +72,7 @@ public class S3BulkEventStore {
         }
 
         kinesis = kinesisBuilder.build();
-        s3Client = builder.build();
+        AmazonS3 s3Client = builder.build();
 
         AmazonCloudWatchAsyncClientBuilder cwBuilder = AmazonCloudWatchAsyncClient.asyncBuilder().withCredentials(config.getCredentials());
         if(config.getRegion() != null) {
@@ -73,90 +80,134 @@ public class S3BulkEventStore {
         }
         cloudWatchClient = cwBuilder.build();
 
+        objectStore = new AmazonS3ObjectStore(s3Client, config.getEventStoreBulkS3Bucket(), "gzip");
+        uploadExecutor = Executors.newFixedThreadPool(config.getBulkS3UploadThreads(), new ThreadFactoryBuilder()
+                .setNameFormat("s3-bulk-upload-%d")
+                .setDaemon(true)
+                .build());
+        // the parts that are waiting for a thread are kept in memory
+        pendingParts = new Semaphore(config.getBulkS3UploadThreads() * 2);
+
         this.conditionalMagicFieldsSize = fieldDependency.dependentFields.size();
     }
 
-    public void upload(String project, List<Event> events, int tryCount) {
-        GenericData data = GenericData.get();
-
-        DynamicSliceOutput buffer = new DynamicSliceOutput(events.size() * 30);
+    /**
+     * Lets the parts that are being uploaded finish, the new parts are rejected.
+     */
+    @PreDestroy
+    public void shutdown() {
+        uploadExecutor.shutdown();
+        try {
+            if (!uploadExecutor.awaitTermination(30, TimeUnit.SECONDS)) {
+                LOGGER.warn("The S3 bulk uploads couldn't be completed in 30 seconds");
+                uploadExecutor.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            uploadExecutor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
 
+    /**
+     * Writes the events of each collection to a separate gzip compressed file that is streamed to S3 in parts and
+     * announces the files in the Kinesis stream after all of them are uploaded. The files have the layout of the
+     * uncompressed bulk files (type 3) with a single collection and the records that refer to them have the type 4.
+     */
+    public void upload(String project, List<Event> events) {
         Map<String, List<Event>> map = new HashMap<>();
         events.forEach(event -> map.computeIfAbsent(event.collection(),
                 (col) -> new ArrayList<>()).add(event));
 
         String batchId = UUID.randomUUID().toString();
-        String key = events.get(0).project() + "/" + batchId;
+        List<String> keys = new ArrayList<>(map.size());
+        List<ByteBuffer> records = new ArrayList<>(map.size());
 
         try {
-            BinaryEncoder encoder = EncoderFactory.get().directBinaryEncoder(buffer, null);
-            encoder.writeString(project);
-
             for (Map.Entry<String, List<Event>> entry : map.entrySet()) {
-                String collectionName = entry.getKey();
-                List<SchemaField> collection = metastore.getCollection(project, collectionName);
-
-                Schema avroSchema = convertAvroSchema(collection);
-                DatumWriter writer = new FilteredRecordWriter(avroSchema, data);
-
-                encoder.writeString(collectionName);
-
-                encoder.writeInt(collection.size());
-                encoder.writeInt(entry.getValue().size());
-
-                int expectedSchemaSize = collection.size() + conditionalMagicFieldsSize;
-                for (Event event : entry.getValue()) {
-                    GenericRecord properties = event.properties();
-
-                    List<Schema.Field> existingFields = properties.getSchema().getFields();
-                    if (existingFields.size() != expectedSchemaSize) {
-                        GenericData.Record record = new GenericData.Record(avroSchema);
-                        for (int i = 0; i < existingFields.size(); i++) {
-                            if (existingFields.get(i).schema().getType() != Schema.Type.NULL) {
-                                record.put(i, properties.get(i));
-                            }
-                        }
-                        properties = record;
-                    }
-                    writer.write(properties, encoder);
+                String key = project + "/" + batchId + "/" + entry.getKey();
+                long size = uploadCollection(project, entry.getKey(), entry.getValue(), key);
+                keys.add(key);
+
+                byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+                ByteBuffer allocate = ByteBuffer.allocate(keyBytes.length + 1 + 8);
+                allocate.put((byte) 4);
+                allocate.putLong(size);
+                allocate.put(keyBytes);
+                allocate.clear();
+                records.add(allocate);
+            }
+        } catch (IOException | RuntimeException e) {
+            for (String key : keys) {
+                try {
+                    objectStore.deleteObject(key);
+                } catch (AmazonClientException e1) {
+                    LOGGER.error(e1, "Unable to delete bulk file '%s'", key);
                 }
             }
+            throw new RuntimeException(e);
+        }
 
-            ObjectMetadata objectMetadata = new ObjectMetadata();
-            int bulkSize = buffer.size();
-            objectMetadata.setContentLength(bulkSize);
-            PutObjectRequest putObjectRequest = new PutObjectRequest(config.getEventStoreBulkS3Bucket(),
-                    key,
-                    new SafeSliceInputStream(new BasicSliceInput(buffer.slice())), objectMetadata);
-            putObjectRequest.getRequestClientOptions().setReadLimit(bulkSize);
-
-            s3Client.putObject(putObjectRequest);
-
-            ByteBuffer allocate = ByteBuffer.allocate(key.length() + 1 + 8);
-            allocate.put((byte) 3);
-            allocate.putLong(bulkSize);
-            allocate.put(key.getBytes(StandardCharsets.UTF_8));
-            allocate.clear();
-
-            putMetadataToKinesis(allocate, batchId, 3);
-
-            LOGGER.debug("Stored batch file '%s', %d events in %d collection.", batchId, events.size(), map.size());
-
-            cloudWatchClient.putMetricDataAsync(new PutMetricDataRequest()
-                    .withNamespace("rakam-middleware-collection")
-                    .withMetricData(new MetricDatum()
-                            .withMetricName("bulk")
-                            .withValue(((Number) events.size()).doubleValue())
-                            .withDimensions(new Dimension().withName("project").withValue(project))));
-        } catch (IOException | AmazonClientException e) {
-            s3Client.deleteObject(config.getEventStoreBulkS3Bucket(), key);
-
-            if (tryCount <= 0) {
-                throw new RuntimeException(e);
-            }
+        for (ByteBuffer record : records) {
+            putMetadataToKinesis(record, batchId, 3);
+        }
+
+        LOGGER.debug("Stored batch '%s', %d events in %d collection.", batchId, events.size(), map.size());
 
-            upload(project, events, tryCount - 1);
+        cloudWatchClient.putMetricDataAsync(new PutMetricDataRequest()
+                .withNamespace("rakam-middleware-collection")
+                .withMetricData(new MetricDatum()
+                        .withMetricName("bulk")
+                        .withValue(((Number) events.size()).doubleValue())
+                        .withDimensions(new Dimension().withName("project").withValue(project))));
+    }
+
+    private long uploadCollection(String project, String collectionName, List<Event> events, String key)
+            throws IOException {
+        MultipartUploadOutputStream output = new MultipartUploadOutputStream(objectStore, key,
+                config.getBulkS3PartSize(), config.getBulkS3PartRetries(), uploadExecutor, pendingParts);
+        GZIPOutputStream compressed = new GZIPOutputStream(output, COMPRESSION_BUFFER_SIZE);
+        try {
+            writeCollection(project, collectionName, events, compressed);
+            compressed.finish();
+        } catch (Throwable e) {
+            // don't complete the upload of a partial file
+            output.abort();
+            throw e;
+        }
+        output.close();
+        return output.getSize();
+    }
+
+    private void writeCollection(String project, String collectionName, List<Event> events, OutputStream out)
+            throws IOException {
+        List<SchemaField> collection = metastore.getCollection(project, collectionName);
+        Schema avroSchema = convertAvroSchema(collection);
+        DatumWriter writer = new FilteredRecordWriter(avroSchema, GenericData.get());
+
+        BinaryEncoder encoder = EncoderFactory.get().binaryEncoder(out, null);
+        encoder.writeString(project);
+        encoder.writeString(collectionName);
+
+        encoder.writeInt(collection.size());
+        encoder.writeInt(events.size());
+
+        int expectedSchemaSize = collection.size() + conditionalMagicFieldsSize;
+        for (Event event : events) {
+            GenericRecord properties = event.properties();
+
+            List<Schema.Field> existingFields = properties.getSchema().getFields();
+            if (existingFields.size() != expectedSchemaSize) {
+                GenericData.Record record = new GenericData.Record(avroSchema);
+                for (int i = 0; i < existingFields.size(); i++) {
+                    if (existingFields.get(i).schema().getType() != Schema.Type.NULL) {
+                        record.put(i, properties.get(i));
+                    }
+                }
+                properties = record;
+            }
+            writer.write(properties, encoder);
         }
+        encoder.flush();
     }
 
     private void putMetadataToKinesis(ByteBuffer allocate, String id, int tryCount) {
@@ -170,65 +221,4 @@ public class S3BulkEventStore {
             putMetadataToKinesis(allocate, id, tryCount - 1);
         }
     }
-
-    private class SafeSliceInputStream
-            extends InputStream {
-        private final BasicSliceInput sliceInput;
-
-        public SafeSliceInputStream(BasicSliceInput sliceInput) {
-            this.sliceInput = sliceInput;
-        }
-
-        @Override
-        public int read()
-                throws IOException {
-            return sliceInput.read();
-        }
-
-        @Override
-        public int read(byte[] b)
-                throws IOException {
-            return sliceInput.read(b);
-        }
-
-        @Override
-        public int read(byte[] b, int off, int len)
-                throws IOException {
-            return sliceInput.read(b, off, len);
-        }
-
-        @Override
-        public long skip(long n)
-                throws IOException {
-            return sliceInput.skip(n);
-        }
-
-        @Override
-        public int available()
-                throws IOException {
-            return sliceInput.available();
-        }
-
-        @Override
-        public void close()
-                throws IOException {
-            sliceInput.close();
-        }
-
-        @Override
-        public synchronized void mark(int readlimit) {
-            throw new RuntimeException("mark/reset not supported");
-        }
-
-        @Override
-        public synchronized void reset()
-                throws IOException {
-            throw new IOException("mark/reset not supported");
-        }
-
-        @Override
-        public boolean markSupported() {
-            return false;
-        }
-    }
 }
@@ -0,0 +1,119 @@
+package org.rakam.aws.kinesis;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import org.apache.avro.generic.GenericData;
+import org.rakam.aws.AWSConfig;
+import org.rakam.collection.Event;
+import org.rakam.collection.FieldType;
+import org.rakam.collection.SchemaField;
+import org.rakam.config.ProjectConfig;
+import org.rakam.plugin.EventStore;
+import org.rakam.util.AvroUtil;
+import org.testng.annotations.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+public class TestAWSKinesisEventStore {
+    private static final List<SchemaField> FIELDS = ImmutableList.of(new SchemaField("test", FieldType.STRING));
+
+    @Test
+    public void testCompletesFromRecordCallbacks()
+            throws Exception {
+        FakeProducer producer = new FakeProducer();
+        AWSKinesisEventStore store = new AWSKinesisEventStore(new AWSConfig().setEventStoreStreamName("test"), new ProjectConfig(), producer);
+
+        CompletableFuture<int[]> future = store.storeBatchAsync(events(3));
+        assertEquals(producer.records.size(), 3);
+        assertEquals(store.getInFlightRecords(), 3);
+
+        producer.records.get(0).set(null);
+        producer.records.get(2).set(null);
+        assertFalse(future.isDone());
+
+        producer.records.get(1).set(null);
+        assertEquals(future.get(10, SECONDS), EventStore.SUCCESSFUL_BATCH);
+        assertEquals(store.getInFlightRecords(), 0);
+    }
+
+    @Test
+    public void testPartialFailure()
+            throws Exception {
+        FakeProducer producer = new FakeProducer();
+        AWSKinesisEventStore store = new AWSKinesisEventStore(new AWSConfig().setEventStoreStreamName("test"), new ProjectConfig(), producer);
+
+        CompletableFuture<int[]> future = store.storeBatchAsync(events(4));
+        producer.records.get(3).setException(new RuntimeException());
+        producer.records.get(0).set(null);
+        producer.records.get(1).setException(new RuntimeException());
+        producer.records.get(2).set(null);
+
+        assertEquals(future.get(10, SECONDS), new int[] {1, 3});
+        assertEquals(store.getInFlightRecords(), 0);
+    }
+
+    @Test
+    public void testInFlightRecordsAreBounded()
+            throws Exception {
+        FakeProducer producer = new FakeProducer();
+        AWSKinesisEventStore store = new AWSKinesisEventStore(new AWSConfig().setEventStoreStreamName("test")
+                .setKinesisMaxInFlightRecords(2).setKinesisInFlightWaitMillis(10), new ProjectConfig(), producer);
+
+        CompletableFuture<int[]> first = store.storeBatchAsync(events(3));
+        assertEquals(producer.records.size(), 2);
+        assertEquals(store.getInFlightRecords(), 2);
+
+        producer.records.forEach(record -> record.set(null));
+        assertEquals(first.get(10, SECONDS), new int[] {2});
+
+        CompletableFuture<int[]> second = store.storeBatchAsync(events(2));
+        assertEquals(producer.records.size(), 4);
+        producer.records.get(2).set(null);
+        producer.records.get(3).set(null);
+        assertEquals(second.get(10, SECONDS), EventStore.SUCCESSFUL_BATCH);
+    }
+
+    @Test
+    public void testRejectedRecord()
+            throws Exception {
+        AWSKinesisEventStore store = new AWSKinesisEventStore(new AWSConfig().setEventStoreStreamName("test"), new ProjectConfig(),
+                (stream, partitionKey, data) -> {
+                    throw new IllegalArgumentException();
+                });
+
+        assertEquals(store.storeBatchAsync(events(2)).get(10, SECONDS), new int[] {0, 1});
+        assertEquals(store.getInFlightRecords(), 0);
+        assertTrue(store.storeBatchAsync(ImmutableList.of()).isDone());
+    }
+
+    private static List<Event> events(int count) {
+        return IntStream.range(0, count).mapToObj(i -> {
+            GenericData.Record record = new GenericData.Record(AvroUtil.convertAvroSchema(FIELDS));
+            record.put("test", "value" + i);
+            return new Event("project", "collection", null, FIELDS, record);
+        }).collect(Collectors.toList());
+    }
+
+    private static class FakeProducer
+            implements AWSKinesisEventStore.RecordProducer {
+        private final List<SettableFuture<Object>> records = new ArrayList<>();
+
+        @Override
+        public ListenableFuture<?> addUserRecord(String stream, String partitionKey, ByteBuffer data) {
+            SettableFuture<Object> future = SettableFuture.create();
+            records.add(future);
+            return future;
+        }
+    }
+}
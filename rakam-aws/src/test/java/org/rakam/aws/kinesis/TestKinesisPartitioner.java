@@ -0,0 +1,80 @@
+package org.rakam.aws.kinesis;
+
+import com.google.common.base.Ticker;
+import com.google.common.collect.ImmutableList;
+import org.apache.avro.generic.GenericData;
+import org.rakam.collection.Event;
+import org.rakam.collection.FieldType;
+import org.rakam.collection.SchemaField;
+import org.rakam.util.AvroUtil;
+import org.testng.annotations.Test;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.rakam.aws.kinesis.KinesisPartitioner.Strategy.COLLECTION;
+import static org.rakam.aws.kinesis.KinesisPartitioner.Strategy.COMPOSITE;
+import static org.rakam.aws.kinesis.KinesisPartitioner.Strategy.USER;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotEquals;
+import static org.testng.Assert.assertTrue;
+
+public class TestKinesisPartitioner {
+    private static final List<SchemaField> FIELDS = ImmutableList.of(new SchemaField("_user", FieldType.STRING));
+
+    @Test
+    public void testStrategies() {
+        KinesisPartitioner user = new KinesisPartitioner(USER, "_user", 1000, 8, Ticker.systemTicker());
+        assertEquals(user.getPartitionKey(event("pageview", "1")), "project|1");
+        assertEquals(user.getPartitionKey(event("click", "1")), "project|1");
+
+        KinesisPartitioner collection = new KinesisPartitioner(COLLECTION, "_user", 1000, 8, Ticker.systemTicker());
+        assertEquals(collection.getPartitionKey(event("pageview", "1")), "project|pageview");
+
+        KinesisPartitioner composite = new KinesisPartitioner(COMPOSITE, "_user", 1000, 8, Ticker.systemTicker());
+        assertEquals(composite.getPartitionKey(event("pageview", "1")), composite.getPartitionKey(event("pageview", "1")));
+        assertNotEquals(composite.getPartitionKey(event("pageview", "1")), composite.getPartitionKey(event("pageview", "2")));
+    }
+
+    @Test
+    public void testHotKeySalting() {
+        AtomicLong time = new AtomicLong();
+        KinesisPartitioner partitioner = new KinesisPartitioner(USER, "_user", 10, 4, new Ticker() {
+            @Override
+            public long read() {
+                return time.get();
+            }
+        });
+
+        for (int i = 0; i < 10; i++) {
+            assertEquals(partitioner.getPartitionKey(event("pageview", "hot")), "project|hot");
+        }
+        assertTrue(partitioner.getPartitionKey(event("pageview", "hot")).startsWith("project|hot#"));
+        assertEquals(partitioner.getPartitionKey(event("pageview", "cold")), "project|cold");
+
+        // the key stays salted in the next window
+        time.addAndGet(SECONDS.toNanos(1));
+        Set<String> keys = new HashSet<>();
+        for (int i = 0; i < 100; i++) {
+            keys.add(partitioner.getPartitionKey(event("pageview", "hot")));
+        }
+        assertTrue(partitioner.getHotKeys().contains("project|hot"));
+        assertTrue(keys.size() > 1 && keys.size() <= 4);
+
+        // and cools down when the traffic drops
+        time.addAndGet(SECONDS.toNanos(1));
+        partitioner.getPartitionKey(event("pageview", "cold"));
+        time.addAndGet(SECONDS.toNanos(1));
+        assertEquals(partitioner.getPartitionKey(event("pageview", "hot")), "project|hot");
+        assertEquals(partitioner.getSaltedRecordCount(), 101);
+    }
+
+    private static Event event(String collection, String user) {
+        GenericData.Record record = new GenericData.Record(AvroUtil.convertAvroSchema(FIELDS));
+        record.put("_user", user);
+        return new Event("project", collection, null, FIELDS, record);
+    }
+}
@@ -0,0 +1,234 @@
+package org.rakam.aws.s3;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+public class TestMultipartUploadOutputStream {
+    private static final int PART_SIZE = 1024;
+
+    private ExecutorService executor;
+    private LocalObjectStore store;
+
+    @BeforeMethod
+    public void setUp()
+            throws IOException {
+        executor = Executors.newFixedThreadPool(4);
+        store = new LocalObjectStore(Files.createTempDirectory("multipart"));
+    }
+
+    @AfterMethod
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testMultipleParts()
+            throws IOException {
+        byte[] data = randomBytes(PART_SIZE * 5 + 100);
+
+        MultipartUploadOutputStream output = stream("test");
+        output.write(data, 0, 10);
+        output.write(data[10]);
+        output.write(data, 11, data.length - 11);
+        output.close();
+
+        assertEquals(store.read("test"), data);
+        assertEquals(output.getSize(), data.length);
+        assertEquals(store.uploadedParts.get(), 6);
+        assertEquals(store.puts.get(), 0);
+    }
+
+    @Test
+    public void testSmallObjectIsPutDirectly()
+            throws IOException {
+        byte[] data = randomBytes(100);
+
+        MultipartUploadOutputStream output = stream("small");
+        output.write(data);
+        output.close();
+
+        assertEquals(store.read("small"), data);
+        assertEquals(store.puts.get(), 1);
+        assertEquals(store.uploadedParts.get(), 0);
+    }
+
+    @Test
+    public void testOnlyFailedPartIsRetried()
+            throws IOException {
+        byte[] data = randomBytes(PART_SIZE * 4);
+        store.failures.put(2, new AtomicInteger(2));
+
+        MultipartUploadOutputStream output = stream("retry");
+        output.write(data);
+        output.close();
+
+        assertEquals(store.read("retry"), data);
+        assertEquals(store.attempts.get(1).get(), 1);
+        assertEquals(store.attempts.get(2).get(), 3);
+        assertEquals(store.attempts.get(3).get(), 1);
+        assertEquals(store.attempts.get(4).get(), 1);
+    }
+
+    @Test
+    public void testAbortWhenPartFails()
+            throws IOException {
+        byte[] data = randomBytes(PART_SIZE * 3);
+        store.failures.put(1, new AtomicInteger(10));
+
+        MultipartUploadOutputStream output = stream("fail");
+        try {
+            output.write(data);
+            output.close();
+            fail();
+        } catch (IOException e) {
+            // expected
+        }
+
+        assertTrue(store.aborted.get());
+        assertFalse(store.exists("fail"));
+    }
+
+    @Test
+    public void testCompressedStream()
+            throws IOException {
+        byte[] data = new byte[PART_SIZE * 50];
+        Arrays.fill(data, (byte) 'a');
+
+        MultipartUploadOutputStream output = stream("compressed");
+        try (GZIPOutputStream compressed = new GZIPOutputStream(output)) {
+            compressed.write(data);
+        }
+
+        assertTrue(output.getSize() < data.length);
+        try (InputStream input = new GZIPInputStream(Files.newInputStream(store.path("compressed")))) {
+            ByteArrayOutputStream result = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int read;
+            while ((read = input.read(buffer)) != -1) {
+                result.write(buffer, 0, read);
+            }
+            assertEquals(result.toByteArray(), data);
+        }
+    }
+
+    private MultipartUploadOutputStream stream(String key) {
+        return new MultipartUploadOutputStream(store, key, PART_SIZE, 2, executor, new Semaphore(2));
+    }
+
+    private static byte[] randomBytes(int length) {
+        byte[] data = new byte[length];
+        new Random(length).nextBytes(data);
+        return data;
+    }
+
+    private static class LocalObjectStore
+            implements ObjectStore {
+        private final Path directory;
+        private final AtomicInteger puts = new AtomicInteger();
+        private final AtomicInteger uploadedParts = new AtomicInteger();
+        private final AtomicBoolean aborted = new AtomicBoolean();
+        private final Map<Integer, AtomicInteger> failures = new ConcurrentHashMap<>();
+        private final Map<Integer, AtomicInteger> attempts = new ConcurrentHashMap<>();
+
+        private LocalObjectStore(Path directory) {
+            this.directory = directory;
+        }
+
+        private Path path(String key) {
+            return directory.resolve(key);
+        }
+
+        private boolean exists(String key) {
+            return Files.exists(path(key));
+        }
+
+        private byte[] read(String key)
+                throws IOException {
+            return Files.readAllBytes(path(key));
+        }
+
+        @Override
+        public void putObject(String key, byte[] data, int length) {
+            puts.incrementAndGet();
+            write(path(key), data, length);
+        }
+
+        @Override
+        public String initiateMultipartUpload(String key) {
+            return key + ".upload";
+        }
+
+        @Override
+        public String uploadPart(String key, String uploadId, int partNumber, byte[] data, int length) {
+            attempts.computeIfAbsent(partNumber, number -> new AtomicInteger()).incrementAndGet();
+            AtomicInteger failure = failures.get(partNumber);
+            if (failure != null && failure.getAndDecrement() > 0) {
+                throw new IllegalStateException("Simulated failure of part " + partNumber);
+            }
+            uploadedParts.incrementAndGet();
+            String etag = uploadId + "." + partNumber;
+            write(directory.resolve(etag), data, length);
+            return etag;
+        }
+
+        @Override
+        public void completeMultipartUpload(String key, String uploadId, List<String> partETags) {
+            ByteArrayOutputStream object = new ByteArrayOutputStream();
+            try {
+                for (String etag : partETags) {
+                    object.write(Files.readAllBytes(directory.resolve(etag)));
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            write(path(key), object.toByteArray(), object.size());
+        }
+
+        @Override
+        public void abortMultipartUpload(String key, String uploadId) {
+            aborted.set(true);
+        }
+
+        @Override
+        public void deleteObject(String key) {
+            try {
+                Files.deleteIfExists(path(key));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        private static void write(Path path, byte[] data, int length) {
+            try {
+                Files.write(path, Arrays.copyOf(data, length));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+}
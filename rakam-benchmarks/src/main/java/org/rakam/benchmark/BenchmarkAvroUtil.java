@@ -0,0 +1,84 @@
+package org.rakam.benchmark;
+
+import org.apache.avro.Schema;
+import org.apache.avro.generic.GenericData;
+import org.rakam.collection.FieldDependencyBuilder;
+import org.rakam.collection.SchemaField;
+import org.rakam.module.website.ReferrerEventMapper;
+import org.rakam.module.website.UserAgentEventMapper;
+import org.rakam.module.website.WebsiteMapperConfig;
+import org.rakam.util.AvroUtil;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.openjdk.jmh.runner.options.VerboseMode;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+@State(Scope.Thread)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@BenchmarkMode(Mode.AverageTime)
+@Fork(2)
+@Warmup(iterations = 10, time = 500, timeUnit = MILLISECONDS)
+@Measurement(iterations = 10, time = 500, timeUnit = MILLISECONDS)
+public class BenchmarkAvroUtil {
+    @Param({"narrow", "wide"})
+    private String schema = "narrow";
+
+    private List<SchemaField> fields;
+    private Map<String, List<SchemaField>> conditionalMagicFields;
+    private Schema avroSchema;
+    private Map<String, Object> properties;
+
+    @Setup
+    public void setup() {
+        FieldDependencyBuilder builder = new FieldDependencyBuilder();
+        new ReferrerEventMapper().addFieldDependency(builder);
+        new UserAgentEventMapper(new WebsiteMapperConfig()).addFieldDependency(builder);
+        conditionalMagicFields = builder.build().dependentFields;
+
+        fields = BenchmarkEvents.getSchema(schema);
+        avroSchema = AvroUtil.convertAvroSchema(fields, conditionalMagicFields);
+        properties = BenchmarkEvents.generateProperties(fields, 1).get(0);
+    }
+
+    @Benchmark
+    public Schema convertAvroSchema() {
+        return AvroUtil.convertAvroSchema(fields, conditionalMagicFields);
+    }
+
+    @Benchmark
+    public GenericData.Record buildRecord() {
+        GenericData.Record record = new GenericData.Record(avroSchema);
+        for (Map.Entry<String, Object> entry : properties.entrySet()) {
+            AvroUtil.put(record, entry.getKey(), entry.getValue());
+        }
+        return record;
+    }
+
+    public static void main(String[] args)
+            throws RunnerException {
+        Options options = new OptionsBuilder()
+                .verbosity(VerboseMode.NORMAL)
+                .include(".*" + BenchmarkAvroUtil.class.getSimpleName() + ".*")
+                .build();
+
+        new Runner(options).run();
+    }
+}
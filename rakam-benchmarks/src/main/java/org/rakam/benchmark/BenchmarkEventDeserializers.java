@@ -0,0 +1,203 @@
+package org.rakam.benchmark;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.cfg.ContextAttributes;
+import com.fasterxml.jackson.databind.module.SimpleModule;
+import com.fasterxml.jackson.dataformat.csv.CsvMapper;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import io.airlift.slice.DynamicSliceOutput;
+import io.airlift.slice.Slice;
+import io.airlift.slice.Slices;
+import org.apache.avro.generic.GenericDatumWriter;
+import org.apache.avro.generic.GenericRecord;
+import org.apache.avro.io.BinaryEncoder;
+import org.apache.avro.io.EncoderFactory;
+import org.rakam.TestingConfigManager;
+import org.rakam.analysis.ApiKeyService;
+import org.rakam.analysis.InMemoryApiKeyService;
+import org.rakam.analysis.InMemoryEventStore;
+import org.rakam.analysis.InMemoryMetastore;
+import org.rakam.analysis.metadata.SchemaChecker;
+import org.rakam.analysis.metadata.SchemaEvolutionCoordinator;
+import org.rakam.collection.AvroEventDeserializer;
+import org.rakam.collection.CsvEventDeserializer;
+import org.rakam.collection.Event;
+import org.rakam.collection.EventList;
+import org.rakam.collection.EventListDeserializer;
+import org.rakam.collection.FieldDependencyBuilder;
+import org.rakam.collection.FieldType;
+import org.rakam.collection.InvalidSchemaConfig;
+import org.rakam.collection.InvalidSchemaSink;
+import org.rakam.collection.JsonEventDeserializer;
+import org.rakam.collection.SchemaField;
+import org.rakam.config.ProjectConfig;
+import org.rakam.util.JsonHelper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.openjdk.jmh.runner.options.VerboseMode;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static org.rakam.benchmark.BenchmarkEvents.COLLECTION;
+import static org.rakam.benchmark.BenchmarkEvents.PROJECT;
+
+@State(Scope.Thread)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@BenchmarkMode(Mode.AverageTime)
+@Fork(2)
+@Warmup(iterations = 10, time = 500, timeUnit = MILLISECONDS)
+@Measurement(iterations = 10, time = 500, timeUnit = MILLISECONDS)
+public class BenchmarkEventDeserializers {
+    private static final int BATCH_SIZE = 100;
+
+    @Param({"narrow", "wide"})
+    private String schema = "narrow";
+
+    private ObjectMapper jsonMapper;
+    private ObjectReader csvReader;
+    private AvroEventDeserializer avroDeserializer;
+
+    private byte[] event;
+    private byte[] eventList;
+    private String csv;
+    private Slice avro;
+
+    @Setup
+    public void setup()
+            throws IOException {
+        FieldDependencyBuilder.FieldDependency fieldDependency = new FieldDependencyBuilder().build();
+        InMemoryApiKeyService apiKeyService = new InMemoryApiKeyService();
+        InMemoryMetastore metastore = new InMemoryMetastore(apiKeyService);
+        SchemaChecker schemaChecker = new SchemaChecker(metastore, fieldDependency);
+        TestingConfigManager configManager = new TestingConfigManager();
+
+        List<SchemaField> fields = BenchmarkEvents.getSchema(schema);
+        metastore.createProject(PROJECT);
+        metastore.getOrCreateCollectionFields(PROJECT, COLLECTION, ImmutableSet.copyOf(fields));
+        ApiKeyService.ProjectApiKeys apiKeys = apiKeyService.createApiKeys(PROJECT);
+
+        InvalidSchemaSink invalidSchemaSink = new InvalidSchemaSink(metastore, new InMemoryEventStore(), new ProjectConfig(),
+                fieldDependency, new InvalidSchemaConfig());
+        JsonEventDeserializer jsonDeserializer = new JsonEventDeserializer(metastore, apiKeyService, configManager,
+                schemaChecker, new SchemaEvolutionCoordinator(metastore), new ProjectConfig(), invalidSchemaSink, fieldDependency);
+        jsonMapper = JsonHelper.getMapper().copy();
+        jsonMapper.registerModule(new SimpleModule()
+                .addDeserializer(Event.class, jsonDeserializer)
+                .addDeserializer(EventList.class, new EventListDeserializer(apiKeyService, jsonDeserializer)));
+
+        CsvMapper csvMapper = new CsvMapper();
+        csvMapper.registerModule(new SimpleModule().addDeserializer(EventList.class,
+                new CsvEventDeserializer(metastore, new ProjectConfig(), configManager, schemaChecker, fieldDependency)));
+        csvReader = csvMapper.readerFor(EventList.class).with(ContextAttributes.getEmpty()
+                .withSharedAttribute("project", PROJECT)
+                .withSharedAttribute("collection", COLLECTION)
+                .withSharedAttribute("apiKey", apiKeys.writeKey()));
+
+        avroDeserializer = new AvroEventDeserializer(metastore);
+
+        Event.EventContext api = Event.EventContext.apiKey(apiKeys.writeKey());
+        List<Map<String, Object>> properties = BenchmarkEvents.generateProperties(fields, BATCH_SIZE);
+
+        event = jsonMapper.writeValueAsBytes(ImmutableMap.of(
+                "collection", COLLECTION,
+                "api", api,
+                "properties", properties.get(0)));
+        eventList = jsonMapper.writeValueAsBytes(ImmutableMap.of(
+                "api", api,
+                "events", properties.stream()
+                        .map(props -> ImmutableMap.of("collection", COLLECTION, "properties", props))
+                        .collect(Collectors.toList())));
+        csv = toCsv(fields, properties);
+        avro = toAvro(BenchmarkEvents.generateEvents(fields, BATCH_SIZE));
+    }
+
+    @Benchmark
+    public Event jsonEvent()
+            throws IOException {
+        return jsonMapper.readValue(event, Event.class);
+    }
+
+    @Benchmark
+    public EventList jsonEventList()
+            throws IOException {
+        return jsonMapper.readValue(eventList, EventList.class);
+    }
+
+    @Benchmark
+    public EventList csvEventList()
+            throws IOException {
+        return csvReader.readValue(csv);
+    }
+
+    @Benchmark
+    public EventList avroEventList()
+            throws IOException {
+        return avroDeserializer.deserialize(PROJECT, COLLECTION, avro.getInput());
+    }
+
+    private static String toCsv(List<SchemaField> fields, List<Map<String, Object>> events) {
+        StringBuilder builder = new StringBuilder();
+        builder.append(fields.stream().map(SchemaField::getName).collect(Collectors.joining(","))).append('\n');
+        for (Map<String, Object> properties : events) {
+            builder.append(fields.stream()
+                    .map(field -> {
+                        Object value = properties.get(field.getName());
+                        return field.getType() == FieldType.TIMESTAMP ?
+                                Instant.ofEpochMilli((Long) value).toString() : String.valueOf(value);
+                    })
+                    .collect(Collectors.joining(","))).append('\n');
+        }
+        return builder.toString();
+    }
+
+    private static Slice toAvro(List<Event> events)
+            throws IOException {
+        org.apache.avro.Schema avroSchema = events.get(0).properties().getSchema();
+        DynamicSliceOutput output = new DynamicSliceOutput(1024);
+
+        Slice schemaJson = Slices.utf8Slice(avroSchema.toString());
+        output.writeInt(schemaJson.length());
+        output.writeBytes(schemaJson);
+        output.writeInt(events.size());
+
+        GenericDatumWriter<GenericRecord> writer = new GenericDatumWriter<>(avroSchema);
+        BinaryEncoder encoder = EncoderFactory.get().directBinaryEncoder(output, null);
+        for (Event event : events) {
+            writer.write(event.properties(), encoder);
+        }
+        encoder.flush();
+
+        return output.slice();
+    }
+
+    public static void main(String[] args)
+            throws RunnerException {
+        Options options = new OptionsBuilder()
+                .verbosity(VerboseMode.NORMAL)
+                .include(".*" + BenchmarkEventDeserializers.class.getSimpleName() + ".*")
+                .build();
+
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,156 @@
+package org.rakam.benchmark;
+
+import com.google.common.collect.ImmutableList;
+import org.apache.avro.Schema;
+import org.apache.avro.generic.GenericData;
+import org.rakam.collection.Event;
+import org.rakam.collection.FieldDependencyBuilder;
+import org.rakam.collection.mapper.geoip.maxmind.MaxmindGeoIPEventMapper;
+import org.rakam.collection.mapper.geoip.maxmind.MaxmindGeoIPModuleConfig;
+import org.rakam.module.website.ReferrerEventMapper;
+import org.rakam.module.website.UserAgentEventMapper;
+import org.rakam.module.website.WebsiteMapperConfig;
+import org.rakam.plugin.SyncEventMapper;
+import org.rakam.util.AvroUtil;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.openjdk.jmh.runner.options.VerboseMode;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static org.apache.avro.Schema.Type.NULL;
+import static org.rakam.benchmark.BenchmarkEvents.COLLECTION;
+import static org.rakam.benchmark.BenchmarkEvents.PROJECT;
+import static org.rakam.plugin.EventMapper.RequestParams.EMPTY_PARAMS;
+
+/**
+ * The mappers fill only the empty fields of an event so each invocation maps a new record. The number of distinct
+ * input values controls the hit rate of the caches in the mappers.
+ */
+@State(Scope.Thread)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@BenchmarkMode(Mode.AverageTime)
+@Fork(2)
+@Warmup(iterations = 10, time = 500, timeUnit = MILLISECONDS)
+@Measurement(iterations = 10, time = 500, timeUnit = MILLISECONDS)
+public class BenchmarkEventMappers {
+    private static final String[] USER_AGENT_TEMPLATES = {
+            "Mozilla/5.0 (Macintosh; Intel Mac OS X 10_13_%d) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/%d.0.3325.181 Safari/537.36",
+            "Mozilla/5.0 (Windows NT 10.0; Win64; x64; rv:%d.0) Gecko/20100101 Firefox/%d.0",
+            "Mozilla/5.0 (iPhone; CPU iPhone OS 11_%d like Mac OS X) AppleWebKit/604.1.38 (KHTML, like Gecko) Version/11.0 Mobile/15A372 Safari/604.1 (%d)",
+            "Mozilla/5.0 (Linux; Android 8.%d; Pixel 2 Build/OPD1.170816.004) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/%d.0.3239.111 Mobile Safari/537.36",
+            "Mozilla/5.0 (compatible; Googlebot/2.%d; +http://www.google.com/bot.html) %d"};
+    private static final String[] REFERRER_TEMPLATES = {
+            "https://www.google.com/search?q=event+analytics+%d",
+            "https://www.bing.com/search?q=open+source+analytics+%d",
+            "https://twitter.com/rakamio/status/%d",
+            "https://news.ycombinator.com/item?id=%d",
+            "https://rakam.io/blog/%d"};
+
+    @Param({"16", "65536"})
+    private int distinctValues = 16;
+
+    private SyncEventMapper geoIpMapper;
+    private SyncEventMapper userAgentMapper;
+    private SyncEventMapper referrerMapper;
+
+    private Schema geoIpSchema;
+    private Schema userAgentSchema;
+    private Schema referrerSchema;
+
+    private String[] ips;
+    private String[] userAgents;
+    private String[] referrers;
+    private InetAddress sourceAddress;
+    private int position;
+
+    @Setup
+    public void setup()
+            throws UnknownHostException {
+        geoIpMapper = new MaxmindGeoIPEventMapper(new MaxmindGeoIPModuleConfig());
+        userAgentMapper = new UserAgentEventMapper(new WebsiteMapperConfig());
+        referrerMapper = new ReferrerEventMapper();
+
+        geoIpSchema = createSchema(geoIpMapper, "_ip");
+        userAgentSchema = createSchema(userAgentMapper, "_user_agent");
+        referrerSchema = createSchema(referrerMapper, "_referrer");
+
+        Random random = new Random(0);
+        ips = new String[distinctValues];
+        userAgents = new String[distinctValues];
+        referrers = new String[distinctValues];
+        for (int i = 0; i < distinctValues; i++) {
+            ips[i] = String.format("%d.%d.%d.%d", 1 + random.nextInt(223), random.nextInt(256), random.nextInt(256), 1 + random.nextInt(254));
+            userAgents[i] = String.format(USER_AGENT_TEMPLATES[i % USER_AGENT_TEMPLATES.length], i % 10, 40 + i / 10);
+            referrers[i] = String.format(REFERRER_TEMPLATES[i % REFERRER_TEMPLATES.length], i);
+        }
+        sourceAddress = InetAddress.getByName("127.0.0.1");
+    }
+
+    @Benchmark
+    public Event geoIp() {
+        return map(geoIpMapper, geoIpSchema, "_ip", ips[next()]);
+    }
+
+    @Benchmark
+    public Event userAgent() {
+        return map(userAgentMapper, userAgentSchema, "_user_agent", userAgents[next()]);
+    }
+
+    @Benchmark
+    public Event referrer() {
+        return map(referrerMapper, referrerSchema, "_referrer", referrers[next()]);
+    }
+
+    private Event map(SyncEventMapper mapper, Schema schema, String sourceField, String value) {
+        GenericData.Record record = new GenericData.Record(schema);
+        record.put(sourceField, value);
+        Event event = new Event(PROJECT, COLLECTION, null, null, record);
+        mapper.map(event, EMPTY_PARAMS, sourceAddress, null);
+        return event;
+    }
+
+    private int next() {
+        position = position + 1 == distinctValues ? 0 : position + 1;
+        return position;
+    }
+
+    private static Schema createSchema(SyncEventMapper mapper, String sourceField) {
+        FieldDependencyBuilder builder = new FieldDependencyBuilder();
+        mapper.addFieldDependency(builder);
+
+        return Schema.createRecord(ImmutableList.<Schema.Field>builder()
+                .addAll(builder.build().dependentFields.get(sourceField).stream()
+                        .map(AvroUtil::generateAvroField).collect(Collectors.toList()))
+                .add(new Schema.Field(sourceField, Schema.create(NULL), null, null))
+                .build());
+    }
+
+    public static void main(String[] args)
+            throws RunnerException {
+        Options options = new OptionsBuilder()
+                .verbosity(VerboseMode.NORMAL)
+                .include(".*" + BenchmarkEventMappers.class.getSimpleName() + ".*")
+                .build();
+
+        new Runner(options).run();
+    }
+}
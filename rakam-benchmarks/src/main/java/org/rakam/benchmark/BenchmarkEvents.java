@@ -0,0 +1,116 @@
+package org.rakam.benchmark;
+
+import com.google.common.collect.ImmutableList;
+import org.apache.avro.Schema;
+import org.apache.avro.generic.GenericData;
+import org.rakam.collection.Event;
+import org.rakam.collection.FieldType;
+import org.rakam.collection.SchemaField;
+import org.rakam.util.AvroUtil;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.rakam.collection.FieldType.BOOLEAN;
+import static org.rakam.collection.FieldType.DOUBLE;
+import static org.rakam.collection.FieldType.LONG;
+import static org.rakam.collection.FieldType.STRING;
+import static org.rakam.collection.FieldType.TIMESTAMP;
+
+/**
+ * Generates the synthetic events of the benchmarks. The narrow schema looks like a typical pageview event, the wide
+ * schema adds generated attributes of mixed types to it. The values are generated with a fixed seed so the runs are
+ * comparable.
+ */
+public final class BenchmarkEvents {
+    public static final String PROJECT = "benchmark";
+    public static final String COLLECTION = "pageview";
+
+    private static final int WIDE_SCHEMA_SIZE = 100;
+    private static final FieldType[] WIDE_TYPES = {STRING, LONG, DOUBLE, BOOLEAN, TIMESTAMP};
+    private static final String[] URLS = {
+            "https://rakam.io/",
+            "https://rakam.io/pricing?utm_source=newsletter",
+            "https://rakam.io/blog/2018/01/event-analytics",
+            "https://rakam.io/doc/buildup/collect-data/collection-apis"};
+
+    private BenchmarkEvents() {
+    }
+
+    public static List<SchemaField> getSchema(String width) {
+        ImmutableList.Builder<SchemaField> builder = ImmutableList.<SchemaField>builder()
+                .add(new SchemaField("_time", TIMESTAMP))
+                .add(new SchemaField("_user", STRING))
+                .add(new SchemaField("url", STRING))
+                .add(new SchemaField("price", DOUBLE))
+                .add(new SchemaField("quantity", LONG))
+                .add(new SchemaField("is_mobile", BOOLEAN));
+
+        switch (width) {
+            case "narrow":
+                break;
+            case "wide":
+                for (int i = 6; i < WIDE_SCHEMA_SIZE; i++) {
+                    builder.add(new SchemaField("attribute_" + i, WIDE_TYPES[i % WIDE_TYPES.length]));
+                }
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown schema: " + width);
+        }
+
+        return builder.build();
+    }
+
+    public static List<Map<String, Object>> generateProperties(List<SchemaField> schema, int count) {
+        Random random = new Random(0);
+        List<Map<String, Object>> events = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            Map<String, Object> properties = new LinkedHashMap<>();
+            for (SchemaField field : schema) {
+                properties.put(field.getName(), generateValue(random, field));
+            }
+            events.add(properties);
+        }
+        return events;
+    }
+
+    public static List<Event> generateEvents(List<SchemaField> schema, int count) {
+        Schema avroSchema = AvroUtil.convertAvroSchema(schema);
+        List<Event> events = new ArrayList<>(count);
+        for (Map<String, Object> properties : generateProperties(schema, count)) {
+            GenericData.Record record = new GenericData.Record(avroSchema);
+            properties.forEach(record::put);
+            events.add(new Event(PROJECT, COLLECTION, null, schema, record));
+        }
+        return events;
+    }
+
+    private static Object generateValue(Random random, SchemaField field) {
+        switch (field.getName()) {
+            case "_time":
+                return 1514764800000L + random.nextInt(Integer.MAX_VALUE);
+            case "_user":
+                return "user-" + random.nextInt(100_000);
+            case "url":
+                return URLS[random.nextInt(URLS.length)];
+        }
+
+        switch (field.getType()) {
+            case STRING:
+                return Long.toHexString(random.nextLong());
+            case LONG:
+                return (long) random.nextInt(10_000);
+            case DOUBLE:
+                return random.nextInt(100_000) / 100.0;
+            case BOOLEAN:
+                return random.nextBoolean();
+            case TIMESTAMP:
+                return 1514764800000L + random.nextInt(Integer.MAX_VALUE);
+            default:
+                throw new IllegalStateException();
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package org.rakam.benchmark;
+
+import org.postgresql.copy.CopyIn;
+import org.rakam.analysis.JDBCPoolDataSource;
+import org.rakam.collection.Event;
+import org.rakam.collection.FieldDependencyBuilder;
+import org.rakam.collection.SchemaField;
+import org.rakam.config.JDBCConfig;
+import org.rakam.postgresql.PostgresqlModule.PostgresqlVersion;
+import org.rakam.postgresql.analysis.PostgresqlBinaryCopyWriter;
+import org.rakam.postgresql.analysis.PostgresqlConfig;
+import org.rakam.postgresql.analysis.PostgresqlEventStore;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.openjdk.jmh.runner.options.VerboseMode;
+
+import java.sql.SQLException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+/**
+ * Measures the parameter binding of the INSERT path and the encoding of the binary COPY path against a connection
+ * that discards the data.
+ */
+@State(Scope.Thread)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@BenchmarkMode(Mode.AverageTime)
+@Fork(2)
+@Warmup(iterations = 10, time = 500, timeUnit = MILLISECONDS)
+@Measurement(iterations = 10, time = 500, timeUnit = MILLISECONDS)
+public class BenchmarkPostgresqlEventStore {
+    private static final int BATCH_SIZE = 1000;
+
+    @Param({"narrow", "wide"})
+    private String schema = "narrow";
+
+    private PostgresqlEventStore eventStore;
+    private CopyIn copyIn;
+    private List<SchemaField> fields;
+    private List<Event> events;
+
+    @Setup
+    public void setup()
+            throws SQLException {
+        DiscardingJdbcDriver.register();
+        JDBCPoolDataSource dataSource = JDBCPoolDataSource.getOrCreateDataSource(new JDBCConfig()
+                .setUrl(DiscardingJdbcDriver.URL)
+                .setMaxConnection(1)
+                .setConnectionDisablePool(true));
+
+        eventStore = new PostgresqlEventStore(dataSource, new PostgresqlVersion(dataSource),
+                new PostgresqlConfig(), new FieldDependencyBuilder().build());
+        copyIn = DiscardingJdbcDriver.newProxy(CopyIn.class);
+
+        fields = BenchmarkEvents.getSchema(schema);
+        events = BenchmarkEvents.generateEvents(fields, BATCH_SIZE);
+    }
+
+    @Benchmark
+    public int[] insertBatch() {
+        return eventStore.storeBatch(events);
+    }
+
+    @Benchmark
+    public long binaryCopy()
+            throws SQLException {
+        PostgresqlBinaryCopyWriter writer = new PostgresqlBinaryCopyWriter(copyIn);
+        for (Event event : events) {
+            writer.writeRow(fields, event.properties());
+        }
+        return writer.finish();
+    }
+
+    public static void main(String[] args)
+            throws RunnerException {
+        Options options = new OptionsBuilder()
+                .verbosity(VerboseMode.NORMAL)
+                .include(".*" + BenchmarkPostgresqlEventStore.class.getSimpleName() + ".*")
+                .build();
+
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,114 @@
+package org.rakam.benchmark;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.Driver;
+import java.sql.DriverManager;
+import java.sql.DriverPropertyInfo;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.util.Properties;
+import java.util.logging.Logger;
+
+/**
+ * An in-process JDBC driver whose connections accept every statement and discard the bound values, so the
+ * benchmarks measure the client side of the event stores without a database server.
+ */
+public class DiscardingJdbcDriver
+        implements Driver {
+    public static final String URL = "jdbc:rakam-discard:benchmark";
+
+    private static final InvocationHandler HANDLER = new DiscardingHandler();
+
+    private static boolean registered;
+
+    public static synchronized void register()
+            throws SQLException {
+        if (!registered) {
+            DriverManager.registerDriver(new DiscardingJdbcDriver());
+            registered = true;
+        }
+    }
+
+    @Override
+    public Connection connect(String url, Properties info) {
+        return acceptsURL(url) ? newProxy(Connection.class) : null;
+    }
+
+    @Override
+    public boolean acceptsURL(String url) {
+        return url.startsWith(URL);
+    }
+
+    @Override
+    public DriverPropertyInfo[] getPropertyInfo(String url, Properties info) {
+        return new DriverPropertyInfo[0];
+    }
+
+    @Override
+    public int getMajorVersion() {
+        return 1;
+    }
+
+    @Override
+    public int getMinorVersion() {
+        return 0;
+    }
+
+    @Override
+    public boolean jdbcCompliant() {
+        return false;
+    }
+
+    @Override
+    public Logger getParentLogger()
+            throws SQLFeatureNotSupportedException {
+        throw new SQLFeatureNotSupportedException();
+    }
+
+    static <T> T newProxy(Class<T> clazz) {
+        return clazz.cast(Proxy.newProxyInstance(DiscardingJdbcDriver.class.getClassLoader(), new Class[] {clazz}, HANDLER));
+    }
+
+    private static class DiscardingHandler
+            implements InvocationHandler {
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) {
+            switch (method.getName()) {
+                case "isValid":
+                    return true;
+                case "executeBatch":
+                    return new int[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "equals":
+                    return proxy == args[0];
+                case "toString":
+                    return "DiscardingJdbcDriver";
+            }
+
+            Class<?> returnType = method.getReturnType();
+            // statements, metadata and result sets of the connection are also discarding proxies
+            if (returnType.isInterface() && returnType.getName().startsWith("java.sql.")) {
+                return newProxy(returnType);
+            }
+
+            if (returnType == boolean.class) {
+                return false;
+            }
+            if (returnType == int.class) {
+                return 0;
+            }
+            if (returnType == long.class) {
+                return 0L;
+            }
+            if (returnType.isPrimitive() && returnType != void.class) {
+                throw new UnsupportedOperationException(method.toString());
+            }
+
+            return null;
+        }
+    }
+}
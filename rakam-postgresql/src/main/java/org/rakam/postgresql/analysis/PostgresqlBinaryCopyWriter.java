@@ -0,0 +1,314 @@
+package org.rakam.postgresql.analysis;
+
+import org.apache.avro.generic.GenericRecord;
+import org.postgresql.copy.CopyIn;
+import org.rakam.collection.FieldType;
+import org.rakam.collection.SchemaField;
+import org.rakam.util.JsonHelper;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.sql.SQLException;
+import java.time.LocalTime;
+import java.util.Arrays;
+import java.util.List;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+/**
+ * Encodes Avro records in Postgresql binary COPY format and streams them into a {@link CopyIn}.
+ * The rows are written to a reusable buffer that is flushed to the server at row boundaries,
+ * the values are converted with the same rules as the INSERT path in {@link PostgresqlEventStore}.
+ * See https://www.postgresql.org/docs/10/static/sql-copy.html#id-1.9.3.52.9.4
+ */
+public class PostgresqlBinaryCopyWriter {
+    private static final byte[] SIGNATURE = {'P', 'G', 'C', 'O', 'P', 'Y', '\n', (byte) 0xFF, '\r', '\n', 0};
+    private static final int FLUSH_THRESHOLD = 1 << 16;
+
+    // milliseconds and days between 1970-01-01 and 2000-01-01
+    private static final long PG_EPOCH_MILLIS = 946684800000L;
+    private static final int PG_EPOCH_DAYS = 10957;
+
+    private static final BigInteger NBASE = BigInteger.valueOf(10000);
+    private static final short NUMERIC_POS = 0x0000;
+    private static final short NUMERIC_NEG = 0x4000;
+
+    private final CopyIn copyIn;
+    private byte[] buffer;
+    private int position;
+
+    public PostgresqlBinaryCopyWriter(CopyIn copyIn) {
+        this.copyIn = copyIn;
+        this.buffer = new byte[FLUSH_THRESHOLD * 2];
+        writeBytes(SIGNATURE);
+        // flags field and header extension length
+        writeInt(0);
+        writeInt(0);
+    }
+
+    public static int getTypeOid(FieldType type) {
+        switch (type) {
+            case BOOLEAN:
+                return 16;
+            case BINARY:
+                return 17;
+            case LONG:
+                return 20;
+            case INTEGER:
+                return 23;
+            case STRING:
+                return 25;
+            case DOUBLE:
+                return 701;
+            case DATE:
+                return 1082;
+            case TIME:
+                return 1083;
+            case TIMESTAMP:
+                // the columns are created as timestamp without time zone
+                return 1114;
+            case DECIMAL:
+                return 1700;
+            default:
+                throw new IllegalStateException("sql type couldn't converted to fieldtype");
+        }
+    }
+
+    public void writeRow(List<SchemaField> fields, GenericRecord record)
+            throws SQLException {
+        writeShort(fields.size());
+        for (int i = 0; i < fields.size(); i++) {
+            SchemaField field = fields.get(i);
+            Object value = record.get(field.getName());
+            if (field.getType() == FieldType.STRING && value != null && ((String) value).length() > 100) {
+                // same as the INSERT path, only the top-level string values are truncated
+                value = ((String) value).substring(0, 100);
+            }
+            writeField(field.getType(), value);
+        }
+
+        if (position >= FLUSH_THRESHOLD) {
+            flush();
+        }
+    }
+
+    public long finish()
+            throws SQLException {
+        // file trailer
+        writeShort(-1);
+        flush();
+        return copyIn.endCopy();
+    }
+
+    public void cancel()
+            throws SQLException {
+        if (copyIn.isActive()) {
+            copyIn.cancelCopy();
+        }
+    }
+
+    private void flush()
+            throws SQLException {
+        if (position > 0) {
+            copyIn.writeToCopy(buffer, 0, position);
+            position = 0;
+        }
+    }
+
+    private void writeField(FieldType type, Object value) {
+        if (value == null) {
+            writeInt(-1);
+            return;
+        }
+
+        switch (type) {
+            case STRING:
+                writeLengthPrefixed(((String) value).getBytes(UTF_8));
+                break;
+            case LONG:
+                writeInt(8);
+                writeLong(((Number) value).longValue());
+                break;
+            case INTEGER:
+                writeInt(4);
+                writeInt(((Number) value).intValue());
+                break;
+            case DECIMAL:
+                writeNumeric(new BigDecimal(((Number) value).doubleValue()));
+                break;
+            case DOUBLE:
+                writeInt(8);
+                writeLong(Double.doubleToLongBits(((Number) value).doubleValue()));
+                break;
+            case TIMESTAMP:
+                long millis = ((Number) value).longValue();
+                if (millis < 0) {
+                    writeInt(-1);
+                } else {
+                    writeInt(8);
+                    writeLong((millis - PG_EPOCH_MILLIS) * 1000);
+                }
+                break;
+            case TIME:
+                writeInt(8);
+                writeLong(LocalTime.ofSecondOfDay(((Number) value).intValue()).toNanoOfDay() / 1000);
+                break;
+            case DATE:
+                writeInt(4);
+                writeInt(((Number) value).intValue() - PG_EPOCH_DAYS);
+                break;
+            case BOOLEAN:
+                writeInt(1);
+                writeByte((Boolean) value ? 1 : 0);
+                break;
+            case BINARY:
+                writeLengthPrefixed((byte[]) value);
+                break;
+            default:
+                if (type.isArray()) {
+                    writeArray(type.getArrayElementType(), (List) value);
+                } else if (type.isMap()) {
+                    byte[] json = JsonHelper.encodeAsBytes(value);
+                    writeInt(json.length + 1);
+                    // jsonb version number
+                    writeByte(1);
+                    writeBytes(json);
+                } else {
+                    throw new UnsupportedOperationException();
+                }
+        }
+    }
+
+    private void writeArray(FieldType elementType, List values) {
+        int lengthPosition = reserveLength();
+
+        boolean hasNull = false;
+        for (Object item : values) {
+            if (item == null) {
+                hasNull = true;
+                break;
+            }
+        }
+
+        if (values.isEmpty()) {
+            writeInt(0);
+            writeInt(0);
+            writeInt(getTypeOid(elementType));
+        } else {
+            writeInt(1);
+            writeInt(hasNull ? 1 : 0);
+            writeInt(getTypeOid(elementType));
+            writeInt(values.size());
+            // lower bound
+            writeInt(1);
+            for (Object item : values) {
+                writeField(elementType, item);
+            }
+        }
+
+        patchLength(lengthPosition);
+    }
+
+    private void writeNumeric(BigDecimal value) {
+        int lengthPosition = reserveLength();
+
+        int scale = value.scale();
+        BigInteger unscaled = value.unscaledValue();
+        short sign = unscaled.signum() < 0 ? NUMERIC_NEG : NUMERIC_POS;
+        unscaled = unscaled.abs();
+
+        if (scale < 0) {
+            unscaled = unscaled.multiply(BigInteger.TEN.pow(-scale));
+            scale = 0;
+        }
+
+        // align the decimal point to a base-10000 digit boundary
+        int padding = (4 - scale % 4) % 4;
+        unscaled = unscaled.multiply(BigInteger.TEN.pow(padding));
+        int fractionalDigits = (scale + padding) / 4;
+
+        short[] digits = new short[8];
+        int count = 0;
+        while (unscaled.signum() != 0) {
+            BigInteger[] result = unscaled.divideAndRemainder(NBASE);
+            if (count == digits.length) {
+                digits = Arrays.copyOf(digits, count * 2);
+            }
+            digits[count++] = result[1].shortValue();
+            unscaled = result[0];
+        }
+
+        int weight = count - 1 - fractionalDigits;
+
+        // trailing zeros are not stored
+        int start = 0;
+        while (start < count && digits[start] == 0) {
+            start++;
+        }
+
+        writeShort(count - start);
+        writeShort(count == 0 ? 0 : weight);
+        writeShort(sign);
+        writeShort(scale);
+        for (int i = count - 1; i >= start; i--) {
+            writeShort(digits[i]);
+        }
+
+        patchLength(lengthPosition);
+    }
+
+    private void writeLengthPrefixed(byte[] bytes) {
+        writeInt(bytes.length);
+        writeBytes(bytes);
+    }
+
+    private int reserveLength() {
+        int lengthPosition = position;
+        writeInt(0);
+        return lengthPosition;
+    }
+
+    private void patchLength(int lengthPosition) {
+        int length = position - lengthPosition - 4;
+        int current = position;
+        position = lengthPosition;
+        writeInt(length);
+        position = current;
+    }
+
+    private void ensureCapacity(int length) {
+        if (position + length > buffer.length) {
+            buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, position + length));
+        }
+    }
+
+    private void writeByte(int value) {
+        ensureCapacity(1);
+        buffer[position++] = (byte) value;
+    }
+
+    private void writeShort(int value) {
+        ensureCapacity(2);
+        buffer[position++] = (byte) (value >>> 8);
+        buffer[position++] = (byte) value;
+    }
+
+    private void writeInt(int value) {
+        ensureCapacity(4);
+        buffer[position++] = (byte) (value >>> 24);
+        buffer[position++] = (byte) (value >>> 16);
+        buffer[position++] = (byte) (value >>> 8);
+        buffer[position++] = (byte) value;
+    }
+
+    private void writeLong(long value) {
+        writeInt((int) (value >>> 32));
+        writeInt((int) value);
+    }
+
+    private void writeBytes(byte[] bytes) {
+        ensureCapacity(bytes.length);
+        System.arraycopy(bytes, 0, buffer, position, bytes.length);
+        position += bytes.length;
+    }
+}
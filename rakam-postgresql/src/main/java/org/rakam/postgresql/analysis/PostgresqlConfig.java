@@ -6,6 +6,7 @@ public class PostgresqlConfig {
 
     private boolean autoIndexColumns = true;
     private boolean enableEventStore = true;
+    private boolean copyBulkLoad = true;
 
     public boolean isAutoIndexColumns() {
         return autoIndexColumns;
@@ -16,4 +17,14 @@ public class PostgresqlConfig {
         this.autoIndexColumns = indexColumns;
         return this;
     }
+
+    public boolean isCopyBulkLoad() {
+        return copyBulkLoad;
+    }
+
+    @Config("postgresql.copy-bulk-load")
+    public PostgresqlConfig setCopyBulkLoad(boolean copyBulkLoad) {
+        this.copyBulkLoad = copyBulkLoad;
+        return this;
+    }
 }
@@ -7,6 +7,8 @@ import com.google.inject.name.Named;
 import io.airlift.log.Logger;
 import org.apache.avro.Schema;
 import org.apache.avro.generic.GenericRecord;
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyManager;
 import org.postgresql.util.PGobject;
 import org.rakam.analysis.JDBCPoolDataSource;
 import org.rakam.collection.Event;
@@ -42,11 +44,13 @@ public class PostgresqlEventStore
     private final Set<String> sourceFields;
     private final JDBCPoolDataSource connectionPool;
     private final PostgresqlModule.PostgresqlVersion version;
+    private final boolean copyBulkLoad;
 
     @Inject
-    public PostgresqlEventStore(@Named("store.adapter.postgresql") JDBCPoolDataSource connectionPool, PostgresqlModule.PostgresqlVersion version, FieldDependency fieldDependency) {
+    public PostgresqlEventStore(@Named("store.adapter.postgresql") JDBCPoolDataSource connectionPool, PostgresqlModule.PostgresqlVersion version, PostgresqlConfig config, FieldDependency fieldDependency) {
         this.connectionPool = connectionPool;
         this.version = version;
+        this.copyBulkLoad = config.isCopyBulkLoad();
         this.sourceFields = fieldDependency.dependentFields.keySet();
     }
 
@@ -269,6 +273,78 @@ public class PostgresqlEventStore
         }
     }
 
+    @Override
+    public void storeBulk(List<Event> events) {
+        if (events.isEmpty()) {
+            return;
+        }
+
+        if (!copyBulkLoad) {
+            SyncEventStore.super.storeBulk(events);
+            return;
+        }
+
+        Map<String, List<Event>> groupedByCollection = events.stream()
+                .collect(Collectors.groupingBy(Event::collection));
+
+        try (Connection connection = connectionPool.getConnection()) {
+            CopyManager copyManager = connection.unwrap(PGConnection.class).getCopyAPI();
+
+            // the chunk is either stored as a whole or not stored at all
+            connection.setAutoCommit(false);
+            try {
+                for (Map.Entry<String, List<Event>> entry : groupedByCollection.entrySet()) {
+                    copyCollection(connection, copyManager, entry.getKey(), entry.getValue(), false);
+                }
+                connection.commit();
+            } catch (SQLException | RuntimeException e) {
+                connection.rollback();
+                throw e;
+            } finally {
+                connection.setAutoCommit(true);
+            }
+        } catch (SQLException e) {
+            List<Event> sample = events.size() > 5 ? events.subList(0, 5) : events;
+            LOGGER.error(e, "Error while storing events in Postgresql copy query: " + sample);
+            throw new RuntimeException(e);
+        }
+    }
+
+    private long copyCollection(Connection connection, CopyManager copyManager, String collection, List<Event> eventsForCollection, boolean partitionCheckDone)
+            throws SQLException {
+        // last event must have the last schema
+        Event lastEvent = getLastEvent(eventsForCollection);
+        // the source fields are not columns, same as the INSERT query
+        List<SchemaField> fields = lastEvent.schema().stream()
+                .filter(field -> !sourceFields.contains(field.getName()))
+                .collect(Collectors.toList());
+
+        // the failed COPY aborts the transaction, the savepoint lets us retry after creating the partitions
+        Savepoint savepoint = connection.setSavepoint();
+        PostgresqlBinaryCopyWriter writer = new PostgresqlBinaryCopyWriter(
+                copyManager.copyIn(getCopyQuery(lastEvent.project(), collection, fields)));
+        try {
+            for (Event event : eventsForCollection) {
+                writer.writeRow(fields, event.properties());
+            }
+            long rows = writer.finish();
+            connection.releaseSavepoint(savepoint);
+            return rows;
+        } catch (SQLException e) {
+            writer.cancel();
+            // check_violation -> https://www.postgresql.org/docs/8.2/static/errcodes-appendix.html
+            if (version.getVersion() == PG10 && !partitionCheckDone && "23514".equals(e.getSQLState())) {
+                connection.rollback(savepoint);
+                generateMissingPartitions(lastEvent.project(), collection, eventsForCollection, 0);
+                return copyCollection(connection, copyManager, collection, eventsForCollection, true);
+            }
+            throw e;
+        } catch (RuntimeException e) {
+            writer.cancel();
+            throw e;
+        }
+    }
+
     // get the event with the last schema
     private Event getLastEvent(List<Event> eventsForCollection) {
         Event event = eventsForCollection.get(0);
@@ -350,6 +426,16 @@ public class PostgresqlEventStore
         }
     }
 
+    private String getCopyQuery(String project, String collection, List<SchemaField> fields) {
+        return new StringBuilder("COPY ")
+                .append(checkProject(project, '"'))
+                .append(".")
+                .append(ValidationUtil.checkCollection(collection))
+                .append(" (")
+                .append(fields.stream().map(field -> checkTableColumn(field.getName())).collect(Collectors.joining(", ")))
+                .append(") FROM STDIN WITH (FORMAT binary)").toString();
+    }
+
     private String getQuery(String project, String collection, Schema schema) {
         StringBuilder query = new StringBuilder("INSERT INTO ")
                 .append(checkProject(project, '"'))
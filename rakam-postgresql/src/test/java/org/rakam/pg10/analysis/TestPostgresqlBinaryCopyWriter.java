@@ -0,0 +1,189 @@
+package org.rakam.pg10.analysis;
+
+import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableList;
+import org.apache.avro.generic.GenericData;
+import org.apache.avro.generic.GenericRecord;
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyManager;
+import org.rakam.analysis.JDBCPoolDataSource;
+import org.rakam.collection.SchemaField;
+import org.rakam.pg10.TestingEnvironmentPg10;
+import org.rakam.postgresql.analysis.PostgresqlBinaryCopyWriter;
+import org.rakam.util.AvroUtil;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeSuite;
+import org.testng.annotations.Test;
+
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.rakam.collection.FieldType.ARRAY_DECIMAL;
+import static org.rakam.collection.FieldType.ARRAY_INTEGER;
+import static org.rakam.collection.FieldType.ARRAY_STRING;
+import static org.rakam.collection.FieldType.ARRAY_TIMESTAMP;
+import static org.rakam.collection.FieldType.BOOLEAN;
+import static org.rakam.collection.FieldType.DATE;
+import static org.rakam.collection.FieldType.DECIMAL;
+import static org.rakam.collection.FieldType.DOUBLE;
+import static org.rakam.collection.FieldType.INTEGER;
+import static org.rakam.collection.FieldType.LONG;
+import static org.rakam.collection.FieldType.STRING;
+import static org.rakam.collection.FieldType.TIME;
+import static org.rakam.collection.FieldType.TIMESTAMP;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+public class TestPostgresqlBinaryCopyWriter {
+    // 2017-07-14 02:40:00 UTC
+    private static final long TIMESTAMP_MILLIS = 1500000000000L;
+    // 1999-12-31 23:59:59 UTC, before the Postgresql epoch
+    private static final long TIMESTAMP_BEFORE_PG_EPOCH_MILLIS = 946684799000L;
+    // 2017-07-14
+    private static final int DATE_DAYS = 17361;
+
+    private static final List<SchemaField> FIELDS = ImmutableList.of(
+            new SchemaField("s", STRING),
+            new SchemaField("l", LONG),
+            new SchemaField("i", INTEGER),
+            new SchemaField("d", DECIMAL),
+            new SchemaField("f", DOUBLE),
+            new SchemaField("dt", DATE),
+            new SchemaField("t", TIME),
+            new SchemaField("ts", TIMESTAMP),
+            new SchemaField("b", BOOLEAN),
+            new SchemaField("arr_s", ARRAY_STRING),
+            new SchemaField("arr_i", ARRAY_INTEGER),
+            new SchemaField("arr_d", ARRAY_DECIMAL),
+            new SchemaField("arr_ts", ARRAY_TIMESTAMP));
+
+    private JDBCPoolDataSource dataSource;
+
+    @BeforeSuite
+    public void setupPostgresql() {
+        TestingEnvironmentPg10 testingEnvironment = new TestingEnvironmentPg10();
+        dataSource = JDBCPoolDataSource.getOrCreateDataSource(testingEnvironment.getPostgresqlConfig());
+    }
+
+    @AfterMethod
+    public void tearDownMethod() throws SQLException {
+        try (Connection connection = dataSource.getConnection(); Statement statement = connection.createStatement()) {
+            statement.execute("DROP TABLE IF EXISTS copy_test");
+        }
+    }
+
+    @Test
+    public void testAllTypes() throws SQLException {
+        GenericRecord record = newRecord();
+        String longString = Strings.repeat("a", 150);
+        record.put("s", longString);
+        record.put("l", Long.MAX_VALUE);
+        record.put("i", -42);
+        record.put("d", 12.5);
+        record.put("f", 1.25);
+        record.put("dt", DATE_DAYS);
+        record.put("t", 3661);
+        record.put("ts", TIMESTAMP_MILLIS);
+        record.put("b", true);
+        record.put("arr_s", Arrays.asList(longString, null, "x"));
+        record.put("arr_i", Arrays.asList(1, 2, 3));
+        record.put("arr_d", Arrays.asList(0.5, -1234.75));
+        record.put("arr_ts", Arrays.asList(TIMESTAMP_MILLIS, TIMESTAMP_BEFORE_PG_EPOCH_MILLIS));
+
+        copy(ImmutableList.of(record));
+
+        try (Connection connection = dataSource.getConnection(); Statement statement = connection.createStatement()) {
+            ResultSet resultSet = statement.executeQuery("SELECT s, l, i, d, f, dt::text, t::text, ts::text, b, " +
+                    "array_to_string(arr_s, ',', 'NULL'), arr_i::text, arr_d::text, arr_ts::text FROM copy_test");
+            assertTrue(resultSet.next());
+            // the top-level strings are truncated as in the INSERT path, the array elements are not
+            assertEquals(resultSet.getString(1), Strings.repeat("a", 100));
+            assertEquals(resultSet.getLong(2), Long.MAX_VALUE);
+            assertEquals(resultSet.getInt(3), -42);
+            assertEquals(resultSet.getBigDecimal(4).compareTo(new BigDecimal("12.5")), 0);
+            assertEquals(resultSet.getDouble(5), 1.25);
+            assertEquals(resultSet.getString(6), "2017-07-14");
+            assertEquals(resultSet.getString(7), "01:01:01");
+            assertEquals(resultSet.getString(8), "2017-07-14 02:40:00");
+            assertTrue(resultSet.getBoolean(9));
+            assertEquals(resultSet.getString(10), longString + ",NULL,x");
+            assertEquals(resultSet.getString(11), "{1,2,3}");
+            assertEquals(resultSet.getString(12), "{0.5,-1234.75}");
+            assertEquals(resultSet.getString(13), "{\"2017-07-14 02:40:00\",\"1999-12-31 23:59:59\"}");
+            assertFalse(resultSet.next());
+        }
+    }
+
+    @Test
+    public void testNulls() throws SQLException {
+        GenericRecord record = newRecord();
+        record.put("arr_s", ImmutableList.of());
+
+        copy(ImmutableList.of(record));
+
+        try (Connection connection = dataSource.getConnection(); Statement statement = connection.createStatement()) {
+            ResultSet resultSet = statement.executeQuery("SELECT *, cardinality(arr_s) FROM copy_test");
+            assertTrue(resultSet.next());
+            for (SchemaField field : FIELDS) {
+                if (!field.getName().equals("arr_s")) {
+                    assertNull(resultSet.getObject(field.getName()), field.getName());
+                }
+            }
+            assertEquals(resultSet.getInt(FIELDS.size() + 1), 0);
+        }
+    }
+
+    @Test
+    public void testNumeric() throws SQLException {
+        double[] values = {0, 1, -1, 12.5, -1234.75, 0.0625, 100000000, 123456789.125, 1e-10, -9999.9999};
+        List<GenericRecord> records = new ArrayList<>();
+        for (double value : values) {
+            GenericRecord record = newRecord();
+            record.put("d", value);
+            record.put("f", value);
+            records.add(record);
+        }
+
+        copy(records);
+
+        try (Connection connection = dataSource.getConnection(); Statement statement = connection.createStatement()) {
+            ResultSet resultSet = statement.executeQuery("SELECT d, f FROM copy_test");
+            int count = 0;
+            while (resultSet.next()) {
+                // the INSERT path binds new BigDecimal(double) as well
+                assertEquals(resultSet.getBigDecimal(1).compareTo(new BigDecimal(resultSet.getDouble(2))), 0);
+                count++;
+            }
+            assertEquals(count, values.length);
+        }
+    }
+
+    private static GenericRecord newRecord() {
+        return new GenericData.Record(AvroUtil.convertAvroSchema(FIELDS));
+    }
+
+    private void copy(List<GenericRecord> records) throws SQLException {
+        try (Connection connection = dataSource.getConnection()) {
+            try (Statement statement = connection.createStatement()) {
+                statement.execute("CREATE TABLE copy_test (s text, l int8, i int4, d decimal, f float8, dt date, " +
+                        "t time, ts timestamp, b bool, arr_s text[], arr_i int4[], arr_d decimal[], arr_ts timestamp[])");
+            }
+
+            CopyManager copyManager = connection.unwrap(PGConnection.class).getCopyAPI();
+            PostgresqlBinaryCopyWriter writer = new PostgresqlBinaryCopyWriter(
+                    copyManager.copyIn("COPY copy_test FROM STDIN WITH (FORMAT binary)"));
+            for (GenericRecord record : records) {
+                writer.writeRow(FIELDS, record);
+            }
+            assertEquals(writer.finish(), records.size());
+        }
+    }
+}
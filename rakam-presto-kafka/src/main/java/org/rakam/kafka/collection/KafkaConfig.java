@@ -4,6 +4,7 @@ import com.google.common.base.Splitter;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.net.HostAndPort;
 import io.airlift.configuration.Config;
+import io.airlift.configuration.ConfigDescription;
 import io.airlift.units.DataSize;
 import io.airlift.units.Duration;
 import io.airlift.units.MinDuration;
@@ -13,13 +14,16 @@ import java.util.Set;
 import static com.google.common.collect.Iterables.transform;
 
 public class KafkaConfig {
-    public static final String SERIALIZER = "kafka.serializer.DefaultEncoder";
     private static final int KAFKA_DEFAULT_PORT = 9092;
     private Set<HostAndPort> nodes = ImmutableSet.of();
     private Duration kafkaConnectTimeout = Duration.valueOf("10s");
     private DataSize kafkaBufferSize = new DataSize(64, DataSize.Unit.KILOBYTE);
     private Duration commitInterval = Duration.valueOf("5s");
     private HostAndPort zookeeperNode;
+    private Duration linger = Duration.valueOf("5ms");
+    private DataSize batchSize = new DataSize(64, DataSize.Unit.KILOBYTE);
+    private String compression = "snappy";
+    private boolean idempotence = true;
 
     public static ImmutableSet<HostAndPort> parseNodes(String nodes) {
         Splitter splitter = Splitter.on(',').omitEmptyStrings().trimResults();
@@ -83,5 +87,47 @@ public class KafkaConfig {
         this.zookeeperNode = (node == null) ? null : HostAndPort.fromString(node);
         return this;
     }
-}
 
+    public Duration getLinger() {
+        return linger;
+    }
+
+    @Config("linger")
+    @ConfigDescription("The time that the producer waits for more events before sending a batch")
+    public KafkaConfig setLinger(String linger) {
+        this.linger = Duration.valueOf(linger);
+        return this;
+    }
+
+    public DataSize getBatchSize() {
+        return batchSize;
+    }
+
+    @Config("batch-size")
+    public KafkaConfig setBatchSize(String batchSize) {
+        this.batchSize = DataSize.valueOf(batchSize);
+        return this;
+    }
+
+    public String getCompression() {
+        return compression;
+    }
+
+    @Config("compression")
+    @ConfigDescription("The compression of the batches, one of none, gzip, snappy and lz4")
+    public KafkaConfig setCompression(String compression) {
+        this.compression = compression;
+        return this;
+    }
+
+    public boolean getIdempotence() {
+        return idempotence;
+    }
+
+    @Config("idempotence")
+    @ConfigDescription("Waits for all the in-sync replicas and retries the failed batches without reordering the events")
+    public KafkaConfig setIdempotence(boolean idempotence) {
+        this.idempotence = idempotence;
+        return this;
+    }
+}
@@ -1,69 +1,73 @@
 package org.rakam.kafka.collection;
 
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.cache.LoadingCache;
 import com.google.common.collect.Sets;
 import com.google.common.net.HostAndPort;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.inject.Singleton;
 import com.google.inject.name.Named;
 import io.airlift.log.Logger;
-import io.netty.buffer.ByteBuf;
-import io.netty.buffer.ByteBufOutputStream;
-import io.netty.buffer.Unpooled;
-import kafka.common.FailedToSendMessageException;
-import kafka.javaapi.producer.Producer;
-import kafka.producer.KeyedMessage;
-import kafka.producer.ProducerConfig;
-import org.apache.avro.generic.GenericData;
-import org.apache.avro.generic.GenericDatumWriter;
-import org.apache.avro.generic.SourceFilteredRecordWriter;
-import org.apache.avro.io.BinaryEncoder;
-import org.apache.avro.io.EncoderFactory;
+import org.apache.avro.Schema;
 import org.apache.curator.framework.CuratorFramework;
 import org.apache.curator.framework.CuratorFrameworkFactory;
 import org.apache.curator.framework.recipes.leader.LeaderSelector;
 import org.apache.curator.framework.recipes.leader.LeaderSelectorListener;
 import org.apache.curator.framework.state.ConnectionState;
 import org.apache.curator.retry.ExponentialBackoffRetry;
+import org.apache.kafka.clients.producer.KafkaProducer;
+import org.apache.kafka.clients.producer.Producer;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.KafkaException;
+import org.apache.kafka.common.serialization.ByteArraySerializer;
 import org.rakam.collection.Event;
 import org.rakam.collection.FieldDependencyBuilder;
 import org.rakam.collection.SchemaField;
 import org.rakam.plugin.EventStore;
-import org.rakam.plugin.SyncEventStore;
+import org.rakam.util.AvroRecordSerializer;
 
+import javax.annotation.PreDestroy;
 import javax.inject.Inject;
+import java.util.BitSet;
 import java.util.List;
 import java.util.Properties;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
 
 import static com.google.common.base.Preconditions.checkNotNull;
 import static java.lang.String.format;
-
+import static org.apache.kafka.clients.producer.ProducerConfig.ACKS_CONFIG;
+import static org.apache.kafka.clients.producer.ProducerConfig.BATCH_SIZE_CONFIG;
+import static org.apache.kafka.clients.producer.ProducerConfig.BOOTSTRAP_SERVERS_CONFIG;
+import static org.apache.kafka.clients.producer.ProducerConfig.COMPRESSION_TYPE_CONFIG;
+import static org.apache.kafka.clients.producer.ProducerConfig.KEY_SERIALIZER_CLASS_CONFIG;
+import static org.apache.kafka.clients.producer.ProducerConfig.LINGER_MS_CONFIG;
+import static org.apache.kafka.clients.producer.ProducerConfig.MAX_IN_FLIGHT_REQUESTS_PER_CONNECTION;
+import static org.apache.kafka.clients.producer.ProducerConfig.RETRIES_CONFIG;
+import static org.apache.kafka.clients.producer.ProducerConfig.VALUE_SERIALIZER_CLASS_CONFIG;
+
+/**
+ * Sends the events to the topic of their collection with the asynchronous Kafka producer. The producer batches the
+ * events of the concurrent requests for {@code event.store.kafka.linger} and compresses the batches, the futures of
+ * the requests are completed by the callbacks of the records.
+ */
 @Singleton
-public class KafkaEventStore implements SyncEventStore, LeaderSelectorListener {
+public class KafkaEventStore implements EventStore, LeaderSelectorListener {
     private final static Logger LOGGER = Logger.get(KafkaEventStore.class);
     private final static String ZK_OFFSET_PATH = "/collectionOffsets";
 
     private final Producer<byte[], byte[]> producer;
-    private final Set<String> sourceFields;
+    private final LoadingCache<Schema, AvroRecordSerializer> serializers;
     private ScheduledExecutorService executorService;
 
     @Inject
     public KafkaEventStore(@Named("event.store.kafka") KafkaConfig config, FieldDependencyBuilder.FieldDependency fieldDependency) {
-        config = checkNotNull(config, "config is null");
-        this.sourceFields = Sets.union(fieldDependency.dependentFields.keySet(),
-                fieldDependency.constantFields.stream().map(SchemaField::getName)
-                        .collect(Collectors.toSet()));
-
-        Properties props = new Properties();
-        props.put("metadata.broker.list", config.getNodes().stream().map(HostAndPort::toString).collect(Collectors.joining(",")));
-        props.put("serializer.class", config.SERIALIZER);
-
-        ProducerConfig producerConfig = new ProducerConfig(props);
-        this.producer = new Producer(producerConfig);
+        this(createProducer(checkNotNull(config, "config is null")), fieldDependency);
 
         CuratorFramework client = CuratorFrameworkFactory.newClient(config.getZookeeperNode().toString(),
                 new ExponentialBackoffRetry(1000, 3));
@@ -79,32 +83,106 @@ public class KafkaEventStore implements SyncEventStore, LeaderSelectorListener {
         new LeaderSelector(client, ZK_OFFSET_PATH, this).start();
     }
 
+    @VisibleForTesting
+    public KafkaEventStore(Producer<byte[], byte[]> producer, FieldDependencyBuilder.FieldDependency fieldDependency) {
+        this.producer = producer;
+        Set<String> sourceFields = Sets.union(fieldDependency.dependentFields.keySet(),
+                fieldDependency.constantFields.stream().map(SchemaField::getName)
+                        .collect(Collectors.toSet()));
+        this.serializers = AvroRecordSerializer.cache(field -> !sourceFields.contains(field.name()));
+    }
+
+    private static Producer<byte[], byte[]> createProducer(KafkaConfig config) {
+        Properties props = new Properties();
+        props.put(BOOTSTRAP_SERVERS_CONFIG, config.getNodes().stream().map(HostAndPort::toString).collect(Collectors.joining(",")));
+        props.put(KEY_SERIALIZER_CLASS_CONFIG, ByteArraySerializer.class.getName());
+        props.put(VALUE_SERIALIZER_CLASS_CONFIG, ByteArraySerializer.class.getName());
+        props.put(LINGER_MS_CONFIG, String.valueOf(config.getLinger().toMillis()));
+        props.put(BATCH_SIZE_CONFIG, String.valueOf(config.getBatchSize().toBytes()));
+        props.put(COMPRESSION_TYPE_CONFIG, config.getCompression());
+        if (config.getIdempotence()) {
+            // the client doesn't support enable.idempotence, the retries may duplicate but not reorder the events
+            props.put(ACKS_CONFIG, "all");
+            props.put(RETRIES_CONFIG, String.valueOf(Integer.MAX_VALUE));
+            props.put(MAX_IN_FLIGHT_REQUESTS_PER_CONNECTION, "1");
+        }
+        return new KafkaProducer<>(props);
+    }
+
     @Override
-    public void store(Event event) {
-        GenericDatumWriter writer = new SourceFilteredRecordWriter(event.properties().getSchema(), GenericData.get(), sourceFields);
-        ByteBuf buffer = Unpooled.buffer(100);
+    public CompletableFuture<Void> storeAsync(Event event) {
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        try {
+            producer.send(createRecord(event), (metadata, exception) -> {
+                if (exception != null) {
+                    future.completeExceptionally(new RuntimeException("Couldn't send event to Kafka", exception));
+                } else {
+                    future.complete(null);
+                }
+            });
+        } catch (KafkaException e) {
+            future.completeExceptionally(new RuntimeException("Couldn't send event to Kafka", e));
+        }
+        return future;
+    }
 
-        BinaryEncoder encoder = EncoderFactory.get().directBinaryEncoder(
-                new ByteBufOutputStream(buffer), null);
+    @Override
+    public CompletableFuture<int[]> storeBatchAsync(List<Event> events) {
+        if (events.isEmpty()) {
+            return COMPLETED_FUTURE_BATCH;
+        }
+
+        CompletableFuture<int[]> future = new CompletableFuture<>();
+        AtomicInteger remaining = new AtomicInteger(events.size());
+        BitSet failedIndexes = new BitSet();
+        Runnable completion = () -> {
+            if (remaining.decrementAndGet() == 0) {
+                synchronized (failedIndexes) {
+                    future.complete(failedIndexes.isEmpty() ? SUCCESSFUL_BATCH : failedIndexes.stream().toArray());
+                }
+            }
+        };
+
+        for (int i = 0; i < events.size(); i++) {
+            int index = i;
+            try {
+                producer.send(createRecord(events.get(i)), (metadata, exception) -> {
+                    if (exception != null) {
+                        LOGGER.error(exception, "Couldn't send event to Kafka");
+                        synchronized (failedIndexes) {
+                            failedIndexes.set(index);
+                        }
+                    }
+                    completion.run();
+                });
+            } catch (KafkaException e) {
+                LOGGER.error(e, "Couldn't send event to Kafka");
+                synchronized (failedIndexes) {
+                    failedIndexes.set(index);
+                }
+                completion.run();
+            }
+        }
+
+        return future;
+    }
+
+    private ProducerRecord<byte[], byte[]> createRecord(Event event) {
+        AvroRecordSerializer.Output output = AvroRecordSerializer.output();
 
         try {
-            writer.write(event.properties(), encoder);
+            serializers.getUnchecked(event.properties().getSchema()).serialize(event.properties(), output.encoder());
         } catch (Exception e) {
             throw new RuntimeException("Couldn't serialize event", e);
         }
 
-        try {
-            producer.send(new KeyedMessage<>(event.project() + "_" + event.collection(), buffer.array()));
-        } catch (FailedToSendMessageException e) {
-            throw new RuntimeException("Couldn't send event to Kafka", e);
-        }
+        // the producer keeps the value until the batch is sent so it can't share the buffer of the output
+        return new ProducerRecord<>(event.project() + "_" + event.collection(), output.toByteArray());
     }
 
-    @Override
-    public int[] storeBatch(List<Event> events) {
-        // TODO: implement this
-        events.forEach(this::store);
-        return EventStore.SUCCESSFUL_BATCH;
+    @PreDestroy
+    public void shutdown() {
+        producer.close();
     }
 
     @Override
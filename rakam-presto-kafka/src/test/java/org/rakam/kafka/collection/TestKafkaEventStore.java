@@ -0,0 +1,76 @@
+package org.rakam.kafka.collection;
+
+import com.google.common.collect.ImmutableList;
+import org.apache.avro.generic.GenericData;
+import org.apache.kafka.clients.producer.MockProducer;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.rakam.collection.Event;
+import org.rakam.collection.FieldDependencyBuilder;
+import org.rakam.collection.FieldType;
+import org.rakam.collection.SchemaField;
+import org.rakam.plugin.EventStore;
+import org.rakam.util.AvroUtil;
+import org.testng.annotations.Test;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+public class TestKafkaEventStore {
+    private static final List<SchemaField> FIELDS = ImmutableList.of(new SchemaField("test", FieldType.STRING));
+
+    @Test
+    public void testBatchCompletesFromCallbacks()
+            throws Exception {
+        MockProducer producer = new MockProducer(false);
+        KafkaEventStore store = new KafkaEventStore(producer, new FieldDependencyBuilder().build());
+
+        CompletableFuture<int[]> future = store.storeBatchAsync(events(3));
+        assertEquals(producer.history().size(), 3);
+        assertFalse(future.isDone());
+
+        producer.completeNext();
+        producer.errorNext(new RuntimeException());
+        assertFalse(future.isDone());
+        producer.completeNext();
+
+        assertEquals(future.get(10, SECONDS), new int[] {1});
+    }
+
+    @Test
+    public void testSuccessfulBatch()
+            throws Exception {
+        MockProducer producer = new MockProducer(true);
+        KafkaEventStore store = new KafkaEventStore(producer, new FieldDependencyBuilder().build());
+
+        assertEquals(store.storeBatchAsync(events(2)).get(10, SECONDS), EventStore.SUCCESSFUL_BATCH);
+        assertTrue(store.storeBatchAsync(ImmutableList.of()).isDone());
+        store.storeAsync(events(1).get(0)).get(10, SECONDS);
+    }
+
+    @Test
+    public void testMessageIsSizedToRecord() {
+        MockProducer producer = new MockProducer(true);
+        KafkaEventStore store = new KafkaEventStore(producer, new FieldDependencyBuilder().build());
+
+        store.store(events(1).get(0));
+        ProducerRecord<byte[], byte[]> record = producer.history().get(0);
+        assertEquals(record.topic(), "project_collection");
+        // the union index of the nullable string, the length and "value0"
+        assertEquals(record.value().length, 1 + 1 + "value0".length());
+    }
+
+    private static List<Event> events(int count) {
+        return IntStream.range(0, count).mapToObj(i -> {
+            GenericData.Record record = new GenericData.Record(AvroUtil.convertAvroSchema(FIELDS));
+            record.put("test", "value" + i);
+            return new Event("project", "collection", null, FIELDS, record);
+        }).collect(Collectors.toList());
+    }
+}
@@ -0,0 +1,171 @@
+package org.rakam.analysis.metadata;
+
+import com.google.common.base.Throwables;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.rakam.collection.SchemaField;
+import org.rakam.util.NotExistsException;
+import org.rakam.util.ProjectCollection;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Serializes the schema changes of the collections. Each collection has at most one change in flight, the fields
+ * that are discovered by the concurrent requests in the meantime are merged into the next change so they are added
+ * with a single call to the metastore and the waiting requests share the resulting schema. The state of a collection
+ * is removed when it doesn't have a change in flight.
+ */
+@Singleton
+public class SchemaEvolutionCoordinator {
+    private final Metastore metastore;
+    private final ExecutorService executor;
+    private final Map<ProjectCollection, CollectionState> states = new ConcurrentHashMap<>();
+
+    @Inject
+    public SchemaEvolutionCoordinator(Metastore metastore) {
+        this.metastore = metastore;
+        this.executor = Executors.newCachedThreadPool(new ThreadFactoryBuilder()
+                .setNameFormat("schema-evolution-%d")
+                .setDaemon(true)
+                .build());
+    }
+
+    public List<SchemaField> getOrCreateCollectionFields(String project, String collection, Set<SchemaField> fields)
+            throws NotExistsException {
+        SchemaChange change = submit(project, collection, fields);
+
+        try {
+            return change.result.join();
+        } catch (CompletionException e) {
+            if (change.requests > 1) {
+                // the fields of another request may have caused the failure
+                return metastore.getOrCreateCollectionFields(project, collection, fields);
+            }
+            throw Throwables.propagate(e.getCause());
+        }
+    }
+
+    /**
+     * Submits the fields without waiting for the change, the future fails if the change fails.
+     */
+    public CompletableFuture<List<SchemaField>> getOrCreateCollectionFieldsAsync(String project, String collection, Set<SchemaField> fields) {
+        return submit(project, collection, fields).result;
+    }
+
+    /**
+     * The number of the collections that have a schema change in flight.
+     */
+    public int getInFlightCollectionCount() {
+        return states.size();
+    }
+
+    private SchemaChange submit(String project, String collection, Set<SchemaField> fields) {
+        ProjectCollection key = new ProjectCollection(project, collection);
+        while (true) {
+            SchemaChange change = states.computeIfAbsent(key, CollectionState::new).submit(fields);
+            // null if the state is removed after it's looked up
+            if (change != null) {
+                return change;
+            }
+        }
+    }
+
+    private class CollectionState {
+        private final ProjectCollection collection;
+        private SchemaChange inFlight;
+        private SchemaChange next;
+        private boolean removed;
+
+        private CollectionState(ProjectCollection collection) {
+            this.collection = collection;
+        }
+
+        private synchronized SchemaChange submit(Set<SchemaField> fields) {
+            if (removed) {
+                return null;
+            }
+            if (inFlight != null && inFlight.covers(fields)) {
+                inFlight.requests++;
+                return inFlight;
+            }
+
+            if (inFlight == null) {
+                inFlight = new SchemaChange();
+                inFlight.add(fields);
+                start(inFlight);
+                return inFlight;
+            }
+
+            if (next == null) {
+                next = new SchemaChange();
+            }
+            next.add(fields);
+            return next;
+        }
+
+        private void start(SchemaChange change) {
+            Set<SchemaField> fields = ImmutableSet.copyOf(change.fields.values());
+            executor.execute(() -> {
+                List<SchemaField> result = null;
+                Throwable failure = null;
+                try {
+                    result = metastore.getOrCreateCollectionFields(collection.project, collection.collection, fields);
+                } catch (Throwable e) {
+                    failure = e;
+                }
+
+                // the state is updated before the requests are notified
+                finish();
+                if (failure == null) {
+                    change.result.complete(result);
+                } else {
+                    change.result.completeExceptionally(failure);
+                }
+            });
+        }
+
+        private synchronized void finish() {
+            inFlight = next;
+            next = null;
+            if (inFlight != null) {
+                start(inFlight);
+            } else {
+                removed = true;
+                states.remove(collection, this);
+            }
+        }
+    }
+
+    private static class SchemaChange {
+        // the first request that adds a field decides its type as if the requests were processed one by one
+        private final Map<String, SchemaField> fields = new LinkedHashMap<>();
+        private final CompletableFuture<List<SchemaField>> result = new CompletableFuture<>();
+        private volatile int requests;
+
+        private void add(Set<SchemaField> newFields) {
+            for (SchemaField field : newFields) {
+                fields.putIfAbsent(field.getName(), field);
+            }
+            requests++;
+        }
+
+        private boolean covers(Set<SchemaField> newFields) {
+            for (SchemaField field : newFields) {
+                if (!field.equals(fields.get(field.getName()))) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
@@ -46,7 +46,7 @@ public interface EventStore {
     }
 
     enum CompressionType {
-        GZIP;
+        GZIP, DEFLATE;
 
         @JsonCreator
         public static CompressionType get(String name) {
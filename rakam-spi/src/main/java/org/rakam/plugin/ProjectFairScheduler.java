@@ -0,0 +1,201 @@
+package org.rakam.plugin;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+/**
+ * Runs the store calls of the projects on a shared pool with deficit round robin: each project has its own queue
+ * and the projects with pending calls take turns, a turn allows the project to run calls with up to
+ * {@code weight * QUANTUM} events. A project that sends more than its share of events only fills its own queue
+ * so the calls of the other projects are not delayed behind it and it's the only project whose calls are rejected.
+ */
+public class ProjectFairScheduler {
+    private static final int QUANTUM = 100;
+    private static final long KEEP_ALIVE_NANOS = TimeUnit.SECONDS.toNanos(60);
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Map<String, ProjectQueue> queues = new HashMap<>();
+    private final ArrayDeque<ProjectQueue> active = new ArrayDeque<>();
+    private final ThreadFactory threadFactory;
+
+    private volatile int maxThreads;
+    private volatile int maxQueuedTasks;
+    private volatile int maxQueuedTasksPerProject;
+    private volatile Map<String, Integer> weights = ImmutableMap.of();
+
+    private int threads;
+    private int idleThreads;
+    private int queuedTasks;
+
+    public ProjectFairScheduler(int maxThreads, int maxQueuedTasks, int maxQueuedTasksPerProject) {
+        this.maxThreads = maxThreads;
+        this.maxQueuedTasks = maxQueuedTasks;
+        this.maxQueuedTasksPerProject = maxQueuedTasksPerProject;
+        this.threadFactory = new ThreadFactoryBuilder().setNameFormat("event-store-%d").setDaemon(true).build();
+    }
+
+    public void configure(int maxThreads, int maxQueuedTasks, int maxQueuedTasksPerProject, Map<String, Integer> weights) {
+        this.maxThreads = maxThreads;
+        this.maxQueuedTasks = maxQueuedTasks;
+        this.maxQueuedTasksPerProject = maxQueuedTasksPerProject;
+        this.weights = ImmutableMap.copyOf(weights);
+    }
+
+    /**
+     * Queues the task of the project, the cost is the number of events that the task stores.
+     *
+     * @throws RejectedExecutionException if the queue of the project or the total queue is full
+     */
+    public <T> CompletableFuture<T> submit(String project, int cost, Supplier<T> supplier) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        Task task = new Task(Math.max(cost, 1), () -> {
+            try {
+                future.complete(supplier.get());
+            } catch (Throwable e) {
+                future.completeExceptionally(e);
+            }
+        });
+
+        lock.lock();
+        try {
+            ProjectQueue queue = queues.computeIfAbsent(project == null ? "" : project, ProjectQueue::new);
+            if (queuedTasks >= maxQueuedTasks || queue.tasks.size() >= maxQueuedTasksPerProject) {
+                if (queue.tasks.isEmpty()) {
+                    queues.remove(queue.project);
+                }
+                throw new RejectedExecutionException();
+            }
+
+            queue.tasks.addLast(task);
+            queuedTasks++;
+            if (!queue.active) {
+                queue.active = true;
+                active.addLast(queue);
+            }
+
+            if (idleThreads < queuedTasks && threads < maxThreads) {
+                threads++;
+                threadFactory.newThread(this::work).start();
+            } else {
+                notEmpty.signal();
+            }
+        } finally {
+            lock.unlock();
+        }
+        return future;
+    }
+
+    /**
+     * Returns true if the calls of the project would be rejected.
+     */
+    public boolean isSaturated(String project) {
+        lock.lock();
+        try {
+            if (queuedTasks >= maxQueuedTasks) {
+                return true;
+            }
+            ProjectQueue queue = queues.get(project);
+            return queue != null && queue.tasks.size() >= maxQueuedTasksPerProject;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getQueuedTasks() {
+        lock.lock();
+        try {
+            return queuedTasks;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void work() {
+        while (true) {
+            Task task;
+            lock.lock();
+            try {
+                task = next();
+                if (task == null) {
+                    threads--;
+                    return;
+                }
+            } finally {
+                lock.unlock();
+            }
+            task.runnable.run();
+        }
+    }
+
+    private Task next() {
+        long timeout = KEEP_ALIVE_NANOS;
+        while (active.isEmpty()) {
+            if (timeout <= 0 || threads > maxThreads) {
+                return null;
+            }
+            idleThreads++;
+            try {
+                timeout = notEmpty.awaitNanos(timeout);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return null;
+            } finally {
+                idleThreads--;
+            }
+        }
+
+        while (true) {
+            ProjectQueue queue = active.peekFirst();
+            Task task = queue.tasks.peekFirst();
+            if (queue.deficit >= task.cost) {
+                queue.tasks.pollFirst();
+                queue.deficit -= task.cost;
+                queuedTasks--;
+                if (queue.tasks.isEmpty()) {
+                    // an idle project doesn't accumulate credit
+                    active.pollFirst();
+                    queue.active = false;
+                    queue.deficit = 0;
+                    queues.remove(queue.project);
+                }
+                return task;
+            }
+
+            queue.deficit += QUANTUM * Math.max(1, weights.getOrDefault(queue.project, 1));
+            active.addLast(active.pollFirst());
+        }
+    }
+
+    private static class ProjectQueue {
+        private final String project;
+        private final ArrayDeque<Task> tasks = new ArrayDeque<>();
+        private long deficit;
+        private boolean active;
+
+        private ProjectQueue(String project) {
+            this.project = project;
+        }
+    }
+
+    private static class Task {
+        private final int cost;
+        private final Runnable runnable;
+
+        private Task(int cost, Runnable runnable) {
+            this.cost = cost;
+            this.runnable = runnable;
+        }
+    }
+}
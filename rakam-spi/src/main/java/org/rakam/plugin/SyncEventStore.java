@@ -4,33 +4,36 @@ import org.rakam.collection.Event;
 import org.rakam.util.RakamException;
 
 import java.util.List;
-import java.util.concurrent.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
 
-import static io.netty.handler.codec.http.HttpResponseStatus.INTERNAL_SERVER_ERROR;
+import static io.netty.handler.codec.http.HttpResponseStatus.TOO_MANY_REQUESTS;
 
 public interface SyncEventStore
         extends EventStore {
-    ThreadPoolExecutor workerGroup = new ThreadPoolExecutor(0, Runtime.getRuntime().availableProcessors() * 6,
-            60L, TimeUnit.SECONDS,
-            // SynchronousQueue
-            new ArrayBlockingQueue<>(Runtime.getRuntime().availableProcessors() * 6 * 20));
+    ProjectFairScheduler scheduler = new ProjectFairScheduler(Runtime.getRuntime().availableProcessors() * 6,
+            Runtime.getRuntime().availableProcessors() * 6 * 20,
+            Runtime.getRuntime().availableProcessors() * 6 * 5);
 
     default CompletableFuture<Void> storeAsync(Event event) {
         try {
-            return CompletableFuture.supplyAsync(() -> {
+            return scheduler.submit(event.project(), 1, () -> {
                 store(event);
                 return null;
-            }, workerGroup);
+            });
         } catch (RejectedExecutionException e) {
-            throw new RakamException("The server is busy, please try again later", INTERNAL_SERVER_ERROR);
+            throw new RakamException("The server is busy, please try again later", TOO_MANY_REQUESTS);
         }
     }
 
     default CompletableFuture<int[]> storeBatchAsync(List<Event> events) {
+        if (events.isEmpty()) {
+            return COMPLETED_FUTURE_BATCH;
+        }
         try {
-            return CompletableFuture.supplyAsync(() -> storeBatch(events), workerGroup);
+            return scheduler.submit(events.get(0).project(), events.size(), () -> storeBatch(events));
         } catch (RejectedExecutionException e) {
-            throw new RakamException("The server is busy, please try again later", INTERNAL_SERVER_ERROR);
+            throw new RakamException("The server is busy, please try again later", TOO_MANY_REQUESTS);
         }
     }
 
@@ -14,10 +14,15 @@
 package org.rakam.plugin.stream;
 
 import io.airlift.configuration.Config;
+import io.airlift.configuration.ConfigDescription;
+
+import javax.validation.constraints.Min;
 
 
 public class EventStreamConfig {
     private boolean enabled = false;
+    private int bufferSize = 65536;
+    private int syncIntervalMillis = 250;
 
     public boolean getEventStreamEnabled() {
         return enabled;
@@ -27,4 +32,27 @@ public class EventStreamConfig {
     public void setEventStreamEnabled(boolean enabled) {
         this.enabled = enabled;
     }
+
+    @Min(1024)
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+    @Config("event.stream.buffer-size")
+    @ConfigDescription("The number of recent events that are kept for the subscribers, a subscriber that falls further behind is disconnected")
+    public EventStreamConfig setBufferSize(int bufferSize) {
+        this.bufferSize = bufferSize;
+        return this;
+    }
+
+    @Min(10)
+    public int getSyncIntervalMillis() {
+        return syncIntervalMillis;
+    }
+
+    @Config("event.stream.sync-interval-ms")
+    public EventStreamConfig setSyncIntervalMillis(int syncIntervalMillis) {
+        this.syncIntervalMillis = syncIntervalMillis;
+        return this;
+    }
 }
@@ -4,6 +4,13 @@ package org.rakam.plugin.stream;
 public interface StreamResponse {
     public StreamResponse send(String event, String data);
 
+    /**
+     * Sends the buffered messages, the implementations may buffer the messages until this method is called.
+     */
+    public default StreamResponse flush() {
+        return this;
+    }
+
     public boolean isClosed();
 
     public void end();
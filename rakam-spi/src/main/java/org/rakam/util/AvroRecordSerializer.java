@@ -0,0 +1,192 @@
+package org.rakam.util;
+
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import org.apache.avro.Schema;
+import org.apache.avro.generic.GenericData;
+import org.apache.avro.generic.GenericDatumWriter;
+import org.apache.avro.generic.IndexedRecord;
+import org.apache.avro.io.BinaryEncoder;
+import org.apache.avro.io.EncoderFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Predicate;
+
+import static org.apache.avro.Schema.Type.NULL;
+
+/**
+ * Writes the records of a schema in Avro binary format with the same output as {@link GenericDatumWriter}. The writers
+ * of the fields are resolved once per schema, including the branches of the nullable unions, so serializing a record
+ * doesn't look up the schema or resolve the unions for each value. The serializers are cached by the identity of the
+ * schema: the schema of a collection is replaced when the collection gets new fields, so each schema version gets its
+ * own serializer and the old ones are collected with their schemas.
+ */
+public class AvroRecordSerializer {
+    private static final ThreadLocal<Output> OUTPUT = ThreadLocal.withInitial(Output::new);
+    private static final int MAX_RETAINED_OUTPUT_SIZE = 1024 * 1024;
+
+    private final FieldWriter[] fields;
+
+    private AvroRecordSerializer(Schema schema, Predicate<Schema.Field> fieldFilter) {
+        this.fields = schema.getFields().stream()
+                .filter(fieldFilter)
+                .map(field -> new FieldWriter(field.pos(), compile(field.schema())))
+                .toArray(FieldWriter[]::new);
+    }
+
+    /**
+     * Returns a cache of serializers that write the fields that match the filter.
+     */
+    public static LoadingCache<Schema, AvroRecordSerializer> cache(Predicate<Schema.Field> fieldFilter) {
+        // weak keys are compared by identity
+        return CacheBuilder.newBuilder().weakKeys()
+                .build(CacheLoader.from(schema -> new AvroRecordSerializer(schema, fieldFilter)));
+    }
+
+    /**
+     * The filter of the serializers that skip the fields whose type is null, the values of these fields are not stored.
+     */
+    public static boolean isNotNullField(Schema.Field field) {
+        return field.schema().getType() != NULL;
+    }
+
+    /**
+     * Returns the reusable output of the current thread, the content of the output is only valid until the next call.
+     */
+    public static Output output() {
+        Output output = OUTPUT.get();
+        if (output.getBuffer().length > MAX_RETAINED_OUTPUT_SIZE) {
+            // don't keep the buffer of a large record for the lifetime of the thread
+            output = new Output();
+            OUTPUT.set(output);
+        }
+        output.reset();
+        return output;
+    }
+
+    public void serialize(IndexedRecord record, BinaryEncoder out)
+            throws IOException {
+        for (FieldWriter field : fields) {
+            field.writer.write(record.get(field.position), out);
+        }
+    }
+
+    private static ValueWriter compile(Schema schema) {
+        switch (schema.getType()) {
+            case NULL:
+                return (value, out) -> out.writeNull();
+            case STRING:
+                return (value, out) -> out.writeString((CharSequence) value);
+            case INT:
+                return (value, out) -> out.writeInt(((Number) value).intValue());
+            case LONG:
+                return (value, out) -> out.writeLong(((Number) value).longValue());
+            case FLOAT:
+                return (value, out) -> out.writeFloat(((Number) value).floatValue());
+            case DOUBLE:
+                return (value, out) -> out.writeDouble(((Number) value).doubleValue());
+            case BOOLEAN:
+                return (value, out) -> out.writeBoolean((Boolean) value);
+            case BYTES:
+                return (value, out) -> {
+                    if (value instanceof byte[]) {
+                        out.writeBytes((byte[]) value);
+                    } else {
+                        out.writeBytes((ByteBuffer) value);
+                    }
+                };
+            case ARRAY:
+                ValueWriter elementWriter = compile(schema.getElementType());
+                return (value, out) -> {
+                    Collection<?> array = (Collection<?>) value;
+                    out.writeArrayStart();
+                    out.setItemCount(array.size());
+                    for (Object element : array) {
+                        out.startItem();
+                        elementWriter.write(element, out);
+                    }
+                    out.writeArrayEnd();
+                };
+            case MAP:
+                ValueWriter valueWriter = compile(schema.getValueType());
+                return (value, out) -> {
+                    Map<?, ?> map = (Map<?, ?>) value;
+                    out.writeMapStart();
+                    out.setItemCount(map.size());
+                    for (Map.Entry<?, ?> entry : map.entrySet()) {
+                        out.startItem();
+                        out.writeString(entry.getKey().toString());
+                        valueWriter.write(entry.getValue(), out);
+                    }
+                    out.writeMapEnd();
+                };
+            case UNION:
+                List<Schema> types = schema.getTypes();
+                if (types.size() == 2 && (types.get(0).getType() == NULL || types.get(1).getType() == NULL)) {
+                    int nullIndex = types.get(0).getType() == NULL ? 0 : 1;
+                    int valueIndex = 1 - nullIndex;
+                    ValueWriter branchWriter = compile(types.get(valueIndex));
+                    return (value, out) -> {
+                        if (value == null) {
+                            out.writeIndex(nullIndex);
+                        } else {
+                            out.writeIndex(valueIndex);
+                            branchWriter.write(value, out);
+                        }
+                    };
+                }
+                return genericWriter(schema);
+            default:
+                return genericWriter(schema);
+        }
+    }
+
+    private static ValueWriter genericWriter(Schema schema) {
+        GenericDatumWriter<Object> writer = new GenericDatumWriter<>(schema, GenericData.get());
+        return writer::write;
+    }
+
+    private interface ValueWriter {
+        void write(Object value, BinaryEncoder out)
+                throws IOException;
+    }
+
+    private static class FieldWriter {
+        private final int position;
+        private final ValueWriter writer;
+
+        private FieldWriter(int position, ValueWriter writer) {
+            this.position = position;
+            this.writer = writer;
+        }
+    }
+
+    /**
+     * A growable buffer that is reused by the serializations of a thread together with its encoder.
+     */
+    public static class Output
+            extends ByteArrayOutputStream {
+        private final BinaryEncoder encoder = EncoderFactory.get().directBinaryEncoder(this, null);
+
+        private Output() {
+            super(256);
+        }
+
+        public BinaryEncoder encoder() {
+            return encoder;
+        }
+
+        /**
+         * The backing array of the output, the content is in the first {@link #size()} bytes.
+         */
+        public byte[] getBuffer() {
+            return buf;
+        }
+    }
+}
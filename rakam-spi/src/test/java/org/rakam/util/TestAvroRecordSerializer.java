@@ -0,0 +1,97 @@
+package org.rakam.util;
+
+import com.google.common.cache.LoadingCache;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import org.apache.avro.Schema;
+import org.apache.avro.generic.GenericData;
+import org.apache.avro.generic.GenericDatumWriter;
+import org.apache.avro.io.BinaryEncoder;
+import org.apache.avro.io.EncoderFactory;
+import org.rakam.collection.FieldType;
+import org.rakam.collection.SchemaField;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotSame;
+import static org.testng.Assert.assertSame;
+
+public class TestAvroRecordSerializer {
+    private static final List<SchemaField> FIELDS = ImmutableList.of(
+            new SchemaField("string", FieldType.STRING),
+            new SchemaField("long", FieldType.LONG),
+            new SchemaField("int", FieldType.INTEGER),
+            new SchemaField("double", FieldType.DOUBLE),
+            new SchemaField("bool", FieldType.BOOLEAN),
+            new SchemaField("array", FieldType.ARRAY_STRING),
+            new SchemaField("map", FieldType.MAP_LONG));
+
+    @Test
+    public void testSameOutputAsGenericWriter()
+            throws IOException {
+        Schema schema = AvroUtil.convertAvroSchema(FIELDS);
+        GenericData.Record record = new GenericData.Record(schema);
+        record.put("string", "test");
+        record.put("long", 10L);
+        record.put("int", 3);
+        record.put("double", 1.5);
+        record.put("bool", true);
+        record.put("array", Arrays.asList("a", null, "b"));
+        record.put("map", ImmutableMap.of("a", 1L));
+
+        assertEquals(serialize(record), serializeGeneric(record));
+
+        GenericData.Record nulls = new GenericData.Record(schema);
+        assertEquals(serialize(nulls), serializeGeneric(nulls));
+    }
+
+    @Test
+    public void testFilteredFields()
+            throws IOException {
+        Schema schema = AvroUtil.convertAvroSchema(FIELDS);
+        GenericData.Record record = new GenericData.Record(schema);
+        record.put("string", "test");
+        record.put("long", 10L);
+
+        AvroRecordSerializer.Output output = AvroRecordSerializer.output();
+        AvroRecordSerializer.cache(field -> field.name().equals("long")).getUnchecked(schema)
+                .serialize(record, output.encoder());
+
+        ByteArrayOutputStream expected = new ByteArrayOutputStream();
+        BinaryEncoder encoder = EncoderFactory.get().directBinaryEncoder(expected, null);
+        encoder.writeIndex(1);
+        encoder.writeLong(10L);
+        assertEquals(output.toByteArray(), expected.toByteArray());
+    }
+
+    @Test
+    public void testCacheBySchemaVersion() {
+        LoadingCache<Schema, AvroRecordSerializer> cache = AvroRecordSerializer.cache(AvroRecordSerializer::isNotNullField);
+        Schema schema = AvroUtil.convertAvroSchema(FIELDS);
+        Schema newVersion = AvroUtil.convertAvroSchema(FIELDS);
+
+        assertSame(cache.getUnchecked(schema), cache.getUnchecked(schema));
+        assertNotSame(cache.getUnchecked(schema), cache.getUnchecked(newVersion));
+    }
+
+    private static byte[] serialize(GenericData.Record record)
+            throws IOException {
+        AvroRecordSerializer.Output output = AvroRecordSerializer.output();
+        AvroRecordSerializer.cache(AvroRecordSerializer::isNotNullField).getUnchecked(record.getSchema())
+                .serialize(record, output.encoder());
+        return output.toByteArray();
+    }
+
+    private static byte[] serializeGeneric(GenericData.Record record)
+            throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        BinaryEncoder encoder = EncoderFactory.get().directBinaryEncoder(out, null);
+        new GenericDatumWriter<>(record.getSchema()).write(record, encoder);
+        return out.toByteArray();
+    }
+}
@@ -19,6 +19,7 @@ import io.netty.channel.nio.NioEventLoopGroup;
 import io.swagger.models.Tag;
 import org.rakam.analysis.*;
 import org.rakam.analysis.metadata.SchemaChecker;
+import org.rakam.analysis.metadata.SchemaEvolutionCoordinator;
 import org.rakam.bootstrap.ProxyBootstrap;
 import org.rakam.collection.*;
 import org.rakam.collection.FieldDependencyBuilder.FieldDependency;
@@ -34,7 +35,10 @@ import org.rakam.plugin.EventMapper;
 import org.rakam.plugin.InjectionHook;
 import org.rakam.plugin.RakamModule;
 import org.rakam.plugin.TimestampEventMapper;
+import org.rakam.plugin.stream.EventStream;
 import org.rakam.plugin.stream.EventStreamConfig;
+import org.rakam.plugin.stream.EventStreamHttpService;
+import org.rakam.plugin.stream.InMemoryEventStream;
 import org.rakam.plugin.user.AbstractUserService;
 import org.rakam.plugin.user.UserStorage;
 import org.rakam.server.http.HttpRequestHandler;
@@ -171,7 +175,7 @@ public final class ServiceStarter {
             binder.bind(Clock.class).toInstance(Clock.systemUTC());
             binder.bind(FieldDependency.class).toProvider(FieldDependencyProvider.class).in(Scopes.SINGLETON);
 
-            Multibinder.newSetBinder(binder, InjectionHook.class);
+            Multibinder.newSetBinder(binder, InjectionHook.class).addBinding().to(AdmissionController.class);
             OptionalBinder.newOptionalBinder(binder, AbstractUserService.class);
             OptionalBinder.newOptionalBinder(binder, UserStorage.class);
 
@@ -206,19 +210,36 @@ public final class ServiceStarter {
             customParameters.addBinding().toProvider(ProjectPermissionParameterProvider.class);
 
             configBinder(binder).bindConfig(TaskConfig.class);
-            configBinder(binder).bindConfig(EventStreamConfig.class);
+            EventStreamConfig eventStreamConfig = buildConfigObject(EventStreamConfig.class);
 
             Multibinder<HttpService> httpServices = Multibinder.newSetBinder(binder, HttpService.class);
             httpServices.addBinding().to(OptionMethodHttpService.class);
 
+            binder.bind(InMemoryEventStream.class).in(Scopes.SINGLETON);
+            binder.bind(EventStream.class).to(InMemoryEventStream.class);
+            if (eventStreamConfig.getEventStreamEnabled()) {
+                httpServices.addBinding().to(EventStreamHttpService.class);
+            }
+
             Multibinder.newSetBinder(binder, WebSocketService.class);
 
             binder.bind(AvroEventDeserializer.class);
             binder.bind(CsvEventDeserializer.class);
             binder.bind(EventListDeserializer.class);
             binder.bind(JsonEventDeserializer.class);
+            binder.bind(SchemaEvolutionCoordinator.class).in(Scopes.SINGLETON);
+            binder.bind(InvalidSchemaSink.class).in(Scopes.SINGLETON);
+            binder.bind(EventDeduplicator.class).in(Scopes.SINGLETON);
+            binder.bind(AdmissionController.class).in(Scopes.SINGLETON);
+            binder.bind(RemoteBulkImporter.class).in(Scopes.SINGLETON);
+            binder.bind(IngestionExecutor.class).in(Scopes.SINGLETON);
 
             configBinder(binder).bindConfig(HttpServerConfig.class);
+            configBinder(binder).bindConfig(BulkLoadConfig.class);
+            configBinder(binder).bindConfig(InvalidSchemaConfig.class);
+            configBinder(binder).bindConfig(DeduplicationConfig.class);
+            configBinder(binder).bindConfig(AdmissionControlConfig.class);
+            configBinder(binder).bindConfig(IngestionConfig.class);
             configBinder(binder).bindConfig(ProjectConfig.class);
             configBinder(binder).bindConfig(EncryptionConfig.class);
 
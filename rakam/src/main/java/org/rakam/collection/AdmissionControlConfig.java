@@ -0,0 +1,102 @@
+package org.rakam.collection;
+
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableMap;
+import io.airlift.configuration.Config;
+import io.airlift.configuration.ConfigDescription;
+
+import javax.validation.constraints.Min;
+
+import java.util.Map;
+
+public class AdmissionControlConfig {
+    private int storeThreads = Runtime.getRuntime().availableProcessors() * 6;
+    private int maxQueuedBatches = Runtime.getRuntime().availableProcessors() * 6 * 20;
+    private int maxQueuedBatchesPerProject = Runtime.getRuntime().availableProcessors() * 6 * 5;
+    private long eventsPerSecond;
+    private long burstEvents = 10000;
+    private Map<String, Integer> projectWeights = ImmutableMap.of();
+
+    @Min(1)
+    public int getStoreThreads() {
+        return storeThreads;
+    }
+
+    @Config("collection.admission.store-threads")
+    public AdmissionControlConfig setStoreThreads(int storeThreads) {
+        this.storeThreads = storeThreads;
+        return this;
+    }
+
+    @Min(1)
+    public int getMaxQueuedBatches() {
+        return maxQueuedBatches;
+    }
+
+    @Config("collection.admission.max-queued-batches")
+    @ConfigDescription("The number of store calls that can wait for the event store threads")
+    public AdmissionControlConfig setMaxQueuedBatches(int maxQueuedBatches) {
+        this.maxQueuedBatches = maxQueuedBatches;
+        return this;
+    }
+
+    @Min(1)
+    public int getMaxQueuedBatchesPerProject() {
+        return maxQueuedBatchesPerProject;
+    }
+
+    @Config("collection.admission.max-queued-batches-per-project")
+    @ConfigDescription("The number of store calls of a single project that can wait for the event store threads. " +
+            "The requests are rejected before their body is read only if the api_key is in the query string or the headers, " +
+            "the requests that have the api key in the body are rejected after they're parsed")
+    public AdmissionControlConfig setMaxQueuedBatchesPerProject(int maxQueuedBatchesPerProject) {
+        this.maxQueuedBatchesPerProject = maxQueuedBatchesPerProject;
+        return this;
+    }
+
+    @Min(0)
+    public long getEventsPerSecond() {
+        return eventsPerSecond;
+    }
+
+    @Config("collection.admission.events-per-second")
+    @ConfigDescription("The number of events that a project can send per second, multiplied by the weight of the project. 0 disables the limit. " +
+            "The requests are rejected before their body is read only if the api_key is in the query string or the headers, " +
+            "the requests that have the api key in the body are rejected after they're parsed")
+    public AdmissionControlConfig setEventsPerSecond(long eventsPerSecond) {
+        this.eventsPerSecond = eventsPerSecond;
+        return this;
+    }
+
+    @Min(1)
+    public long getBurstEvents() {
+        return burstEvents;
+    }
+
+    @Config("collection.admission.burst-events")
+    @ConfigDescription("The number of events that a project can send at once above its rate, multiplied by the weight of the project")
+    public AdmissionControlConfig setBurstEvents(long burstEvents) {
+        this.burstEvents = burstEvents;
+        return this;
+    }
+
+    public Map<String, Integer> getProjectWeights() {
+        return projectWeights;
+    }
+
+    @Config("collection.admission.project-weights")
+    @ConfigDescription("The weights of the projects in project1:weight1,project2:weight2 format, the weight of the other projects is 1")
+    public AdmissionControlConfig setProjectWeights(String projectWeights) {
+        ImmutableMap.Builder<String, Integer> builder = ImmutableMap.builder();
+        if (projectWeights != null) {
+            Splitter.on(',').omitEmptyStrings().trimResults().withKeyValueSeparator(':').split(projectWeights)
+                    .forEach((project, weight) -> builder.put(project, Integer.parseInt(weight.trim())));
+        }
+        this.projectWeights = builder.build();
+        return this;
+    }
+
+    public int getWeight(String project) {
+        return Math.max(1, projectWeights.getOrDefault(project, 1));
+    }
+}
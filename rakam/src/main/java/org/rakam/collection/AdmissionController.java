@@ -0,0 +1,124 @@
+package org.rakam.collection;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Ticker;
+import org.rakam.plugin.InjectionHook;
+import org.rakam.plugin.ProjectFairScheduler;
+import org.rakam.plugin.SyncEventStore;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+/**
+ * Limits the number of events that each project can send with a token bucket whose rate and burst are multiplied by
+ * the weight of the project, and configures the shared event store pool that schedules the projects with the same
+ * weights. The requests of a project that exceeds its limit are rejected before they are parsed if the project is
+ * known from the request parameters, otherwise before they are mapped and stored.
+ * <p>
+ * Only the {@link SyncEventStore} implementations submit their calls to the scheduler, the scheduler of the other
+ * event stores is never saturated.
+ */
+@Singleton
+public class AdmissionController
+        implements InjectionHook {
+    private final AdmissionControlConfig config;
+    private final ProjectFairScheduler scheduler;
+    private final Ticker ticker;
+    private final Map<String, TokenBucket> buckets = new ConcurrentHashMap<>();
+
+    @Inject
+    public AdmissionController(AdmissionControlConfig config) {
+        this(config, SyncEventStore.scheduler, Ticker.systemTicker());
+    }
+
+    @VisibleForTesting
+    public AdmissionController(AdmissionControlConfig config, ProjectFairScheduler scheduler, Ticker ticker) {
+        this.config = config;
+        this.scheduler = scheduler;
+        this.ticker = ticker;
+    }
+
+    @Override
+    public void call() {
+        scheduler.configure(config.getStoreThreads(), config.getMaxQueuedBatches(),
+                config.getMaxQueuedBatchesPerProject(), config.getProjectWeights());
+    }
+
+    /**
+     * Returns the number of seconds that the project should wait before sending more events, or 0 if the events can
+     * be collected. The checks doesn't consume the tokens of the project.
+     */
+    public long getRetryAfterSeconds(String project) {
+        if (scheduler.isSaturated(project)) {
+            return 1;
+        }
+        if (config.getEventsPerSecond() == 0) {
+            return 0;
+        }
+        return toSeconds(getBucket(project).getWaitNanos(ticker.read()));
+    }
+
+    /**
+     * Takes the tokens for the events of the project. Returns 0 if the events are admitted, otherwise the number of
+     * seconds that the project should wait before sending more events.
+     */
+    public long tryAcquire(String project, int events) {
+        if (config.getEventsPerSecond() == 0) {
+            return 0;
+        }
+        return toSeconds(getBucket(project).tryAcquire(events, ticker.read()));
+    }
+
+    private TokenBucket getBucket(String project) {
+        return buckets.computeIfAbsent(project, key -> {
+            int weight = config.getWeight(key);
+            return new TokenBucket(config.getEventsPerSecond() * weight, config.getBurstEvents() * weight, ticker.read());
+        });
+    }
+
+    private static long toSeconds(long nanos) {
+        return nanos == 0 ? 0 : Math.max(1, (nanos + SECONDS.toNanos(1) - 1) / SECONDS.toNanos(1));
+    }
+
+    private static class TokenBucket {
+        private final double tokensPerNano;
+        private final double capacity;
+        private double tokens;
+        private long lastRefill;
+
+        private TokenBucket(long eventsPerSecond, long capacity, long now) {
+            this.tokensPerNano = eventsPerSecond / (double) SECONDS.toNanos(1);
+            this.capacity = capacity;
+            this.tokens = capacity;
+            this.lastRefill = now;
+        }
+
+        private synchronized long tryAcquire(int permits, long now) {
+            refill(now);
+            if (tokens <= 0) {
+                return waitNanos();
+            }
+            // a batch that is larger than the remaining tokens is admitted, the project pays for it later
+            tokens -= permits;
+            return 0;
+        }
+
+        private synchronized long getWaitNanos(long now) {
+            refill(now);
+            return tokens > 0 ? 0 : waitNanos();
+        }
+
+        private long waitNanos() {
+            return (long) Math.ceil((1 - tokens) / tokensPerNano);
+        }
+
+        private void refill(long now) {
+            tokens = Math.min(capacity, tokens + (now - lastRefill) * tokensPerNano);
+            lastRefill = now;
+        }
+    }
+}
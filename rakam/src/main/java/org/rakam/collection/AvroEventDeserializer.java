@@ -13,6 +13,7 @@ import javax.inject.Inject;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.function.Consumer;
 
 public class AvroEventDeserializer {
 
@@ -24,6 +25,12 @@ public class AvroEventDeserializer {
     }
 
     public EventList deserialize(String project, String collection, SliceInput slice) throws IOException {
+        List<Event> list = new ArrayList<>();
+        deserialize(project, collection, slice, list::add);
+        return new EventList(Event.EventContext.empty(), project, list);
+    }
+
+    public void deserialize(String project, String collection, SliceInput slice, Consumer<Event> consumer) throws IOException {
         String json = slice.readSlice(slice.readInt()).toStringUtf8();
         Schema schema = new Schema.Parser().parse(json);
         int records = slice.readInt();
@@ -35,12 +42,9 @@ public class AvroEventDeserializer {
 
         GenericDatumReader<GenericRecord> reader = new GenericDatumReader(schema, avroSchema);
 
-        List<Event> list = new ArrayList<>(records);
         for (int i = 0; i < records; i++) {
             GenericRecord record = reader.read(null, binaryDecoder);
-            list.add(new Event(project, collection, null, fields, record));
+            consumer.accept(new Event(project, collection, null, fields, record));
         }
-
-        return new EventList(Event.EventContext.empty(), project, list);
     }
 }
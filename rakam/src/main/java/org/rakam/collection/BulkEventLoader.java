@@ -0,0 +1,92 @@
+package org.rakam.collection;
+
+import org.rakam.collection.Event.EventContext;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Passes the events of a bulk request to the event store in fixed-size chunks while the deserializers are still
+ * reading the body. When {@code maxPendingChunks} chunks are waiting for the store, the parser thread is blocked so
+ * the number of parsed events that are kept in memory doesn't depend on the size of the request.
+ * <p>
+ * The HTTP bodies are received completely before they are parsed so they are still kept in memory, only the remote
+ * files are read while the events are stored. The bodies are parsed as streams so the checksum of their api property
+ * is not verified, the events would otherwise have to be buffered until the end of the body.
+ */
+public class BulkEventLoader
+        implements Consumer<Event> {
+    private final int chunkSize;
+    private final int maxPendingChunks;
+    private final Function<EventList, CompletableFuture<Void>> chunkWriter;
+    private final Deque<CompletableFuture<Void>> pendingChunks;
+
+    private EventContext context = EventContext.empty();
+    private List<Event> chunk;
+    private int eventCount;
+
+    public BulkEventLoader(BulkLoadConfig config, Function<EventList, CompletableFuture<Void>> chunkWriter) {
+        this.chunkSize = config.getChunkSize();
+        this.maxPendingChunks = Math.max(1, config.getMaxPendingChunks());
+        this.chunkWriter = chunkWriter;
+        this.pendingChunks = new ArrayDeque<>(maxPendingChunks);
+        this.chunk = new ArrayList<>(chunkSize);
+    }
+
+    /**
+     * Sets the context of the chunks that contain events without an api property.
+     */
+    public void setContext(EventContext context) {
+        this.context = context;
+    }
+
+    @Override
+    public void accept(Event event) {
+        chunk.add(event);
+        eventCount++;
+
+        if (chunk.size() >= chunkSize) {
+            flushChunk();
+        }
+    }
+
+    public int finish() {
+        if (!chunk.isEmpty()) {
+            flushChunk();
+        }
+
+        while (!pendingChunks.isEmpty()) {
+            awaitOldestChunk();
+        }
+
+        return eventCount;
+    }
+
+    private void flushChunk() {
+        Event first = chunk.get(0);
+        EventContext chunkContext = first.api() != null ? first.api() : context;
+        pendingChunks.add(chunkWriter.apply(new EventList(chunkContext, first.project(), chunk)));
+        chunk = new ArrayList<>(chunkSize);
+
+        while (pendingChunks.size() >= maxPendingChunks) {
+            awaitOldestChunk();
+        }
+    }
+
+    private void awaitOldestChunk() {
+        try {
+            pendingChunks.poll().join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+    }
+}
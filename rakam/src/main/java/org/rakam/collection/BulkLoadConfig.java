@@ -0,0 +1,70 @@
+package org.rakam.collection;
+
+import io.airlift.configuration.Config;
+import io.airlift.configuration.ConfigDescription;
+import io.airlift.units.DataSize;
+
+import static io.airlift.units.DataSize.Unit.GIGABYTE;
+
+public class BulkLoadConfig {
+    private int chunkSize = 5000;
+    private int maxPendingChunks = 2;
+    private DataSize maxDecompressedSize = new DataSize(1, GIGABYTE);
+    private int remoteThreads = 4;
+    private String remoteLocalDirectory;
+
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    @Config("collection.bulk.chunk-size")
+    @ConfigDescription("The number of events that are passed to the event store at once while a bulk request is being parsed")
+    public BulkLoadConfig setChunkSize(int chunkSize) {
+        this.chunkSize = chunkSize;
+        return this;
+    }
+
+    public int getMaxPendingChunks() {
+        return maxPendingChunks;
+    }
+
+    @Config("collection.bulk.max-pending-chunks")
+    @ConfigDescription("The number of chunks per bulk request that can wait for the event store before the parser is paused")
+    public BulkLoadConfig setMaxPendingChunks(int maxPendingChunks) {
+        this.maxPendingChunks = maxPendingChunks;
+        return this;
+    }
+
+    public DataSize getMaxDecompressedSize() {
+        return maxDecompressedSize;
+    }
+
+    @Config("collection.bulk.max-decompressed-size")
+    @ConfigDescription("The maximum size of a compressed bulk body after it's decompressed")
+    public BulkLoadConfig setMaxDecompressedSize(DataSize maxDecompressedSize) {
+        this.maxDecompressedSize = maxDecompressedSize;
+        return this;
+    }
+
+    public int getRemoteThreads() {
+        return remoteThreads;
+    }
+
+    @Config("collection.bulk.remote.threads")
+    @ConfigDescription("The number of files that are downloaded and parsed in parallel by /event/bulk/remote")
+    public BulkLoadConfig setRemoteThreads(int remoteThreads) {
+        this.remoteThreads = remoteThreads;
+        return this;
+    }
+
+    public String getRemoteLocalDirectory() {
+        return remoteLocalDirectory;
+    }
+
+    @Config("collection.bulk.remote.local-directory")
+    @ConfigDescription("The directory of the local files that can be imported by /event/bulk/remote, the local files are disabled if it's not set")
+    public BulkLoadConfig setRemoteLocalDirectory(String remoteLocalDirectory) {
+        this.remoteLocalDirectory = remoteLocalDirectory;
+        return this;
+    }
+}
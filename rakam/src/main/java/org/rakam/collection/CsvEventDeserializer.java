@@ -26,6 +26,7 @@ import java.io.IOException;
 import java.time.LocalTime;
 import java.time.temporal.ChronoField;
 import java.util.*;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
 
@@ -90,7 +91,13 @@ public class CsvEventDeserializer
         GenericData.Record record = new GenericData.Record(schema);
         int idx = 0;
 
+        // the rows are passed to the consumer instead of the returned list when the events are streamed to the event store.
+        Consumer<Event> consumer = (Consumer<Event>) ctxt.getAttribute("consumer");
         List<Event> list = new ArrayList<>();
+        if (consumer == null) {
+            consumer = list::add;
+        }
+
         while (true) {
             JsonToken t = jp.nextToken();
 
@@ -102,9 +109,9 @@ public class CsvEventDeserializer
                 case JsonTokenId.ID_START_ARRAY:
                     idx = 0;
                     record = new GenericData.Record(schema);
-                    list.add(new Event(project, collection, null, fields, record));
                     break;
                 case JsonTokenId.ID_END_ARRAY:
+                    consumer.accept(new Event(project, collection, null, fields, record));
                     continue;
                 default:
                     if (idx >= indexes.length) {
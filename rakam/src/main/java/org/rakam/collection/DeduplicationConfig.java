@@ -0,0 +1,53 @@
+package org.rakam.collection;
+
+import io.airlift.configuration.Config;
+import io.airlift.configuration.ConfigDescription;
+import io.airlift.units.DataSize;
+import io.airlift.units.Duration;
+import io.airlift.units.MaxDuration;
+import io.airlift.units.MinDataSize;
+import io.airlift.units.MinDuration;
+
+import static io.airlift.units.DataSize.Unit.MEGABYTE;
+import static java.util.concurrent.TimeUnit.HOURS;
+
+public class DeduplicationConfig {
+    private boolean enabled;
+    private DataSize maxMemory = new DataSize(16, MEGABYTE);
+    private Duration window = new Duration(1, HOURS);
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    @Config("collection.deduplication.enabled")
+    @ConfigDescription("Drops the requests whose api.uuid is already collected in the deduplication window")
+    public DeduplicationConfig setEnabled(boolean enabled) {
+        this.enabled = enabled;
+        return this;
+    }
+
+    @MinDataSize("1kB")
+    public DataSize getMaxMemory() {
+        return maxMemory;
+    }
+
+    @Config("collection.deduplication.max-memory")
+    @ConfigDescription("The memory of the deduplication filter on each node, the filter forgets the oldest uuids when it's full")
+    public DeduplicationConfig setMaxMemory(DataSize maxMemory) {
+        this.maxMemory = maxMemory;
+        return this;
+    }
+
+    @MinDuration("1s")
+    @MaxDuration("90d")
+    public Duration getWindow() {
+        return window;
+    }
+
+    @Config("collection.deduplication.window")
+    public DeduplicationConfig setWindow(Duration window) {
+        this.window = window;
+        return this;
+    }
+}
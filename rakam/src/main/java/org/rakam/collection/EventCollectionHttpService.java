@@ -3,10 +3,12 @@ package org.rakam.collection;
 import com.fasterxml.jackson.annotation.JsonCreator;
 import com.fasterxml.jackson.core.JsonParseException;
 import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.core.JsonToken;
 import com.fasterxml.jackson.core.Version;
 import com.fasterxml.jackson.databind.JsonMappingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
 import com.fasterxml.jackson.databind.cfg.ContextAttributes;
 import com.fasterxml.jackson.databind.module.SimpleModule;
 import com.fasterxml.jackson.dataformat.csv.CsvMapper;
@@ -15,6 +17,7 @@ import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.io.ByteStreams;
+import com.google.common.primitives.Bytes;
 import com.google.common.primitives.Longs;
 import io.airlift.log.Logger;
 import io.airlift.slice.InputStreamSliceInput;
@@ -26,9 +29,11 @@ import org.apache.avro.generic.GenericData;
 import org.rakam.analysis.ApiKeyService;
 import org.rakam.collection.Event.EventContext;
 import org.rakam.config.ProjectConfig;
+import org.rakam.http.CorsHeaders;
 import org.rakam.plugin.EventMapper;
 import org.rakam.plugin.EventStore;
 import org.rakam.plugin.EventStore.CopyType;
+import org.rakam.plugin.stream.InMemoryEventStream;
 import org.rakam.server.http.*;
 import org.rakam.server.http.annotations.*;
 import org.rakam.util.JsonHelper;
@@ -44,11 +49,15 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.net.InetAddress;
 import java.net.URL;
-import java.net.URLConnection;
 import java.net.UnknownHostException;
 import java.util.*;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.function.BiFunction;
+import java.util.function.Consumer;
 import java.util.function.Function;
 import java.util.function.Predicate;
 import java.util.stream.Collectors;
@@ -61,9 +70,12 @@ import static io.netty.handler.codec.http.HttpVersion.HTTP_1_1;
 import static io.netty.handler.codec.http.cookie.ServerCookieEncoder.STRICT;
 import static java.util.concurrent.CompletableFuture.completedFuture;
 import static org.rakam.analysis.ApiKeyService.AccessKeyType.MASTER_KEY;
+import static org.rakam.analysis.ApiKeyService.AccessKeyType.WRITE_KEY;
 import static org.rakam.plugin.EventMapper.COMPLETED_EMPTY_FUTURE;
 import static org.rakam.plugin.EventStore.COMPLETED_FUTURE;
 import static org.rakam.plugin.EventStore.CopyType.*;
+import static org.rakam.collection.RequestBodyDecoder.decode;
+import static org.rakam.collection.RequestBodyDecoder.isCompressed;
 import static org.rakam.plugin.EventStore.SUCCESSFUL_BATCH;
 import static org.rakam.util.JsonHelper.encodeAsBytes;
 import static org.rakam.util.StandardErrors.PARTIAL_ERROR_MESSAGE;
@@ -75,6 +87,9 @@ public class EventCollectionHttpService
         extends HttpService {
     private final static Logger LOGGER = Logger.get(EventCollectionHttpService.class);
     private static final int[] FAILED_SINGLE_EVENT = new int[]{0};
+    private static final int MAX_BATCH_BODY_SIZE = 500000;
+    private static final ThreadLocal<StringBuilder> HEADER_LIST_BUILDER = ThreadLocal.withInitial(() -> new StringBuilder(256));
+    private static final Map<String, String> LOWER_CASE_HEADER_NAMES = new ConcurrentHashMap<>();
     private final byte[] OK_MESSAGE = "1".getBytes(UTF_8);
     private final byte[] gif1x1 = Base64.getDecoder().decode("R0lGODlhAQABAIAAAAAAAP///yH5BAEAAAAALAAAAAABAAEAAAIBRAA7");
     private final ObjectMapper jsonMapper;
@@ -85,21 +100,39 @@ public class EventCollectionHttpService
     private final AvroEventDeserializer avroEventDeserializer;
     private final JsonEventDeserializer jsonEventDeserializer;
     private final Set<String> excludedEvents;
+    private final BulkLoadConfig bulkLoadConfig;
+    private final EventDeduplicator deduplicator;
+    private final AdmissionController admissionController;
+    private final RemoteBulkImporter remoteBulkImporter;
+    private final IngestionExecutor ingestionExecutor;
+    private final InMemoryEventStream eventStream;
 
     @Inject
     public EventCollectionHttpService(
             ProjectConfig projectConfig,
+            BulkLoadConfig bulkLoadConfig,
             EventStore eventStore,
             ApiKeyService apiKeyService,
             JsonEventDeserializer deserializer,
             AvroEventDeserializer avroEventDeserializer,
             EventListDeserializer eventListDeserializer,
             CsvEventDeserializer csvEventDeserializer,
+            EventDeduplicator deduplicator,
+            AdmissionController admissionController,
+            RemoteBulkImporter remoteBulkImporter,
+            IngestionExecutor ingestionExecutor,
+            InMemoryEventStream eventStream,
             Set<EventMapper> mappers) {
         this.eventStore = eventStore;
         this.eventMappers = ImmutableList.copyOf(mappers);
         this.apiKeyService = apiKeyService;
         this.excludedEvents = projectConfig.getExcludeEvents() != null ? ImmutableSet.copyOf(projectConfig.getExcludeEvents()) : ImmutableSet.of();
+        this.bulkLoadConfig = bulkLoadConfig;
+        this.deduplicator = deduplicator;
+        this.admissionController = admissionController;
+        this.remoteBulkImporter = remoteBulkImporter;
+        this.ingestionExecutor = ingestionExecutor;
+        this.eventStream = eventStream;
 
         jsonMapper = new ObjectMapper();
         SimpleModule module = new SimpleModule();
@@ -158,14 +191,50 @@ public class EventCollectionHttpService
         ByteBuf byteBuf = Unpooled.wrappedBuffer(JsonHelper.encodeAsBytes(returnError(msg)));
         DefaultFullHttpResponse errResponse = new DefaultFullHttpResponse(HTTP_1_1, status, byteBuf);
         setBrowser(request, errResponse);
+        if (status.equals(TOO_MANY_REQUESTS)) {
+            errResponse.headers().set(RETRY_AFTER, "1");
+        }
+        request.response(errResponse).end();
+    }
+
+    private static void returnTooManyRequests(RakamHttpRequest request, long retryAfterSeconds) {
+        ByteBuf byteBuf = Unpooled.wrappedBuffer(JsonHelper.encodeAsBytes(returnError("Too many events, please try again later")));
+        DefaultFullHttpResponse errResponse = new DefaultFullHttpResponse(HTTP_1_1, TOO_MANY_REQUESTS, byteBuf);
+        setBrowser(request, errResponse);
+        errResponse.headers().set(RETRY_AFTER, String.valueOf(retryAfterSeconds));
         request.response(errResponse).end();
     }
 
+    /**
+     * Rejects the request before its body is read if the project is known from the parameters and it's over its limit.
+     */
+    private boolean rejectEarly(RakamHttpRequest request) {
+        String apiKey = Optional.ofNullable(request.params().get("api_key"))
+                .map(value -> value.get(0))
+                .orElseGet(() -> request.headers().get("api_key"));
+        if (apiKey == null) {
+            return false;
+        }
+
+        String project;
+        try {
+            project = apiKeyService.getProjectOfApiKey(apiKey, WRITE_KEY);
+        } catch (RakamException e) {
+            // the api key in the body is validated after parsing
+            return false;
+        }
+
+        long retryAfter = admissionController.getRetryAfterSeconds(project);
+        if (retryAfter > 0) {
+            returnTooManyRequests(request, retryAfter);
+            return true;
+        }
+        return false;
+    }
+
     public static void setBrowser(HttpRequest request, HttpResponse response) {
         response.headers().set(ACCESS_CONTROL_ALLOW_CREDENTIALS, "true");
-        if (request.headers().contains(ORIGIN)) {
-            response.headers().set(ACCESS_CONTROL_ALLOW_ORIGIN, request.headers().get(ORIGIN));
-        }
+        CorsHeaders.setAllowOrigin(request, response.headers());
         String headerList = getHeaderList(request.headers().iterator());
         if (headerList != null) {
             response.headers().set(ACCESS_CONTROL_EXPOSE_HEADERS, headerList);
@@ -181,17 +250,28 @@ public class EventCollectionHttpService
     }
 
     public static String getHeaderList(Iterator<Map.Entry<String, String>> it) {
-        StringBuilder builder = new StringBuilder("cf-ray,server,status");
+        StringBuilder builder = HEADER_LIST_BUILDER.get();
+        builder.setLength(0);
+        builder.append("cf-ray,server,status");
         while (it.hasNext()) {
             String key = it.next().getKey();
             if (!key.equals(SET_COOKIE)) {
-                if (builder.length() != 0) {
-                    builder.append(',');
-                }
-                builder.append(key.toLowerCase(Locale.ENGLISH));
+                builder.append(',').append(toLowerCase(key));
             }
         }
-        return builder == null ? null : builder.toString();
+        return builder.toString();
+    }
+
+    private static String toLowerCase(String headerName) {
+        String lowerCase = LOWER_CASE_HEADER_NAMES.get(headerName);
+        if (lowerCase == null) {
+            lowerCase = headerName.toLowerCase(Locale.ENGLISH);
+            // the names may come from the request headers, the cache is bounded
+            if (LOWER_CASE_HEADER_NAMES.size() < 1000) {
+                LOWER_CASE_HEADER_NAMES.put(headerName, lowerCase);
+            }
+        }
+        return lowerCase;
     }
 
     @POST
@@ -199,18 +279,42 @@ public class EventCollectionHttpService
     @Path("/collect")
     public void collectEvent(RakamHttpRequest request) {
         String socketAddress = request.getRemoteAddress();
+        if (rejectEarly(request)) {
+            return;
+        }
 
-        request.bodyHandler(buff -> {
+        request.bodyHandler(input -> handOff(request, input, buff -> {
             DefaultFullHttpResponse response = new DefaultFullHttpResponse(HTTP_1_1, OK, Unpooled.wrappedBuffer(OK_MESSAGE));
 
             CompletableFuture<List<Cookie>> cookiesFuture;
 
             try {
-                Event event = jsonMapper.readValue(buff, Event.class);
+                String contentEncoding = request.headers().get(CONTENT_ENCODING);
+                Event event = jsonMapper.readValue(decode(buff, contentEncoding, MAX_BATCH_BODY_SIZE), Event.class);
+
+                long retryAfter = admissionController.tryAcquire(event.project(), 1);
+                if (retryAfter > 0) {
+                    returnTooManyRequests(request, retryAfter);
+                    return;
+                }
 
-                cookiesFuture = mapEvent(eventMappers, mapper -> mapper.mapAsync(event, new HttpRequestParams(request),
-                        getRemoteAddress(socketAddress), response.trailingHeaders()))
-                        .thenCombine(eventStore.storeAsync(event), (cookies, aVoid) -> cookies);
+                if (deduplicator.isDuplicate(event.project(), event.api())) {
+                    // the event is already collected, the client retried the request
+                    cookiesFuture = EventMapper.COMPLETED_EMPTY_FUTURE;
+                } else {
+                    cookiesFuture = ingestionExecutor.map(() -> mapEvent(eventMappers, mapper -> mapper.mapAsync(event, new HttpRequestParams(request),
+                            getRemoteAddress(socketAddress), response.trailingHeaders())))
+                            // the event is stored once the mappers enrich it
+                            .thenCompose(cookies -> eventStore.storeAsync(event).thenApply(aVoid -> {
+                                eventStream.publish(event);
+                                return cookies;
+                            }));
+                    cookiesFuture.whenComplete((cookies, ex) -> {
+                        if (ex != null) {
+                            deduplicator.remove(event.project(), event.api());
+                        }
+                    });
+                }
             } catch (JsonMappingException e) {
                 String message = e.getCause() != null ? e.getCause().getMessage() : e.getMessage();
                 returnError(request, "JSON couldn't parsed: " + message, BAD_REQUEST);
@@ -242,9 +346,7 @@ public class EventCollectionHttpService
             if (headerList != null) {
                 response.headers().set(ACCESS_CONTROL_EXPOSE_HEADERS, headerList);
             }
-            if (request.headers().contains(ORIGIN)) {
-                response.headers().set(ACCESS_CONTROL_ALLOW_ORIGIN, request.headers().get(ORIGIN));
-            }
+            CorsHeaders.setAllowOrigin(request, response.headers());
 
             cookiesFuture.whenComplete((cookies, ex) -> {
                 if (ex != null) {
@@ -264,7 +366,7 @@ public class EventCollectionHttpService
                 }
                 request.response(response).end();
             });
-        });
+        }));
     }
 
     @IgnoreApi
@@ -356,12 +458,15 @@ public class EventCollectionHttpService
     }
 
     public void bulkEvents(RakamHttpRequest request, boolean mapEvents) {
-        storeEventsSync(request,
-                buff -> {
+        storeEventsStreaming(request,
+                (buff, loader) -> {
                     String contentType = request.headers().get(CONTENT_TYPE);
                     // TODO: find a way to parse the content type
                     if (contentType == null || "application/json".equals(contentType) || "application/json; charset=utf-8".equals(contentType)) {
-                        return jsonMapper.readerFor(EventList.class).readValue(buff);
+                        ObjectReader reader = jsonMapper.readerFor(EventList.class)
+                                .with(ContextAttributes.getEmpty().withSharedAttribute("consumer", loader));
+                        reader.readValue(buff);
+                        return;
                     } else if ("application/x-rawjson".equals(contentType) || "application/x-ndjson".equals(contentType)) {
                         String apiKey;
                         try {
@@ -372,15 +477,15 @@ public class EventCollectionHttpService
 
                         String project = apiKeyService.getProjectOfApiKey(apiKey, MASTER_KEY);
                         String collection = getParam(request.params(), "collection");
+                        loader.setContext(EventContext.apiKey(apiKey));
 
                         JsonParser parser = jsonMapper.getFactory().createParser(buff);
-                        ArrayList<Event> events = new ArrayList<>();
 
                         JsonToken t = parser.nextToken();
                         if (t == JsonToken.START_OBJECT) {
                             while (t == JsonToken.START_OBJECT) {
                                 Map.Entry<List<SchemaField>, GenericData.Record> entry = jsonEventDeserializer.parseProperties(project, collection, parser, true);
-                                events.add(new Event(project, collection, null, entry.getKey(), entry.getValue()));
+                                loader.accept(new Event(project, collection, null, entry.getKey(), entry.getValue()));
                                 t = parser.nextToken();
                             }
                         } else if (t == JsonToken.START_ARRAY) {
@@ -388,23 +493,25 @@ public class EventCollectionHttpService
 
                             for (; t == START_OBJECT; t = parser.nextToken()) {
                                 Map.Entry<List<SchemaField>, GenericData.Record> entry = jsonEventDeserializer.parseProperties(project, collection, parser, true);
-                                events.add(new Event(project, collection, null, entry.getKey(), entry.getValue()));
+                                loader.accept(new Event(project, collection, null, entry.getKey(), entry.getValue()));
                             }
                         } else {
                             throw new RakamException("The body must be an array of events or line-separated events", BAD_REQUEST);
                         }
 
-                        return new EventList(EventContext.apiKey(apiKey), project, events);
+                        return;
                     } else if ("application/avro".equals(contentType)) {
                         String apiKey = getParam(request.params(), MASTER_KEY.getKey());
                         String project = apiKeyService.getProjectOfApiKey(apiKey, MASTER_KEY);
                         String collection = getParam(request.params(), "collection");
 
-                        return avroEventDeserializer.deserialize(project, collection, new InputStreamSliceInput(buff));
+                        avroEventDeserializer.deserialize(project, collection, new InputStreamSliceInput(buff), loader);
+                        return;
                     } else if ("text/csv".equals(contentType)) {
                         String apiKey = getParam(request.params(), MASTER_KEY.getKey());
                         String project = apiKeyService.getProjectOfApiKey(apiKey, MASTER_KEY);
                         String collection = getParam(request.params(), "collection");
+                        loader.setContext(EventContext.apiKey(apiKey));
 
                         CsvSchema.Builder builder = CsvSchema.builder();
                         if (request.params().get("column_separator") != null) {
@@ -421,37 +528,22 @@ public class EventCollectionHttpService
                             // do not set CsvSchema setUseHeader, it has extra overhead and the deserializer cannot handle that.
                         }
 
-                        return csvMapper.readerFor(EventList.class)
+                        csvMapper.readerFor(EventList.class)
                                 .with(ContextAttributes.getEmpty()
                                         .withSharedAttribute("project", project)
                                         .withSharedAttribute("useHeader", useHeader)
                                         .withSharedAttribute("collection", collection)
-                                        .withSharedAttribute("apiKey", apiKey))
+                                        .withSharedAttribute("apiKey", apiKey)
+                                        .withSharedAttribute("consumer", loader))
                                 .with(builder.build()).readValue(buff);
+                        return;
                     }
 
                     throw new RakamException("Unsupported content type: " + contentType, BAD_REQUEST);
                 },
-                (events, responseHeaders) -> {
-                    if (events.size() > 0) {
-                        try {
-                            eventStore.storeBulk(events);
-                        } catch (Throwable e) {
-                            List<Event> sample = events.size() > 5 ? events.subList(0, 2) : events;
-                            LOGGER.error(new RuntimeException("Error executing EventStore bulk method.",
-                                            new RuntimeException(sample.toString().substring(0, 200), e)),
-                                    "Error while storing event.");
-
-                            return new HeaderDefaultFullHttpResponse(HTTP_1_1, INTERNAL_SERVER_ERROR,
-                                    Unpooled.wrappedBuffer(encodeAsBytes(returnError("An error occurred: " + e.getMessage()))),
-                                    responseHeaders);
-                        }
-                    }
-
-                    return new HeaderDefaultFullHttpResponse(HTTP_1_1, OK,
-                            Unpooled.wrappedBuffer(encodeAsBytes(SuccessMessage.success())),
-                            responseHeaders);
-                }, mapEvents);
+                responseHeaders -> new HeaderDefaultFullHttpResponse(HTTP_1_1, OK,
+                        Unpooled.wrappedBuffer(encodeAsBytes(SuccessMessage.success())),
+                        responseHeaders), mapEvents);
     }
 
     @POST
@@ -462,86 +554,118 @@ public class EventCollectionHttpService
     }
 
     @POST
-    @ApiOperation(value = "Collect bulk events from remote", request = BulkEventRemote.class, response = Integer.class)
-    @ApiResponses(value = {@ApiResponse(code = 409, message = PARTIAL_ERROR_MESSAGE, response = int[].class)})
+    @ApiOperation(value = "Collect bulk events from remote", request = BulkEventRemote.class, response = RemoteBulkImporter.ImportStatus.class,
+            notes = "Downloads and imports the files in parallel. The import can be resumed with the same import_id, the files that are already imported are skipped.")
+    @ApiResponses(value = {@ApiResponse(code = 409, message = "Some of the files couldn't be imported", response = RemoteBulkImporter.ImportStatus.class)})
     @Path("/bulk/remote")
     public void bulkEventsRemote(RakamHttpRequest request) {
         bulkEventsRemote(request, true);
     }
 
     public void bulkEventsRemote(RakamHttpRequest request, boolean mapEvents) {
-        storeEventsSync(request,
-                buff -> {
-                    BulkEventRemote query = JsonHelper.read(buff, BulkEventRemote.class);
-                    String masterKey = Optional.ofNullable(request.params().get("master_key"))
-                            .map((v) -> v.get(0))
-                            .orElseGet(() -> request.headers().get("master_key"));
-                    String project = apiKeyService.getProjectOfApiKey(masterKey, MASTER_KEY);
-
-                    checkCollection(query.collection);
-
-                    if (query.urls.size() != 1) {
-                        throw new RakamException("Only one url is supported", BAD_REQUEST);
-                    }
-                    if (query.compression != null) {
-                        throw new RakamException("Compression is not supported yet", BAD_REQUEST);
-                    }
+        request.bodyHandler(buff -> {
+            CompletableFuture<RemoteBulkImporter.ImportStatus> future;
+            try {
+                BulkEventRemote query = JsonHelper.read(buff, BulkEventRemote.class);
+                String masterKey = getMasterKey(request);
+                String project = apiKeyService.getProjectOfApiKey(masterKey, MASTER_KEY);
 
-                    URL url = query.urls.get(0);
-                    if (query.type == JSON) {
-                        return jsonMapper.readValue(url, EventList.class);
-                    } else if (query.type == CSV) {
-                        CsvSchema.Builder builder = CsvSchema.builder();
-                        if (request.headers().get("column_separator") != null) {
-                            String column_seperator = request.headers().get("column_separator");
-                            if (column_seperator.length() != 1) {
-                                throw new RakamException("Invalid column separator", BAD_REQUEST);
-                            }
-                            builder.setColumnSeparator(column_seperator.charAt(0));
-                        }
+                checkCollection(query.collection);
 
-                        boolean useHeader = true;
-                        if (request.headers().get("use_header") != null) {
-                            useHeader = Boolean.valueOf(request.headers().get("use_header"));
-                            // do not set CsvSchema setUseHeader, it has extra overhead and the deserializer cannot handle that.
-                        }
+                List<URL> sources = remoteBulkImporter.resolveSources(query.urls, query.path);
+                RemoteBulkImporter.ImportStatus status = remoteBulkImporter.getOrCreate(project, query.importId, query.collection, sources);
 
-                        return csvMapper.readerFor(EventList.class)
-                                .with(ContextAttributes.getEmpty()
-                                        .withSharedAttribute("project", project)
-                                        .withSharedAttribute("useHeader", useHeader)
-                                        .withSharedAttribute("collection", query.collection)
-                                        .withSharedAttribute("apiKey", masterKey))
-                                .with(builder.build()).readValue(url);
-                    } else if (query.type == AVRO) {
-                        URLConnection conn = url.openConnection();
-                        conn.setConnectTimeout(5000);
-                        conn.setReadTimeout(5000);
-                        conn.connect();
-
-                        return avroEventDeserializer.deserialize(project, query.collection,
-                                new InputStreamSliceInput(conn.getInputStream()));
-                    }
+                InetAddress remoteAddress = getRemoteAddress(request.getRemoteAddress());
+                HttpRequestParams requestParams = new HttpRequestParams(request);
+                future = remoteBulkImporter.run(status, query.compression, input -> {
+                    // the cookies of the mappers are not sent for the remote files
+                    BulkEventLoader loader = new BulkEventLoader(bulkLoadConfig,
+                            bulkChunkWriter(requestParams, remoteAddress, new DefaultHttpHeaders(), new ConcurrentLinkedQueue<>(), mapEvents));
+                    loader.setContext(EventContext.apiKey(masterKey));
+                    parseRemoteFile(request, query, project, masterKey, input, loader);
+                    return loader.finish();
+                });
+            } catch (Throwable e) {
+                handleBulkError(request, e);
+                return;
+            }
 
-                    throw new RakamException("Unsupported or missing type.", BAD_REQUEST);
-                },
-                (events, responseHeaders) -> {
-                    try {
-                        eventStore.storeBulk(events);
-                    } catch (Exception e) {
-                        List<Event> sample = events.size() > 5 ? events.subList(0, 5) : events;
-                        LOGGER.error(new RuntimeException("Error executing EventStore bulkRemote method.",
-                                        new RuntimeException(sample.toString().substring(0, 200), e)),
-                                "Error while storing event.");
-                        return new HeaderDefaultFullHttpResponse(HTTP_1_1, INTERNAL_SERVER_ERROR,
-                                Unpooled.wrappedBuffer(encodeAsBytes(returnError("An error occurred"))),
-                                responseHeaders);
-                    }
+            future.whenComplete((status, ex) -> {
+                if (ex != null) {
+                    handleBulkError(request, ex);
+                    return;
+                }
 
-                    return new HeaderDefaultFullHttpResponse(HTTP_1_1, OK,
-                            Unpooled.wrappedBuffer(OK_MESSAGE),
-                            responseHeaders);
-                }, mapEvents);
+                DefaultFullHttpResponse response = new DefaultFullHttpResponse(HTTP_1_1, status.isDone() ? OK : CONFLICT,
+                        Unpooled.wrappedBuffer(encodeAsBytes(status)));
+                setBrowser(request, response);
+                response.headers().set(CONTENT_TYPE, "application/json");
+                request.response(response).end();
+            });
+        });
+    }
+
+    @GET
+    @ApiOperation(value = "Get the progress of a remote bulk import", response = RemoteBulkImporter.ImportStatus.class)
+    @Path("/bulk/remote/status")
+    public void bulkEventsRemoteStatus(RakamHttpRequest request) {
+        RemoteBulkImporter.ImportStatus status;
+        try {
+            String project = apiKeyService.getProjectOfApiKey(getMasterKey(request), MASTER_KEY);
+            status = remoteBulkImporter.getStatus(project, getParam(request.params(), "import_id"));
+        } catch (RakamException e) {
+            returnError(request, e.getMessage(), e.getStatusCode());
+            return;
+        }
+
+        DefaultFullHttpResponse response = new DefaultFullHttpResponse(HTTP_1_1, OK,
+                Unpooled.wrappedBuffer(encodeAsBytes(status)));
+        setBrowser(request, response);
+        response.headers().set(CONTENT_TYPE, "application/json");
+        request.response(response).end();
+    }
+
+    private void parseRemoteFile(RakamHttpRequest request, BulkEventRemote query, String project, String masterKey, InputStream input, BulkEventLoader loader)
+            throws IOException {
+        if (query.type == JSON) {
+            jsonMapper.readerFor(EventList.class)
+                    .with(ContextAttributes.getEmpty().withSharedAttribute("consumer", loader))
+                    .readValue(input);
+        } else if (query.type == CSV) {
+            CsvSchema.Builder builder = CsvSchema.builder();
+            if (request.headers().get("column_separator") != null) {
+                String column_seperator = request.headers().get("column_separator");
+                if (column_seperator.length() != 1) {
+                    throw new RakamException("Invalid column separator", BAD_REQUEST);
+                }
+                builder.setColumnSeparator(column_seperator.charAt(0));
+            }
+
+            boolean useHeader = true;
+            if (request.headers().get("use_header") != null) {
+                useHeader = Boolean.valueOf(request.headers().get("use_header"));
+                // do not set CsvSchema setUseHeader, it has extra overhead and the deserializer cannot handle that.
+            }
+
+            csvMapper.readerFor(EventList.class)
+                    .with(ContextAttributes.getEmpty()
+                            .withSharedAttribute("project", project)
+                            .withSharedAttribute("useHeader", useHeader)
+                            .withSharedAttribute("collection", query.collection)
+                            .withSharedAttribute("apiKey", masterKey)
+                            .withSharedAttribute("consumer", loader))
+                    .with(builder.build()).readValue(input);
+        } else if (query.type == AVRO) {
+            avroEventDeserializer.deserialize(project, query.collection, new InputStreamSliceInput(input), loader);
+        } else {
+            throw new RakamException("Unsupported or missing type.", BAD_REQUEST);
+        }
+    }
+
+    private static String getMasterKey(RakamHttpRequest request) {
+        return Optional.ofNullable(request.params().get("master_key"))
+                .map((v) -> v.get(0))
+                .orElseGet(() -> request.headers().get("master_key"));
     }
 
     private String getParam(Map<String, List<String>> params, String param) {
@@ -561,10 +685,13 @@ public class EventCollectionHttpService
     @Path("/batch")
     public void batchEvents(RakamHttpRequest request) {
         storeEvents(request, buff -> {
-                    if (buff.available() > 500000) {
+                    String contentEncoding = request.headers().get(CONTENT_ENCODING);
+                    if (!isCompressed(contentEncoding) && buff.available() > MAX_BATCH_BODY_SIZE) {
                         throw new RakamException("The body is too big, use /bulk endpoint.", REQUEST_ENTITY_TOO_LARGE);
                     }
-                    byte[] bytes = ByteStreams.toByteArray(buff);
+                    // the checksum is verified over the byte array of the body
+                    byte[] bytes = isCompressed(contentEncoding) ?
+                            ByteStreams.toByteArray(decode(buff, contentEncoding, MAX_BATCH_BODY_SIZE)) : readBody(buff);
                     return jsonMapper.readerFor(EventList.class).readValue(bytes);
                 },
                 (events, responseHeaders) -> {
@@ -598,7 +725,9 @@ public class EventCollectionHttpService
                         errorIndexes = EventStore.COMPLETED_FUTURE_BATCH;
                     }
 
+                    List<Event> storedEvents = events;
                     return errorIndexes.thenApply(result -> {
+                        eventStream.publish(storedEvents, result);
                         if (result.length == 0) {
                             return new HeaderDefaultFullHttpResponse(HTTP_1_1, OK,
                                     Unpooled.wrappedBuffer(OK_MESSAGE), responseHeaders);
@@ -611,34 +740,175 @@ public class EventCollectionHttpService
         );
     }
 
-    public void storeEventsSync(RakamHttpRequest request, ThrowableFunction mapper, BiFunction<List<Event>, HttpHeaders, FullHttpResponse> responseFunction, boolean mapEvents) {
-        storeEvents(request, mapper,
-                (events, entries) -> completedFuture(responseFunction.apply(events, entries)), mapEvents);
+    /**
+     * Parses the body on the parse pool of {@link IngestionExecutor} and passes the events to the event store in chunks
+     * on its store pool while the body is being parsed, see {@link BulkEventLoader}. The body is received completely
+     * before it's parsed. The request is rejected with 429 if the parse pool is saturated.
+     */
+    public void storeEventsStreaming(RakamHttpRequest request, BulkEventParser parser, Function<HttpHeaders, FullHttpResponse> responseFunction, boolean mapEvents) {
+        request.bodyHandler(input -> handOff(request, input, buff -> {
+            DefaultHttpHeaders responseHeaders = new DefaultHttpHeaders();
+            responseHeaders.set(ACCESS_CONTROL_ALLOW_CREDENTIALS, "true");
+            CorsHeaders.setAllowOrigin(request, responseHeaders);
+
+            InetAddress remoteAddress = getRemoteAddress(request.getRemoteAddress());
+            HttpRequestParams requestParams = new HttpRequestParams(request);
+            Queue<Cookie> cookies = new ConcurrentLinkedQueue<>();
+
+            BulkEventLoader loader = new BulkEventLoader(bulkLoadConfig,
+                    bulkChunkWriter(requestParams, remoteAddress, responseHeaders, cookies, mapEvents));
+
+            try {
+                parser.parse(decode(buff, request.headers().get(CONTENT_ENCODING),
+                        bulkLoadConfig.getMaxDecompressedSize().toBytes()), loader);
+                loader.finish();
+            } catch (Throwable e) {
+                handleBulkError(request, e);
+                return;
+            }
+
+            String headerList = getHeaderList(responseHeaders.iterator());
+            if (headerList != null) {
+                responseHeaders.set(ACCESS_CONTROL_EXPOSE_HEADERS, headerList);
+            }
+
+            responseHeaders.add(CONTENT_TYPE, "application/json");
+            if (!cookies.isEmpty()) {
+                responseHeaders.add(SET_COOKIE, STRICT.encode(cookies));
+            }
+
+            request.response(responseFunction.apply(responseHeaders)).end();
+        }));
+    }
+
+    private Function<EventList, CompletableFuture<Void>> bulkChunkWriter(HttpRequestParams requestParams, InetAddress remoteAddress,
+            HttpHeaders responseHeaders, Queue<Cookie> cookies, boolean mapEvents) {
+        return events -> {
+            CompletableFuture<List<Cookie>> mapped;
+            if (mapEvents) {
+                mapped = mapEvent(eventMappers, (m) -> m.mapAsync(events, requestParams, remoteAddress, responseHeaders));
+            } else {
+                mapped = EventMapper.COMPLETED_EMPTY_FUTURE;
+            }
+
+            return mapped.thenCompose(value -> ingestionExecutor.<Void>store(() -> {
+                if (value != null) {
+                    cookies.addAll(value);
+                }
+                storeBulkChunk(events.events);
+                return null;
+            }));
+        };
+    }
+
+    private void storeBulkChunk(List<Event> events) {
+        try {
+            eventStore.storeBulk(events);
+        } catch (Throwable e) {
+            List<Event> sample = events.size() > 5 ? events.subList(0, 2) : events;
+            String sampleString = sample.toString();
+            LOGGER.error(new RuntimeException("Error executing EventStore bulk method.",
+                            new RuntimeException(sampleString.substring(0, Math.min(200, sampleString.length())), e)),
+                    "Error while storing event.");
+            throw new BulkStoreException(e);
+        }
+    }
+
+    /**
+     * Runs the handler on the parse pool of {@link IngestionExecutor} once the body is received so that the event
+     * loop only does the socket I/O. The request is rejected with 429 if the parse pool is saturated.
+     */
+    private void handOff(RakamHttpRequest request, InputStream body, Consumer<InputStream> handler) {
+        try {
+            ingestionExecutor.parse(() -> handler.accept(body));
+        } catch (RejectedExecutionException e) {
+            returnTooManyRequests(request, 1);
+        }
+    }
+
+    /**
+     * Reads the body into an array of its exact size. The body stream of the request knows its size, so the body is
+     * copied once instead of growing a buffer and copying it again into the returned array.
+     */
+    private static byte[] readBody(InputStream body)
+            throws IOException {
+        byte[] bytes = new byte[body.available()];
+        ByteStreams.readFully(body, bytes);
+        int next = body.read();
+        if (next == -1) {
+            return bytes;
+        }
+        return Bytes.concat(bytes, new byte[] {(byte) next}, ByteStreams.toByteArray(body));
+    }
+
+    private void handleBulkError(RakamHttpRequest request, Throwable e) {
+        if (e instanceof BulkStoreException) {
+            returnError(request, "An error occurred: " + e.getCause().getMessage(), INTERNAL_SERVER_ERROR);
+        } else if (e instanceof JsonMappingException || e instanceof JsonParseException) {
+            returnError(request, "JSON couldn't parsed: " + ((JsonProcessingException) e).getOriginalMessage(), BAD_REQUEST);
+        } else if (e instanceof IOException) {
+            returnError(request, "JSON couldn't parsed: " + e.getMessage(), BAD_REQUEST);
+        } else if (e instanceof RakamException) {
+            LogUtil.logException(request, e);
+            returnError(request, e.getMessage(), ((RakamException) e).getStatusCode());
+        } else if (e instanceof HttpRequestException) {
+            returnError(request, e.getMessage(), ((HttpRequestException) e).getStatusCode());
+        } else if (e instanceof IllegalArgumentException) {
+            LogUtil.logException(request, e);
+            returnError(request, e.getMessage(), BAD_REQUEST);
+        } else {
+            LOGGER.error(e, "Error while collecting event");
+            LogUtil.logException(request, e);
+            returnError(request, "An error occurred", INTERNAL_SERVER_ERROR);
+        }
     }
 
     public void storeEvents(RakamHttpRequest request, ThrowableFunction mapper, BiFunction<List<Event>, HttpHeaders, CompletableFuture<FullHttpResponse>> responseFunction, boolean mapEvents) {
-        request.bodyHandler(buff -> {
+        if (rejectEarly(request)) {
+            return;
+        }
+        request.bodyHandler(input -> handOff(request, input, buff -> {
             DefaultHttpHeaders responseHeaders = new DefaultHttpHeaders();
             responseHeaders.set(ACCESS_CONTROL_ALLOW_CREDENTIALS, "true");
-            if (request.headers().contains(ORIGIN)) {
-                responseHeaders.set(ACCESS_CONTROL_ALLOW_ORIGIN, request.headers().get(ORIGIN));
-            }
+            CorsHeaders.setAllowOrigin(request, responseHeaders);
 
             CompletableFuture<FullHttpResponse> response;
             CompletableFuture<List<Cookie>> entries;
             try {
                 EventList events = mapper.apply(buff);
 
-                InetAddress remoteAddress = getRemoteAddress(request.getRemoteAddress());
+                String project = events.project != null ? events.project :
+                        (events.events.isEmpty() ? null : events.events.get(0).project());
+                long retryAfter = project == null ? 0 : admissionController.tryAcquire(project, events.events.size());
+                if (retryAfter > 0) {
+                    returnTooManyRequests(request, retryAfter);
+                    return;
+                }
 
-                if (mapEvents) {
-                    entries = mapEvent(eventMappers, (m) -> m.mapAsync(events, new HttpRequestParams(request),
-                            remoteAddress, responseHeaders));
-                } else {
+                if (deduplicator.isDuplicate(project, events.api)) {
+                    // the events are already collected, the client retried the request
                     entries = EventMapper.COMPLETED_EMPTY_FUTURE;
-                }
+                    response = completedFuture(new HeaderDefaultFullHttpResponse(HTTP_1_1, OK,
+                            Unpooled.wrappedBuffer(OK_MESSAGE), responseHeaders));
+                } else {
+                    InetAddress remoteAddress = getRemoteAddress(request.getRemoteAddress());
+
+                    if (mapEvents) {
+                        entries = ingestionExecutor.map(() -> mapEvent(eventMappers, (m) -> m.mapAsync(events, new HttpRequestParams(request),
+                                remoteAddress, responseHeaders)));
+                    } else {
+                        entries = EventMapper.COMPLETED_EMPTY_FUTURE;
+                    }
 
-                response = responseFunction.apply(events.events, responseHeaders);
+                    // the events are stored once the mappers enrich them
+                    response = entries.thenCompose(value -> responseFunction.apply(events.events, responseHeaders));
+                    // a partially stored batch (409) is retried as well, the uuid must not drop the retry
+                    response.whenComplete((resp, ex) -> {
+                        if (ex != null || !resp.getStatus().equals(OK)) {
+                            deduplicator.remove(project, events.api);
+                        }
+                    });
+                }
             } catch (JsonMappingException | JsonParseException e) {
                 returnError(request, "JSON couldn't parsed: " + e.getOriginalMessage(), BAD_REQUEST);
                 return;
@@ -670,14 +940,18 @@ public class EventCollectionHttpService
 
             responseHeaders.add(CONTENT_TYPE, "application/json");
 
-            entries.thenAccept(value -> {
-                if (value != null) {
-                    responseHeaders.add(SET_COOKIE, STRICT.encode(value));
-                }
-            });
+            response.whenComplete((resp, ex) -> {
+                if (ex != null) {
+                    // the events are not stored if the mappers fail
+                    if (entries.isCompletedExceptionally()) {
+                        String message = "Error while processing event mappers";
+                        LOGGER.error(ex, message);
+                        request.response(JsonHelper.encode(returnError(message)),
+                                INTERNAL_SERVER_ERROR);
+                        return;
+                    }
 
-            response.whenComplete((resp, storeEx) -> {
-                if (storeEx != null) {
+                    Throwable storeEx = ex instanceof CompletionException && ex.getCause() != null ? ex.getCause() : ex;
                     if (storeEx instanceof RakamException) {
                         LogUtil.logException(request, storeEx);
                         returnError(request, storeEx.getMessage(), ((RakamException) storeEx).getStatusCode());
@@ -689,21 +963,13 @@ public class EventCollectionHttpService
                     return;
                 }
 
-                entries.whenComplete((value, ex) -> {
-                    if (ex != null) {
-                        String message = "Error while processing event mappers";
-                        LOGGER.error(ex, message);
-                        request.response(JsonHelper.encode(returnError(message)),
-                                INTERNAL_SERVER_ERROR);
-                    } else {
-                        if (value != null) {
-                            responseHeaders.add(SET_COOKIE, STRICT.encode(value));
-                        }
-                        request.response(resp).end();
-                    }
-                });
+                List<Cookie> value = entries.join();
+                if (value != null) {
+                    responseHeaders.add(SET_COOKIE, STRICT.encode(value));
+                }
+                request.response(resp).end();
             });
-        });
+        }));
     }
 
     interface ThrowableFunction {
@@ -711,6 +977,18 @@ public class EventCollectionHttpService
                 throws IOException;
     }
 
+    interface BulkEventParser {
+        void parse(InputStream buffer, BulkEventLoader loader)
+                throws IOException;
+    }
+
+    private static class BulkStoreException
+            extends RuntimeException {
+        public BulkStoreException(Throwable cause) {
+            super(cause);
+        }
+    }
+
     public static class HttpRequestParams
             implements EventMapper.RequestParams {
         private final RakamHttpRequest request;
@@ -733,20 +1011,26 @@ public class EventCollectionHttpService
     public static class BulkEventRemote {
         public final String collection;
         public final List<URL> urls;
+        public final String path;
         public final CopyType type;
         public final EventStore.CompressionType compression;
+        public final String importId;
         public final Map<String, String> options;
 
         @JsonCreator
         public BulkEventRemote(@ApiParam("collection") String collection,
-                               @ApiParam("urls") List<URL> urls,
+                               @ApiParam(value = "urls", required = false) List<URL> urls,
+                               @ApiParam(value = "path", required = false, description = "Glob pattern of the files in the local directory of the server") String path,
                                @ApiParam("type") CopyType type,
-                               @ApiParam(value = "compression", required = false) EventStore.CompressionType compression,
+                               @ApiParam(value = "compression", required = false, description = "Detected from the file extension if it's not set") EventStore.CompressionType compression,
+                               @ApiParam(value = "import_id", required = false, description = "The id of the import that will be resumed") String importId,
                                @ApiParam(value = "options", required = false) Map<String, String> options) {
             this.collection = collection;
             this.urls = urls;
+            this.path = path;
             this.type = type;
             this.compression = compression;
+            this.importId = importId;
             this.options = Optional.ofNullable(options).orElse(ImmutableMap.of());
         }
     }
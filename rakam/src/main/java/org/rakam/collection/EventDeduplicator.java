@@ -0,0 +1,174 @@
+package org.rakam.collection;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Ticker;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import org.rakam.collection.Event.EventContext;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+/**
+ * Remembers the {@link EventContext#uuid} values of the collected requests for a time window so that the retries of
+ * the SDKs are not stored twice. The filter is a fixed size hash table of 40 bit fingerprints that are packed with
+ * their insertion time into a single long, when a bucket is full the oldest entry is replaced. Unlike a bloom filter it
+ * doesn't get saturated: a unique uuid is only reported as a duplicate if its fingerprint collides with a live entry
+ * in the same bucket, which is bounded by {@link #getFalsePositiveProbability()}, and the duplicates that arrive after
+ * their entry is replaced are missed, see {@link #getEvictedCount()}.
+ */
+@Singleton
+public class EventDeduplicator {
+    private static final HashFunction HASH_FUNCTION = Hashing.murmur3_128();
+    private static final int BUCKET_SIZE = 4;
+    private static final int TIME_BITS = 24;
+    private static final long TIME_MASK = (1L << TIME_BITS) - 1;
+    private static final long FINGERPRINT_BITS = 64 - TIME_BITS;
+
+    private final boolean enabled;
+    private final AtomicLongArray entries;
+    private final int bucketMask;
+    private final long windowInSeconds;
+    private final Ticker ticker;
+    private final long startNanos;
+
+    private final AtomicLong checked = new AtomicLong();
+    private final AtomicLong duplicates = new AtomicLong();
+    private final AtomicLong evicted = new AtomicLong();
+
+    @Inject
+    public EventDeduplicator(DeduplicationConfig config) {
+        this(config, Ticker.systemTicker());
+    }
+
+    @VisibleForTesting
+    public EventDeduplicator(DeduplicationConfig config, Ticker ticker) {
+        this.enabled = config.isEnabled();
+        long slots = Math.max(BUCKET_SIZE, Long.highestOneBit(config.getMaxMemory().toBytes() / Long.BYTES));
+        int size = enabled ? (int) Math.min(slots, 1 << 30) : BUCKET_SIZE;
+        this.entries = new AtomicLongArray(size);
+        this.bucketMask = size / BUCKET_SIZE - 1;
+        this.windowInSeconds = config.getWindow().roundTo(SECONDS);
+        this.ticker = ticker;
+        this.startNanos = ticker.read();
+    }
+
+    /**
+     * Returns true if a request with the same uuid is already collected for the project in the window, otherwise the
+     * uuid is remembered. The requests that don't have a uuid are never duplicates.
+     */
+    public boolean isDuplicate(String project, EventContext context) {
+        if (!enabled || context == null || context.uuid == null || project == null) {
+            return false;
+        }
+        checked.incrementAndGet();
+
+        ByteBuffer hash = hash(project, context.uuid);
+        int bucket = bucket(hash);
+        long fingerprint = fingerprint(hash);
+        long now = now();
+
+        while (true) {
+            int victim = -1;
+            long victimValue = 0;
+            long victimAge = -1;
+            for (int i = bucket; i < bucket + BUCKET_SIZE; i++) {
+                long value = entries.get(i);
+                long age = value == 0 ? Long.MAX_VALUE : age(value, now);
+                if (value != 0 && age < windowInSeconds && (value >>> TIME_BITS) == fingerprint) {
+                    duplicates.incrementAndGet();
+                    return true;
+                }
+                if (age > victimAge) {
+                    victim = i;
+                    victimValue = value;
+                    victimAge = age;
+                }
+            }
+
+            if (entries.compareAndSet(victim, victimValue, (fingerprint << TIME_BITS) | now)) {
+                if (victimValue != 0 && victimAge < windowInSeconds) {
+                    evicted.incrementAndGet();
+                }
+                return false;
+            }
+        }
+    }
+
+    /**
+     * Forgets the uuid of a request that couldn't be stored so that its retry is accepted.
+     */
+    public void remove(String project, EventContext context) {
+        if (!enabled || context == null || context.uuid == null || project == null) {
+            return;
+        }
+
+        ByteBuffer hash = hash(project, context.uuid);
+        int bucket = bucket(hash);
+        long fingerprint = fingerprint(hash);
+        for (int i = bucket; i < bucket + BUCKET_SIZE; i++) {
+            long value = entries.get(i);
+            if (value != 0 && (value >>> TIME_BITS) == fingerprint) {
+                entries.compareAndSet(i, value, 0);
+            }
+        }
+    }
+
+    public long getCheckedCount() {
+        return checked.get();
+    }
+
+    public long getDuplicateCount() {
+        return duplicates.get();
+    }
+
+    /**
+     * The number of entries that were replaced before their window ends, the duplicates of these uuids are missed.
+     * The memory of the filter is too small for the request rate if it grows steadily.
+     */
+    public long getEvictedCount() {
+        return evicted.get();
+    }
+
+    /**
+     * The upper bound of the probability that a unique uuid is dropped as a duplicate, the fingerprint is compared
+     * with each entry in its bucket.
+     */
+    public double getFalsePositiveProbability() {
+        return BUCKET_SIZE / Math.pow(2, FINGERPRINT_BITS);
+    }
+
+    private static ByteBuffer hash(String project, String uuid) {
+        return ByteBuffer.wrap(HASH_FUNCTION.newHasher()
+                .putString(project, UTF_8)
+                .putByte((byte) 0)
+                .putString(uuid, UTF_8)
+                .hash().asBytes());
+    }
+
+    private int bucket(ByteBuffer hash) {
+        return (hash.getInt(0) & bucketMask) * BUCKET_SIZE;
+    }
+
+    private static long fingerprint(ByteBuffer hash) {
+        // the second half of the hash is independent of the bucket
+        long fingerprint = hash.getLong(8) >>> TIME_BITS;
+        // zero marks the empty slots
+        return fingerprint == 0 ? 1 : fingerprint;
+    }
+
+    private long now() {
+        return ((ticker.read() - startNanos) / 1_000_000_000L) & TIME_MASK;
+    }
+
+    private static long age(long value, long now) {
+        // the time wraps around every 2^24 seconds, the window is much shorter than that
+        return (now - (value & TIME_MASK)) & TIME_MASK;
+    }
+}
@@ -18,6 +18,7 @@ import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Locale;
+import java.util.function.Consumer;
 
 import static com.fasterxml.jackson.core.JsonToken.FIELD_NAME;
 import static com.fasterxml.jackson.core.JsonToken.START_OBJECT;
@@ -140,17 +141,29 @@ public class EventListDeserializer
             }
         }
 
+        // the events are passed to the consumer instead of the returned list when they're streamed to the event store.
+        // The checksum can only be verified when the body is parsed from a byte array. Such a body is buffered until
+        // the checksum is validated so that none of its events is stored when it's invalid. The bodies that are parsed
+        // from a stream, such as the /event/bulk requests, are passed to the consumer as they're parsed and their
+        // checksum is not verified.
+        Object sourceRef = jp.getTokenLocation().getSourceRef();
+        boolean verifyChecksum = context.checksum != null && sourceRef instanceof byte[];
+        Consumer<Event> consumer = (Consumer<Event>) deserializationContext.getAttribute("consumer");
+        Consumer<Event> target = consumer == null || verifyChecksum ? list::add : consumer;
+
         for (; t == START_OBJECT; t = jp.nextToken()) {
-            list.add(eventDeserializer.deserializeWithProject(jp, project, context, masterKey));
+            target.accept(eventDeserializer.deserializeWithProject(jp, project, context, masterKey));
         }
 
         long end = jp.getTokenLocation().getByteOffset();
 
-        if (context.checksum != null) {
-            Object sourceRef = jp.getTokenLocation().getSourceRef();
-            if (sourceRef instanceof byte[]) {
-                validateChecksum((byte[]) sourceRef, start, end, context);
-            }
+        if (verifyChecksum) {
+            validateChecksum((byte[]) sourceRef, start, end, context);
+        }
+
+        if (consumer != null && verifyChecksum) {
+            list.forEach(consumer);
+            list.clear();
         }
 
         return new EventList(context, project, list);
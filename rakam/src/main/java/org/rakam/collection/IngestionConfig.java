@@ -0,0 +1,85 @@
+package org.rakam.collection;
+
+import io.airlift.configuration.Config;
+import io.airlift.configuration.ConfigDescription;
+
+import javax.validation.constraints.Min;
+
+public class IngestionConfig {
+    private int parseThreads = Runtime.getRuntime().availableProcessors() * 2;
+    private int parseQueueSize = 5000;
+    private int mapperThreads = Runtime.getRuntime().availableProcessors() * 2;
+    private int mapperQueueSize = 5000;
+    private int storeThreads = Runtime.getRuntime().availableProcessors() * 4;
+    private int storeQueueSize = 5000;
+
+    @Min(1)
+    public int getParseThreads() {
+        return parseThreads;
+    }
+
+    @Config("collection.ingestion.parse-threads")
+    @ConfigDescription("The number of threads that deserialize the request bodies after they're received by the event loop")
+    public IngestionConfig setParseThreads(int parseThreads) {
+        this.parseThreads = parseThreads;
+        return this;
+    }
+
+    @Min(1)
+    public int getParseQueueSize() {
+        return parseQueueSize;
+    }
+
+    @Config("collection.ingestion.parse-queue-size")
+    @ConfigDescription("The number of requests that can wait for the parse threads, the other requests are rejected with 429")
+    public IngestionConfig setParseQueueSize(int parseQueueSize) {
+        this.parseQueueSize = parseQueueSize;
+        return this;
+    }
+
+    @Min(1)
+    public int getMapperThreads() {
+        return mapperThreads;
+    }
+
+    @Config("collection.ingestion.mapper-threads")
+    @ConfigDescription("The number of threads that run the event mappers")
+    public IngestionConfig setMapperThreads(int mapperThreads) {
+        this.mapperThreads = mapperThreads;
+        return this;
+    }
+
+    @Min(1)
+    public int getMapperQueueSize() {
+        return mapperQueueSize;
+    }
+
+    @Config("collection.ingestion.mapper-queue-size")
+    public IngestionConfig setMapperQueueSize(int mapperQueueSize) {
+        this.mapperQueueSize = mapperQueueSize;
+        return this;
+    }
+
+    @Min(1)
+    public int getStoreThreads() {
+        return storeThreads;
+    }
+
+    @Config("collection.ingestion.store-threads")
+    @ConfigDescription("The number of threads that store the chunks of the bulk requests")
+    public IngestionConfig setStoreThreads(int storeThreads) {
+        this.storeThreads = storeThreads;
+        return this;
+    }
+
+    @Min(1)
+    public int getStoreQueueSize() {
+        return storeQueueSize;
+    }
+
+    @Config("collection.ingestion.store-queue-size")
+    public IngestionConfig setStoreQueueSize(int storeQueueSize) {
+        this.storeQueueSize = storeQueueSize;
+        return this;
+    }
+}
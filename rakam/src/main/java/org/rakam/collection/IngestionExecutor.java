@@ -0,0 +1,122 @@
+package org.rakam.collection;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import javax.annotation.PreDestroy;
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Moves the work of the collection requests out of the Netty event loop once their body is received. The requests
+ * are parsed on the parse pool, which rejects the requests when its queue is full instead of blocking the event
+ * loop. The event mappers and the synchronous event store calls have their own pools so that a slow mapper or event
+ * store doesn't take the threads of the parsers; these pools are only fed by the parse threads and run the tasks on
+ * the calling thread when they're full, which slows down the parsers rather than dropping the parsed events.
+ */
+@Singleton
+public class IngestionExecutor {
+    private final Stage parse;
+    private final Stage mapper;
+    private final Stage store;
+
+    @Inject
+    public IngestionExecutor(IngestionConfig config) {
+        this.parse = new Stage("ingestion-parse-%d", config.getParseThreads(), config.getParseQueueSize(), false);
+        this.mapper = new Stage("ingestion-mapper-%d", config.getMapperThreads(), config.getMapperQueueSize(), true);
+        this.store = new Stage("ingestion-store-%d", config.getStoreThreads(), config.getStoreQueueSize(), true);
+    }
+
+    /**
+     * @throws RejectedExecutionException if the queue of the parse pool is full
+     */
+    public void parse(Runnable runnable) {
+        parse.executor.execute(runnable);
+    }
+
+    public <T> CompletableFuture<T> map(Supplier<CompletableFuture<T>> supplier) {
+        return CompletableFuture.supplyAsync(supplier, mapper.executor).thenCompose(future -> future);
+    }
+
+    public <T> CompletableFuture<T> store(Supplier<T> supplier) {
+        return CompletableFuture.supplyAsync(supplier, store.executor);
+    }
+
+    public Stage getParseStage() {
+        return parse;
+    }
+
+    public Stage getMapperStage() {
+        return mapper;
+    }
+
+    public Stage getStoreStage() {
+        return store;
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        parse.executor.shutdown();
+        mapper.executor.shutdown();
+        store.executor.shutdown();
+    }
+
+    public static class Stage {
+        private final ThreadPoolExecutor executor;
+        private final AtomicLong rejected = new AtomicLong();
+        private final AtomicLong callerRuns = new AtomicLong();
+
+        private Stage(String nameFormat, int threads, int queueSize, boolean runOnCaller) {
+            RejectedExecutionHandler handler = (runnable, executor) -> {
+                if (runOnCaller && !executor.isShutdown()) {
+                    callerRuns.incrementAndGet();
+                    runnable.run();
+                } else {
+                    rejected.incrementAndGet();
+                    throw new RejectedExecutionException();
+                }
+            };
+            this.executor = new ThreadPoolExecutor(threads, threads, 60L, TimeUnit.SECONDS,
+                    new ArrayBlockingQueue<>(queueSize),
+                    new ThreadFactoryBuilder().setNameFormat(nameFormat).setDaemon(true).build(), handler);
+            this.executor.allowCoreThreadTimeOut(true);
+        }
+
+        /**
+         * The number of tasks that wait for a thread of the stage.
+         */
+        public int getQueueDepth() {
+            return executor.getQueue().size();
+        }
+
+        public int getActiveThreads() {
+            return executor.getActiveCount();
+        }
+
+        public long getCompletedTasks() {
+            return executor.getCompletedTaskCount();
+        }
+
+        /**
+         * The number of requests that are rejected because the queue of the stage is full.
+         */
+        public long getRejectedTasks() {
+            return rejected.get();
+        }
+
+        /**
+         * The number of tasks that are run by the submitting thread because the queue of the stage is full, the pool
+         * of the stage is too small for the load if it grows steadily.
+         */
+        public long getCallerRunsTasks() {
+            return callerRuns.get();
+        }
+    }
+}
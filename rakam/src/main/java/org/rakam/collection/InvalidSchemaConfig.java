@@ -0,0 +1,50 @@
+package org.rakam.collection;
+
+import io.airlift.configuration.Config;
+import io.airlift.configuration.ConfigDescription;
+import io.airlift.units.Duration;
+import io.airlift.units.MinDuration;
+
+import javax.validation.constraints.Min;
+
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+public class InvalidSchemaConfig {
+    private int bufferSize = 10000;
+    private int batchSize = 1000;
+    private Duration flushInterval = new Duration(1, SECONDS);
+
+    @Min(1)
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+    @Config("collection.invalid-schema.buffer-size")
+    @ConfigDescription("The number of invalid values that can wait to be written, the values are dropped when the buffer is full")
+    public InvalidSchemaConfig setBufferSize(int bufferSize) {
+        this.bufferSize = bufferSize;
+        return this;
+    }
+
+    @Min(1)
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    @Config("collection.invalid-schema.batch-size")
+    public InvalidSchemaConfig setBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+        return this;
+    }
+
+    @MinDuration("10ms")
+    public Duration getFlushInterval() {
+        return flushInterval;
+    }
+
+    @Config("collection.invalid-schema.flush-interval")
+    public InvalidSchemaConfig setFlushInterval(Duration flushInterval) {
+        this.flushInterval = flushInterval;
+        return this;
+    }
+}
@@ -0,0 +1,236 @@
+package org.rakam.collection;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import io.airlift.log.Logger;
+import org.apache.avro.Schema;
+import org.apache.avro.generic.GenericData;
+import org.rakam.analysis.metadata.Metastore;
+import org.rakam.collection.Event.EventContext;
+import org.rakam.collection.FieldDependencyBuilder.FieldDependency;
+import org.rakam.config.ProjectConfig;
+import org.rakam.plugin.EventStore;
+import org.rakam.util.JsonHelper;
+
+import javax.annotation.PreDestroy;
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static org.rakam.collection.FieldType.STRING;
+import static org.rakam.util.AvroUtil.convertAvroSchema;
+
+/**
+ * Collects the values that don't match the schema of their collection and writes them to the
+ * {@value #COLLECTION} collection of the project in batches from a background thread. The values are dropped
+ * when the buffer is full so that the invalid input can't slow down the ingestion.
+ */
+@Singleton
+public class InvalidSchemaSink {
+    public static final String COLLECTION = "$invalid_schema";
+    private static final Logger LOGGER = Logger.get(InvalidSchemaSink.class);
+
+    private final Metastore metastore;
+    private final EventStore eventStore;
+    private final ProjectConfig projectConfig;
+    private final Set<SchemaField> fields;
+    private final int bufferSize;
+    private final int batchSize;
+
+    private final Queue<InvalidValue> buffer = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger size = new AtomicInteger();
+    private final Map<String, RegisteredSchema> registeredSchemas = new ConcurrentHashMap<>();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong stored = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final ScheduledExecutorService executor;
+    private long reportedDropped;
+
+    @Inject
+    public InvalidSchemaSink(Metastore metastore, EventStore eventStore, ProjectConfig projectConfig,
+                             FieldDependency fieldDependency, InvalidSchemaConfig config) {
+        this.metastore = metastore;
+        this.eventStore = eventStore;
+        this.projectConfig = projectConfig;
+        this.bufferSize = config.getBufferSize();
+        this.batchSize = config.getBatchSize();
+        this.fields = ImmutableSet.copyOf(Sets.union(ImmutableSet.of(
+                new SchemaField("collection", STRING),
+                new SchemaField("property", STRING),
+                new SchemaField("type", STRING),
+                new SchemaField("event_id", STRING),
+                new SchemaField("error_message", STRING),
+                new SchemaField("encoded_value", STRING),
+                new SchemaField("_user", STRING)), fieldDependency.constantFields));
+
+        executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+                .setNameFormat("invalid-schema-sink")
+                .setDaemon(true)
+                .build());
+        long interval = config.getFlushInterval().toMillis();
+        executor.scheduleAtFixedRate(() -> {
+            try {
+                flush();
+            } catch (Throwable e) {
+                LOGGER.error(e, "Unable to write the invalid values");
+            }
+        }, interval, interval, MILLISECONDS);
+    }
+
+    public void offer(InvalidValue value) {
+        if (size.incrementAndGet() > bufferSize) {
+            size.decrementAndGet();
+            dropped.incrementAndGet();
+            return;
+        }
+        buffer.add(value);
+    }
+
+    @VisibleForTesting
+    public synchronized void flush() {
+        long droppedCount = dropped.get();
+        if (droppedCount > reportedDropped) {
+            LOGGER.warn("Dropped %d invalid values since the buffer is full", droppedCount - reportedDropped);
+            reportedDropped = droppedCount;
+        }
+
+        // the values that are added while flushing are written in the next run
+        int remaining = size.get();
+        while (remaining > 0) {
+            Map<String, List<InvalidValue>> batch = new HashMap<>();
+            int count = 0;
+            InvalidValue value;
+            while (count < Math.min(batchSize, remaining) && (value = buffer.poll()) != null) {
+                batch.computeIfAbsent(value.project, project -> new ArrayList<>()).add(value);
+                count++;
+            }
+            if (count == 0) {
+                break;
+            }
+            size.addAndGet(-count);
+            remaining -= count;
+
+            batch.forEach(this::store);
+        }
+    }
+
+    private void store(String project, List<InvalidValue> values) {
+        RegisteredSchema schema;
+        try {
+            schema = registeredSchemas.computeIfAbsent(project, key ->
+                    new RegisteredSchema(metastore.getOrCreateCollectionFields(key, COLLECTION, fields)));
+        } catch (Exception e) {
+            LOGGER.warn(e, "Unable to create the %s collection of project %s", COLLECTION, project);
+            failed.addAndGet(values.size());
+            return;
+        }
+
+        List<Event> events = new ArrayList<>(values.size());
+        for (InvalidValue value : values) {
+            events.add(new Event(project, COLLECTION, EventContext.empty(), schema.fields, value.toRecord(schema.avroSchema,
+                    projectConfig.getUserColumn(), projectConfig.getTimeColumn())));
+        }
+
+        int[] failedIndexes;
+        try {
+            failedIndexes = eventStore.storeBatch(events);
+        } catch (Exception e) {
+            LOGGER.warn(e, "Unable to store the invalid values of project %s", project);
+            // the collection may have been removed in the meantime
+            registeredSchemas.remove(project);
+            failed.addAndGet(events.size());
+            return;
+        }
+        stored.addAndGet(events.size() - failedIndexes.length);
+        failed.addAndGet(failedIndexes.length);
+    }
+
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+
+    public long getStoredCount() {
+        return stored.get();
+    }
+
+    public long getFailedCount() {
+        return failed.get();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        executor.shutdown();
+        flush();
+    }
+
+    private static class RegisteredSchema {
+        private final List<SchemaField> fields;
+        private final Schema avroSchema;
+
+        private RegisteredSchema(List<SchemaField> fields) {
+            this.fields = fields;
+            this.avroSchema = convertAvroSchema(fields);
+        }
+    }
+
+    public static class InvalidValue {
+        private final String project;
+        private final String collection;
+        private final String property;
+        private final FieldType type;
+        private final String error;
+        private final Object value;
+        private final Object eventId;
+        private final Object user;
+        private final Object time;
+
+        public InvalidValue(String project, String collection, String property, FieldType type, String error,
+                            Object value, Object eventId, Object user, Object time) {
+            this.project = project;
+            this.collection = collection;
+            this.property = property;
+            this.type = type;
+            this.error = error;
+            this.value = value;
+            this.eventId = eventId;
+            this.user = user;
+            this.time = time;
+        }
+
+        private GenericData.Record toRecord(Schema schema, String userColumn, String timeColumn) {
+            GenericData.Record record = new GenericData.Record(schema);
+            record.put("collection", collection);
+            record.put("property", property);
+            record.put("type", type.toString());
+            record.put("error_message", error);
+            // the encoding is deferred to the background thread
+            record.put("encoded_value", JsonHelper.encode(value));
+            if (eventId != null) {
+                record.put("event_id", eventId.toString());
+                putIfExists(record, userColumn, user == null ? null : user.toString());
+                putIfExists(record, timeColumn, time);
+            }
+            return record;
+        }
+
+        private static void putIfExists(GenericData.Record record, String name, Object value) {
+            if (record.getSchema().getField(name) != null) {
+                record.put(name, value);
+            }
+        }
+    }
+}
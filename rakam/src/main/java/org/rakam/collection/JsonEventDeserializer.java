@@ -16,10 +16,10 @@ import org.rakam.analysis.ApiKeyService;
 import org.rakam.analysis.ConfigManager;
 import org.rakam.analysis.metadata.Metastore;
 import org.rakam.analysis.metadata.SchemaChecker;
+import org.rakam.analysis.metadata.SchemaEvolutionCoordinator;
 import org.rakam.collection.Event.EventContext;
 import org.rakam.collection.FieldDependencyBuilder.FieldDependency;
 import org.rakam.config.ProjectConfig;
-import org.rakam.plugin.EventStore;
 import org.rakam.util.*;
 
 import javax.inject.Inject;
@@ -29,6 +29,7 @@ import java.time.LocalTime;
 import java.time.temporal.ChronoField;
 import java.util.AbstractMap.SimpleImmutableEntry;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
 
 import static com.fasterxml.jackson.core.JsonToken.*;
@@ -50,7 +51,7 @@ import static org.rakam.util.ValidationUtil.stripName;
 public class JsonEventDeserializer extends JsonDeserializer<Event> {
     private final Map<String, List<SchemaField>> conditionalMagicFields;
     private final Metastore metastore;
-    private final Cache<ProjectCollection, Map.Entry<List<SchemaField>, Schema>> schemaCache =
+    private final Cache<ProjectCollection, CompiledSchema> schemaCache =
             CacheBuilder
                     .newBuilder()
                     .expireAfterWrite(30, TimeUnit.MINUTES).build();
@@ -58,39 +59,31 @@ public class JsonEventDeserializer extends JsonDeserializer<Event> {
     private final ApiKeyService apiKeyService;
     private final ConfigManager configManager;
     private final SchemaChecker schemaChecker;
+    private final SchemaEvolutionCoordinator schemaEvolution;
     private final ProjectConfig projectConfig;
     private final ImmutableMap<String, FieldType> conditionalFieldMapping;
-    private final EventStore eventstore;
-    private final Set<SchemaField> rakamInvalidSchema;
-    private final Schema rakamInvalidAvroSchema;
+    private final InvalidSchemaSink invalidSchemaSink;
 
     @Inject
     public JsonEventDeserializer(Metastore metastore,
                                  ApiKeyService apiKeyService,
                                  ConfigManager configManager,
                                  SchemaChecker schemaChecker,
+                                 SchemaEvolutionCoordinator schemaEvolution,
                                  ProjectConfig projectConfig,
-                                 EventStore eventstore,
+                                 InvalidSchemaSink invalidSchemaSink,
                                  FieldDependency fieldDependency) {
         this.metastore = metastore;
         this.conditionalMagicFields = fieldDependency.dependentFields;
         this.apiKeyService = apiKeyService;
         this.schemaChecker = schemaChecker;
+        this.schemaEvolution = schemaEvolution;
         this.projectConfig = projectConfig;
-        this.eventstore = eventstore;
+        this.invalidSchemaSink = invalidSchemaSink;
         this.configManager = configManager;
         this.constantFields = fieldDependency.constantFields;
         conditionalFieldMapping = conditionalMagicFields.values().stream()
                 .flatMap(e -> e.stream()).collect(toImmutableMap(e -> e.getName(), e -> e.getType()));
-        this.rakamInvalidSchema = Sets.union(ImmutableSet.of(
-                new SchemaField("collection", STRING),
-                new SchemaField("property", STRING),
-                new SchemaField("type", STRING),
-                new SchemaField("event_id", STRING),
-                new SchemaField("error_message", STRING),
-                new SchemaField("encoded_value", STRING),
-                new SchemaField("_user", STRING)), constantFields);
-        this.rakamInvalidAvroSchema = AvroUtil.convertAvroSchema(rakamInvalidSchema);
     }
 
     public static Object getValueOfMagicField(JsonParser jp)
@@ -340,81 +333,108 @@ public class JsonEventDeserializer extends JsonDeserializer<Event> {
     public Map.Entry<List<SchemaField>, GenericData.Record> parseProperties(String project, String collection, JsonParser jp, boolean masterKey)
             throws IOException, NotExistsException {
         ProjectCollection key = new ProjectCollection(project, collection);
-        Map.Entry<List<SchemaField>, Schema> schema = schemaCache.getIfPresent(key);
+        CompiledSchema schema = schemaCache.getIfPresent(key);
         boolean isNew = schema == null;
         if (schema == null) {
             List<SchemaField> rakamSchema = metastore.getCollection(project, collection);
             isNew = rakamSchema == null || rakamSchema.isEmpty();
             rakamSchema = isNew ? ImmutableList.copyOf(constantFields) : rakamSchema;
-            schema = new SimpleImmutableEntry<>(rakamSchema, convertAvroSchema(rakamSchema, conditionalMagicFields));
+            schema = new CompiledSchema(rakamSchema, convertAvroSchema(rakamSchema, conditionalMagicFields));
             schemaCache.put(key, schema);
         }
 
         InvalidSchemaLogger invalidSchemaLogger = new InvalidSchemaLogger(project, collection);
 
-        Schema avroSchema = schema.getValue();
-        List<SchemaField> rakamSchema = schema.getKey();
+        Schema avroSchema = schema.avroSchema;
+        List<SchemaField> rakamSchema = schema.rakamSchema;
 
         GenericData.Record record = new GenericData.Record(avroSchema);
         List<SchemaField> newFields = null;
+        // the values of the new fields are kept aside until the schema is evolved in order to avoid
+        // rebuilding the schema and copying the record for each new field
+        Map<String, NewFieldValue> newFieldValues = null;
 
         JsonToken t = jp.nextToken();
         for (; t == JsonToken.FIELD_NAME; t = jp.nextToken()) {
-            String fieldName;
-            try {
-                fieldName = stripName(jp.getCurrentName(), "field name");
-            } catch (IllegalArgumentException e) {
-                fieldName = stripName(Normalizer.normalize(jp.getCurrentName(), Normalizer.Form.NFD)
-                        .replaceAll("\\p{InCombiningDiacriticalMarks}+", ""), "field name");
+            String rawFieldName = jp.getCurrentName();
+
+            FieldParser parser = schema.parsers.get(rawFieldName);
+            if (parser != null) {
+                jp.nextToken();
+
+                if (parser.missingDependentFields != null && !parser.missingDependentFields.isEmpty()) {
+                    if (newFields == null) {
+                        newFields = new ArrayList<>();
+                    }
+                    newFields.addAll(parser.missingDependentFields);
+                }
+
+                Object value = null;
+                try {
+                    value = parser.reader.read(jp);
+                } catch (ParseException e) {
+                    invalidSchemaLogger.log(parser.field.name(), parser.type, e.getMessage(), e.value);
+                }
+                record.put(parser.field.pos(), value);
+                continue;
             }
 
+            String fieldName = normalizeFieldName(rawFieldName);
+
             Schema.Field field = avroSchema.getField(fieldName);
 
+            if (field != null) {
+                schema.addAlias(rawFieldName, fieldName);
+            }
+
             jp.nextToken();
 
             if (field == null) {
-                FieldType type = conditionalFieldMapping.get(fieldName);
-                if (type == null) {
-                    type = getTypeForUnknown(jp);
-                }
-                if (type != null) {
-                    if (newFields == null) {
-                        newFields = new ArrayList<>();
+                NewFieldValue newFieldValue = newFieldValues == null ? null : newFieldValues.get(fieldName);
+                FieldType type;
+                if (newFieldValue != null) {
+                    type = newFieldValue.field.getType();
+                } else {
+                    type = conditionalFieldMapping.get(fieldName);
+                    if (type == null) {
+                        type = getTypeForUnknown(jp);
                     }
+                }
 
-                    if (fieldName.equals(projectConfig.getUserColumn())) {
-                        // the type of magic _user field must be consistent between collections
-                        if (type.isArray() || type.isMap()) {
-                            throw new RakamException("_user field must be numeric or string.", BAD_REQUEST);
+                if (type != null) {
+                    if (newFieldValue == null) {
+                        if (fieldName.equals(projectConfig.getUserColumn())) {
+                            // the type of magic _user field must be consistent between collections
+                            if (type.isArray() || type.isMap()) {
+                                throw new RakamException("_user field must be numeric or string.", BAD_REQUEST);
+                            }
+                            final FieldType eventUserType = type.isNumeric() ? (type != INTEGER ? LONG : INTEGER) : STRING;
+                            type = configManager.setConfigOnce(project, USER_TYPE.name(), eventUserType);
                         }
-                        final FieldType eventUserType = type.isNumeric() ? (type != INTEGER ? LONG : INTEGER) : STRING;
-                        type = configManager.setConfigOnce(project, USER_TYPE.name(), eventUserType);
-                    }
-
-                    SchemaField newField = new SchemaField(fieldName, type);
-                    newFields.add(newField);
 
-                    avroSchema = createNewSchema(avroSchema, newField);
-                    field = avroSchema.getField(newField.getName());
+                        SchemaField newField = new SchemaField(fieldName, type);
+                        if (newFields == null) {
+                            newFields = new ArrayList<>();
+                        }
+                        newFields.add(newField);
 
-                    GenericData.Record newRecord = new GenericData.Record(avroSchema);
-                    for (Schema.Field f : record.getSchema().getFields()) {
-                        newRecord.put(f.name(), record.get(f.name()));
+                        if (newFieldValues == null) {
+                            newFieldValues = new HashMap<>();
+                        }
+                        newFieldValue = new NewFieldValue(newField, createAvroField(newField));
+                        newFieldValues.put(fieldName, newFieldValue);
                     }
-                    record = newRecord;
-
 
-                    Object value = null;
                     try {
-                        value = getValue(jp, type, field,
+                        newFieldValue.value = getValue(jp, type, newFieldValue.avroField,
                                 // if the type of new field is ARRAY, we already switched to next token
                                 // so current token is not START_ARRAY.
                                 type.isArray() || type.isMap());
                     } catch (ParseException e) {
+                        newFieldValue.value = null;
                         invalidSchemaLogger.log(fieldName, type, e.getMessage(), e.value);
                     }
 
-                    record.put(field.pos(), value);
                     continue;
                 } else {
                     // the type is null or an empty array
@@ -435,9 +455,7 @@ public class JsonEventDeserializer extends JsonDeserializer<Event> {
                 }
             }
 
-            FieldType type = field.schema().getType() == NULL ? null :
-                    (field.pos() >= rakamSchema.size() ?
-                            newFields.get(field.pos() - rakamSchema.size()) : rakamSchema.get(field.pos())).getType();
+            FieldType type = field.schema().getType() == NULL ? null : rakamSchema.get(field.pos()).getType();
 
             Object value = null;
             try {
@@ -463,45 +481,91 @@ public class JsonEventDeserializer extends JsonDeserializer<Event> {
                 }
             }
 
-            rakamSchema = metastore.getOrCreateCollectionFields(project, collection,
+            List<SchemaField> evolvedSchema = schemaEvolution.getOrCreateCollectionFields(project, collection,
                     schemaChecker.checkNewFields(collection, ImmutableSet.copyOf(newFields)));
-            Schema newAvroSchema = convertAvroSchema(rakamSchema, conditionalMagicFields);
+            // the requests that waited for the same schema change get the same field list so they share the compiled schema
+            CompiledSchema newSchema = schemaCache.asMap().compute(key, (k, current) -> current != null && current.rakamSchema == evolvedSchema ?
+                    current : new CompiledSchema(evolvedSchema, convertAvroSchema(evolvedSchema, conditionalMagicFields)));
 
-            schemaCache.put(key, new SimpleImmutableEntry<>(rakamSchema, newAvroSchema));
-            GenericData.Record newRecord = new GenericData.Record(newAvroSchema);
+            rakamSchema = newSchema.rakamSchema;
+            GenericData.Record newRecord = new GenericData.Record(newSchema.avroSchema);
 
             for (Schema.Field field : record.getSchema().getFields()) {
-                Object value = record.get(field.name());
-                newRecord.put(field.name(), value);
+                Object value = record.get(field.pos());
+                if (value != null) {
+                    newRecord.put(field.name(), value);
+                }
+            }
+            if (newFieldValues != null) {
+                for (NewFieldValue newFieldValue : newFieldValues.values()) {
+                    if (newFieldValue.value != null) {
+                        newRecord.put(newFieldValue.field.getName(), newFieldValue.value);
+                    }
+                }
             }
             record = newRecord;
         }
 
-        invalidSchemaLogger.flushInBackground(record.get("_id"), record.get(projectConfig.getUserColumn()), record.get(projectConfig.getTimeColumn()));
+        invalidSchemaLogger.flush(record.get("_id"), record.get(projectConfig.getUserColumn()), record.get(projectConfig.getTimeColumn()));
 
         return new SimpleImmutableEntry<>(rakamSchema, record);
     }
 
-    private Schema createNewSchema(Schema currentSchema, SchemaField newField) {
-        List<Schema.Field> avroFields = currentSchema.getFields().stream()
-                .filter(field -> field.schema().getType() != Schema.Type.NULL)
-                .map(field -> new Schema.Field(field.name(), field.schema(), field.doc(), field.defaultValue()))
-                .collect(toList());
+    private static String normalizeFieldName(String name) {
         try {
-            avroFields.add(AvroUtil.generateAvroField(newField));
-        } catch (SchemaParseException e) {
-            throw new RakamException("Couldn't create new column: " + e.getMessage(), BAD_REQUEST);
+            return stripName(name, "field name");
+        } catch (IllegalArgumentException e) {
+            return stripName(Normalizer.normalize(name, Normalizer.Form.NFD)
+                    .replaceAll("\\p{InCombiningDiacriticalMarks}+", ""), "field name");
         }
+    }
 
-        conditionalMagicFields.keySet().stream()
-                .filter(s -> !avroFields.stream().anyMatch(af -> af.name().equals(s)))
-                .map(n -> new Schema.Field(n, Schema.create(NULL), "", null))
-                .forEach(x -> avroFields.add(x));
+    private ValueReader createValueReader(FieldType type, Schema.Field field) {
+        if (type == null) {
+            return JsonEventDeserializer::getValueOfMagicField;
+        }
 
-        Schema avroSchema = Schema.createRecord("collection", null, null, false);
-        avroSchema.setFields(avroFields);
+        // the readers handle the expected token directly and fall back to the generic coercion rules in getValue
+        switch (type) {
+            case STRING:
+                int maxStringLength = projectConfig.getMaxStringLength();
+                return jp -> {
+                    if (jp.getCurrentToken() == VALUE_STRING) {
+                        String value = jp.getText();
+                        return value.length() > maxStringLength ? value.substring(0, maxStringLength) : value;
+                    }
+                    return getValue(jp, type, field, false);
+                };
+            case LONG:
+            case TIMESTAMP:
+                return jp -> jp.getCurrentToken() == VALUE_NUMBER_INT ? jp.getValueAsLong() : getValue(jp, type, field, false);
+            case INTEGER:
+                return jp -> jp.getCurrentToken() == VALUE_NUMBER_INT ? jp.getValueAsInt() : getValue(jp, type, field, false);
+            case DOUBLE:
+                return jp -> jp.getCurrentToken() == VALUE_NUMBER_FLOAT || jp.getCurrentToken() == VALUE_NUMBER_INT ?
+                        jp.getValueAsDouble() : getValue(jp, type, field, false);
+            case BOOLEAN:
+                return jp -> {
+                    JsonToken token = jp.getCurrentToken();
+                    if (token == VALUE_TRUE) {
+                        return TRUE;
+                    }
+                    if (token == VALUE_FALSE) {
+                        return Boolean.FALSE;
+                    }
+                    return getValue(jp, type, field, false);
+                };
+            default:
+                return jp -> getValue(jp, type, field, false);
+        }
+    }
 
-        return avroSchema;
+    private static Schema.Field createAvroField(SchemaField newField) {
+        try {
+            return AvroUtil.generateAvroField(newField);
+        } catch (SchemaParseException e) {
+            throw new RakamException("Couldn't create new column: " + e.getMessage(), BAD_REQUEST);
+        }
     }
 
     private Object getValue(JsonParser jp, FieldType type, Schema.Field field, boolean passInitialToken)
@@ -733,10 +797,85 @@ public class JsonEventDeserializer extends JsonDeserializer<Event> {
         schemaCache.invalidateAll();
     }
 
+    private interface ValueReader {
+        Object read(JsonParser jp)
+                throws IOException, ParseException;
+    }
+
+    private static class NewFieldValue {
+        private final SchemaField field;
+        private final Schema.Field avroField;
+        private Object value;
+
+        private NewFieldValue(SchemaField field, Schema.Field avroField) {
+            this.field = field;
+            this.avroField = avroField;
+        }
+    }
+
+    private static class FieldParser {
+        private final Schema.Field field;
+        private final FieldType type;
+        private final ValueReader reader;
+        private final List<SchemaField> missingDependentFields;
+
+        private FieldParser(Schema.Field field, FieldType type, ValueReader reader, List<SchemaField> missingDependentFields) {
+            this.field = field;
+            this.type = type;
+            this.reader = reader;
+            this.missingDependentFields = missingDependentFields;
+        }
+    }
+
+    /**
+     * The parser of a cached collection schema. The field names that are sent by the clients are mapped to the
+     * positions in the record with a hash lookup so the names are normalized only once per schema.
+     */
+    private class CompiledSchema {
+        private static final int MAX_ALIASES = 1024;
+
+        private final List<SchemaField> rakamSchema;
+        private final Schema avroSchema;
+        private final Map<String, FieldParser> parsers;
+        private final int fieldCount;
+
+        private CompiledSchema(List<SchemaField> rakamSchema, Schema avroSchema) {
+            this.rakamSchema = rakamSchema;
+            this.avroSchema = avroSchema;
+            this.parsers = new ConcurrentHashMap<>();
+
+            for (Schema.Field field : avroSchema.getFields()) {
+                FieldType type;
+                List<SchemaField> missingDependentFields = null;
+                if (field.schema().getType() == NULL) {
+                    type = null;
+                    missingDependentFields = conditionalMagicFields.getOrDefault(field.name(), ImmutableList.of()).stream()
+                            .filter(dependentField -> avroSchema.getField(dependentField.getName()) == null)
+                            .collect(toList());
+                } else {
+                    type = rakamSchema.get(field.pos()).getType();
+                }
+
+                parsers.put(field.name(), new FieldParser(field, type, createValueReader(type, field), missingDependentFields));
+            }
+
+            this.fieldCount = parsers.size();
+        }
+
+        private void addAlias(String rawFieldName, String fieldName) {
+            if (parsers.size() - fieldCount < MAX_ALIASES) {
+                FieldParser parser = parsers.get(fieldName);
+                if (parser != null) {
+                    parsers.putIfAbsent(rawFieldName, parser);
+                }
+            }
+        }
+    }
+
     public class InvalidSchemaLogger {
         private final String project;
         private final String collection;
-        private List<Event> events = null;
+        private List<InvalidValue> values = null;
 
         public InvalidSchemaLogger(String project, String collection) {
             this.project = project;
@@ -744,37 +883,36 @@ public class JsonEventDeserializer extends JsonDeserializer<Event> {
         }
 
         public void log(String name, FieldType type, String error, Object value) {
-            List<SchemaField> fields = metastore.getOrCreateCollectionFields(project, "$invalid_schema", rakamInvalidSchema);
-
-            if(events == null) {
-                events = new ArrayList<>();
+            if (values == null) {
+                values = new ArrayList<>();
             }
-
-            GenericData.Record record = new GenericData.Record(rakamInvalidAvroSchema);
-            record.put("collection", this.collection);
-            record.put("property", name);
-            record.put("type", type.toString());
-            record.put("event_id", null);
-            record.put("error_message", error);
-            record.put("encoded_value", JsonHelper.encode(value));
-            events.add(new Event(project, "$invalid_schema", EventContext.empty(), fields, record));
+            values.add(new InvalidValue(name, type, error, value));
         }
 
-        public void flushInBackground(Object eventId, Object user, Object time) {
-            if(events != null) {
-                if(eventId != null) {
-                    String eventIdValue = eventId.toString();
-                    events.forEach(event -> {
-                        event.properties().put("event_id",  eventIdValue);
-                        event.properties().put(projectConfig.getUserColumn(),  user);
-                        event.properties().put(projectConfig.getTimeColumn(),  time);
-                    });
+        public void flush(Object eventId, Object user, Object time) {
+            if (values != null) {
+                for (InvalidValue value : values) {
+                    invalidSchemaSink.offer(new InvalidSchemaSink.InvalidValue(project, collection,
+                            value.name, value.type, value.error, value.value, eventId, user, time));
                 }
-                eventstore.storeBatch(events);
             }
         }
     }
 
+    private static class InvalidValue {
+        private final String name;
+        private final FieldType type;
+        private final String error;
+        private final Object value;
+
+        private InvalidValue(String name, FieldType type, String error, Object value) {
+            this.name = name;
+            this.type = type;
+            this.error = error;
+            this.value = value;
+        }
+    }
+
     public static class ParseException extends Exception {
         private final Object value;
 
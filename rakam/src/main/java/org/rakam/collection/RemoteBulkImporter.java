@@ -0,0 +1,350 @@
+package org.rakam.collection;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.rakam.plugin.EventStore.CompressionType;
+import org.rakam.util.RakamException;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.net.MalformedURLException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static io.netty.handler.codec.http.HttpResponseStatus.BAD_REQUEST;
+import static io.netty.handler.codec.http.HttpResponseStatus.CONFLICT;
+import static io.netty.handler.codec.http.HttpResponseStatus.NOT_FOUND;
+
+/**
+ * Imports the files of /event/bulk/remote in parallel on a bounded pool. The progress of each file is kept in the
+ * status of the import, an import that is started again with the same id skips the files that are already imported
+ * so a failed backfill can be resumed. The files are the unit of the progress: the events of a file that failed
+ * in the middle are imported again.
+ */
+@Singleton
+public class RemoteBulkImporter {
+    private static final int TIMEOUT_MILLIS = 30000;
+
+    private final ExecutorService executor;
+    private final Path localDirectory;
+    private final long maxDecompressedSize;
+    private final Cache<Map.Entry<String, String>, ImportStatus> imports = CacheBuilder.newBuilder()
+            .expireAfterAccess(1, TimeUnit.DAYS).build();
+
+    @Inject
+    public RemoteBulkImporter(BulkLoadConfig config) {
+        this.executor = Executors.newFixedThreadPool(config.getRemoteThreads(),
+                new ThreadFactoryBuilder().setNameFormat("bulk-remote-%d").setDaemon(true).build());
+        this.localDirectory = config.getRemoteLocalDirectory() == null ? null :
+                toRealPath(Paths.get(config.getRemoteLocalDirectory()));
+        this.maxDecompressedSize = config.getMaxDecompressedSize().toBytes();
+    }
+
+    /**
+     * Returns the urls and the local files that match the glob pattern, the pattern is relative to the local
+     * directory of the server.
+     */
+    public List<URL> resolveSources(List<URL> urls, String path) {
+        ImmutableList.Builder<URL> sources = ImmutableList.builder();
+        if (urls != null) {
+            for (URL url : urls) {
+                if (url.getProtocol().equals("file")) {
+                    try {
+                        checkLocalFile(Paths.get(url.toURI()));
+                    } catch (URISyntaxException e) {
+                        throw new RakamException("Invalid url: " + url, BAD_REQUEST);
+                    }
+                }
+                sources.add(url);
+            }
+        }
+
+        if (path != null) {
+            if (localDirectory == null) {
+                throw new RakamException("Local files are not enabled, set collection.bulk.remote.local-directory", BAD_REQUEST);
+            }
+            PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:" + path);
+            try (Stream<Path> files = Files.walk(localDirectory)) {
+                List<URL> matches = files.filter(Files::isRegularFile)
+                        .filter(file -> matcher.matches(localDirectory.relativize(file)))
+                        .map(this::checkLocalFile)
+                        .sorted()
+                        .map(RemoteBulkImporter::toUrl)
+                        .collect(Collectors.toList());
+                if (matches.isEmpty()) {
+                    throw new RakamException("No file matches the path " + path, BAD_REQUEST);
+                }
+                sources.addAll(matches);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        List<URL> result = sources.build();
+        if (result.isEmpty()) {
+            throw new RakamException("urls or path is required", BAD_REQUEST);
+        }
+        return result;
+    }
+
+    /**
+     * Returns the status of the import, the files of an existing import are kept so that the imported ones are
+     * skipped. An existing import can only be resumed for the collection that it is started for.
+     */
+    public ImportStatus getOrCreate(String project, String importId, String collection, List<URL> sources) {
+        String id = importId == null ? UUID.randomUUID().toString() : importId;
+        ImportStatus status = imports.asMap().computeIfAbsent(new SimpleImmutableEntry<>(project, id),
+                key -> new ImportStatus(id, collection));
+        if (!status.collection.equals(collection)) {
+            throw new RakamException(String.format("The import %s is started for the collection %s", id, status.collection), CONFLICT);
+        }
+        synchronized (status) {
+            for (URL source : sources) {
+                status.files.putIfAbsent(source.toString(), new FileStatus(source));
+            }
+        }
+        return status;
+    }
+
+    public ImportStatus getStatus(String project, String importId) {
+        ImportStatus status = imports.getIfPresent(new SimpleImmutableEntry<>(project, importId));
+        if (status == null) {
+            throw new RakamException("Import is not found", NOT_FOUND);
+        }
+        return status;
+    }
+
+    /**
+     * Imports the files that are not imported yet in parallel. The future completes when all the files are
+     * processed, the failures are reported in the status of the files.
+     */
+    public CompletableFuture<ImportStatus> run(ImportStatus status, CompressionType compression, FileImporter importer) {
+        if (!status.running.compareAndSet(false, true)) {
+            throw new RakamException("The import is already running", CONFLICT);
+        }
+
+        List<FileStatus> files;
+        synchronized (status) {
+            files = status.files.values().stream()
+                    .filter(file -> file.state != FileState.DONE)
+                    .collect(Collectors.toList());
+        }
+
+        List<CompletableFuture<Void>> futures = new ArrayList<>(files.size());
+        for (FileStatus file : files) {
+            file.state = FileState.PENDING;
+            file.error = null;
+            futures.add(CompletableFuture.runAsync(() -> importFile(file, compression, importer), executor));
+        }
+
+        return CompletableFuture.allOf(futures.toArray(new CompletableFuture[0]))
+                .handle((result, ex) -> {
+                    status.running.set(false);
+                    return status;
+                });
+    }
+
+    private void importFile(FileStatus file, CompressionType compression, FileImporter importer) {
+        file.state = FileState.RUNNING;
+        file.bytesRead = 0;
+        try {
+            URLConnection connection = file.url.openConnection();
+            connection.setConnectTimeout(TIMEOUT_MILLIS);
+            connection.setReadTimeout(TIMEOUT_MILLIS);
+            connection.connect();
+            long length = connection.getContentLengthLong();
+            file.totalBytes = length == -1 ? null : length;
+
+            CompressionType fileCompression = compression != null ? compression : fromExtension(file.url.getPath());
+            try (InputStream input = RequestBodyDecoder.decode(new ProgressInputStream(connection.getInputStream(), file),
+                    fileCompression, maxDecompressedSize)) {
+                file.events = importer.importFile(input);
+            }
+            file.state = FileState.DONE;
+        } catch (Throwable e) {
+            file.error = e.getMessage() == null ? e.getClass().getSimpleName() : e.getMessage();
+            file.state = FileState.FAILED;
+        }
+    }
+
+    private Path checkLocalFile(Path file) {
+        // the symbolic links are resolved so that a link in the directory can't point to a file outside of it
+        Path realPath;
+        try {
+            realPath = localDirectory == null ? null : file.toRealPath();
+        } catch (IOException e) {
+            throw new RakamException("Local file is not found: " + file, BAD_REQUEST);
+        }
+        if (realPath == null || !realPath.startsWith(localDirectory)) {
+            throw new RakamException("Local files must be in the directory collection.bulk.remote.local-directory", BAD_REQUEST);
+        }
+        return realPath;
+    }
+
+    private static Path toRealPath(Path directory) {
+        try {
+            return directory.toRealPath();
+        } catch (IOException e) {
+            throw new UncheckedIOException("collection.bulk.remote.local-directory is not accessible", e);
+        }
+    }
+
+    private static CompressionType fromExtension(String path) {
+        String lowerCase = path.toLowerCase(Locale.ENGLISH);
+        if (lowerCase.endsWith(".gz") || lowerCase.endsWith(".gzip")) {
+            return CompressionType.GZIP;
+        }
+        if (lowerCase.endsWith(".deflate") || lowerCase.endsWith(".zz")) {
+            return CompressionType.DEFLATE;
+        }
+        return null;
+    }
+
+    private static URL toUrl(Path path) {
+        try {
+            return path.toUri().toURL();
+        } catch (MalformedURLException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public interface FileImporter {
+        /**
+         * Imports the events in the decompressed file and returns the number of events.
+         */
+        long importFile(InputStream input)
+                throws IOException;
+    }
+
+    public enum FileState {
+        PENDING, RUNNING, DONE, FAILED
+    }
+
+    public static class ImportStatus {
+        @JsonProperty("import_id")
+        public final String importId;
+        @JsonProperty("collection")
+        public final String collection;
+        private final Map<String, FileStatus> files = new LinkedHashMap<>();
+        private final AtomicBoolean running = new AtomicBoolean();
+
+        private ImportStatus(String importId, String collection) {
+            this.importId = importId;
+            this.collection = collection;
+        }
+
+        @JsonProperty("running")
+        public boolean isRunning() {
+            return running.get();
+        }
+
+        @JsonProperty("files")
+        public synchronized List<FileStatus> getFiles() {
+            return ImmutableList.copyOf(files.values());
+        }
+
+        public synchronized boolean isDone() {
+            return files.values().stream().allMatch(file -> file.state == FileState.DONE);
+        }
+    }
+
+    public static class FileStatus {
+        private final URL url;
+        private volatile FileState state = FileState.PENDING;
+        private volatile long bytesRead;
+        private volatile Long totalBytes;
+        private volatile Long events;
+        private volatile String error;
+
+        private FileStatus(URL url) {
+            this.url = url;
+        }
+
+        @JsonProperty("url")
+        public String getUrl() {
+            return url.toString();
+        }
+
+        @JsonProperty("state")
+        public FileState getState() {
+            return state;
+        }
+
+        @JsonProperty("bytes_read")
+        public long getBytesRead() {
+            return bytesRead;
+        }
+
+        @JsonProperty("total_bytes")
+        public Long getTotalBytes() {
+            return totalBytes;
+        }
+
+        @JsonProperty("events")
+        public Long getEvents() {
+            return events;
+        }
+
+        @JsonProperty("error")
+        public String getError() {
+            return error;
+        }
+    }
+
+    private static class ProgressInputStream
+            extends FilterInputStream {
+        private final FileStatus file;
+
+        private ProgressInputStream(InputStream in, FileStatus file) {
+            super(in);
+            this.file = file;
+        }
+
+        @Override
+        public int read()
+                throws IOException {
+            int value = super.read();
+            if (value != -1) {
+                file.bytesRead++;
+            }
+            return value;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len)
+                throws IOException {
+            int length = super.read(b, off, len);
+            if (length > 0) {
+                file.bytesRead += length;
+            }
+            return length;
+        }
+    }
+}
@@ -0,0 +1,142 @@
+package org.rakam.collection;
+
+import org.rakam.plugin.EventStore.CompressionType;
+import org.rakam.util.RakamException;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PushbackInputStream;
+import java.util.Locale;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+import static io.netty.handler.codec.http.HttpResponseStatus.REQUEST_ENTITY_TOO_LARGE;
+import static io.netty.handler.codec.http.HttpResponseStatus.UNSUPPORTED_MEDIA_TYPE;
+
+/**
+ * Wraps the compressed bodies with streaming decoders so that the parsers read the decompressed data incrementally.
+ * The decoded streams fail once they produce more than the given number of bytes so that a small compressed body
+ * can't be used to exhaust the memory of the server.
+ */
+public final class RequestBodyDecoder {
+    private static final int BUFFER_SIZE = 8192;
+
+    private RequestBodyDecoder()
+            throws InstantiationException {
+        throw new InstantiationException("The class is not created for instantiation");
+    }
+
+    public static boolean isCompressed(String contentEncoding) {
+        return contentEncoding != null && !contentEncoding.trim().equalsIgnoreCase("identity");
+    }
+
+    /**
+     * Decodes the body according to the Content-Encoding header of the request.
+     */
+    public static InputStream decode(InputStream body, String contentEncoding, long maxDecompressedSize)
+            throws IOException {
+        if (!isCompressed(contentEncoding)) {
+            return body;
+        }
+
+        switch (contentEncoding.trim().toLowerCase(Locale.ENGLISH)) {
+            case "gzip":
+            case "x-gzip":
+                return decode(body, CompressionType.GZIP, maxDecompressedSize);
+            case "deflate":
+                return decode(body, CompressionType.DEFLATE, maxDecompressedSize);
+            default:
+                throw new RakamException("Unsupported content encoding: " + contentEncoding, UNSUPPORTED_MEDIA_TYPE);
+        }
+    }
+
+    public static InputStream decode(InputStream body, CompressionType compression, long maxDecompressedSize)
+            throws IOException {
+        if (compression == null) {
+            return body;
+        }
+
+        InputStream decoded;
+        switch (compression) {
+            case GZIP:
+                decoded = new GZIPInputStream(body, BUFFER_SIZE);
+                break;
+            case DEFLATE:
+                PushbackInputStream input = new PushbackInputStream(body, 2);
+                // the spec requires the zlib format but some clients send raw deflate data
+                decoded = new InflaterInputStream(input, new Inflater(!hasZlibHeader(input)), BUFFER_SIZE);
+                break;
+            default:
+                throw new RakamException("Unsupported compression: " + compression, UNSUPPORTED_MEDIA_TYPE);
+        }
+        return new LimitedInputStream(decoded, maxDecompressedSize);
+    }
+
+    private static boolean hasZlibHeader(PushbackInputStream input)
+            throws IOException {
+        int cmf = input.read();
+        if (cmf == -1) {
+            return true;
+        }
+        int flg = input.read();
+        if (flg != -1) {
+            input.unread(flg);
+        }
+        input.unread(cmf);
+        return flg != -1 && (cmf & 0x0F) == 8 && ((cmf << 8) | flg) % 31 == 0;
+    }
+
+    private static class LimitedInputStream
+            extends FilterInputStream {
+        private final long limit;
+        private long read;
+
+        private LimitedInputStream(InputStream in, long limit) {
+            super(in);
+            this.limit = limit;
+        }
+
+        @Override
+        public int read()
+                throws IOException {
+            int value = super.read();
+            if (value != -1) {
+                count(1);
+            }
+            return value;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len)
+                throws IOException {
+            int length = super.read(b, off, len);
+            if (length > 0) {
+                count(length);
+            }
+            return length;
+        }
+
+        @Override
+        public long skip(long n)
+                throws IOException {
+            long skipped = super.skip(n);
+            count(skipped);
+            return skipped;
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+
+        private void count(long length) {
+            read += length;
+            if (read > limit) {
+                throw new RakamException(String.format("The decompressed body is larger than %d bytes", limit),
+                        REQUEST_ENTITY_TOO_LARGE);
+            }
+        }
+    }
+}
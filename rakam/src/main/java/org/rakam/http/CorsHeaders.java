@@ -0,0 +1,97 @@
+package org.rakam.http;
+
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableSet;
+import io.netty.buffer.Unpooled;
+import io.netty.handler.codec.http.DefaultFullHttpResponse;
+import io.netty.handler.codec.http.DefaultHttpHeaders;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpHeaders;
+import io.netty.handler.codec.http.HttpRequest;
+
+import java.util.Set;
+
+import static io.netty.handler.codec.http.HttpHeaders.Names.ACCESS_CONTROL_ALLOW_CREDENTIALS;
+import static io.netty.handler.codec.http.HttpHeaders.Names.ACCESS_CONTROL_ALLOW_HEADERS;
+import static io.netty.handler.codec.http.HttpHeaders.Names.ACCESS_CONTROL_ALLOW_METHODS;
+import static io.netty.handler.codec.http.HttpHeaders.Names.ACCESS_CONTROL_ALLOW_ORIGIN;
+import static io.netty.handler.codec.http.HttpHeaders.Names.ACCESS_CONTROL_EXPOSE_HEADERS;
+import static io.netty.handler.codec.http.HttpHeaders.Names.ACCESS_CONTROL_MAX_AGE;
+import static io.netty.handler.codec.http.HttpHeaders.Names.CONTENT_LENGTH;
+import static io.netty.handler.codec.http.HttpHeaders.Names.ORIGIN;
+import static io.netty.handler.codec.http.HttpHeaders.newEntity;
+import static io.netty.handler.codec.http.HttpResponseStatus.FORBIDDEN;
+import static io.netty.handler.codec.http.HttpResponseStatus.OK;
+import static io.netty.handler.codec.http.HttpVersion.HTTP_1_1;
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+/**
+ * The CORS headers of the collection responses. The headers of the preflight responses don't depend on the request
+ * except the origin so they're encoded once and copied to each response, and the browsers cache the result of the
+ * preflight for {@code http.cors.max-age} instead of sending an OPTIONS request before every event.
+ */
+public final class CorsHeaders {
+    private static final CharSequence ALLOWED_HEADERS = newEntity("Origin, X-Requested-With, Content-Type, Content-Encoding, Accept, master_key, write_key");
+    private static final CharSequence EXPOSED_HEADERS = newEntity("_auto_action");
+    private static final CharSequence ALLOWED_METHODS = newEntity("GET, POST, OPTIONS, PUT, DELETE");
+    private static final CharSequence TRUE = newEntity("true");
+    private static final CharSequence ZERO = newEntity("0");
+
+    private static volatile HttpHeaders preflightHeaders = createPreflightHeaders(new HttpServerConfig());
+    // null allows all the origins
+    private static volatile Set<String> allowedOrigins;
+
+    private CorsHeaders()
+            throws InstantiationException {
+        throw new InstantiationException("The class is not created for instantiation");
+    }
+
+    public static void configure(HttpServerConfig config) {
+        preflightHeaders = createPreflightHeaders(config);
+        String origins = config.getCorsAllowedOrigins();
+        allowedOrigins = origins == null || origins.trim().equals("*") ? null :
+                ImmutableSet.copyOf(Splitter.on(',').trimResults().omitEmptyStrings().split(origins));
+    }
+
+    public static boolean isAllowedOrigin(String origin) {
+        Set<String> origins = allowedOrigins;
+        return origins == null || origins.contains(origin);
+    }
+
+    /**
+     * Allows the origin of the request to read the response if the origin is allowed.
+     */
+    public static void setAllowOrigin(HttpRequest request, HttpHeaders headers) {
+        String origin = request.headers().get(ORIGIN);
+        if (origin != null && isAllowedOrigin(origin)) {
+            headers.set(ACCESS_CONTROL_ALLOW_ORIGIN, origin);
+        }
+    }
+
+    public static FullHttpResponse preflight(HttpRequest request) {
+        String origin = request.headers().get(ORIGIN);
+        if (origin != null && !isAllowedOrigin(origin)) {
+            DefaultFullHttpResponse response = new DefaultFullHttpResponse(HTTP_1_1, FORBIDDEN, Unpooled.EMPTY_BUFFER);
+            response.headers().set(CONTENT_LENGTH, ZERO);
+            return response;
+        }
+
+        DefaultFullHttpResponse response = new DefaultFullHttpResponse(HTTP_1_1, OK, Unpooled.EMPTY_BUFFER);
+        response.headers().set(preflightHeaders);
+        if (origin != null) {
+            response.headers().set(ACCESS_CONTROL_ALLOW_ORIGIN, origin);
+        }
+        return response;
+    }
+
+    private static HttpHeaders createPreflightHeaders(HttpServerConfig config) {
+        HttpHeaders headers = new DefaultHttpHeaders();
+        headers.set(ACCESS_CONTROL_ALLOW_HEADERS, ALLOWED_HEADERS);
+        headers.set(ACCESS_CONTROL_EXPOSE_HEADERS, EXPOSED_HEADERS);
+        headers.set(ACCESS_CONTROL_ALLOW_METHODS, ALLOWED_METHODS);
+        headers.set(ACCESS_CONTROL_ALLOW_CREDENTIALS, TRUE);
+        headers.set(ACCESS_CONTROL_MAX_AGE, newEntity(String.valueOf(config.getCorsMaxAge().roundTo(SECONDS))));
+        headers.set(CONTENT_LENGTH, ZERO);
+        return headers;
+    }
+}
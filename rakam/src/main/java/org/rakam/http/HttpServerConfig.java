@@ -2,6 +2,10 @@ package org.rakam.http;
 
 import com.google.common.net.HostAndPort;
 import io.airlift.configuration.Config;
+import io.airlift.configuration.ConfigDescription;
+import io.airlift.units.Duration;
+
+import static java.util.concurrent.TimeUnit.HOURS;
 
 public class HttpServerConfig {
     private static final int RAKAM_DEFAULT_PORT = 9999;
@@ -12,6 +16,8 @@ public class HttpServerConfig {
     private boolean proxyProtocol;
     private boolean debug;
     private long maximumRequestSize = Runtime.getRuntime().maxMemory() / 10;
+    private Duration corsMaxAge = new Duration(2, HOURS);
+    private String corsAllowedOrigins;
 
     public HostAndPort getAddress() {
         return address;
@@ -65,4 +71,26 @@ public class HttpServerConfig {
         this.maximumRequestSize = maximumRequestSize;
         return this;
     }
+
+    public Duration getCorsMaxAge() {
+        return corsMaxAge;
+    }
+
+    @Config("http.cors.max-age")
+    @ConfigDescription("The duration that the browsers cache the result of the preflight requests")
+    public HttpServerConfig setCorsMaxAge(Duration corsMaxAge) {
+        this.corsMaxAge = corsMaxAge;
+        return this;
+    }
+
+    public String getCorsAllowedOrigins() {
+        return corsAllowedOrigins;
+    }
+
+    @Config("http.cors.allowed-origins")
+    @ConfigDescription("Comma separated origins that can send cross-origin requests, all the origins are allowed if it's not set")
+    public HttpServerConfig setCorsAllowedOrigins(String corsAllowedOrigins) {
+        this.corsAllowedOrigins = corsAllowedOrigins;
+        return this;
+    }
 }
@@ -94,6 +94,8 @@ public class WebServiceModule
             eventExecutors = new NioEventLoopGroup();
         }
 
+        CorsHeaders.configure(config);
+
         HttpServerBuilder httpServer = new HttpServerBuilder()
                 .setHttpServices(httpServices)
                 .setWebsocketServices(webSocketServices)
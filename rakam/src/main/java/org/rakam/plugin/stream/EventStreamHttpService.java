@@ -0,0 +1,118 @@
+package org.rakam.plugin.stream;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import io.netty.channel.ChannelHandlerContext;
+import org.rakam.analysis.ApiKeyService;
+import org.rakam.server.http.HttpService;
+import org.rakam.server.http.RakamHttpRequest;
+import org.rakam.server.http.annotations.Api;
+import org.rakam.server.http.annotations.IgnoreApi;
+import org.rakam.util.JsonHelper;
+import org.rakam.util.RakamException;
+
+import javax.inject.Inject;
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import java.util.List;
+import java.util.concurrent.ScheduledFuture;
+
+import static io.netty.handler.codec.http.HttpResponseStatus.BAD_REQUEST;
+import static io.netty.handler.codec.http.HttpResponseStatus.FORBIDDEN;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static org.rakam.analysis.ApiKeyService.AccessKeyType.MASTER_KEY;
+import static org.rakam.collection.EventCollectionHttpService.returnError;
+
+@Path("/stream")
+@Api(value = "/stream", nickname = "stream", description = "Real-time event stream", tags = "collect")
+public class EventStreamHttpService
+        extends HttpService {
+    private final EventStream eventStream;
+    private final ApiKeyService apiKeyService;
+    private final int syncIntervalMillis;
+
+    @Inject
+    public EventStreamHttpService(EventStream eventStream, ApiKeyService apiKeyService, EventStreamConfig config) {
+        this.eventStream = eventStream;
+        this.apiKeyService = apiKeyService;
+        this.syncIntervalMillis = config.getSyncIntervalMillis();
+    }
+
+    /**
+     * Streams the events that match the query as server-sent events. The query is passed in the {@code query}
+     * parameter as JSON because a GET request has no body:
+     * <pre>
+     * GET /stream/subscribe?query={"collections": [{"collection": "pageview", "filter": "url = '/'"}]}
+     * </pre>
+     * The master key is read from the {@code master_key} header as in the other endpoints. It's not accepted as a
+     * query parameter so that it doesn't end up in the access logs and the browser history, the browsers need a
+     * client that can set headers instead of EventSource.
+     */
+    @GET
+    @IgnoreApi
+    @Path("/subscribe")
+    public void subscribe(RakamHttpRequest request) {
+        String project;
+        StreamQuery query;
+        try {
+            String masterKey = request.headers().get(MASTER_KEY.getKey());
+            if (masterKey == null) {
+                throw new RakamException(MASTER_KEY.getKey() + " is missing", FORBIDDEN);
+            }
+            project = apiKeyService.getProjectOfApiKey(masterKey, MASTER_KEY);
+            query = JsonHelper.read(getParam(request, "query"), StreamQuery.class);
+            if (query == null || query.collections == null || query.collections.isEmpty()) {
+                throw new RakamException("At least one collection is required", BAD_REQUEST);
+            }
+        } catch (RakamException e) {
+            returnError(request, e.getMessage(), e.getStatusCode());
+            return;
+        } catch (RuntimeException e) {
+            returnError(request, "Query couldn't parsed: " + e.getMessage(), BAD_REQUEST);
+            return;
+        }
+
+        SseStreamResponse response = new SseStreamResponse(request);
+        EventStream.EventStreamer streamer;
+        try {
+            streamer = eventStream.subscribe(project, query.collections, query.columns, response);
+        } catch (IllegalArgumentException e) {
+            returnError(request, e.getMessage(), BAD_REQUEST);
+            return;
+        }
+        response.start();
+
+        // the events are written on the event loop of the connection
+        ChannelHandlerContext context = request.context();
+        ScheduledFuture<?> sync = context.executor().scheduleWithFixedDelay(streamer::sync,
+                syncIntervalMillis, syncIntervalMillis, MILLISECONDS);
+        context.channel().closeFuture().addListener(future -> {
+            sync.cancel(false);
+            streamer.shutdown();
+        });
+    }
+
+    private static String getParam(RakamHttpRequest request, String name) {
+        List<String> values = request.params().get(name);
+        if (values == null || values.isEmpty()) {
+            String header = request.headers().get(name);
+            if (header == null) {
+                throw new RakamException(String.format("%s query parameter is required", name), BAD_REQUEST);
+            }
+            return header;
+        }
+        return values.get(values.size() - 1);
+    }
+
+    public static class StreamQuery {
+        public final List<CollectionStreamQuery> collections;
+        public final List<String> columns;
+
+        @JsonCreator
+        public StreamQuery(@JsonProperty("collections") List<CollectionStreamQuery> collections,
+                           @JsonProperty("columns") List<String> columns) {
+            this.collections = collections;
+            this.columns = columns;
+        }
+    }
+}
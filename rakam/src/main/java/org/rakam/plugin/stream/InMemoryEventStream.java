@@ -0,0 +1,271 @@
+package org.rakam.plugin.stream;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.google.common.collect.ImmutableList;
+import io.airlift.log.Logger;
+import org.apache.avro.Schema;
+import org.apache.avro.generic.GenericRecord;
+import org.rakam.collection.Event;
+
+import javax.inject.Inject;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Predicate;
+
+/**
+ * Streams the collected events to the subscribers in the same process. The events are published to a fixed-size ring
+ * buffer after they're stored and each subscriber reads the buffer from its own cursor when it's synced, so publishing
+ * doesn't depend on the number of the subscribers and doesn't wait for them. The events of the projects that don't
+ * have a subscriber are not published at all.
+ * <p>
+ * A subscriber that falls more than {@code event.stream.buffer-size} events behind has missed events so it's
+ * disconnected with an error message instead of slowing down the collection.
+ */
+public class InMemoryEventStream
+        implements EventStream {
+    private final static Logger LOGGER = Logger.get(InMemoryEventStream.class);
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    private final AtomicReferenceArray<Entry> buffer;
+    private final int mask;
+    private final AtomicLong sequence = new AtomicLong();
+    private final Map<String, AtomicInteger> subscribedProjects = new ConcurrentHashMap<>();
+    private final AtomicInteger subscriberCount = new AtomicInteger();
+    private final AtomicLong slowSubscriberCount = new AtomicLong();
+
+    @Inject
+    public InMemoryEventStream(EventStreamConfig config) {
+        int capacity = Integer.highestOneBit(config.getBufferSize() - 1) << 1;
+        this.buffer = new AtomicReferenceArray<>(capacity);
+        this.mask = capacity - 1;
+    }
+
+    public void publish(Event event) {
+        if (subscribedProjects.isEmpty() || !subscribedProjects.containsKey(event.project())) {
+            return;
+        }
+        long position = sequence.getAndIncrement();
+        buffer.set((int) (position & mask), new Entry(position, event));
+    }
+
+    /**
+     * Publishes the events of a batch except the ones that couldn't be stored.
+     */
+    public void publish(List<Event> events, int[] failedIndexes) {
+        if (subscribedProjects.isEmpty()) {
+            return;
+        }
+        BitSet failed = new BitSet();
+        for (int index : failedIndexes) {
+            failed.set(index);
+        }
+        for (int i = 0; i < events.size(); i++) {
+            if (!failed.get(i)) {
+                publish(events.get(i));
+            }
+        }
+    }
+
+    @Override
+    public EventStreamer subscribe(String project, List<CollectionStreamQuery> collections, List<String> columns, StreamResponse response) {
+        Map<String, Predicate<GenericRecord>> filters = new HashMap<>();
+        for (CollectionStreamQuery query : collections) {
+            filters.merge(query.getCollection(), StreamFilter.compile(query.getFilter()), Predicate::or);
+        }
+
+        Subscriber subscriber = new Subscriber(project, filters,
+                columns == null || columns.isEmpty() ? null : ImmutableList.copyOf(columns), response);
+        subscribedProjects.computeIfAbsent(project, k -> new AtomicInteger()).incrementAndGet();
+        subscriberCount.incrementAndGet();
+        return subscriber;
+    }
+
+    public int getSubscriberCount() {
+        return subscriberCount.get();
+    }
+
+    public long getPublishedEventCount() {
+        return sequence.get();
+    }
+
+    /**
+     * The number of the subscribers that are disconnected because they fell behind the buffer.
+     */
+    public long getSlowSubscriberCount() {
+        return slowSubscriberCount.get();
+    }
+
+    private static class Entry {
+        private final long position;
+        private final Event event;
+
+        private Entry(long position, Event event) {
+            this.position = position;
+            this.event = event;
+        }
+    }
+
+    private class Subscriber
+            implements EventStreamer {
+        private final String project;
+        private final Map<String, Predicate<GenericRecord>> filters;
+        private final List<String> columns;
+        private final StreamResponse response;
+        private final AtomicBoolean closed = new AtomicBoolean();
+        // only the events that are published after the subscription are sent
+        private long cursor = sequence.get();
+
+        private Subscriber(String project, Map<String, Predicate<GenericRecord>> filters, List<String> columns, StreamResponse response) {
+            this.project = project;
+            this.filters = filters;
+            this.columns = columns;
+            this.response = response;
+        }
+
+        @Override
+        public synchronized void sync() {
+            if (closed.get()) {
+                return;
+            }
+            if (response.isClosed()) {
+                shutdown();
+                return;
+            }
+
+            long head = sequence.get();
+            if (head - cursor > buffer.length()) {
+                disconnectSlow(head);
+                return;
+            }
+
+            boolean sent = false;
+            while (cursor < head) {
+                Entry entry = buffer.get((int) (cursor & mask));
+                if (entry == null || entry.position < cursor) {
+                    // the position is claimed but the event is not written yet
+                    break;
+                }
+                if (entry.position > cursor) {
+                    disconnectSlow(head);
+                    return;
+                }
+                cursor++;
+
+                Event event = entry.event;
+                if (!event.project().equals(project)) {
+                    continue;
+                }
+                Predicate<GenericRecord> filter = filters.get(event.collection());
+                if (filter == null || !filter.test(event.properties())) {
+                    continue;
+                }
+
+                response.send("event", toJson(event));
+                sent = true;
+                if (response.isClosed()) {
+                    // the response can't keep up with the events
+                    shutdown();
+                    return;
+                }
+            }
+
+            if (sent) {
+                response.flush();
+            }
+        }
+
+        private void disconnectSlow(long head) {
+            slowSubscriberCount.incrementAndGet();
+            LOGGER.warn("Disconnecting the subscriber of project %s, it's %d events behind", project, head - cursor);
+            response.send("error", "The subscriber is too slow, some of the events are missed");
+            shutdown();
+        }
+
+        @Override
+        public void shutdown() {
+            if (!closed.compareAndSet(false, true)) {
+                return;
+            }
+            subscriberCount.decrementAndGet();
+            subscribedProjects.computeIfPresent(project, (k, count) -> count.decrementAndGet() == 0 ? null : count);
+            if (!response.isClosed()) {
+                response.end();
+            }
+        }
+
+        private String toJson(Event event) {
+            GenericRecord properties = event.properties();
+            StringWriter writer = new StringWriter();
+            try (JsonGenerator generator = JSON_FACTORY.createGenerator(writer)) {
+                generator.writeStartObject();
+                generator.writeStringField("collection", event.collection());
+                generator.writeObjectFieldStart("properties");
+                if (columns == null) {
+                    for (Schema.Field field : properties.getSchema().getFields()) {
+                        generator.writeFieldName(field.name());
+                        writeValue(generator, properties.get(field.pos()));
+                    }
+                } else {
+                    for (String column : columns) {
+                        Schema.Field field = properties.getSchema().getField(column);
+                        generator.writeFieldName(column);
+                        writeValue(generator, field == null ? null : properties.get(field.pos()));
+                    }
+                }
+                generator.writeEndObject();
+                generator.writeEndObject();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return writer.toString();
+        }
+    }
+
+    private static void writeValue(JsonGenerator generator, Object value)
+            throws IOException {
+        if (value == null) {
+            generator.writeNull();
+        } else if (value instanceof CharSequence) {
+            generator.writeString(value.toString());
+        } else if (value instanceof Boolean) {
+            generator.writeBoolean((Boolean) value);
+        } else if (value instanceof Integer || value instanceof Long) {
+            generator.writeNumber(((Number) value).longValue());
+        } else if (value instanceof Number) {
+            generator.writeNumber(((Number) value).doubleValue());
+        } else if (value instanceof ByteBuffer) {
+            ByteBuffer bytes = ((ByteBuffer) value).duplicate();
+            byte[] array = new byte[bytes.remaining()];
+            bytes.get(array);
+            generator.writeBinary(array);
+        } else if (value instanceof Map) {
+            generator.writeStartObject();
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+                generator.writeFieldName(entry.getKey().toString());
+                writeValue(generator, entry.getValue());
+            }
+            generator.writeEndObject();
+        } else if (value instanceof Collection) {
+            generator.writeStartArray();
+            for (Object item : (Collection<?>) value) {
+                writeValue(generator, item);
+            }
+            generator.writeEndArray();
+        } else {
+            generator.writeString(value.toString());
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package org.rakam.plugin.stream;
+
+import io.airlift.log.Logger;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.http.DefaultHttpContent;
+import io.netty.handler.codec.http.DefaultHttpResponse;
+import io.netty.handler.codec.http.LastHttpContent;
+import org.rakam.http.CorsHeaders;
+import org.rakam.server.http.RakamHttpRequest;
+
+import static io.netty.handler.codec.http.HttpHeaders.Names.ACCESS_CONTROL_ALLOW_CREDENTIALS;
+import static io.netty.handler.codec.http.HttpHeaders.Names.CACHE_CONTROL;
+import static io.netty.handler.codec.http.HttpHeaders.Names.CONTENT_TYPE;
+import static io.netty.handler.codec.http.HttpHeaders.Names.TRANSFER_ENCODING;
+import static io.netty.handler.codec.http.HttpHeaders.Values.CHUNKED;
+import static io.netty.handler.codec.http.HttpHeaders.Values.NO_CACHE;
+import static io.netty.handler.codec.http.HttpResponseStatus.OK;
+import static io.netty.handler.codec.http.HttpVersion.HTTP_1_1;
+
+/**
+ * Sends the messages as server-sent events in a chunked response. The messages are written to the channel without
+ * waiting for the client, when the client doesn't read them and the outbound buffer of the channel exceeds its high
+ * water mark the response is ended so a slow client can't make the server buffer the stream.
+ */
+public class SseStreamResponse
+        implements StreamResponse {
+    private final static Logger LOGGER = Logger.get(SseStreamResponse.class);
+
+    private final RakamHttpRequest request;
+    private final ChannelHandlerContext context;
+    private volatile boolean closed;
+
+    public SseStreamResponse(RakamHttpRequest request) {
+        this.request = request;
+        this.context = request.context();
+    }
+
+    /**
+     * Sends the headers of the response, the messages can be sent after the response is started.
+     */
+    public void start() {
+        DefaultHttpResponse response = new DefaultHttpResponse(HTTP_1_1, OK);
+        response.headers().set(CONTENT_TYPE, "text/event-stream; charset=utf-8");
+        response.headers().set(CACHE_CONTROL, NO_CACHE);
+        response.headers().set(TRANSFER_ENCODING, CHUNKED);
+        response.headers().set(ACCESS_CONTROL_ALLOW_CREDENTIALS, "true");
+        CorsHeaders.setAllowOrigin(request, response.headers());
+        context.writeAndFlush(response);
+        context.channel().closeFuture().addListener(future -> closed = true);
+    }
+
+    @Override
+    public StreamResponse send(String event, String data) {
+        if (isClosed()) {
+            return this;
+        }
+        if (!context.channel().isWritable()) {
+            LOGGER.debug("Ending the event stream of %s, the client doesn't read the events", context.channel().remoteAddress());
+            end();
+            return this;
+        }
+
+        StringBuilder message = new StringBuilder(data.length() + event.length() + 16);
+        message.append("event: ").append(event).append('\n');
+        for (String line : data.split("\n", -1)) {
+            message.append("data: ").append(line).append('\n');
+        }
+        message.append('\n');
+        context.write(new DefaultHttpContent(ByteBufUtil.writeUtf8(context.alloc(), message)));
+        return this;
+    }
+
+    @Override
+    public StreamResponse flush() {
+        context.flush();
+        return this;
+    }
+
+    @Override
+    public boolean isClosed() {
+        return closed || !context.channel().isActive();
+    }
+
+    @Override
+    public void end() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        context.writeAndFlush(LastHttpContent.EMPTY_LAST_CONTENT).addListener(ChannelFutureListener.CLOSE);
+    }
+}
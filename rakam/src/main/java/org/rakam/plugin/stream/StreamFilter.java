@@ -0,0 +1,327 @@
+package org.rakam.plugin.stream;
+
+import com.facebook.presto.sql.parser.ParsingException;
+import com.facebook.presto.sql.parser.ParsingOptions;
+import com.facebook.presto.sql.parser.SqlParser;
+import com.facebook.presto.sql.tree.ArithmeticUnaryExpression;
+import com.facebook.presto.sql.tree.AstVisitor;
+import com.facebook.presto.sql.tree.BooleanLiteral;
+import com.facebook.presto.sql.tree.ComparisonExpression;
+import com.facebook.presto.sql.tree.ComparisonExpressionType;
+import com.facebook.presto.sql.tree.DecimalLiteral;
+import com.facebook.presto.sql.tree.DoubleLiteral;
+import com.facebook.presto.sql.tree.Expression;
+import com.facebook.presto.sql.tree.Identifier;
+import com.facebook.presto.sql.tree.InListExpression;
+import com.facebook.presto.sql.tree.InPredicate;
+import com.facebook.presto.sql.tree.IsNotNullPredicate;
+import com.facebook.presto.sql.tree.IsNullPredicate;
+import com.facebook.presto.sql.tree.LogicalBinaryExpression;
+import com.facebook.presto.sql.tree.LongLiteral;
+import com.facebook.presto.sql.tree.Node;
+import com.facebook.presto.sql.tree.NotExpression;
+import com.facebook.presto.sql.tree.NullLiteral;
+import com.facebook.presto.sql.tree.StringLiteral;
+import org.apache.avro.Schema;
+import org.apache.avro.generic.GenericRecord;
+
+import java.util.function.Predicate;
+
+import static com.facebook.presto.sql.parser.ParsingOptions.DecimalLiteralTreatment.AS_DOUBLE;
+
+/**
+ * Compiles the filter of a {@link CollectionStreamQuery} to a predicate once when the subscriber is registered so the
+ * events are not parsed or interpreted for each subscriber. The filters are boolean SQL expressions over the columns
+ * of the collection, they're parsed with the Presto parser and the supported subset of the expression tree is
+ * evaluated against the records:
+ * <pre>
+ * _platform = 'ios' AND (amount >= 10 OR coupon IS NOT NULL) AND country IN ('US', 'CA') AND NOT test
+ * </pre>
+ * The expressions are evaluated with the three-valued logic of SQL: the comparisons with a missing or NULL value or
+ * a value of another type are unknown, NOT of an unknown value is also unknown and the record matches the filter
+ * only if the result is true.
+ */
+public final class StreamFilter {
+    private static final Predicate<GenericRecord> ALL = record -> true;
+    private static final SqlParser SQL_PARSER = new SqlParser();
+    private static final ParsingOptions PARSING_OPTIONS = new ParsingOptions(AS_DOUBLE);
+
+    private StreamFilter()
+            throws InstantiationException {
+        throw new InstantiationException("The class is not created for instantiation");
+    }
+
+    /**
+     * @throws IllegalArgumentException if the expression is not valid
+     */
+    public static Predicate<GenericRecord> compile(String expression) {
+        if (expression == null || expression.trim().isEmpty()) {
+            return ALL;
+        }
+
+        Expression tree;
+        try {
+            tree = SQL_PARSER.createExpression(expression, PARSING_OPTIONS);
+        } catch (ParsingException e) {
+            throw new IllegalArgumentException(String.format("Invalid filter '%s': %s", expression, e.getErrorMessage()));
+        }
+
+        Condition condition;
+        try {
+            condition = new ConditionCompiler().process(tree, null);
+        } catch (UnsupportedOperationException e) {
+            throw new IllegalArgumentException(String.format("Invalid filter '%s': %s", expression, e.getMessage()));
+        }
+        return record -> Boolean.TRUE.equals(condition.evaluate(record));
+    }
+
+    /**
+     * Returns {@code null} if the result is unknown.
+     */
+    private interface Condition {
+        Boolean evaluate(GenericRecord record);
+    }
+
+    private static class ConditionCompiler
+            extends AstVisitor<Condition, Void> {
+        @Override
+        protected Condition visitNode(Node node, Void context) {
+            throw new UnsupportedOperationException(node + " is not supported");
+        }
+
+        @Override
+        protected Condition visitLogicalBinaryExpression(LogicalBinaryExpression node, Void context) {
+            Condition left = process(node.getLeft(), context);
+            Condition right = process(node.getRight(), context);
+            switch (node.getType()) {
+                case AND:
+                    return record -> {
+                        Boolean leftValue = left.evaluate(record);
+                        if (Boolean.FALSE.equals(leftValue)) {
+                            return false;
+                        }
+                        Boolean rightValue = right.evaluate(record);
+                        if (Boolean.FALSE.equals(rightValue)) {
+                            return false;
+                        }
+                        return leftValue == null || rightValue == null ? null : true;
+                    };
+                case OR:
+                    return record -> {
+                        Boolean leftValue = left.evaluate(record);
+                        if (Boolean.TRUE.equals(leftValue)) {
+                            return true;
+                        }
+                        Boolean rightValue = right.evaluate(record);
+                        if (Boolean.TRUE.equals(rightValue)) {
+                            return true;
+                        }
+                        return leftValue == null || rightValue == null ? null : false;
+                    };
+                default:
+                    throw new UnsupportedOperationException(node.getType() + " is not supported");
+            }
+        }
+
+        @Override
+        protected Condition visitNotExpression(NotExpression node, Void context) {
+            Condition value = process(node.getValue(), context);
+            return record -> {
+                Boolean result = value.evaluate(record);
+                return result == null ? null : !result;
+            };
+        }
+
+        @Override
+        protected Condition visitIsNullPredicate(IsNullPredicate node, Void context) {
+            ColumnReference column = column(node.getValue());
+            return record -> column.get(record) == null;
+        }
+
+        @Override
+        protected Condition visitIsNotNullPredicate(IsNotNullPredicate node, Void context) {
+            ColumnReference column = column(node.getValue());
+            return record -> column.get(record) != null;
+        }
+
+        @Override
+        protected Condition visitIdentifier(Identifier node, Void context) {
+            // a boolean column
+            ColumnReference column = column(node);
+            return record -> {
+                Object value = column.get(record);
+                return value instanceof Boolean ? (Boolean) value : null;
+            };
+        }
+
+        @Override
+        protected Condition visitBooleanLiteral(BooleanLiteral node, Void context) {
+            boolean value = node.getValue();
+            return record -> value;
+        }
+
+        @Override
+        protected Condition visitInPredicate(InPredicate node, Void context) {
+            ColumnReference column = column(node.getValue());
+            if (!(node.getValueList() instanceof InListExpression)) {
+                throw new UnsupportedOperationException("IN must have a list of values");
+            }
+            Object[] literals = ((InListExpression) node.getValueList()).getValues().stream()
+                    .map(StreamFilter::literal).toArray();
+            return record -> {
+                Object value = column.get(record);
+                if (value == null) {
+                    return null;
+                }
+                // x IN (a, b) is x = a OR x = b
+                boolean unknown = false;
+                for (Object literal : literals) {
+                    Integer result = compare(value, literal);
+                    if (result == null) {
+                        unknown = true;
+                    } else if (result == 0) {
+                        return true;
+                    }
+                }
+                return unknown ? null : false;
+            };
+        }
+
+        @Override
+        protected Condition visitComparisonExpression(ComparisonExpression node, Void context) {
+            ColumnReference column;
+            Object literal;
+            ComparisonExpressionType type;
+            if (node.getLeft() instanceof Identifier) {
+                column = column(node.getLeft());
+                literal = literal(node.getRight());
+                type = node.getType();
+            } else {
+                // 10 < amount
+                column = column(node.getRight());
+                literal = literal(node.getLeft());
+                type = node.getType().flip();
+            }
+            if (type == ComparisonExpressionType.IS_DISTINCT_FROM) {
+                throw new UnsupportedOperationException("IS DISTINCT FROM is not supported");
+            }
+
+            return record -> {
+                Integer result = compare(column.get(record), literal);
+                if (result == null) {
+                    return null;
+                }
+                switch (type) {
+                    case EQUAL:
+                        return result == 0;
+                    case NOT_EQUAL:
+                        return result != 0;
+                    case LESS_THAN:
+                        return result < 0;
+                    case LESS_THAN_OR_EQUAL:
+                        return result <= 0;
+                    case GREATER_THAN:
+                        return result > 0;
+                    case GREATER_THAN_OR_EQUAL:
+                        return result >= 0;
+                    default:
+                        throw new IllegalStateException();
+                }
+            };
+        }
+
+        private static ColumnReference column(Expression expression) {
+            if (!(expression instanceof Identifier)) {
+                throw new UnsupportedOperationException("Column is expected, got " + expression);
+            }
+            return new ColumnReference(((Identifier) expression).getValue());
+        }
+    }
+
+    private static Object literal(Expression expression) {
+        if (expression instanceof StringLiteral) {
+            return ((StringLiteral) expression).getValue();
+        }
+        if (expression instanceof LongLiteral) {
+            return ((LongLiteral) expression).getValue();
+        }
+        if (expression instanceof DoubleLiteral) {
+            return ((DoubleLiteral) expression).getValue();
+        }
+        if (expression instanceof DecimalLiteral) {
+            return Double.parseDouble(((DecimalLiteral) expression).getValue());
+        }
+        if (expression instanceof BooleanLiteral) {
+            return ((BooleanLiteral) expression).getValue();
+        }
+        if (expression instanceof NullLiteral) {
+            return null;
+        }
+        if (expression instanceof ArithmeticUnaryExpression) {
+            ArithmeticUnaryExpression unary = (ArithmeticUnaryExpression) expression;
+            Object value = literal(unary.getValue());
+            if (value instanceof Long && unary.getSign() == ArithmeticUnaryExpression.Sign.MINUS) {
+                return -(Long) value;
+            }
+            if (value instanceof Double && unary.getSign() == ArithmeticUnaryExpression.Sign.MINUS) {
+                return -(Double) value;
+            }
+            if (value instanceof Number) {
+                return value;
+            }
+        }
+        throw new UnsupportedOperationException("Value is expected, got " + expression);
+    }
+
+    /**
+     * Returns {@code null} if the values are not comparable, either of them is NULL or their types don't match.
+     */
+    private static Integer compare(Object value, Object literal) {
+        if (value instanceof Number && literal instanceof Number) {
+            if ((value instanceof Long || value instanceof Integer) && literal instanceof Long) {
+                return Long.compare(((Number) value).longValue(), (Long) literal);
+            }
+            return Double.compare(((Number) value).doubleValue(), ((Number) literal).doubleValue());
+        }
+        if (value instanceof Boolean && literal instanceof Boolean) {
+            return Boolean.compare((Boolean) value, (Boolean) literal);
+        }
+        if (value instanceof CharSequence && literal instanceof String) {
+            return value.toString().compareTo((String) literal);
+        }
+        return null;
+    }
+
+    /**
+     * Resolves the position of the column once for each schema of the collection.
+     */
+    private static class ColumnReference {
+        private final String name;
+        private volatile ResolvedColumn resolved;
+
+        private ColumnReference(String name) {
+            this.name = name;
+        }
+
+        private Object get(GenericRecord record) {
+            Schema schema = record.getSchema();
+            ResolvedColumn column = resolved;
+            if (column == null || column.schema != schema) {
+                Schema.Field field = schema.getField(name);
+                column = new ResolvedColumn(schema, field == null ? -1 : field.pos());
+                resolved = column;
+            }
+            return column.position == -1 ? null : record.get(column.position);
+        }
+    }
+
+    private static class ResolvedColumn {
+        private final Schema schema;
+        private final int position;
+
+        private ResolvedColumn(Schema schema, int position) {
+            this.schema = schema;
+            this.position = position;
+        }
+    }
+}
@@ -9,6 +9,7 @@ import org.rakam.analysis.RequestContext;
 import org.rakam.collection.EventCollectionHttpService;
 import org.rakam.collection.EventCollectionHttpService.HttpRequestParams;
 import org.rakam.collection.SchemaField;
+import org.rakam.http.CorsHeaders;
 import org.rakam.plugin.user.AbstractUserService.BatchUserOperationRequest;
 import org.rakam.plugin.user.AbstractUserService.BatchUserOperationRequest.BatchUserOperations;
 import org.rakam.plugin.user.AbstractUserService.SingleUserBatchOperationRequest;
@@ -261,7 +262,7 @@ public class UserHttpService
             String project = apiKeyService.getProjectOfApiKey(req.api.apiKey, WRITE_KEY);
 
             DefaultFullHttpResponse response = new DefaultFullHttpResponse(HTTP_1_1, OK, wrappedBuffer(OK_MESSAGE));
-            response.headers().set(ACCESS_CONTROL_ALLOW_ORIGIN, request.headers().get(ORIGIN));
+            CorsHeaders.setAllowOrigin(request, response.headers());
 
             List<Cookie> cookies = mapProperties(project, req, request);
             if (cookies != null) {
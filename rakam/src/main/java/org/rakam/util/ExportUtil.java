@@ -2,6 +2,16 @@ package org.rakam.util;
 
 import com.google.common.base.Throwables;
 import com.google.common.collect.Iterables;
+import com.google.common.collect.Iterators;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.http.DefaultHttpContent;
+import io.netty.handler.codec.http.DefaultHttpResponse;
+import io.netty.handler.codec.http.HttpHeaders;
+import io.netty.handler.codec.http.HttpResponse;
+import io.netty.handler.codec.http.LastHttpContent;
 import org.apache.avro.Schema;
 import org.apache.avro.generic.FilteredRecordWriter;
 import org.apache.avro.generic.GenericData;
@@ -13,21 +23,34 @@ import org.apache.commons.csv.CSVPrinter;
 import org.apache.commons.csv.QuoteMode;
 import org.rakam.collection.FieldType;
 import org.rakam.collection.SchemaField;
+import org.rakam.http.CorsHeaders;
 import org.rakam.report.QueryResult;
+import org.rakam.server.http.RakamHttpRequest;
 
 import javax.xml.bind.DatatypeConverter;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.PrintWriter;
+import java.nio.channels.ClosedChannelException;
 import java.time.Instant;
 import java.time.LocalDate;
 import java.time.LocalTime;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 import java.util.function.Function;
 import java.util.stream.Collectors;
 
+import static io.netty.handler.codec.http.HttpHeaders.Names.ACCESS_CONTROL_ALLOW_CREDENTIALS;
+import static io.netty.handler.codec.http.HttpHeaders.Names.CONTENT_TYPE;
+import static io.netty.handler.codec.http.HttpResponseStatus.OK;
+import static io.netty.handler.codec.http.HttpVersion.HTTP_1_1;
+
 public class ExportUtil {
+    private static final int CHUNK_SIZE = 64 * 1024;
+
     public static byte[] exportAsCSV(QueryResult result) {
         final ByteArrayOutputStream out = new ByteArrayOutputStream();
         final CSVPrinter csvPrinter;
@@ -36,15 +59,7 @@ public class ExportUtil {
             csvPrinter = new CSVPrinter(new PrintWriter(out), format);
             csvPrinter.printRecord(result.getMetadata().stream().map(SchemaField::getName)
                     .collect(Collectors.toList()));
-            csvPrinter.printRecords(Iterables.transform(result.getResult(), input -> Iterables.transform(input, input1 -> {
-                if (input1 instanceof List || input1 instanceof Map) {
-                    return JsonHelper.encode(input1);
-                }
-                if (input1 instanceof byte[]) {
-                    return DatatypeConverter.printBase64Binary((byte[]) input1);
-                }
-                return input1;
-            })));
+            csvPrinter.printRecords(Iterables.transform(result.getResult(), input -> Iterables.transform(input, ExportUtil::getCsvValue)));
             csvPrinter.flush();
         } catch (IOException e) {
             throw Throwables.propagate(e);
@@ -79,6 +94,75 @@ public class ExportUtil {
         return out.toByteArray();
     }
 
+    public static CompletableFuture<Void> streamAsCSV(RakamHttpRequest request, QueryResult result) {
+        return streamAsCSV(request.context(), createResponse(request, "text/csv"), result);
+    }
+
+    /**
+     * Writes the result as CSV to a chunked response while the rows are being encoded, see {@link ChunkedExport}.
+     */
+    public static CompletableFuture<Void> streamAsCSV(ChannelHandlerContext context, HttpResponse response, QueryResult result) {
+        StringBuilder line = new StringBuilder();
+        CSVPrinter csvPrinter;
+        try {
+            csvPrinter = new CSVPrinter(line, CSVFormat.DEFAULT.withQuoteMode(QuoteMode.NON_NUMERIC));
+        } catch (IOException e) {
+            throw Throwables.propagate(e);
+        }
+
+        List<Object> header = result.getMetadata().stream().map(SchemaField::getName).collect(Collectors.toList());
+        Iterator<List<Object>> rows = Iterators.concat(Iterators.singletonIterator(header), result.getResult().iterator());
+
+        return new ChunkedExport(context, rows, (row, out) -> {
+            csvPrinter.printRecord(Iterables.transform(row, ExportUtil::getCsvValue));
+            ByteBufUtil.writeUtf8(out, line);
+            line.setLength(0);
+        }).start(response);
+    }
+
+    public static CompletableFuture<Void> streamAsAvro(RakamHttpRequest request, QueryResult result) {
+        return streamAsAvro(request.context(), createResponse(request, "application/avro"), result);
+    }
+
+    /**
+     * Writes the result in the format of {@link #exportAsAvro(QueryResult)} to a chunked response while the rows are
+     * being encoded, see {@link ChunkedExport}.
+     */
+    public static CompletableFuture<Void> streamAsAvro(ChannelHandlerContext context, HttpResponse response, QueryResult result) {
+        List<SchemaField> metadata = result.getMetadata();
+        Schema avroSchema = AvroUtil.convertAvroSchema(metadata);
+        DatumWriter writer = new FilteredRecordWriter(avroSchema, GenericData.get());
+        ByteBufTarget target = new ByteBufTarget();
+        BinaryEncoder encoder = EncoderFactory.get().directBinaryEncoder(target, null);
+        GenericData.Record record = new GenericData.Record(avroSchema);
+
+        return new ChunkedExport(context, result.getResult().iterator(), (row, out) -> {
+            for (int i = 0; i < row.size(); i++) {
+                record.put(i, getAvroValue(row.get(i), metadata.get(i).getType()));
+            }
+            target.buffer = out;
+            writer.write(record, encoder);
+        }).start(response);
+    }
+
+    private static HttpResponse createResponse(RakamHttpRequest request, String contentType) {
+        DefaultHttpResponse response = new DefaultHttpResponse(HTTP_1_1, OK);
+        response.headers().set(CONTENT_TYPE, contentType);
+        response.headers().set(ACCESS_CONTROL_ALLOW_CREDENTIALS, "true");
+        CorsHeaders.setAllowOrigin(request, response.headers());
+        return response;
+    }
+
+    private static Object getCsvValue(Object value) {
+        if (value instanceof List || value instanceof Map) {
+            return JsonHelper.encode(value);
+        }
+        if (value instanceof byte[]) {
+            return DatatypeConverter.printBase64Binary((byte[]) value);
+        }
+        return value;
+    }
+
     private static Object getAvroValue(Object value, FieldType type) {
         if (value == null) {
             return null;
@@ -119,4 +203,96 @@ public class ExportUtil {
                 throw new IllegalStateException("unsupported type");
         }
     }
+
+    private interface RowWriter {
+        void write(List<Object> row, ByteBuf out)
+                throws IOException;
+    }
+
+    /**
+     * Encodes the rows into chunks of {@code CHUNK_SIZE} bytes and writes them to the channel while the channel is
+     * writable. When the outbound buffer of the channel exceeds its high water mark, the export continues after the
+     * chunks are written to the socket so the memory that is used by the export doesn't depend on the size of the
+     * result or the speed of the client.
+     */
+    private static class ChunkedExport {
+        private final ChannelHandlerContext context;
+        private final Iterator<List<Object>> rows;
+        private final RowWriter writer;
+        private final CompletableFuture<Void> future = new CompletableFuture<>();
+
+        private ChunkedExport(ChannelHandlerContext context, Iterator<List<Object>> rows, RowWriter writer) {
+            this.context = context;
+            this.rows = rows;
+            this.writer = writer;
+        }
+
+        private CompletableFuture<Void> start(HttpResponse response) {
+            HttpHeaders.setTransferEncodingChunked(response);
+            context.write(response);
+            writeChunks();
+            return future;
+        }
+
+        private void writeChunks() {
+            try {
+                while (rows.hasNext()) {
+                    if (!context.channel().isActive()) {
+                        future.completeExceptionally(new ClosedChannelException());
+                        return;
+                    }
+
+                    ByteBuf chunk = context.alloc().buffer(CHUNK_SIZE);
+                    try {
+                        while (rows.hasNext() && chunk.readableBytes() < CHUNK_SIZE) {
+                            writer.write(rows.next(), chunk);
+                        }
+                    } catch (Throwable e) {
+                        chunk.release();
+                        throw e;
+                    }
+
+                    ChannelFuture write = context.write(new DefaultHttpContent(chunk));
+                    if (!context.channel().isWritable()) {
+                        context.flush();
+                        write.addListener(result -> {
+                            if (result.isSuccess()) {
+                                writeChunks();
+                            } else {
+                                future.completeExceptionally(result.cause());
+                            }
+                        });
+                        return;
+                    }
+                }
+
+                context.writeAndFlush(LastHttpContent.EMPTY_LAST_CONTENT).addListener(result -> {
+                    if (result.isSuccess()) {
+                        future.complete(null);
+                    } else {
+                        future.completeExceptionally(result.cause());
+                    }
+                });
+            } catch (Throwable e) {
+                // the headers are already sent, closing the connection lets the client know that the result is incomplete
+                context.close();
+                future.completeExceptionally(e);
+            }
+        }
+    }
+
+    private static class ByteBufTarget
+            extends OutputStream {
+        private ByteBuf buffer;
+
+        @Override
+        public void write(int b) {
+            buffer.writeByte(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            buffer.writeBytes(b, off, len);
+        }
+    }
 }
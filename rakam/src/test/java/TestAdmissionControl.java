@@ -0,0 +1,112 @@
+import com.google.common.base.Ticker;
+import org.rakam.collection.AdmissionControlConfig;
+import org.rakam.collection.AdmissionController;
+import org.rakam.plugin.ProjectFairScheduler;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+public class TestAdmissionControl {
+    @Test
+    public void testProjectsTakeTurns()
+            throws Exception {
+        ProjectFairScheduler scheduler = new ProjectFairScheduler(1, 100, 100);
+        CountDownLatch release = new CountDownLatch(1);
+        CompletableFuture<Void> blocker = scheduler.submit("a", 1, () -> {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+            return null;
+        });
+
+        List<String> order = new ArrayList<>();
+        List<CompletableFuture<Void>> futures = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            String task = "a" + i;
+            futures.add(scheduler.submit("a", 100, () -> add(order, task)));
+        }
+        for (int i = 0; i < 2; i++) {
+            String task = "b" + i;
+            futures.add(scheduler.submit("b", 100, () -> add(order, task)));
+        }
+        release.countDown();
+        blocker.join();
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).join();
+
+        // the tasks of b don't wait for the ones of a that are queued before them
+        assertTrue(order.indexOf("b1") < 6, order.toString());
+    }
+
+    @Test
+    public void testOnlyTheBusyProjectIsRejected()
+            throws Exception {
+        ProjectFairScheduler scheduler = new ProjectFairScheduler(1, 100, 2);
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch started = new CountDownLatch(1);
+        scheduler.submit("a", 1, () -> {
+            started.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+            return null;
+        });
+        started.await();
+
+        scheduler.submit("a", 1, () -> null);
+        scheduler.submit("a", 1, () -> null);
+        assertTrue(scheduler.isSaturated("a"));
+        try {
+            scheduler.submit("a", 1, () -> null);
+            fail();
+        } catch (RejectedExecutionException e) {
+            // expected
+        }
+        scheduler.submit("b", 1, () -> null);
+        release.countDown();
+    }
+
+    @Test
+    public void testTokenBucket() {
+        AtomicLong nanos = new AtomicLong();
+        Ticker ticker = new Ticker() {
+            @Override
+            public long read() {
+                return nanos.get();
+            }
+        };
+        AdmissionController controller = new AdmissionController(new AdmissionControlConfig()
+                .setEventsPerSecond(10)
+                .setBurstEvents(10)
+                .setProjectWeights("b:2"), new ProjectFairScheduler(1, 100, 100), ticker);
+
+        assertEquals(controller.tryAcquire("a", 10), 0);
+        assertEquals(controller.getRetryAfterSeconds("a"), 1);
+        assertTrue(controller.tryAcquire("a", 1) > 0);
+        assertEquals(controller.tryAcquire("b", 20), 0);
+
+        nanos.addAndGet(SECONDS.toNanos(1));
+        assertEquals(controller.getRetryAfterSeconds("a"), 0);
+        assertEquals(controller.tryAcquire("a", 5), 0);
+    }
+
+    private static Void add(List<String> order, String task) {
+        synchronized (order) {
+            order.add(task);
+        }
+        return null;
+    }
+}
@@ -0,0 +1,77 @@
+import org.rakam.collection.BulkEventLoader;
+import org.rakam.collection.BulkLoadConfig;
+import org.rakam.collection.Event;
+import org.rakam.collection.EventList;
+import org.rakam.util.RakamException;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import static io.netty.handler.codec.http.HttpResponseStatus.INTERNAL_SERVER_ERROR;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+public class TestBulkEventLoader {
+    @Test
+    public void testChunks()
+            throws Exception {
+        List<EventList> chunks = new ArrayList<>();
+        BulkEventLoader loader = new BulkEventLoader(new BulkLoadConfig().setChunkSize(10), chunk -> {
+            chunks.add(chunk);
+            return CompletableFuture.completedFuture(null);
+        });
+        loader.setContext(Event.EventContext.apiKey("test"));
+
+        for (int i = 0; i < 25; i++) {
+            loader.accept(new Event("project", "collection", null, null, null));
+        }
+
+        assertEquals(chunks.size(), 2);
+        assertEquals(loader.finish(), 25);
+        assertEquals(chunks.size(), 3);
+        assertEquals(chunks.get(2).events.size(), 5);
+        assertEquals(chunks.get(0).api, Event.EventContext.apiKey("test"));
+        assertEquals(chunks.get(0).project, "project");
+    }
+
+    @Test
+    public void testPendingChunksAreBounded()
+            throws Exception {
+        List<CompletableFuture<Void>> futures = new ArrayList<>();
+        BulkEventLoader loader = new BulkEventLoader(new BulkLoadConfig().setChunkSize(1).setMaxPendingChunks(2), chunk -> {
+            CompletableFuture<Void> future = new CompletableFuture<>();
+            futures.add(future);
+            // the loader must wait for the oldest chunk before accepting more events
+            if (futures.size() == 2) {
+                futures.get(0).complete(null);
+            }
+            else if (futures.size() > 2) {
+                assertTrue(futures.get(futures.size() - 3).isDone());
+                futures.get(futures.size() - 2).complete(null);
+            }
+            return future;
+        });
+
+        for (int i = 0; i < 5; i++) {
+            loader.accept(new Event("project", "collection", null, null, null));
+        }
+        futures.get(futures.size() - 1).complete(null);
+
+        assertEquals(loader.finish(), 5);
+    }
+
+    @Test(expectedExceptions = RakamException.class)
+    public void testFailedChunk()
+            throws Exception {
+        BulkEventLoader loader = new BulkEventLoader(new BulkLoadConfig().setChunkSize(1), chunk -> {
+            CompletableFuture<Void> future = new CompletableFuture<>();
+            future.completeExceptionally(new RakamException(INTERNAL_SERVER_ERROR));
+            return future;
+        });
+
+        loader.accept(new Event("project", "collection", null, null, null));
+        loader.finish();
+    }
+}
@@ -0,0 +1,73 @@
+import com.google.common.collect.ImmutableMap;
+import io.airlift.units.Duration;
+import io.netty.handler.codec.http.DefaultFullHttpRequest;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpRequest;
+import org.rakam.collection.EventCollectionHttpService;
+import org.rakam.http.CorsHeaders;
+import org.rakam.http.HttpServerConfig;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.Test;
+
+import static io.netty.handler.codec.http.HttpHeaders.Names.ACCESS_CONTROL_ALLOW_CREDENTIALS;
+import static io.netty.handler.codec.http.HttpHeaders.Names.ACCESS_CONTROL_ALLOW_ORIGIN;
+import static io.netty.handler.codec.http.HttpHeaders.Names.ACCESS_CONTROL_MAX_AGE;
+import static io.netty.handler.codec.http.HttpHeaders.Names.ORIGIN;
+import static io.netty.handler.codec.http.HttpResponseStatus.FORBIDDEN;
+import static io.netty.handler.codec.http.HttpResponseStatus.OK;
+import static io.netty.handler.codec.http.HttpVersion.HTTP_1_1;
+import static java.util.concurrent.TimeUnit.MINUTES;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+
+public class TestCorsHeaders {
+    @AfterMethod
+    public void tearDown() {
+        CorsHeaders.configure(new HttpServerConfig());
+    }
+
+    @Test
+    public void testPreflight() {
+        CorsHeaders.configure(new HttpServerConfig().setCorsMaxAge(new Duration(10, MINUTES)));
+
+        FullHttpResponse response = CorsHeaders.preflight(request("http://example.com"));
+        assertEquals(response.getStatus(), OK);
+        assertEquals(response.headers().get(ACCESS_CONTROL_MAX_AGE), "600");
+        assertEquals(response.headers().get(ACCESS_CONTROL_ALLOW_ORIGIN), "http://example.com");
+        assertEquals(response.headers().get(ACCESS_CONTROL_ALLOW_CREDENTIALS), "true");
+
+        // the prebuilt headers are not modified by the responses
+        FullHttpResponse other = CorsHeaders.preflight(request(null));
+        assertNull(other.headers().get(ACCESS_CONTROL_ALLOW_ORIGIN));
+    }
+
+    @Test
+    public void testAllowedOrigins() {
+        CorsHeaders.configure(new HttpServerConfig().setCorsAllowedOrigins("https://a.com, https://b.com"));
+
+        assertEquals(CorsHeaders.preflight(request("https://b.com")).getStatus(), OK);
+        assertEquals(CorsHeaders.preflight(request("https://c.com")).getStatus(), FORBIDDEN);
+
+        FullHttpResponse response = CorsHeaders.preflight(request("https://a.com"));
+        CorsHeaders.setAllowOrigin(request("https://c.com"), response.headers());
+        assertEquals(response.headers().get(ACCESS_CONTROL_ALLOW_ORIGIN), "https://a.com");
+    }
+
+    @Test
+    public void testHeaderList() {
+        String headerList = EventCollectionHttpService.getHeaderList(ImmutableMap.of(
+                "Set-Cookie", "a", "X-Rakam-Test", "b", "Access-Control-Allow-Origin", "c").entrySet().iterator());
+        assertEquals(headerList, "cf-ray,server,status,x-rakam-test,access-control-allow-origin");
+        assertEquals(EventCollectionHttpService.getHeaderList(ImmutableMap.<String, String>of().entrySet().iterator()),
+                "cf-ray,server,status");
+    }
+
+    private static HttpRequest request(String origin) {
+        DefaultFullHttpRequest request = new DefaultFullHttpRequest(HTTP_1_1, HttpMethod.OPTIONS, "/event/collect");
+        if (origin != null) {
+            request.headers().set(ORIGIN, origin);
+        }
+        return request;
+    }
+}
@@ -0,0 +1,103 @@
+import com.google.common.base.Ticker;
+import io.airlift.units.DataSize;
+import io.airlift.units.Duration;
+import org.rakam.collection.DeduplicationConfig;
+import org.rakam.collection.Event.EventContext;
+import org.rakam.collection.EventDeduplicator;
+import org.testng.annotations.Test;
+
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static io.airlift.units.DataSize.Unit.KILOBYTE;
+import static io.airlift.units.DataSize.Unit.MEGABYTE;
+import static java.util.concurrent.TimeUnit.MINUTES;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+public class TestEventDeduplicator {
+    private static EventContext context(String uuid) {
+        return new EventContext("key", null, null, null, uuid, null);
+    }
+
+    @Test
+    public void testRetryIsDuplicate() {
+        EventDeduplicator deduplicator = new EventDeduplicator(new DeduplicationConfig().setEnabled(true));
+
+        assertFalse(deduplicator.isDuplicate("test", context("a")));
+        assertTrue(deduplicator.isDuplicate("test", context("a")));
+        assertFalse(deduplicator.isDuplicate("test", context("b")));
+        // the uuids are scoped to the project
+        assertFalse(deduplicator.isDuplicate("test2", context("a")));
+        // the requests without uuid are never dropped
+        assertFalse(deduplicator.isDuplicate("test", context(null)));
+        assertFalse(deduplicator.isDuplicate("test", context(null)));
+        assertEquals(deduplicator.getDuplicateCount(), 1);
+    }
+
+    @Test
+    public void testDisabledByDefault() {
+        EventDeduplicator deduplicator = new EventDeduplicator(new DeduplicationConfig());
+
+        assertFalse(deduplicator.isDuplicate("test", context("a")));
+        assertFalse(deduplicator.isDuplicate("test", context("a")));
+        assertEquals(deduplicator.getDuplicateCount(), 0);
+    }
+
+    @Test
+    public void testEntriesExpire() {
+        AtomicLong nanos = new AtomicLong();
+        Ticker ticker = new Ticker() {
+            @Override
+            public long read() {
+                return nanos.get();
+            }
+        };
+        EventDeduplicator deduplicator = new EventDeduplicator(new DeduplicationConfig().setEnabled(true)
+                .setWindow(new Duration(10, MINUTES)), ticker);
+
+        assertFalse(deduplicator.isDuplicate("test", context("a")));
+        nanos.addAndGet(TimeUnit.MINUTES.toNanos(9));
+        assertTrue(deduplicator.isDuplicate("test", context("a")));
+        nanos.addAndGet(TimeUnit.MINUTES.toNanos(2));
+        assertFalse(deduplicator.isDuplicate("test", context("a")));
+    }
+
+    @Test
+    public void testRemovedEntryIsAccepted() {
+        EventDeduplicator deduplicator = new EventDeduplicator(new DeduplicationConfig().setEnabled(true));
+
+        assertFalse(deduplicator.isDuplicate("test", context("a")));
+        deduplicator.remove("test", context("a"));
+        assertFalse(deduplicator.isDuplicate("test", context("a")));
+        assertTrue(deduplicator.isDuplicate("test", context("a")));
+    }
+
+    @Test
+    public void testNoFalsePositivesWhenFull() {
+        // 1024 slots for 100k unique uuids, the filter forgets the old entries instead of dropping the new ones
+        EventDeduplicator deduplicator = new EventDeduplicator(new DeduplicationConfig().setEnabled(true)
+                .setMaxMemory(new DataSize(8, KILOBYTE)));
+
+        for (int i = 0; i < 100000; i++) {
+            assertFalse(deduplicator.isDuplicate("test", context(UUID.randomUUID().toString())));
+        }
+        assertTrue(deduplicator.getEvictedCount() > 0);
+    }
+
+    @Test
+    public void testDuplicatesAreDetected() {
+        EventDeduplicator deduplicator = new EventDeduplicator(new DeduplicationConfig().setEnabled(true)
+                .setMaxMemory(new DataSize(8, MEGABYTE)));
+
+        for (int i = 0; i < 10000; i++) {
+            assertFalse(deduplicator.isDuplicate("test", context("uuid" + i)));
+        }
+        for (int i = 0; i < 10000; i++) {
+            assertTrue(deduplicator.isDuplicate("test", context("uuid" + i)));
+        }
+        assertEquals(deduplicator.getEvictedCount(), 0);
+    }
+}
@@ -1,8 +1,10 @@
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.cfg.ContextAttributes;
 import com.fasterxml.jackson.databind.module.SimpleModule;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.primitives.Bytes;
 import org.apache.avro.generic.GenericArray;
 import org.rakam.EventBuilder;
 import org.rakam.TestingConfigManager;
@@ -11,6 +13,7 @@ import org.rakam.analysis.InMemoryApiKeyService;
 import org.rakam.analysis.InMemoryEventStore;
 import org.rakam.analysis.InMemoryMetastore;
 import org.rakam.analysis.metadata.SchemaChecker;
+import org.rakam.analysis.metadata.SchemaEvolutionCoordinator;
 import org.rakam.collection.*;
 import org.rakam.config.ProjectConfig;
 import org.rakam.util.JsonHelper;
@@ -20,12 +23,18 @@ import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.BeforeSuite;
 import org.testng.annotations.Test;
 
+import javax.xml.bind.DatatypeConverter;
+import java.security.MessageDigest;
 import java.time.Instant;
 import java.time.LocalDate;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.function.Consumer;
 
+import static java.nio.charset.StandardCharsets.UTF_8;
 import static org.testng.Assert.*;
 
 public class TestEventJsonParser {
@@ -36,6 +45,7 @@ public class TestEventJsonParser {
     private JsonEventDeserializer eventDeserializer;
     private InMemoryApiKeyService apiKeyService;
     private InMemoryEventStore eventStore;
+    private InvalidSchemaSink invalidSchemaSink;
 
     @BeforeSuite
     public void setUp() {
@@ -44,8 +54,10 @@ public class TestEventJsonParser {
         metastore = new InMemoryMetastore(apiKeyService);
 
         eventStore = new InMemoryEventStore();
+        invalidSchemaSink = new InvalidSchemaSink(metastore, eventStore, new ProjectConfig(), fieldDependency, new InvalidSchemaConfig());
         SchemaChecker schemaChecker = new SchemaChecker(metastore, fieldDependency);
-        eventDeserializer = new JsonEventDeserializer(metastore, apiKeyService, new TestingConfigManager(), schemaChecker, new ProjectConfig(), eventStore, fieldDependency);
+        eventDeserializer = new JsonEventDeserializer(metastore, apiKeyService, new TestingConfigManager(), schemaChecker,
+                new SchemaEvolutionCoordinator(metastore), new ProjectConfig(), invalidSchemaSink, fieldDependency);
         EventListDeserializer eventListDeserializer = new EventListDeserializer(apiKeyService, eventDeserializer);
 
         mapper = JsonHelper.getMapper();
@@ -140,6 +152,24 @@ public class TestEventJsonParser {
                 new SchemaField("test4", FieldType.DATE)));
     }
 
+    @Test
+    public void testCachedFieldNameAlias()
+            throws Exception {
+        Event.EventContext api = Event.EventContext.apiKey(apiKeys.writeKey());
+        byte[] bytes = mapper.writeValueAsBytes(ImmutableMap.of(
+                "collection", "test",
+                "api", api,
+                "properties", ImmutableMap.of("testField", "test", "otherField", 1.0)));
+
+        // the second event is parsed with the aliases that are cached for the first one
+        for (int i = 0; i < 2; i++) {
+            Event event = mapper.readValue(bytes, Event.class);
+
+            assertEquals(event.getAttribute("test_field"), "test");
+            assertEquals(event.getAttribute("other_field"), 1.0);
+        }
+    }
+
     @Test
     public void testMapType()
             throws Exception {
@@ -399,6 +429,7 @@ public class TestEventJsonParser {
 
         Event events = mapper.readValue(bytes, Event.class);
         assertEquals(events.properties().get("test"), null);
+        invalidSchemaSink.flush();
         assertTrue(eventStore.getEvents().get(0).collection().equals("$invalid_schema"));
     }
 
@@ -436,6 +467,7 @@ public class TestEventJsonParser {
 
         Event event = mapper.readValue(bytes, Event.class);
         assertNull(event.getAttribute("test"));
+        invalidSchemaSink.flush();
         assertTrue(eventStore.getEvents().get(0).collection().equals("$invalid_schema"));
 
     }
@@ -459,4 +491,63 @@ public class TestEventJsonParser {
         Event event = mapper.readValue(bytes, Event.class);
         assertNull(event.properties().get("test"));
     }
+
+    @Test
+    public void testBatchChecksum()
+            throws Exception {
+        ImmutableMap<String, Object> props = ImmutableMap.of("test0", "test", "test2", false);
+        byte[] events = mapper.writeValueAsBytes(ImmutableList.of(
+                ImmutableMap.of("collection", "test", "properties", props),
+                ImmutableMap.of("collection", "test", "properties", props)));
+
+        MessageDigest md = MessageDigest.getInstance("MD5");
+        md.update(apiKeys.writeKey().getBytes(UTF_8));
+        md.update(events);
+        String checksum = DatatypeConverter.printHexBinary(md.digest());
+
+        byte[] body = batchBody(new Event.EventContext(apiKeys.writeKey(), null, null, null, null, checksum), events);
+        EventList eventList = mapper.readerFor(EventList.class).readValue(body);
+
+        assertEquals(eventList.project, "test");
+        assertEquals(eventList.events.size(), 2);
+        for (Event event : eventList.events) {
+            assertEquals(event.properties(), eventBuilder.createEvent("test", props).properties());
+        }
+    }
+
+    @Test(expectedExceptions = RakamException.class, expectedExceptionsMessageRegExp = "Checksum is invalid")
+    public void testInvalidChecksum()
+            throws Exception {
+        byte[] events = mapper.writeValueAsBytes(ImmutableList.of(
+                ImmutableMap.of("collection", "test", "properties", ImmutableMap.of("test0", "test"))));
+
+        byte[] body = batchBody(new Event.EventContext(apiKeys.writeKey(), null, null, null, null, "invalid"), events);
+        mapper.readerFor(EventList.class).readValue(body);
+    }
+
+    @Test
+    public void testInvalidChecksumDoesNotPassStreamedEvents()
+            throws Exception {
+        byte[] bytes = mapper.writeValueAsBytes(ImmutableMap.of(
+                "api", new Event.EventContext(apiKeys.writeKey(), null, null, null, null, "invalid"),
+                "events", ImmutableList.of(
+                        ImmutableMap.of("collection", "test", "properties", ImmutableMap.of("test0", "test")))));
+
+        List<Event> streamed = new ArrayList<>();
+        try {
+            mapper.readerFor(EventList.class)
+                    .with(ContextAttributes.getEmpty().withSharedAttribute("consumer", (Consumer<Event>) streamed::add))
+                    .readValue(bytes);
+            fail("the checksum is invalid");
+        } catch (RakamException e) {
+            assertEquals(e.getMessage(), "Checksum is invalid");
+        }
+        assertTrue(streamed.isEmpty());
+    }
+
+    private byte[] batchBody(Event.EventContext api, byte[] events)
+            throws Exception {
+        byte[] prefix = ("{\"api\":" + mapper.writeValueAsString(api) + ",\"events\":").getBytes(UTF_8);
+        return Bytes.concat(prefix, events, "}".getBytes(UTF_8));
+    }
 }
@@ -0,0 +1,126 @@
+import com.google.common.collect.ImmutableList;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.http.DefaultHttpResponse;
+import io.netty.handler.codec.http.HttpContent;
+import io.netty.handler.codec.http.HttpHeaders;
+import io.netty.handler.codec.http.HttpResponse;
+import io.netty.handler.codec.http.LastHttpContent;
+import org.rakam.collection.SchemaField;
+import org.rakam.report.QueryResult;
+import org.rakam.util.ExportUtil;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import static io.netty.handler.codec.http.HttpResponseStatus.OK;
+import static io.netty.handler.codec.http.HttpVersion.HTTP_1_1;
+import static org.rakam.collection.FieldType.DOUBLE;
+import static org.rakam.collection.FieldType.LONG;
+import static org.rakam.collection.FieldType.STRING;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+public class TestExportUtil {
+    private static final List<SchemaField> METADATA = ImmutableList.of(
+            new SchemaField("id", LONG),
+            new SchemaField("name", STRING),
+            new SchemaField("amount", DOUBLE));
+
+    @Test
+    public void testCSVStreamMatchesExport()
+            throws IOException {
+        QueryResult result = result(100);
+        EmbeddedChannel channel = new EmbeddedChannel(new ChannelInboundHandlerAdapter());
+
+        CompletableFuture<Void> future = ExportUtil.streamAsCSV(context(channel), response(), result);
+
+        assertTrue(future.isDone());
+        assertEquals(readResponse(channel), ExportUtil.exportAsCSV(result));
+    }
+
+    @Test
+    public void testAvroStreamMatchesExport()
+            throws IOException {
+        QueryResult result = result(100);
+        EmbeddedChannel channel = new EmbeddedChannel(new ChannelInboundHandlerAdapter());
+
+        CompletableFuture<Void> future = ExportUtil.streamAsAvro(context(channel), response(), result);
+
+        assertTrue(future.isDone());
+        assertEquals(readResponse(channel), ExportUtil.exportAsAvro(result));
+    }
+
+    @Test
+    public void testLargeResultIsWrittenInChunks()
+            throws IOException {
+        QueryResult result = result(50000);
+        EmbeddedChannel channel = new EmbeddedChannel(new ChannelInboundHandlerAdapter());
+
+        ExportUtil.streamAsCSV(context(channel), response(), result).join();
+
+        HttpResponse response = (HttpResponse) channel.readOutbound();
+        assertTrue(HttpHeaders.isTransferEncodingChunked(response));
+
+        int chunks = 0;
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Object message;
+        while ((message = channel.readOutbound()) != null) {
+            ByteBuf content = ((HttpContent) message).content();
+            assertTrue(content.readableBytes() < 128 * 1024);
+            content.readBytes(out, content.readableBytes());
+            content.release();
+            if (!(message instanceof LastHttpContent)) {
+                chunks++;
+            }
+        }
+        assertTrue(chunks > 1);
+        assertEquals(out.toByteArray(), ExportUtil.exportAsCSV(result));
+    }
+
+    @Test
+    public void testClosedChannel() {
+        EmbeddedChannel channel = new EmbeddedChannel(new ChannelInboundHandlerAdapter());
+        ChannelHandlerContext context = context(channel);
+        channel.close();
+
+        CompletableFuture<Void> future = ExportUtil.streamAsCSV(context, response(), result(10));
+
+        assertTrue(future.isCompletedExceptionally());
+    }
+
+    private static byte[] readResponse(EmbeddedChannel channel)
+            throws IOException {
+        assertTrue(channel.readOutbound() instanceof HttpResponse);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Object message;
+        while ((message = channel.readOutbound()) != null) {
+            ByteBuf content = ((HttpContent) message).content();
+            content.readBytes(out, content.readableBytes());
+            content.release();
+        }
+        return out.toByteArray();
+    }
+
+    private static ChannelHandlerContext context(EmbeddedChannel channel) {
+        return channel.pipeline().firstContext();
+    }
+
+    private static HttpResponse response() {
+        return new DefaultHttpResponse(HTTP_1_1, OK);
+    }
+
+    private static QueryResult result(int rowCount) {
+        List<List<Object>> rows = new ArrayList<>(rowCount);
+        for (int i = 0; i < rowCount; i++) {
+            rows.add(ImmutableList.of((long) i, "name, \"" + i + "\"", i * 1.5));
+        }
+        return new QueryResult(METADATA, rows);
+    }
+}
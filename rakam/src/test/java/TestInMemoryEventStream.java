@@ -0,0 +1,175 @@
+import com.google.common.collect.ImmutableList;
+import org.apache.avro.generic.GenericData;
+import org.apache.avro.generic.GenericRecord;
+import org.rakam.collection.Event;
+import org.rakam.collection.FieldType;
+import org.rakam.collection.SchemaField;
+import org.rakam.plugin.stream.CollectionStreamQuery;
+import org.rakam.plugin.stream.EventStream;
+import org.rakam.plugin.stream.EventStreamConfig;
+import org.rakam.plugin.stream.InMemoryEventStream;
+import org.rakam.plugin.stream.StreamFilter;
+import org.rakam.plugin.stream.StreamResponse;
+import org.rakam.util.AvroUtil;
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Predicate;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+public class TestInMemoryEventStream {
+    private static final List<SchemaField> FIELDS = ImmutableList.of(
+            new SchemaField("platform", FieldType.STRING),
+            new SchemaField("amount", FieldType.LONG),
+            new SchemaField("test", FieldType.BOOLEAN));
+
+    @Test
+    public void testFilter() {
+        Predicate<GenericRecord> filter = StreamFilter.compile("platform = 'ios' AND (amount >= 10 OR test) AND NOT platform IN ('web')");
+        assertTrue(filter.test(record("ios", 10L, false)));
+        assertTrue(filter.test(record("ios", 1L, true)));
+        assertFalse(filter.test(record("ios", 1L, false)));
+        assertFalse(filter.test(record("android", 10L, false)));
+
+        assertTrue(StreamFilter.compile("amount IS NULL").test(record("ios", null, false)));
+        assertFalse(StreamFilter.compile("amount > 1").test(record("ios", null, false)));
+        assertTrue(StreamFilter.compile("amount <> 1.5").test(record("ios", 2L, false)));
+        assertTrue(StreamFilter.compile("platform = 'it''s'").test(record("it's", 2L, false)));
+        assertTrue(StreamFilter.compile(null).test(record("ios", 1L, false)));
+        assertTrue(StreamFilter.compile("5 < amount AND amount > -1").test(record("ios", 6L, false)));
+        assertTrue(StreamFilter.compile("platform NOT IN ('web', 'android')").test(record("ios", 1L, false)));
+
+        for (String invalid : new String[] {"platform = ", "lower(platform) = 'ios'", "amount IS DISTINCT FROM 1"}) {
+            try {
+                StreamFilter.compile(invalid);
+                fail(invalid);
+            } catch (IllegalArgumentException e) {
+                // expected
+            }
+        }
+    }
+
+    @Test
+    public void testFilterUnknown() {
+        // the comparisons with a value of another type are unknown
+        assertFalse(StreamFilter.compile("amount > 'abc'").test(record("ios", 10L, false)));
+        assertFalse(StreamFilter.compile("amount <> 'abc'").test(record("ios", 10L, false)));
+        assertFalse(StreamFilter.compile("NOT (amount >= 'abc')").test(record("ios", 10L, false)));
+        assertFalse(StreamFilter.compile("platform = 1").test(record("1", 10L, false)));
+
+        // and so are the comparisons with NULL
+        assertFalse(StreamFilter.compile("amount = NULL").test(record("ios", null, false)));
+        assertFalse(StreamFilter.compile("NOT (amount > NULL)").test(record("ios", 10L, false)));
+        assertFalse(StreamFilter.compile("NOT (amount > 1)").test(record("ios", null, false)));
+        assertFalse(StreamFilter.compile("platform NOT IN ('web', NULL)").test(record("ios", 1L, false)));
+        assertTrue(StreamFilter.compile("platform IN ('ios', NULL)").test(record("ios", 1L, false)));
+
+        // unknown OR true is true, unknown AND false is false
+        assertTrue(StreamFilter.compile("amount > 'abc' OR test").test(record("ios", 10L, true)));
+        assertTrue(StreamFilter.compile("NOT (amount > 'abc' AND test)").test(record("ios", 10L, false)));
+        assertFalse(StreamFilter.compile("NOT (amount > 'abc' AND test)").test(record("ios", 10L, true)));
+    }
+
+    @Test
+    public void testSubscriberReceivesMatchingEvents() {
+        InMemoryEventStream stream = new InMemoryEventStream(new EventStreamConfig());
+        TestResponse response = new TestResponse();
+        EventStream.EventStreamer streamer = stream.subscribe("project",
+                ImmutableList.of(new CollectionStreamQuery("purchase", "amount > 5")), ImmutableList.of("amount"), response);
+
+        stream.publish(event("project", "purchase", 10L));
+        stream.publish(event("project", "purchase", 1L));
+        stream.publish(event("project", "pageview", 10L));
+        stream.publish(event("other", "purchase", 10L));
+        streamer.sync();
+
+        assertEquals(response.messages, ImmutableList.of("event:{\"collection\":\"purchase\",\"properties\":{\"amount\":10}}"));
+        assertEquals(response.flushes, 1);
+
+        stream.publish(ImmutableList.of(event("project", "purchase", 20L), event("project", "purchase", 30L)), new int[] {0});
+        streamer.sync();
+        assertEquals(response.messages.size(), 2);
+        assertTrue(response.messages.get(1).contains("30"));
+
+        streamer.shutdown();
+        assertTrue(response.closed);
+        assertEquals(stream.getSubscriberCount(), 0);
+
+        // the events of the projects without subscribers are not published
+        long published = stream.getPublishedEventCount();
+        stream.publish(event("project", "purchase", 10L));
+        assertEquals(stream.getPublishedEventCount(), published);
+    }
+
+    @Test
+    public void testSlowSubscriberIsDisconnected() {
+        InMemoryEventStream stream = new InMemoryEventStream(new EventStreamConfig().setBufferSize(1024));
+        TestResponse slow = new TestResponse();
+        EventStream.EventStreamer slowStreamer = stream.subscribe("project",
+                ImmutableList.of(new CollectionStreamQuery("purchase", null)), null, slow);
+        TestResponse fast = new TestResponse();
+        EventStream.EventStreamer fastStreamer = stream.subscribe("project",
+                ImmutableList.of(new CollectionStreamQuery("purchase", null)), null, fast);
+
+        for (int i = 0; i < 2000; i++) {
+            stream.publish(event("project", "purchase", (long) i));
+            if (i % 100 == 0) {
+                fastStreamer.sync();
+            }
+        }
+        fastStreamer.sync();
+        slowStreamer.sync();
+
+        assertEquals(fast.messages.size(), 2000);
+        assertFalse(fast.closed);
+        assertTrue(slow.closed);
+        assertTrue(slow.messages.get(slow.messages.size() - 1).startsWith("error:"));
+        assertEquals(stream.getSlowSubscriberCount(), 1);
+    }
+
+    private static Event event(String project, String collection, Long amount) {
+        return new Event(project, collection, null, FIELDS, record("ios", amount, false));
+    }
+
+    private static GenericRecord record(String platform, Long amount, boolean test) {
+        GenericData.Record record = new GenericData.Record(AvroUtil.convertAvroSchema(FIELDS));
+        record.put("platform", platform);
+        record.put("amount", amount);
+        record.put("test", test);
+        return record;
+    }
+
+    private static class TestResponse
+            implements StreamResponse {
+        private final List<String> messages = new ArrayList<>();
+        private int flushes;
+        private boolean closed;
+
+        @Override
+        public StreamResponse send(String event, String data) {
+            messages.add(event + ":" + data);
+            return this;
+        }
+
+        @Override
+        public StreamResponse flush() {
+            flushes++;
+            return this;
+        }
+
+        @Override
+        public boolean isClosed() {
+            return closed;
+        }
+
+        @Override
+        public void end() {
+            closed = true;
+        }
+    }
+}
@@ -0,0 +1,89 @@
+import org.rakam.collection.IngestionConfig;
+import org.rakam.collection.IngestionExecutor;
+import org.testng.annotations.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+public class TestIngestionExecutor {
+    @Test
+    public void testParseRejectsWhenSaturated()
+            throws Exception {
+        IngestionExecutor executor = new IngestionExecutor(new IngestionConfig()
+                .setParseThreads(1).setParseQueueSize(1));
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+
+        executor.parse(() -> {
+            started.countDown();
+            await(release);
+        });
+        assertTrue(started.await(10, SECONDS));
+        executor.parse(() -> {
+        });
+        assertEquals(executor.getParseStage().getQueueDepth(), 1);
+
+        try {
+            executor.parse(() -> {
+            });
+            fail();
+        } catch (RejectedExecutionException e) {
+            // expected
+        }
+        assertEquals(executor.getParseStage().getRejectedTasks(), 1);
+
+        release.countDown();
+        executor.shutdown();
+    }
+
+    @Test
+    public void testMapperRunsOnCallerWhenSaturated()
+            throws Exception {
+        IngestionExecutor executor = new IngestionExecutor(new IngestionConfig()
+                .setMapperThreads(1).setMapperQueueSize(1));
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+
+        CompletableFuture<Void> blocker = executor.map(() -> {
+            started.countDown();
+            await(release);
+            return CompletableFuture.completedFuture(null);
+        });
+        assertTrue(started.await(10, SECONDS));
+        CompletableFuture<String> queued = executor.map(() -> CompletableFuture.completedFuture("queued"));
+
+        Thread caller = Thread.currentThread();
+        CompletableFuture<Boolean> callerRuns = executor.map(() ->
+                CompletableFuture.completedFuture(Thread.currentThread() == caller));
+        assertTrue(callerRuns.get(10, SECONDS));
+        assertEquals(executor.getMapperStage().getCallerRunsTasks(), 1);
+
+        release.countDown();
+        blocker.get(10, SECONDS);
+        assertEquals(queued.get(10, SECONDS), "queued");
+        executor.shutdown();
+    }
+
+    @Test
+    public void testStoreRunsOffCallerThread()
+            throws Exception {
+        IngestionExecutor executor = new IngestionExecutor(new IngestionConfig());
+        String threadName = executor.store(() -> Thread.currentThread().getName()).get(10, SECONDS);
+        assertTrue(threadName.startsWith("ingestion-store-"));
+        executor.shutdown();
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
@@ -0,0 +1,69 @@
+import org.rakam.analysis.InMemoryApiKeyService;
+import org.rakam.analysis.InMemoryEventStore;
+import org.rakam.analysis.InMemoryMetastore;
+import org.rakam.collection.Event;
+import org.rakam.collection.FieldDependencyBuilder;
+import org.rakam.collection.InvalidSchemaConfig;
+import org.rakam.collection.InvalidSchemaSink;
+import org.rakam.collection.InvalidSchemaSink.InvalidValue;
+import org.rakam.config.ProjectConfig;
+import org.testng.annotations.Test;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.rakam.collection.FieldType.LONG;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+public class TestInvalidSchemaSink {
+    @Test
+    public void testBatchesArePerProject() {
+        InMemoryMetastore metastore = new InMemoryMetastore(new InMemoryApiKeyService());
+        metastore.createProject("test1");
+        metastore.createProject("test2");
+        AtomicInteger batches = new AtomicInteger();
+        InMemoryEventStore eventStore = new InMemoryEventStore() {
+            @Override
+            public int[] storeBatch(List<Event> events) {
+                batches.incrementAndGet();
+                assertEquals(events.stream().map(Event::project).distinct().count(), 1);
+                return super.storeBatch(events);
+            }
+        };
+
+        InvalidSchemaSink sink = new InvalidSchemaSink(metastore, eventStore, new ProjectConfig(),
+                new FieldDependencyBuilder().build(), new InvalidSchemaConfig().setBatchSize(10));
+        for (int i = 0; i < 15; i++) {
+            sink.offer(new InvalidValue("test" + (i % 2 + 1), "test", "test", LONG, "error", "value", "id" + i, null, null));
+        }
+        sink.flush();
+
+        assertEquals(eventStore.getEvents().size(), 15);
+        assertEquals(batches.get(), 4);
+        assertEquals(sink.getStoredCount(), 15);
+        assertTrue(eventStore.getEvents().stream().anyMatch(event -> "id0".equals(event.getAttribute("event_id"))));
+    }
+
+    @Test
+    public void testValuesAreDroppedWhenBufferIsFull() {
+        InMemoryMetastore metastore = new InMemoryMetastore(new InMemoryApiKeyService());
+        metastore.createProject("test");
+        InMemoryEventStore eventStore = new InMemoryEventStore();
+
+        InvalidSchemaSink sink = new InvalidSchemaSink(metastore, eventStore, new ProjectConfig(),
+                new FieldDependencyBuilder().build(), new InvalidSchemaConfig().setBufferSize(5));
+        for (int i = 0; i < 8; i++) {
+            sink.offer(new InvalidValue("test", "test", "test", LONG, "error", i, null, null, null));
+        }
+        assertEquals(sink.getDroppedCount(), 3);
+
+        sink.flush();
+        assertEquals(eventStore.getEvents().size(), 5);
+
+        sink.offer(new InvalidValue("test", "test", "test", LONG, "error", 8, null, null, null));
+        sink.flush();
+        assertEquals(eventStore.getEvents().size(), 6);
+        assertEquals(sink.getDroppedCount(), 3);
+    }
+}
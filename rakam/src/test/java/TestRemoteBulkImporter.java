@@ -0,0 +1,160 @@
+import com.google.common.io.ByteStreams;
+import com.sun.net.httpserver.HttpServer;
+import org.rakam.collection.BulkLoadConfig;
+import org.rakam.collection.RemoteBulkImporter;
+import org.rakam.collection.RemoteBulkImporter.FileState;
+import org.rakam.collection.RemoteBulkImporter.FileStatus;
+import org.rakam.collection.RemoteBulkImporter.ImportStatus;
+import org.rakam.util.RakamException;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPOutputStream;
+
+import static com.google.common.collect.ImmutableList.of;
+import static io.netty.handler.codec.http.HttpResponseStatus.CONFLICT;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+public class TestRemoteBulkImporter {
+    private Path directory;
+    private HttpServer server;
+    private RemoteBulkImporter importer;
+
+    @BeforeClass
+    public void setUp()
+            throws IOException {
+        directory = Files.createTempDirectory("rakam-bulk");
+        Files.createDirectories(directory.resolve("2017"));
+        Files.write(directory.resolve("2017/01.json"), "a\nb\n".getBytes(UTF_8));
+        try (OutputStream output = new GZIPOutputStream(Files.newOutputStream(directory.resolve("2017/02.json.gz")))) {
+            output.write("a\nb\nc\n".getBytes(UTF_8));
+        }
+        Files.write(directory.resolve("other.csv"), "a\n".getBytes(UTF_8));
+
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/events.json", exchange -> {
+            byte[] body = "a\nb\nc\nd\n".getBytes(UTF_8);
+            exchange.sendResponseHeaders(200, body.length);
+            exchange.getResponseBody().write(body);
+            exchange.close();
+        });
+        server.start();
+
+        importer = new RemoteBulkImporter(new BulkLoadConfig()
+                .setRemoteThreads(2)
+                .setRemoteLocalDirectory(directory.toString()));
+    }
+
+    @AfterClass
+    public void tearDown() {
+        server.stop(0);
+    }
+
+    @Test
+    public void testImportFilesInParallel()
+            throws Exception {
+        List<URL> sources = importer.resolveSources(of(httpUrl("/events.json")), "2017/*");
+        assertEquals(sources.size(), 3);
+
+        ImportStatus status = importer.getOrCreate("test", null, "test", sources);
+        importer.run(status, null, TestRemoteBulkImporter::countLines).get();
+
+        assertTrue(status.isDone());
+        assertFalse(status.isRunning());
+        assertEquals(status.getFiles().stream().mapToLong(FileStatus::getEvents).sum(), 9);
+        assertEquals(importer.getStatus("test", status.importId), status);
+    }
+
+    @Test
+    public void testResumeSkipsImportedFiles()
+            throws Exception {
+        List<URL> sources = importer.resolveSources(of(httpUrl("/events.json"), httpUrl("/missing.json")), null);
+        ImportStatus status = importer.getOrCreate("test", "resume", "test", sources);
+
+        AtomicInteger imported = new AtomicInteger();
+        importer.run(status, null, input -> {
+            imported.incrementAndGet();
+            return countLines(input);
+        }).get();
+        assertFalse(status.isDone());
+        assertEquals(status.getFiles().get(0).getState(), FileState.DONE);
+        assertEquals(status.getFiles().get(1).getState(), FileState.FAILED);
+
+        server.createContext("/missing.json", exchange -> {
+            byte[] body = "a\n".getBytes(UTF_8);
+            exchange.sendResponseHeaders(200, body.length);
+            exchange.getResponseBody().write(body);
+            exchange.close();
+        });
+
+        ImportStatus resumed = importer.getOrCreate("test", "resume", "test", sources);
+        importer.run(resumed, null, input -> {
+            imported.incrementAndGet();
+            return countLines(input);
+        }).get();
+        assertTrue(resumed.isDone());
+        assertEquals(imported.get(), 2);
+    }
+
+    @Test
+    public void testLocalFilesOutsideDirectory()
+            throws Exception {
+        try {
+            importer.resolveSources(of(Files.createTempFile("rakam", ".json").toUri().toURL()), null);
+            fail();
+        } catch (RakamException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testLocalFilesLinkedOutsideDirectory()
+            throws Exception {
+        Path link = directory.resolve("link.json");
+        Files.createSymbolicLink(link, Files.createTempFile("rakam", ".json"));
+        try {
+            importer.resolveSources(of(link.toUri().toURL()), null);
+            fail();
+        } catch (RakamException e) {
+            // expected
+        } finally {
+            Files.delete(link);
+        }
+    }
+
+    @Test
+    public void testResumeWithAnotherCollection()
+            throws Exception {
+        List<URL> sources = importer.resolveSources(of(httpUrl("/events.json")), null);
+        importer.getOrCreate("test", "another", "test", sources);
+        try {
+            importer.getOrCreate("test", "another", "test2", sources);
+            fail();
+        } catch (RakamException e) {
+            assertEquals(e.getStatusCode(), CONFLICT);
+        }
+    }
+
+    private URL httpUrl(String path)
+            throws IOException {
+        return new URL("http", "127.0.0.1", server.getAddress().getPort(), path);
+    }
+
+    private static long countLines(java.io.InputStream input)
+            throws IOException {
+        return new String(ByteStreams.toByteArray(input), UTF_8).split("\n").length;
+    }
+}
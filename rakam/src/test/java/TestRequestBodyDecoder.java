@@ -0,0 +1,93 @@
+import com.google.common.io.ByteStreams;
+import org.rakam.collection.RequestBodyDecoder;
+import org.rakam.plugin.EventStore.CompressionType;
+import org.rakam.util.RakamException;
+import org.testng.annotations.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+import static io.netty.handler.codec.http.HttpResponseStatus.REQUEST_ENTITY_TOO_LARGE;
+import static io.netty.handler.codec.http.HttpResponseStatus.UNSUPPORTED_MEDIA_TYPE;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.fail;
+
+public class TestRequestBodyDecoder {
+    private static final byte[] BODY = "{\"collection\": \"test\", \"properties\": {\"test\": 1}}".getBytes(UTF_8);
+
+    @Test
+    public void testGzip()
+            throws IOException {
+        byte[] compressed = compress(BODY, GZIPOutputStream::new);
+        assertEquals(read(RequestBodyDecoder.decode(new ByteArrayInputStream(compressed), "gzip", 1000)), BODY);
+        assertEquals(read(RequestBodyDecoder.decode(new ByteArrayInputStream(compressed), CompressionType.GZIP, 1000)), BODY);
+    }
+
+    @Test
+    public void testDeflate()
+            throws IOException {
+        byte[] zlib = compress(BODY, DeflaterOutputStream::new);
+        assertEquals(read(RequestBodyDecoder.decode(new ByteArrayInputStream(zlib), "deflate", 1000)), BODY);
+
+        byte[] raw = compress(BODY, out -> new DeflaterOutputStream(out, new Deflater(Deflater.DEFAULT_COMPRESSION, true)));
+        assertEquals(read(RequestBodyDecoder.decode(new ByteArrayInputStream(raw), "deflate", 1000)), BODY);
+    }
+
+    @Test
+    public void testIdentity()
+            throws IOException {
+        InputStream body = new ByteArrayInputStream(BODY);
+        assertSame(RequestBodyDecoder.decode(body, (String) null, 10), body);
+        assertSame(RequestBodyDecoder.decode(body, "identity", 10), body);
+    }
+
+    @Test
+    public void testDecompressedSizeLimit()
+            throws IOException {
+        byte[] bomb = compress(new byte[1024 * 1024], GZIPOutputStream::new);
+        try {
+            read(RequestBodyDecoder.decode(new ByteArrayInputStream(bomb), "gzip", 1000));
+            fail();
+        } catch (RakamException e) {
+            assertEquals(e.getStatusCode(), REQUEST_ENTITY_TOO_LARGE);
+        }
+    }
+
+    @Test
+    public void testUnsupportedEncoding()
+            throws IOException {
+        try {
+            RequestBodyDecoder.decode(new ByteArrayInputStream(BODY), "br", 1000);
+            fail();
+        } catch (RakamException e) {
+            assertEquals(e.getStatusCode(), UNSUPPORTED_MEDIA_TYPE);
+        }
+    }
+
+    private static byte[] read(InputStream input)
+            throws IOException {
+        return ByteStreams.toByteArray(input);
+    }
+
+    private static byte[] compress(byte[] data, CompressorFactory factory)
+            throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        try (OutputStream compressor = factory.create(output)) {
+            compressor.write(data);
+        }
+        return output.toByteArray();
+    }
+
+    private interface CompressorFactory {
+        OutputStream create(OutputStream output)
+                throws IOException;
+    }
+}
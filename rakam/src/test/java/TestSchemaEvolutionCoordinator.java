@@ -0,0 +1,118 @@
+import com.google.common.collect.ImmutableSet;
+import org.rakam.analysis.InMemoryApiKeyService;
+import org.rakam.analysis.InMemoryMetastore;
+import org.rakam.analysis.metadata.SchemaEvolutionCoordinator;
+import org.rakam.collection.SchemaField;
+import org.rakam.util.NotExistsException;
+import org.testng.annotations.Test;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.rakam.collection.FieldType.LONG;
+import static org.rakam.collection.FieldType.STRING;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+
+public class TestSchemaEvolutionCoordinator {
+    @Test
+    public void testConcurrentChangesAreCoalesced()
+            throws Exception {
+        CountDownLatch firstChangeStarted = new CountDownLatch(1);
+        CountDownLatch releaseFirstChange = new CountDownLatch(1);
+        AtomicInteger calls = new AtomicInteger();
+
+        InMemoryMetastore metastore = new InMemoryMetastore(new InMemoryApiKeyService()) {
+            @Override
+            public List<SchemaField> getOrCreateCollectionFields(String project, String collection, Set<SchemaField> fields)
+                    throws NotExistsException {
+                if (calls.incrementAndGet() == 1) {
+                    firstChangeStarted.countDown();
+                    try {
+                        releaseFirstChange.await();
+                    } catch (InterruptedException e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+                return super.getOrCreateCollectionFields(project, collection, fields);
+            }
+        };
+        metastore.createProject("test");
+        SchemaEvolutionCoordinator coordinator = new SchemaEvolutionCoordinator(metastore);
+
+        // the changes are submitted synchronously, only the metastore calls run in the background
+        CompletableFuture<List<SchemaField>> first = coordinator.getOrCreateCollectionFieldsAsync("test", "test",
+                ImmutableSet.of(new SchemaField("a", STRING)));
+        firstChangeStarted.await();
+
+        // these requests wait for the first change and then share a single change
+        CompletableFuture<List<SchemaField>> second = coordinator.getOrCreateCollectionFieldsAsync("test", "test",
+                ImmutableSet.of(new SchemaField("b", STRING)));
+        CompletableFuture<List<SchemaField>> third = coordinator.getOrCreateCollectionFieldsAsync("test", "test",
+                ImmutableSet.of(new SchemaField("c", LONG)));
+        assertEquals(coordinator.getInFlightCollectionCount(), 1);
+        releaseFirstChange.countDown();
+
+        assertEquals(first.get().size(), 1);
+        assertEquals(ImmutableSet.copyOf(second.get()), ImmutableSet.of(
+                new SchemaField("a", STRING),
+                new SchemaField("b", STRING),
+                new SchemaField("c", LONG)));
+        assertSame(second.get(), third.get());
+        assertEquals(calls.get(), 2);
+        // the state of the collection is removed before the requests are notified
+        assertEquals(coordinator.getInFlightCollectionCount(), 0);
+    }
+
+    @Test
+    public void testCoveredFieldsShareTheInFlightChange()
+            throws Exception {
+        CountDownLatch firstChangeStarted = new CountDownLatch(1);
+        CountDownLatch releaseFirstChange = new CountDownLatch(1);
+        AtomicInteger calls = new AtomicInteger();
+
+        InMemoryMetastore metastore = new InMemoryMetastore(new InMemoryApiKeyService()) {
+            @Override
+            public List<SchemaField> getOrCreateCollectionFields(String project, String collection, Set<SchemaField> fields)
+                    throws NotExistsException {
+                calls.incrementAndGet();
+                firstChangeStarted.countDown();
+                try {
+                    releaseFirstChange.await();
+                } catch (InterruptedException e) {
+                    throw new RuntimeException(e);
+                }
+                return super.getOrCreateCollectionFields(project, collection, fields);
+            }
+        };
+        metastore.createProject("test");
+        SchemaEvolutionCoordinator coordinator = new SchemaEvolutionCoordinator(metastore);
+
+        Set<SchemaField> fields = ImmutableSet.of(new SchemaField("a", STRING));
+        CompletableFuture<List<SchemaField>> first = coordinator.getOrCreateCollectionFieldsAsync("test", "test", fields);
+        firstChangeStarted.await();
+        CompletableFuture<List<SchemaField>> second = coordinator.getOrCreateCollectionFieldsAsync("test", "test", fields);
+        releaseFirstChange.countDown();
+
+        assertSame(first.get(), second.get());
+        assertTrue(first.get().contains(new SchemaField("a", STRING)));
+        assertEquals(calls.get(), 1);
+        assertEquals(coordinator.getInFlightCollectionCount(), 0);
+    }
+
+    @Test
+    public void testBlockingRequest()
+            throws Exception {
+        InMemoryMetastore metastore = new InMemoryMetastore(new InMemoryApiKeyService());
+        metastore.createProject("test");
+        SchemaEvolutionCoordinator coordinator = new SchemaEvolutionCoordinator(metastore);
+
+        List<SchemaField> fields = coordinator.getOrCreateCollectionFields("test", "test", ImmutableSet.of(new SchemaField("a", STRING)));
+        assertTrue(fields.contains(new SchemaField("a", STRING)));
+        assertEquals(coordinator.getInFlightCollectionCount(), 0);
+    }
+}